@@ -1,5 +1,6 @@
 package common;
 
+import model.CombatReport;
 import model.IPoint;
 import model.ITileFixture;
 import model.TileType;
@@ -60,4 +61,10 @@ public interface MapUpdateListener {
 	 * @param player the number of the player whose turn it is.
 	 */
 	void endTurn(int player);
+	/**
+	 * Handle the outcome of a turn's combat. Units reported Dead should be
+	 * removed; there is no separate fixtureRemoved() for them.
+	 * @param report the HP and health tier of every unit attacked
+	 */
+	void combatResolved(CombatReport report);
 }
@@ -0,0 +1,151 @@
+package common;
+
+/**
+ * A small, fast, splittable pseudo-random number generator (the SplitMix64
+ * algorithm, as used by Java 8's SplittableRandom). split() hands out a new
+ * generator whose stream is statistically independent of this one's, so work
+ * can be divided among threads, each with its own generator, and still give
+ * the same results however it is scheduled, given the same seed.
+ *
+ * Instances are not thread-safe; split off one per thread or task instead of
+ * sharing them.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class SplitRandom {
+	/**
+	 * The default gamma: the odd integer closest to 2^64 divided by the golden
+	 * ratio.
+	 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	/**
+	 * The current state, advanced by gamma on every draw.
+	 */
+	private long seed;
+	/**
+	 * The step between states; always odd.
+	 */
+	private final long gamma;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param initialSeed the seed
+	 */
+	public SplitRandom(final long initialSeed) {
+		this(initialSeed, GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @param initialSeed the seed
+	 * @param step the gamma, which must be odd
+	 */
+	private SplitRandom(final long initialSeed, final long step) {
+		seed = initialSeed;
+		gamma = step;
+	}
+
+	/**
+	 * @return a new generator, independent of this one, whose seed and gamma
+	 *         are drawn from this one
+	 */
+	public SplitRandom split() {
+		return new SplitRandom(nextLong(), mixGamma(nextSeed()));
+	}
+
+	/**
+	 * Restart this generator's stream as if it had been constructed with the
+	 * given seed, so a long-lived instance can stand in for a series of
+	 * short-lived ones.
+	 *
+	 * @param newSeed the seed
+	 */
+	public void reseed(final long newSeed) {
+		seed = newSeed;
+	}
+
+	/**
+	 * @return a pseudo-random long
+	 */
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	/**
+	 * @return a pseudo-random int
+	 */
+	public int nextInt() {
+		return mix32(nextSeed());
+	}
+
+	/**
+	 * @return a pseudo-random double, at least zero and less than one
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param bound the upper bound (exclusive); must be positive
+	 * @return a pseudo-random int at least zero and less than the bound
+	 */
+	public int nextInt(final int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("Bound must be positive");
+		}
+		int retval = mix32(nextSeed());
+		final int mask = bound - 1;
+		if ((bound & mask) == 0) {
+			return retval & mask;
+		}
+		// Reject the values that would make the result biased.
+		for (int unsigned = retval >>> 1; unsigned + mask - (retval = unsigned
+				% bound) < 0; unsigned = mix32(nextSeed()) >>> 1) {
+			// Try again
+		}
+		return retval;
+	}
+
+	/**
+	 * @return the next state
+	 */
+	private long nextSeed() {
+		seed += gamma;
+		return seed;
+	}
+
+	/**
+	 * @param state a state
+	 * @return it thoroughly mixed, as a long
+	 */
+	private static long mix64(final long state) {
+		long z = (state ^ (state >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @param state a state
+	 * @return it thoroughly mixed, as an int
+	 */
+	private static int mix32(final long state) {
+		final long z = (state ^ (state >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+
+	/**
+	 * @param state a state
+	 * @return a gamma derived from it: odd, and with enough bit transitions
+	 *         to give a good stream
+	 */
+	private static long mixGamma(final long state) {
+		long z = (state ^ (state >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		if (Long.bitCount(z ^ (z >>> 1)) < 24) {
+			return z ^ 0xaaaaaaaaaaaaaaaaL;
+		} else {
+			return z;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import model.CombatReport;
+import model.IMap;
+import model.IPoint;
+import model.ITileFixture;
+import model.SimpleUnit;
+import model.TileType;
+
+import protocol.ClientFixtureMessage.FixtureType;
+
+import common.MapUpdateListener;
+import common.SplitRandom;
+
+/**
+ * A computer player. Once it has joined a server's game, it plays its turns
+ * itself, on a thread of its own, when they come: it builds a SimState from
+ * its own view of the map, which shows it no more of its opponents than a
+ * human player sees, and repeatedly searches it (see MonteCarloSearch) for
+ * the best order, gives that order to the server, and applies it to the
+ * simulation, until the best order is to end the turn. Orders the server
+ * refuses are given up on. It reads the map and gives its orders while
+ * holding the lock on the server, as ServerAPIAdapter does for other players'
+ * orders, and a turn it fails to play is logged and ended rather than left
+ * hanging. Its units are recruited, like a human player's, with recruit().
+ *
+ * @author Jonathan Lovelace
+ */
+public final class AIPlayer implements MapUpdateListener {
+	/**
+	 * Where to report turns we fail to play.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(AIPlayer.class
+			.getName());
+	/**
+	 * The server.
+	 */
+	private final TPServer server;
+	/**
+	 * The player we play as.
+	 */
+	private final int player;
+	/**
+	 * How long to search for each order, in nanoseconds.
+	 */
+	private final long budget;
+	/**
+	 * The search.
+	 */
+	private final MonteCarloSearch search;
+	/**
+	 * The source of the dice for the simulation. Only used if an order ends the
+	 * turn, which the real game ends instead, so this matters little.
+	 */
+	private final SplitRandom random;
+
+	/**
+	 * Constructor. The AI doesn't play until join() is called.
+	 *
+	 * @param serv the server
+	 * @param playr the player to play as
+	 * @param budgetMillis how long to think about each order, in milliseconds
+	 * @param seed the seed for the AI's randomness
+	 */
+	public AIPlayer(final TPServer serv, final int playr,
+			final long budgetMillis, final long seed) {
+		server = serv;
+		player = playr;
+		budget = budgetMillis * 1000000L;
+		random = new SplitRandom(seed);
+		search = new MonteCarloSearch(random.nextLong());
+	}
+
+	/**
+	 * Join the game: listen to the server and add our player to it. If we are
+	 * the first player, our first turn comes when a second player joins.
+	 * Throws IllegalArgumentException if our player is already in the game.
+	 */
+	public void join() {
+		synchronized (server) {
+			server.addMapUpdateListener(this);
+			try {
+				server.addPlayer(player);
+			} catch (final IllegalArgumentException except) {
+				server.removeMapUpdateListener(this);
+				throw except;
+			}
+		}
+	}
+
+	/**
+	 * Recruit an army, alternating swordsmen and archers, on the open tiles
+	 * farthest from the map's origin, where human players are least likely
+	 * to have put theirs. Like adding any fixture, this must be done in our
+	 * turn, such as right after joining a game no one else has yet; throws
+	 * IllegalArgumentException if it isn't.
+	 *
+	 * @param count how many units to recruit; fewer are if there isn't room
+	 */
+	public void recruit(final int count) {
+		synchronized (server) {
+			final IMap map = server.getSnapshot();
+			final List<IPoint> open = new ArrayList<>();
+			for (final IPoint point : map) {
+				if (map.getTerrain(point).getMovementCost() > 0
+						&& map.getContents(point) == null) {
+					open.add(point);
+				}
+			}
+			Collections.sort(open, new Comparator<IPoint>() {
+				@Override
+				public int compare(final IPoint one, final IPoint two) {
+					return Integer.compare(
+							two.getRow() + two.getColumn(),
+							one.getRow() + one.getColumn());
+				}
+			});
+			final IDFactory ids = server.getIDFactory();
+			for (int i = 0; i < count && i < open.size(); i++) {
+				final int id = ids.createID();
+				final SimpleUnit unit = ServerAPIAdapter.createUnit(
+						server.getUnits(), id, player,
+						i % 2 == 0 ? FixtureType.Swordsman : FixtureType.Archer);
+				assert unit != null;
+				try {
+					server.addFixture(player, open.get(i), unit);
+				} catch (final IllegalArgumentException except) {
+					server.getUnits().release(unit.getSlot());
+					ids.release(id);
+					throw except;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Play a turn: give orders until the search says to stop, then end the
+	 * turn. The turn is ended even if planning it fails.
+	 */
+	public void playTurn() {
+		try {
+			final SimState state;
+			synchronized (server) {
+				DamageTables.TABLES.prepare(server.getUnits());
+				state = SimState.of(server.getPlayerMap(player),
+						server.getPlayerOrder());
+			}
+			// Each unit can move once and attack once per turn in the
+			// simulation.
+			final int limit = state.getUnitCount() * 2;
+			for (int i = 0; i < limit; i++) {
+				final int action = search.search(state, budget);
+				if (action == SimState.END_TURN) {
+					break;
+				} else if (execute(state, action)) {
+					state.apply(action, random);
+				} else {
+					state.forfeit(action);
+				}
+			}
+		} finally {
+			synchronized (server) {
+				server.endTurn(player);
+			}
+		}
+	}
+
+	/**
+	 * Give an order to the server.
+	 *
+	 * @param state the simulation
+	 * @param action the order, in the simulation's encoding
+	 * @return whether the server accepted it
+	 */
+	private boolean execute(final SimState state, final int action) {
+		final int unit = SimState.actorOf(action);
+		final int id = state.getID(unit);
+		final IPoint source = state.getPoint(unit);
+		final IPoint target = state.getTarget(action);
+		try {
+			synchronized (server) {
+				return order(action, id, source, target);
+			}
+		} catch (final IllegalArgumentException except) {
+			return false;
+		}
+	}
+
+	/**
+	 * Give an order to the server. The caller must hold the lock on it.
+	 *
+	 * @param action the order, in the simulation's encoding
+	 * @param id the ID # of the unit ordered
+	 * @param source where it is
+	 * @param target where it is to move, or the unit it is to attack
+	 * @return whether the order was one we can give
+	 */
+	private boolean order(final int action, final int id, final IPoint source,
+			final IPoint target) {
+		switch (SimState.kindOf(action)) {
+		case SimState.MOVE:
+			server.moveUnit(player, id, source, target);
+			return true;
+		case SimState.MELEE:
+			server.attack(player, id, source, target, false);
+			return true;
+		case SimState.RANGED:
+			server.attack(player, id, source, target, true);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Stop the AI's search threads. It must not be used afterwards.
+	 */
+	public void shutdown() {
+		search.shutdown();
+	}
+
+	/**
+	 * @return the player we play as
+	 */
+	@Override
+	public int getPlayer() {
+		return player;
+	}
+
+	/**
+	 * We read the map when our turn comes.
+	 *
+	 * @param point ignored
+	 * @param type ignored
+	 */
+	@Override
+	public void terrainChanged(final IPoint point, final TileType type) {
+		// Do nothing
+	}
+
+	/**
+	 * We read the map when our turn comes.
+	 *
+	 * @param point ignored
+	 * @param fix ignored
+	 */
+	@Override
+	public void fixtureAdded(final IPoint point, final ITileFixture fix) {
+		// Do nothing
+	}
+
+	/**
+	 * We read the map when our turn comes.
+	 *
+	 * @param point ignored
+	 * @param fix ignored
+	 */
+	@Override
+	public void fixtureRemoved(final IPoint point, final ITileFixture fix) {
+		// Do nothing
+	}
+
+	/**
+	 * We read the map when our turn comes.
+	 *
+	 * @param source ignored
+	 * @param dest ignored
+	 * @param fix ignored
+	 */
+	@Override
+	public void fixtureMoved(final IPoint source, final IPoint dest,
+			final ITileFixture fix) {
+		// Do nothing
+	}
+
+	/**
+	 * If it's our turn, and we have an opponent, play it, on a thread of our
+	 * own so the server can finish notifying its other listeners first. If
+	 * that fails, the error is logged, since there is no one on that thread to
+	 * pass it to.
+	 *
+	 * @param playr whose turn it is
+	 */
+	@Override
+	public void endTurn(final int playr) {
+		if (playr == player && server.getPlayerOrder().length > 1) {
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						playTurn();
+					} catch (final RuntimeException except) {
+						LOGGER.log(Level.SEVERE, "AI player " + player
+								+ " failed to play its turn", except);
+					}
+				}
+			}, "AI player " + player);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * We read the map when our turn comes.
+	 *
+	 * @param report ignored
+	 */
+	@Override
+	public void combatResolved(final CombatReport report) {
+		// Do nothing
+	}
+}
@@ -83,7 +83,7 @@ public class ClientFromServerReader extends Thread {
 			System.out.println("Opposing unit");
 		} else if (message instanceof OwnUnitMessage) {
 			client.addOwnUnit(((OwnUnitMessage) message).getPoint(),
-					((OwnUnitMessage) message).getUnit());
+					((OwnUnitMessage) message).getUnit(client.getUnits()));
 			System.out.println("Own unit");
 		} else if (message instanceof AcknowledgedMessage) {
 			client.setPlayerNumber();
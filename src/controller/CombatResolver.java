@@ -0,0 +1,327 @@
+package controller;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.CombatReport;
+import model.IMutableMap;
+import model.IPoint;
+import model.UnitStore;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import common.SplitRandom;
+
+/**
+ * Resolves a turn's attacks in one batch. Attacks are queued, by the slots of
+ * the attacker and defender in the game's UnitStore, as they are ordered; at
+ * the end of the turn they are resolved together, and the outcome reported in
+ * one CombatReport.
+ *
+ * Since units may move, and terrain change, between an attack being ordered
+ * and the turn ending, each attack is checked again as it is resolved: one
+ * whose attacker or defender is no longer in the map, or that the caller's
+ * AttackCheck no longer allows, is dropped rather than rolled.
+ *
+ * Resolution is simultaneous: every attack's damage is rolled from the
+ * attacker's dice as they stand at the start of the resolution, so a unit
+ * killed this turn still gets its own attacks in. Each attack's dice come
+ * from its own stream, seeded in queue order from a generator split off the
+ * game's for the turn, so the outcome depends only on the game's seed and the order the attacks were
+ * queued in, not on how many threads rolled them. Large batches (such as AI
+ * simulations) are rolled in parallel; small ones aren't worth the overhead.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CombatResolver {
+	/**
+	 * The number of attacks below which rolling is not split between threads.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+	/**
+	 * The statistics of the units in the game.
+	 */
+	private final UnitStore units;
+	/**
+	 * The game's generator, from which each turn's generator is split.
+	 */
+	private final SplitRandom random;
+	/**
+	 * The slot of the attacker in each queued attack.
+	 */
+	private int[] attackers = new int[16];
+	/**
+	 * The slot of the defender in each queued attack.
+	 */
+	private int[] defenders = new int[16];
+	/**
+	 * Whether each queued attack is a ranged attack.
+	 */
+	private boolean[] ranged = new boolean[16];
+	/**
+	 * The seed for each queued attack's dice, and then its damage.
+	 */
+	private long[] rolls = new long[16];
+	/**
+	 * How many attacks are queued.
+	 */
+	private int count = 0;
+	/**
+	 * The damage each slot is taking this resolution, plus one; zero for slots
+	 * not attacked.
+	 */
+	private int[] pending = new int[16];
+	/**
+	 * Whether each slot has an attack queued.
+	 */
+	private boolean[] attacking = new boolean[16];
+	/**
+	 * The threads that roll large batches; created when first needed.
+	 */
+	@Nullable private ForkJoinPool pool = null;
+	/**
+	 * Whether shutdown() has been called, so no threads should be started.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Decides, as the attacks are resolved, whether each may still go ahead.
+	 */
+	public interface AttackCheck {
+		/**
+		 * @param attacker the ID # of the attacking unit
+		 * @param source where the attacker is now
+		 * @param target where the unit it attacks is now
+		 * @param isRanged whether this is a ranged attack rather than melee
+		 * @return whether the attack is still allowed
+		 */
+		boolean allows(int attacker, IPoint source, IPoint target,
+				boolean isRanged);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store the statistics of the units in the game
+	 * @param seed the seed for the game's dice
+	 */
+	public CombatResolver(final UnitStore store, final long seed) {
+		units = store;
+		random = new SplitRandom(seed);
+	}
+
+	/**
+	 * Queue an attack. The caller is responsible for checking that it is
+	 * allowed.
+	 *
+	 * @param attacker the slot of the attacking unit
+	 * @param defender the slot of the unit attacked
+	 * @param isRanged whether this is a ranged attack rather than melee
+	 */
+	public synchronized void queue(final int attacker, final int defender,
+			final boolean isRanged) {
+		if (!units.isLive(attacker) || !units.isLive(defender)) {
+			throw new IllegalArgumentException("No such unit");
+		}
+		if (count == attackers.length) {
+			attackers = Arrays.copyOf(attackers, count * 2);
+			defenders = Arrays.copyOf(defenders, count * 2);
+			ranged = Arrays.copyOf(ranged, count * 2);
+			rolls = Arrays.copyOf(rolls, count * 2);
+		}
+		if (attacker >= attacking.length) {
+			attacking = Arrays.copyOf(attacking,
+					Math.max(attacker + 1, attacking.length * 2));
+		}
+		attacking[attacker] = true;
+		attackers[count] = attacker;
+		defenders[count] = defender;
+		ranged[count] = isRanged;
+		count++;
+	}
+
+	/**
+	 * @return how many attacks are waiting to be resolved
+	 */
+	public synchronized int getQueued() {
+		return count;
+	}
+
+	/**
+	 * @param attacker the slot of a unit
+	 * @return whether it already has an attack queued
+	 */
+	public synchronized boolean hasQueued(final int attacker) {
+		return attacker >= 0 && attacker < attacking.length
+				&& attacking[attacker];
+	}
+
+	/**
+	 * Resolve every queued attack that is still allowed, applying the damage
+	 * to the units' HP, and clear the queue. Units killed are left in the map
+	 * and the store for the caller to remove.
+	 *
+	 * @param map the map the units are in, to find their locations
+	 * @param check what decides whether each attack may still go ahead
+	 * @return the outcome, covering every unit attacked
+	 */
+	public synchronized CombatReport resolve(final IMutableMap map,
+			final AttackCheck check) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			final int attacker = attackers[i];
+			final int defender = defenders[i];
+			attacking[attacker] = false;
+			if (!units.isLive(attacker) || !units.isLive(defender)) {
+				continue;
+			}
+			final int id = units.getID(attacker);
+			final IPoint source = map.findFixture(id);
+			final IPoint target = map.findFixture(units.getID(defender));
+			if (source != null && target != null
+					&& check.allows(id, source, target, ranged[i])) {
+				attackers[kept] = attacker;
+				defenders[kept] = defender;
+				ranged[kept] = ranged[i];
+				kept++;
+			}
+		}
+		count = kept;
+		final SplitRandom turn = random.split();
+		for (int i = 0; i < count; i++) {
+			rolls[i] = turn.nextLong();
+		}
+		if (count < PARALLEL_THRESHOLD || closed) {
+			roll(0, count);
+		} else {
+			ForkJoinPool local = pool;
+			if (local == null) {
+				local = new ForkJoinPool();
+				pool = local;
+			}
+			local.invoke(new RollTask(0, count));
+		}
+		final int slots = units.getHighWater();
+		if (pending.length < slots) {
+			pending = new int[slots];
+		}
+		int attacked = 0;
+		for (int i = 0; i < count; i++) {
+			final int defender = defenders[i];
+			if (pending[defender] == 0) {
+				// Reuse the attacker array, which has been read, as the list
+				// of defenders.
+				attackers[attacked] = defender;
+				attacked++;
+				pending[defender] = 1;
+			}
+			pending[defender] += (int) rolls[i];
+		}
+		final CombatReport retval = new CombatReport(attacked);
+		for (int i = 0; i < attacked; i++) {
+			final int slot = attackers[i];
+			final int hitPoints = units.getCurrHP(slot) - (pending[slot] - 1);
+			pending[slot] = 0;
+			final int id = units.getID(slot);
+			final IPoint point = map.findFixture(id);
+			if (point == null) {
+				// Checked above, so this shouldn't happen; but a unit not in
+				// the map is no longer in the fight.
+				continue;
+			}
+			units.setCurrHP(slot, hitPoints);
+			retval.add(id, units.getOwner(slot), point, hitPoints,
+					units.getHealthTier(slot));
+		}
+		count = 0;
+		return retval;
+	}
+
+	/**
+	 * Stop the threads used to roll large batches, if they were ever started.
+	 * Call when the game is over; a batch resolved after this is rolled on the
+	 * calling thread.
+	 */
+	public synchronized void shutdown() {
+		final ForkJoinPool local = pool;
+		if (local != null) {
+			local.shutdown();
+		}
+		closed = true;
+	}
+
+	/**
+	 * Roll the damage for a range of queued attacks, replacing each one's
+	 * seed with its damage.
+	 *
+	 * @param start the first attack to roll
+	 * @param end one past the last attack to roll
+	 */
+	void roll(final int start, final int end) {
+		final SplitRandom dice = new SplitRandom(0L);
+		for (int i = start; i < end; i++) {
+			dice.reseed(rolls[i]);
+			final int attacker = attackers[i];
+			final int die;
+			final int number;
+			if (ranged[i]) {
+				die = units.getRangedDie(attacker);
+				number = units.getRangedDice(attacker);
+			} else {
+				die = units.getMeleeDie(attacker);
+				number = units.getMeleeDice(attacker);
+			}
+			int damage = 0;
+			if (die > 0) {
+				for (int j = 0; j < number; j++) {
+					damage += dice.nextInt(die) + 1;
+				}
+			}
+			rolls[i] = damage;
+		}
+	}
+
+	/**
+	 * Rolls a range of attacks, splitting it in half until the pieces are
+	 * small enough to roll directly.
+	 */
+	private final class RollTask extends RecursiveAction {
+		/**
+		 * Version UID for serialization.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The first attack to roll.
+		 */
+		private final int start;
+		/**
+		 * One past the last attack to roll.
+		 */
+		private final int end;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param first the first attack to roll
+		 * @param last one past the last attack to roll
+		 */
+		RollTask(final int first, final int last) {
+			start = first;
+			end = last;
+		}
+
+		/**
+		 * Roll the attacks, or split the work.
+		 */
+		@Override
+		protected void compute() {
+			if (end - start <= PARALLEL_THRESHOLD) {
+				roll(start, end);
+			} else {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new RollTask(start, middle), new RollTask(middle, end));
+			}
+		}
+	}
+}
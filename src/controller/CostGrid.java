@@ -0,0 +1,180 @@
+package controller;
+
+import model.IMap;
+import model.IPoint;
+import model.TileType;
+
+/**
+ * The cost of moving into each tile of a map, precomputed from its terrain
+ * into a flat array (indexed by row * columns + column) so that path-finding
+ * and similar searches never have to consult the map itself. Tiles outside
+ * the map, or without terrain, can't be entered.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CostGrid {
+	/**
+	 * The number of rows covered.
+	 */
+	private final int rows;
+	/**
+	 * The number of columns covered.
+	 */
+	private final int columns;
+	/**
+	 * The cost of moving into each tile, or 0 if it can't be entered.
+	 */
+	private final int[] costs;
+	/**
+	 * A number that increases every time a cost changes.
+	 */
+	private long version = 0;
+	/**
+	 * The cheapest cost of entering any passable tile, or -1 if it needs to be
+	 * recomputed.
+	 */
+	private int minCost = -1;
+
+	/**
+	 * Constructor. Every tile starts out impassable.
+	 *
+	 * @param rowCount the number of rows to cover
+	 * @param colCount the number of columns to cover
+	 */
+	public CostGrid(final int rowCount, final int colCount) {
+		if (rowCount < 0 || colCount < 0) {
+			throw new IllegalArgumentException("Negative grid dimensions");
+		} else if ((long) rowCount * colCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Grid too large");
+		}
+		rows = rowCount;
+		columns = colCount;
+		costs = new int[rowCount * colCount];
+	}
+
+	/**
+	 * Build a grid covering every tile in a map with a nonnegative row and
+	 * column.
+	 *
+	 * @param map the map
+	 * @return a grid of movement costs for it
+	 */
+	public static CostGrid of(final IMap map) {
+		int maxRow = -1;
+		int maxCol = -1;
+		for (final IPoint point : map) {
+			maxRow = Math.max(maxRow, point.getRow());
+			maxCol = Math.max(maxCol, point.getColumn());
+		}
+		final CostGrid retval = new CostGrid(maxRow + 1, maxCol + 1);
+		retval.update(map);
+		return retval;
+	}
+
+	/**
+	 * Update the grid from the terrain of a map.
+	 * @param map the map
+	 */
+	public void update(final IMap map) {
+		for (final IPoint point : map) {
+			setTerrain(point.getRow(), point.getColumn(), map.getTerrain(point));
+		}
+	}
+
+	/**
+	 * Note a change in a tile's terrain. Tiles outside the grid are ignored.
+	 *
+	 * @param row the row of the tile
+	 * @param col the column of the tile
+	 * @param type its new terrain
+	 */
+	public void setTerrain(final int row, final int col, final TileType type) {
+		final int index = indexOf(row, col);
+		if (index >= 0 && costs[index] != type.getMovementCost()) {
+			costs[index] = type.getMovementCost();
+			version++;
+			minCost = -1;
+		}
+	}
+
+	/**
+	 * @return the number of rows covered
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns covered
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return the number of tiles covered
+	 */
+	public int size() {
+		return costs.length;
+	}
+
+	/**
+	 * @return a number that increases every time a cost changes, so cached
+	 *         search results can be recognized as stale
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the cheapest cost of entering any passable tile (0 if there are
+	 *         none), which scaled by distance gives an admissible heuristic
+	 */
+	public int getMinCost() {
+		if (minCost < 0) {
+			int min = Integer.MAX_VALUE;
+			for (final int cost : costs) {
+				if (cost > 0 && cost < min) {
+					min = cost;
+				}
+			}
+			minCost = (min == Integer.MAX_VALUE) ? 0 : min;
+		}
+		return minCost;
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the index of that tile, or -1 if it's outside the grid
+	 */
+	public int indexOf(final int row, final int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= columns) {
+			return -1;
+		} else {
+			return row * columns + col;
+		}
+	}
+
+	/**
+	 * @param index the index of a tile
+	 * @return the cost of moving into it, or 0 if it can't be entered
+	 */
+	public int cost(final int index) {
+		return costs[index];
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the cost of moving into that tile, or 0 if it can't be entered
+	 */
+	public int cost(final int row, final int col) {
+		final int index = indexOf(row, col);
+		if (index < 0) {
+			return 0;
+		} else {
+			return costs[index];
+		}
+	}
+}
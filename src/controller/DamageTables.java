@@ -0,0 +1,243 @@
+package controller;
+
+import model.IntMap;
+import model.SimpleUnit;
+import model.UnitStore;
+
+/**
+ * Exact damage distributions for attacks, so the UI and AI can give the odds
+ * of an attack without simulating it. Damage from n dice of size d is the sum
+ * of n independent uniform rolls from 1 to d; its distribution is built by
+ * convolving the distribution for n-1 dice with that of one die, and every
+ * distribution built, including those for fewer dice along the way, is kept.
+ * After the first lookup of a combination, the odds of any outcome are an
+ * array read.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class DamageTables {
+	/**
+	 * An instance of this class, shared by everything in the process.
+	 */
+	public static final DamageTables TABLES = new DamageTables();
+	/**
+	 * The largest number of dice, or size of die, we will build a table for.
+	 */
+	private static final int MAX_DICE = 1000;
+	/**
+	 * The distributions built so far, keyed by number of dice times 1024 plus
+	 * size of die. Guarded by synchronizing on this object.
+	 */
+	private final IntMap<Distribution> tables = new IntMap<>();
+
+	/**
+	 * The distribution of damage from one number and size of dice.
+	 */
+	public static final class Distribution {
+		/**
+		 * The probability of each total, indexed by total.
+		 */
+		private final double[] exactly;
+		/**
+		 * The probability of at least each total, indexed by total.
+		 */
+		private final double[] atLeast;
+		/**
+		 * The mean total.
+		 */
+		private final double expected;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param probabilities the probability of each total
+		 */
+		Distribution(final double[] probabilities) {
+			exactly = probabilities;
+			atLeast = new double[probabilities.length];
+			double tail = 0.0;
+			double mean = 0.0;
+			for (int i = probabilities.length - 1; i >= 0; i--) {
+				tail += probabilities[i];
+				atLeast[i] = Math.min(tail, 1.0);
+				mean += i * probabilities[i];
+			}
+			expected = mean;
+		}
+
+		/**
+		 * @return the largest possible total
+		 */
+		public int getMaximum() {
+			return exactly.length - 1;
+		}
+
+		/**
+		 * @return the smallest possible total
+		 */
+		public int getMinimum() {
+			for (int i = 0; i < exactly.length; i++) {
+				if (exactly[i] > 0.0) {
+					return i;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @return the mean total
+		 */
+		public double getExpected() {
+			return expected;
+		}
+
+		/**
+		 * @param total a total
+		 * @return the probability of exactly that total
+		 */
+		public double getProbability(final int total) {
+			if (total < 0 || total >= exactly.length) {
+				return 0.0;
+			} else {
+				return exactly[total];
+			}
+		}
+
+		/**
+		 * Draw a total from the distribution, as rolling the dice would, with
+		 * a single random number however many dice there are.
+		 *
+		 * @param uniform a random number, at least zero and less than one
+		 * @return the total it picks out: the largest whose probability of
+		 *         being reached is more than the number
+		 */
+		public int sample(final double uniform) {
+			int low = 0;
+			int high = atLeast.length - 1;
+			while (low < high) {
+				final int mid = (low + high + 1) >>> 1;
+				if (atLeast[mid] > uniform) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @param total a total
+		 * @return the probability of at least that total; for a unit with that
+		 *         many HP left, the chance this attack kills it
+		 */
+		public double getAtLeast(final int total) {
+			if (total <= 0) {
+				return 1.0;
+			} else if (total >= atLeast.length) {
+				return 0.0;
+			} else {
+				return atLeast[total];
+			}
+		}
+	}
+
+	/**
+	 * @param dice a number of dice
+	 * @param die a size of die
+	 * @return the distribution of their total
+	 */
+	public synchronized Distribution get(final int dice, final int die) {
+		if (dice < 0 || die < 0 || dice > MAX_DICE || die > MAX_DICE) {
+			throw new IllegalArgumentException("Unreasonable dice");
+		}
+		final int number = die == 0 ? 0 : dice;
+		final int size = dice == 0 ? 0 : die;
+		final Distribution cached = tables.get(key(number, size));
+		if (cached != null) {
+			return cached;
+		}
+		int built = number;
+		while (built > 0 && !tables.containsKey(key(built, size))) {
+			built--;
+		}
+		Distribution retval;
+		if (built == 0) {
+			retval = new Distribution(new double[] { 1.0 });
+			tables.put(key(0, 0), retval);
+		} else {
+			final Distribution found = tables.get(key(built, size));
+			assert found != null;
+			retval = found;
+		}
+		for (built++; built <= number; built++) {
+			retval = new Distribution(addDie(retval.exactly, size));
+			tables.put(key(built, size), retval);
+		}
+		return retval;
+	}
+
+	/**
+	 * @param unit a unit
+	 * @return the distribution of the damage its melee attack does
+	 */
+	public Distribution getMelee(final SimpleUnit unit) {
+		return get(unit.getTotalAttackDice(), unit.getMeleeDie());
+	}
+
+	/**
+	 * @param unit a unit
+	 * @return the distribution of the damage its ranged attack does
+	 */
+	public Distribution getRanged(final SimpleUnit unit) {
+		return get(unit.getTotalRangedAttackDice(), unit.getRangedDie());
+	}
+
+	/**
+	 * Build the tables for every combination of dice the live units in a store
+	 * use, so that later lookups for them never have to.
+	 *
+	 * @param store the store
+	 */
+	public void prepare(final UnitStore store) {
+		for (int slot = 0; slot < store.getHighWater(); slot++) {
+			if (store.isLive(slot)) {
+				get(store.getMeleeDice(slot), store.getMeleeDie(slot));
+				get(store.getRangedDice(slot), store.getRangedDie(slot));
+			}
+		}
+	}
+
+	/**
+	 * @param dice a number of dice
+	 * @param die a size of die
+	 * @return the key for their distribution
+	 */
+	private static int key(final int dice, final int die) {
+		return dice * 1024 + die;
+	}
+
+	/**
+	 * Convolve a distribution with that of one more die.
+	 *
+	 * @param base the probability of each total so far
+	 * @param die the size of the added die
+	 * @return the probability of each total with it added
+	 */
+	private static double[] addDie(final double[] base, final int die) {
+		final double[] retval = new double[base.length + die];
+		final double each = 1.0 / die;
+		// Sliding window: the new total t can come from any old total from
+		// t - die to t - 1.
+		double window = 0.0;
+		for (int total = 1; total < retval.length; total++) {
+			if (total - 1 < base.length) {
+				window += base[total - 1];
+			}
+			if (total - die - 1 >= 0) {
+				window -= base[total - die - 1];
+			}
+			retval[total] = Math.max(window, 0.0) * each;
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,173 @@
+package controller;
+
+import model.IPoint;
+import model.Point;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A "flow field" (or Dijkstra map) toward one target tile: for every tile of
+ * a CostGrid, the cost of the cheapest path from it to the target and the
+ * first step along that path. One field serves every unit heading for the
+ * same target, so moving a whole group costs one pass over the grid rather
+ * than a search per unit. Fields are immutable once built, and so may be
+ * shared between threads; they are usually obtained from a FlowFieldCache.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class FlowField {
+	/**
+	 * The number of columns in the grid this was built from.
+	 */
+	private final int columns;
+	/**
+	 * The index of the target tile.
+	 */
+	private final int target;
+	/**
+	 * The version of the grid this was built from.
+	 */
+	private final long version;
+	/**
+	 * The cost of reaching the target from each tile, or -1 if it can't be.
+	 */
+	private final int[] distance;
+	/**
+	 * The tile to step into from each tile, or -1 if there is none.
+	 */
+	private final int[] next;
+
+	/**
+	 * Build a field.
+	 *
+	 * @param grid the grid of movement costs
+	 * @param targetTile the index of the target tile in it
+	 * @param open a heap to use as the open set; its contents are discarded
+	 */
+	FlowField(final CostGrid grid, final int targetTile, final IntHeap open) {
+		columns = grid.getColumns();
+		target = targetTile;
+		version = grid.getVersion();
+		distance = new int[grid.size()];
+		next = new int[grid.size()];
+		for (int i = 0; i < distance.length; i++) {
+			distance[i] = -1;
+			next[i] = -1;
+		}
+		if (grid.cost(targetTile) == 0) {
+			distance[targetTile] = 0;
+			return;
+		}
+		// A Dijkstra search outward from the target, charging each step the
+		// cost of the tile stepped into (which is nearer the target).
+		final boolean[] settled = new boolean[grid.size()];
+		open.clear();
+		distance[targetTile] = 0;
+		open.push(targetTile, 0);
+		while (!open.isEmpty()) {
+			final int current = open.pop();
+			if (settled[current]) {
+				continue;
+			}
+			settled[current] = true;
+			final int row = current / columns;
+			final int col = current % columns;
+			final int step = grid.cost(current);
+			for (int dir = 0; dir < 4; dir++) {
+				final int neighbor;
+				switch (dir) {
+				case 0:
+					neighbor = grid.indexOf(row - 1, col);
+					break;
+				case 1:
+					neighbor = grid.indexOf(row, col + 1);
+					break;
+				case 2:
+					neighbor = grid.indexOf(row + 1, col);
+					break;
+				default:
+					neighbor = grid.indexOf(row, col - 1);
+					break;
+				}
+				if (neighbor < 0 || settled[neighbor]) {
+					continue;
+				}
+				final int dist = distance[current] + step;
+				if (distance[neighbor] < 0 || dist < distance[neighbor]) {
+					distance[neighbor] = dist;
+					next[neighbor] = current;
+					// A unit can leave impassable terrain it is stranded on,
+					// but no path passes through it.
+					if (grid.cost(neighbor) > 0) {
+						open.push(neighbor, dist);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the target tile
+	 */
+	int getTargetIndex() {
+		return target;
+	}
+
+	/**
+	 * @return the target tile
+	 */
+	public IPoint getTarget() {
+		return Point.of(target / columns, target % columns);
+	}
+
+	/**
+	 * @return the version of the grid this was built from
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param point a tile
+	 * @return the cost of the cheapest path from it to the target, or -1 if
+	 *         there is none or the tile is outside the grid
+	 */
+	public int getCost(final IPoint point) {
+		final int index = indexOf(point);
+		if (index < 0) {
+			return -1;
+		} else {
+			return distance[index];
+		}
+	}
+
+	/**
+	 * @param point a tile
+	 * @return the tile to step into from it toward the target, or null if it
+	 *         is the target or can't reach it
+	 */
+	@Nullable
+	public IPoint getNextStep(final IPoint point) {
+		final int index = indexOf(point);
+		if (index < 0 || next[index] < 0) {
+			return null;
+		} else {
+			return Point.of(next[index] / columns, next[index] % columns);
+		}
+	}
+
+	/**
+	 * @param point a tile
+	 * @return its index, or -1 if it's outside the grid
+	 */
+	private int indexOf(final IPoint point) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		if (row < 0 || col < 0 || col >= columns
+				|| (long) row * columns + col >= distance.length) {
+			return -1;
+		} else {
+			return row * columns + col;
+		}
+	}
+}
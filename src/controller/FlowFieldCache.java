@@ -0,0 +1,121 @@
+package controller;
+
+import model.IPoint;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A small cache of flow fields over one CostGrid, keyed by target and grid
+ * version, so that every unit ordered toward the same tile shares one field.
+ * When the grid changes, fields built from the old version are never handed
+ * out again. When the cache is full, the least recently used field is
+ * replaced.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class FlowFieldCache {
+	/**
+	 * The default number of fields to keep.
+	 */
+	public static final int DEFAULT_CAPACITY = 8;
+	/**
+	 * The grid the fields are built from.
+	 */
+	private final CostGrid grid;
+	/**
+	 * The cached fields; unused entries are null.
+	 */
+	private final FlowField[] fields;
+	/**
+	 * When each field was last used, by the value of the clock.
+	 */
+	private final long[] lastUsed;
+	/**
+	 * Incremented on every lookup.
+	 */
+	private long clock = 0;
+	/**
+	 * The open set used while building fields.
+	 */
+	private final IntHeap open;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param costs the grid to build fields from
+	 */
+	public FlowFieldCache(final CostGrid costs) {
+		this(costs, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param costs the grid to build fields from
+	 * @param capacity how many fields to keep
+	 */
+	public FlowFieldCache(final CostGrid costs, final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Cache must hold at least one field");
+		}
+		grid = costs;
+		fields = new FlowField[capacity];
+		lastUsed = new long[capacity];
+		open = new IntHeap(costs.size());
+	}
+
+	/**
+	 * @return the grid the fields are built from
+	 */
+	public CostGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @param target a tile
+	 * @return a flow field toward it, built now if there isn't a current one
+	 *         in the cache
+	 */
+	public synchronized FlowField get(final IPoint target) {
+		final int index = grid.indexOf(target.getRow(), target.getColumn());
+		if (index < 0) {
+			throw new IllegalArgumentException("Target outside the map");
+		}
+		clock++;
+		final long version = grid.getVersion();
+		int victim = 0;
+		for (int i = 0; i < fields.length; i++) {
+			final FlowField field = fields[i];
+			if (field == null || field.getVersion() != version) {
+				fields[i] = null;
+				lastUsed[i] = 0;
+			} else if (field.getTargetIndex() == index) {
+				lastUsed[i] = clock;
+				return field;
+			}
+			if (lastUsed[i] < lastUsed[victim]) {
+				victim = i;
+			}
+		}
+		final FlowField retval = new FlowField(grid, index, open);
+		fields[victim] = retval;
+		lastUsed[victim] = clock;
+		return retval;
+	}
+
+	/**
+	 * @param target a tile
+	 * @return a current flow field toward it if one is cached, or null
+	 */
+	@Nullable
+	public synchronized FlowField getIfPresent(final IPoint target) {
+		final int index = grid.indexOf(target.getRow(), target.getColumn());
+		for (final FlowField field : fields) {
+			if (field != null && field.getTargetIndex() == index
+					&& field.getVersion() == grid.getVersion()) {
+				return field;
+			}
+		}
+		return null;
+	}
+}
@@ -6,8 +6,11 @@ import gamenet.GamePlayer;
 import org.eclipse.jdt.annotation.Nullable;
 
 import protocol.AcknowledgedMessage;
+import protocol.CombatReportMessage;
 import protocol.FixtureMoveMessage;
 import protocol.FixtureRemovalMessage;
+import protocol.MapHashMessage;
+import protocol.MultiMessageMessage;
 import protocol.OpposingUnitMessage;
 import protocol.OwnUnitMessage;
 import protocol.PlayerPresentMessage;
@@ -27,46 +30,69 @@ public class GUIStarter implements GameNetUserInterface {
 	@Override
 	public void receivedMessage(@Nullable final Object ob) {
 		if (ob instanceof RPCMessage) {
-			RPCMessage message = (RPCMessage) ob;
-			if (message instanceof TurnEndMessage) {
-				client.endTurn(((TurnEndMessage) message).getPlayer());
-				System.out.println("End turn");
-			} else if (message instanceof OpposingUnitMessage) {
-				client.addOpposingUnit(((OpposingUnitMessage) message).getPoint(),
-						((OpposingUnitMessage) message).getUnit());
-				System.out.println("Opposing unit");
-			} else if (message instanceof OwnUnitMessage) {
-				client.addOwnUnit(((OwnUnitMessage) message).getPoint(),
-						((OwnUnitMessage) message).getUnit());
-				System.out.println("Own unit");
-			} else if (message instanceof AcknowledgedMessage) {
-				client.setPlayerNumber();
-				System.out.println("ACK");
-			} else if (message instanceof FixtureMoveMessage) {
-				client.moveFixture(((FixtureMoveMessage) message).getSource(),
-						((FixtureMoveMessage) message).getDest(),
-						((FixtureMoveMessage) message).getMover());
-				System.out.println("Fixture move");
-			} else if (message instanceof FixtureRemovalMessage) {
-				client.removeFixture(((FixtureRemovalMessage) message).getPoint(),
-						((FixtureRemovalMessage) message).getID());
-				System.out.println("Fixture remove");
-			} else if (message instanceof PlayerPresentMessage) {
-				client.rejectPlayerNumber();
-				System.out.println("NACK");
-			} else if (message instanceof TerrainChangeMessage) {
-				client.changeTerrain(((TerrainChangeMessage) message).getPoint(),
-						((TerrainChangeMessage) message).getType());
-				System.out.println("Terrain change");
-			} else if (message instanceof ProtocolErrorMessage) {
-				showError("Server sent us an error message", new Throwable(
-						((ProtocolErrorMessage) message).getMessage()));
-				System.out.println("Error");
-			} else {
-					showError(
-							"Server sent a message we don't know how to handle",
-							null);
+			dispatch((RPCMessage) ob);
+		}
+	}
+
+	/**
+	 * Handle a message from the server: pass it to the client, or, if it is a
+	 * batch, each message in it, as a batch.
+	 * @param message the message
+	 */
+	private void dispatch(final RPCMessage message) {
+		if (message instanceof MultiMessageMessage) {
+			client.startBatch();
+			try {
+				for (final RPCMessage inner : (MultiMessageMessage) message) {
+					dispatch(inner);
+				}
+			} finally {
+				client.endBatch();
 			}
+			System.out.println("Batch");
+		} else if (message instanceof TurnEndMessage) {
+			client.endTurn(((TurnEndMessage) message).getPlayer());
+			System.out.println("End turn");
+		} else if (message instanceof OpposingUnitMessage) {
+			client.addOpposingUnit(((OpposingUnitMessage) message).getPoint(),
+					((OpposingUnitMessage) message).getUnit());
+			System.out.println("Opposing unit");
+		} else if (message instanceof OwnUnitMessage) {
+			client.addOwnUnit(((OwnUnitMessage) message).getPoint(),
+					((OwnUnitMessage) message).getUnit(client.getUnits()));
+			System.out.println("Own unit");
+		} else if (message instanceof AcknowledgedMessage) {
+			client.setPlayerNumber();
+			System.out.println("ACK");
+		} else if (message instanceof FixtureMoveMessage) {
+			client.moveFixture(((FixtureMoveMessage) message).getSource(),
+					((FixtureMoveMessage) message).getDest(),
+					((FixtureMoveMessage) message).getMover());
+			System.out.println("Fixture move");
+		} else if (message instanceof FixtureRemovalMessage) {
+			client.removeFixture(((FixtureRemovalMessage) message).getPoint(),
+					((FixtureRemovalMessage) message).getID());
+			System.out.println("Fixture remove");
+		} else if (message instanceof PlayerPresentMessage) {
+			client.rejectPlayerNumber();
+			System.out.println("NACK");
+		} else if (message instanceof TerrainChangeMessage) {
+			client.changeTerrain(((TerrainChangeMessage) message).getPoint(),
+					((TerrainChangeMessage) message).getType());
+			System.out.println("Terrain change");
+		} else if (message instanceof CombatReportMessage) {
+			client.combatResolved(((CombatReportMessage) message).getReport());
+			System.out.println("Combat");
+		} else if (message instanceof MapHashMessage) {
+			// The server's map matches ours, so there's nothing to fix.
+			System.out.println("In sync");
+		} else if (message instanceof ProtocolErrorMessage) {
+			showError("Server sent us an error message", new Throwable(
+					((ProtocolErrorMessage) message).getMessage()));
+			System.out.println("Error");
+		} else {
+			showError("Server sent a message we don't know how to handle",
+					null);
 		}
 	}
 
@@ -0,0 +1,839 @@
+package controller;
+
+import java.util.Arrays;
+
+import model.CombatReport;
+import model.IPoint;
+import model.ITileFixture;
+import model.Point;
+import model.TileType;
+
+import common.MapUpdateListener;
+
+/**
+ * A hierarchical (HPA*) path-finder for large maps. The map is divided into
+ * square clusters; wherever passable tiles face each other across the border
+ * between two clusters there is an "entrance", one tile of which on each side
+ * is a node of an abstract graph. Within each cluster the cost between every
+ * pair of its nodes is precomputed, so a long search only has to explore the
+ * abstract graph, whose size depends on the number of entrances rather than
+ * the number of tiles, after connecting the start and goal to the nodes of
+ * their own clusters.
+ *
+ * Paths found this way are not always the very cheapest, since the precomputed
+ * costs only consider routes that stay inside a cluster, but whether a path
+ * exists at all is always answered correctly. Searches between nearby tiles,
+ * or within one cluster, fall back to a flat A* search, which is exact.
+ *
+ * When terrain changes, only the clusters (and borders) containing the changed
+ * tile are marked for repair, and they are rebuilt before the next search. As
+ * a MapUpdateListener this learns of terrain changes itself; if the grid is
+ * changed behind its back, it rebuilds everything.
+ *
+ * Its methods are synchronized; a caller that wants to read the waypoints of
+ * a search should hold its lock across the search and the reads.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class HierarchicalPathFinder implements MapUpdateListener {
+	/**
+	 * The default width and height of a cluster.
+	 */
+	public static final int DEFAULT_CLUSTER_SIZE = 16;
+	/**
+	 * An entrance at least this long gets a node at each end rather than one
+	 * in the middle, so routes along it aren't forced through its center.
+	 */
+	private static final int SPLIT_RUN = 6;
+	/**
+	 * The grid we search.
+	 */
+	private final CostGrid grid;
+	/**
+	 * The flat search used for short and intra-cluster paths.
+	 */
+	private final PathFinder flat;
+	/**
+	 * The width and height of a cluster.
+	 */
+	private final int clusterSize;
+	/**
+	 * How many rows of clusters there are.
+	 */
+	private final int clusterRows;
+	/**
+	 * How many columns of clusters there are.
+	 */
+	private final int clusterCols;
+	/**
+	 * The grid version we have accounted for.
+	 */
+	private long knownVersion;
+	/**
+	 * For each cluster, the tiles on its eastern edge that are the western
+	 * half of an entrance; the other half is the next tile east.
+	 */
+	private final int[][] eastEntrances;
+	/**
+	 * For each cluster, the tiles on its southern edge that are the northern
+	 * half of an entrance; the other half is the next tile south.
+	 */
+	private final int[][] southEntrances;
+	/**
+	 * Which clusters' eastern borders need their entrances rebuilt.
+	 */
+	private final boolean[] dirtyEast;
+	/**
+	 * Which clusters' southern borders need their entrances rebuilt.
+	 */
+	private final boolean[] dirtySouth;
+	/**
+	 * Which clusters need their nodes and costs rebuilt.
+	 */
+	private final boolean[] dirtyCluster;
+	/**
+	 * Whether anything needs rebuilding.
+	 */
+	private boolean dirty = true;
+	/**
+	 * For each tile, how many entrances make it a node.
+	 */
+	private final int[] nodeRefs;
+	/**
+	 * For each tile, its index among its cluster's nodes, or -1 if it isn't
+	 * one.
+	 */
+	private final int[] localIndex;
+	/**
+	 * The nodes of each cluster.
+	 */
+	private final int[][] clusterNodes;
+	/**
+	 * For each cluster, the cost of the cheapest path within it from each of
+	 * its nodes to each other (row-major, by local index), or -1 if there is
+	 * none.
+	 */
+	private final int[][] clusterCosts;
+	/**
+	 * The distances found by the last search within a cluster, indexed by
+	 * position within the cluster.
+	 */
+	private final int[] localDist;
+	/**
+	 * The search within a cluster in which each entry of localDist was last
+	 * written.
+	 */
+	private final int[] localStamp;
+	/**
+	 * Whether each tile has been settled in the current search within a
+	 * cluster.
+	 */
+	private final boolean[] localClosed;
+	/**
+	 * The current search-within-a-cluster's generation number.
+	 */
+	private int localGeneration = 0;
+	/**
+	 * The open set of searches within a cluster.
+	 */
+	private final IntHeap localOpen;
+	/**
+	 * The best known cost of reaching each node in the current abstract
+	 * search.
+	 */
+	private final int[] gScore;
+	/**
+	 * The node from which each node was best reached in the current abstract
+	 * search.
+	 */
+	private final int[] parent;
+	/**
+	 * The abstract search in which each tile's entries were last written.
+	 */
+	private final int[] stamp;
+	/**
+	 * Whether each node has been expanded in the current abstract search.
+	 */
+	private final boolean[] closed;
+	/**
+	 * The current abstract search's generation number.
+	 */
+	private int generation = 0;
+	/**
+	 * The open set of the abstract search.
+	 */
+	private final IntHeap open;
+	/**
+	 * The cost from each node of the goal's cluster to the goal, or -1.
+	 */
+	private int[] goalCosts = new int[16];
+	/**
+	 * The waypoints of the last path found.
+	 */
+	private int[] waypoints = new int[16];
+	/**
+	 * How many entries in waypoints are valid.
+	 */
+	private int waypointCount = 0;
+
+	/**
+	 * Constructor. Uses the default cluster size.
+	 *
+	 * @param costs the grid to search
+	 */
+	public HierarchicalPathFinder(final CostGrid costs) {
+		this(costs, DEFAULT_CLUSTER_SIZE);
+	}
+
+	/**
+	 * Constructor. The abstract graph is built immediately.
+	 *
+	 * @param costs the grid to search
+	 * @param size the width and height of a cluster
+	 */
+	public HierarchicalPathFinder(final CostGrid costs, final int size) {
+		if (size < 2) {
+			throw new IllegalArgumentException("Clusters must be at least 2x2");
+		}
+		grid = costs;
+		flat = new PathFinder(costs);
+		clusterSize = size;
+		clusterRows = (costs.getRows() + size - 1) / size;
+		clusterCols = (costs.getColumns() + size - 1) / size;
+		final int clusters = clusterRows * clusterCols;
+		eastEntrances = new int[clusters][];
+		southEntrances = new int[clusters][];
+		clusterNodes = new int[clusters][];
+		clusterCosts = new int[clusters][];
+		dirtyEast = new boolean[clusters];
+		dirtySouth = new boolean[clusters];
+		dirtyCluster = new boolean[clusters];
+		final int[] none = new int[0];
+		Arrays.fill(eastEntrances, none);
+		Arrays.fill(southEntrances, none);
+		Arrays.fill(clusterNodes, none);
+		Arrays.fill(clusterCosts, none);
+		nodeRefs = new int[costs.size()];
+		localIndex = new int[costs.size()];
+		Arrays.fill(localIndex, -1);
+		localDist = new int[size * size];
+		localStamp = new int[size * size];
+		localClosed = new boolean[size * size];
+		localOpen = new IntHeap(size * size);
+		gScore = new int[costs.size()];
+		parent = new int[costs.size()];
+		stamp = new int[costs.size()];
+		closed = new boolean[costs.size()];
+		open = new IntHeap(64);
+		markAllDirty();
+		repair();
+	}
+
+	/**
+	 * @return the width and height of a cluster
+	 */
+	public int getClusterSize() {
+		return clusterSize;
+	}
+
+	/**
+	 * Find a path between two tiles. On success its waypoints can then be
+	 * read with getWaypointCount() and getWaypoint().
+	 *
+	 * @param source where to start
+	 * @param dest where to go
+	 * @return the cost of the path, or -1 if there is none
+	 */
+	public int findPath(final IPoint source, final IPoint dest) {
+		return findPath(source.getRow(), source.getColumn(), dest.getRow(),
+				dest.getColumn());
+	}
+
+	/**
+	 * Find a path between two tiles. On success its waypoints can then be
+	 * read with getWaypointCount() and getWaypoint().
+	 *
+	 * @param srcRow the row to start in
+	 * @param srcCol the column to start in
+	 * @param destRow the row to go to
+	 * @param destCol the column to go to
+	 * @return the cost of the path, or -1 if there is none
+	 */
+	public synchronized int findPath(final int srcRow, final int srcCol,
+			final int destRow, final int destCol) {
+		waypointCount = 0;
+		repair();
+		final int start = grid.indexOf(srcRow, srcCol);
+		final int goal = grid.indexOf(destRow, destCol);
+		if (start < 0 || goal < 0 || grid.cost(goal) == 0) {
+			return -1;
+		} else if (start == goal) {
+			return 0;
+		}
+		final int startCluster = clusterOf(start);
+		final int goalCluster = clusterOf(goal);
+		// A unit stranded on impassable terrain may step straight across a
+		// border where there is no entrance, which the abstract graph can't
+		// represent.
+		if (startCluster == goalCluster || grid.cost(start) == 0
+				|| Math.abs(srcRow - destRow) + Math.abs(srcCol - destCol) < clusterSize * 2) {
+			return findFlatPath(srcRow, srcCol, destRow, destCol);
+		} else if (clusterNodes[startCluster].length == 0
+				|| clusterNodes[goalCluster].length == 0) {
+			// One of them is walled off from the rest of the map.
+			return -1;
+		}
+		final int[] goalNodes = clusterNodes[goalCluster];
+		if (goalCosts.length < goalNodes.length) {
+			goalCosts = new int[goalNodes.length * 2];
+		}
+		searchCluster(goalCluster, goal, true);
+		for (int i = 0; i < goalNodes.length; i++) {
+			goalCosts[i] = localDistance(goalCluster, goalNodes[i]);
+		}
+		generation++;
+		if (generation == 0) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+		open.clear();
+		final int heuristicScale = grid.getMinCost();
+		final int columns = grid.getColumns();
+		stamp[start] = generation;
+		gScore[start] = 0;
+		parent[start] = -1;
+		closed[start] = false;
+		if (localIndex[start] >= 0) {
+			open.push(start, 0);
+		}
+		searchCluster(startCluster, start, false);
+		for (final int node : clusterNodes[startCluster]) {
+			final int cost = localDistance(startCluster, node);
+			if (node != start && cost >= 0) {
+				relax(node, cost, start, goal, heuristicScale, columns);
+			}
+		}
+		while (!open.isEmpty()) {
+			final int current = open.pop();
+			if (closed[current]) {
+				continue;
+			}
+			closed[current] = true;
+			if (current == goal) {
+				recordPath(start, goal);
+				return gScore[goal];
+			}
+			final int index = localIndex[current];
+			final int cluster = clusterOf(current);
+			final int base = gScore[current];
+			final int[] nodes = clusterNodes[cluster];
+			final int[] costs = clusterCosts[cluster];
+			final int count = nodes.length;
+			for (int j = 0; j < count; j++) {
+				final int cost = costs[index * count + j];
+				if (cost > 0) {
+					relax(nodes[j], base + cost, current, goal, heuristicScale,
+							columns);
+				}
+			}
+			final int row = current / columns;
+			final int col = current % columns;
+			for (int dir = 0; dir < 4; dir++) {
+				final int next = neighbor(row, col, dir);
+				if (next >= 0 && localIndex[next] >= 0
+						&& clusterOf(next) != cluster) {
+					relax(next, base + grid.cost(next), current, goal,
+							heuristicScale, columns);
+				}
+			}
+			if (cluster == goalCluster && goalCosts[index] >= 0) {
+				relax(goal, base + goalCosts[index], current, goal,
+						heuristicScale, columns);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return how many waypoints the last path found has. Each can be reached
+	 *         from the one before it (or the start) without leaving a cluster,
+	 *         and the last is the destination.
+	 */
+	public synchronized int getWaypointCount() {
+		return waypointCount;
+	}
+
+	/**
+	 * @param index which waypoint of the last path found
+	 * @return that waypoint
+	 */
+	public synchronized IPoint getWaypoint(final int index) {
+		if (index < 0 || index >= waypointCount) {
+			throw new IllegalArgumentException("No such waypoint");
+		}
+		final int columns = grid.getColumns();
+		return Point.of(waypoints[index] / columns, waypoints[index] % columns);
+	}
+
+	/**
+	 * Search without the abstract graph, making every tile of the path a
+	 * waypoint.
+	 *
+	 * @param srcRow the row to start in
+	 * @param srcCol the column to start in
+	 * @param destRow the row to go to
+	 * @param destCol the column to go to
+	 * @return the cost of the path, or -1 if there is none
+	 */
+	private int findFlatPath(final int srcRow, final int srcCol,
+			final int destRow, final int destCol) {
+		final int retval = flat.findPath(srcRow, srcCol, destRow, destCol);
+		final int length = flat.getPathLength();
+		if (length > waypoints.length) {
+			waypoints = new int[Math.max(length, waypoints.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			final IPoint step = flat.getStep(i);
+			waypoints[i] = grid.indexOf(step.getRow(), step.getColumn());
+		}
+		waypointCount = length;
+		return retval;
+	}
+
+	/**
+	 * Offer a route to a node of the abstract search.
+	 *
+	 * @param tile the node
+	 * @param cost the cost of reaching it by this route
+	 * @param from the node the route comes from
+	 * @param goal the goal tile
+	 * @param heuristicScale the cheapest cost of entering a tile
+	 * @param columns the number of columns in the grid
+	 */
+	private void relax(final int tile, final int cost, final int from,
+			final int goal, final int heuristicScale, final int columns) {
+		if (stamp[tile] != generation) {
+			stamp[tile] = generation;
+			closed[tile] = false;
+		} else if (closed[tile] || cost >= gScore[tile]) {
+			return;
+		}
+		gScore[tile] = cost;
+		parent[tile] = from;
+		open.push(tile, cost + heuristicScale
+				* (Math.abs(tile / columns - goal / columns)
+						+ Math.abs(tile % columns - goal % columns)));
+	}
+
+	/**
+	 * Copy the waypoints of the path ending at the goal, which the search has
+	 * just reached, into the waypoint buffer.
+	 *
+	 * @param start the starting tile
+	 * @param goal the goal tile
+	 */
+	private void recordPath(final int start, final int goal) {
+		int length = 0;
+		for (int tile = goal; tile != start; tile = parent[tile]) {
+			length++;
+		}
+		if (length > waypoints.length) {
+			waypoints = new int[Math.max(length, waypoints.length * 2)];
+		}
+		int tile = goal;
+		for (int i = length - 1; i >= 0; i--) {
+			waypoints[i] = tile;
+			tile = parent[tile];
+		}
+		waypointCount = length;
+	}
+
+	/**
+	 * @param tile the index of a tile
+	 * @return the index of the cluster containing it
+	 */
+	private int clusterOf(final int tile) {
+		final int columns = grid.getColumns();
+		return (tile / columns / clusterSize) * clusterCols
+				+ (tile % columns) / clusterSize;
+	}
+
+	/**
+	 * @param row the row of a tile
+	 * @param col the column of a tile
+	 * @param dir which neighbor: 0 north, 1 east, 2 south, 3 west
+	 * @return the index of that neighbor, or -1 if it's outside the grid
+	 */
+	private int neighbor(final int row, final int col, final int dir) {
+		switch (dir) {
+		case 0:
+			return grid.indexOf(row - 1, col);
+		case 1:
+			return grid.indexOf(row, col + 1);
+		case 2:
+			return grid.indexOf(row + 1, col);
+		default:
+			return grid.indexOf(row, col - 1);
+		}
+	}
+
+	/**
+	 * Find the cheapest cost between one tile of a cluster and every other,
+	 * without leaving the cluster. The results can be read with
+	 * localDistance().
+	 *
+	 * @param cluster the cluster
+	 * @param source the tile to search from
+	 * @param reverse if true, find the cost of reaching the source from each
+	 *            tile rather than each tile from the source
+	 */
+	private void searchCluster(final int cluster, final int source,
+			final boolean reverse) {
+		final int top = (cluster / clusterCols) * clusterSize;
+		final int left = (cluster % clusterCols) * clusterSize;
+		final int bottom = Math.min(top + clusterSize, grid.getRows());
+		final int right = Math.min(left + clusterSize, grid.getColumns());
+		final int columns = grid.getColumns();
+		localGeneration++;
+		if (localGeneration == 0) {
+			Arrays.fill(localStamp, 0);
+			localGeneration = 1;
+		}
+		localOpen.clear();
+		final int first = (source / columns - top) * clusterSize
+				+ (source % columns - left);
+		localStamp[first] = localGeneration;
+		localDist[first] = 0;
+		localClosed[first] = false;
+		localOpen.push(first, 0);
+		while (!localOpen.isEmpty()) {
+			final int current = localOpen.pop();
+			if (localClosed[current]) {
+				continue;
+			}
+			localClosed[current] = true;
+			final int row = top + current / clusterSize;
+			final int col = left + current % clusterSize;
+			final int here = grid.indexOf(row, col);
+			for (int dir = 0; dir < 4; dir++) {
+				final int next = neighbor(row, col, dir);
+				if (next < 0) {
+					continue;
+				}
+				final int nRow = next / columns;
+				final int nCol = next % columns;
+				if (nRow < top || nRow >= bottom || nCol < left || nCol >= right
+						|| grid.cost(next) == 0) {
+					continue;
+				}
+				final int step;
+				if (reverse) {
+					step = grid.cost(here);
+				} else {
+					step = grid.cost(next);
+				}
+				final int dist = localDist[current] + step;
+				final int local = (nRow - top) * clusterSize + (nCol - left);
+				if (localStamp[local] != localGeneration) {
+					localStamp[local] = localGeneration;
+					localClosed[local] = false;
+				} else if (localClosed[local] || dist >= localDist[local]) {
+					continue;
+				}
+				localDist[local] = dist;
+				localOpen.push(local, dist);
+			}
+		}
+	}
+
+	/**
+	 * @param cluster the cluster last searched with searchCluster()
+	 * @param tile a tile in it
+	 * @return the cost that search found for it, or -1 if it wasn't reached
+	 */
+	private int localDistance(final int cluster, final int tile) {
+		final int columns = grid.getColumns();
+		final int local = (tile / columns - (cluster / clusterCols) * clusterSize)
+				* clusterSize + (tile % columns - (cluster % clusterCols)
+				* clusterSize);
+		if (localStamp[local] == localGeneration) {
+			return localDist[local];
+		} else {
+			return -1;
+		}
+	}
+
+	/**
+	 * Mark every cluster and border for rebuilding.
+	 */
+	private void markAllDirty() {
+		Arrays.fill(dirtyEast, true);
+		Arrays.fill(dirtySouth, true);
+		Arrays.fill(dirtyCluster, true);
+		dirty = true;
+	}
+
+	/**
+	 * Mark the cluster containing a tile for rebuilding, and if the tile is
+	 * on the cluster's edge, the border there and the cluster beyond it.
+	 *
+	 * @param row the row of the tile
+	 * @param col the column of the tile
+	 */
+	private void markDirty(final int row, final int col) {
+		if (grid.indexOf(row, col) < 0) {
+			return;
+		}
+		final int clusterRow = row / clusterSize;
+		final int clusterCol = col / clusterSize;
+		final int cluster = clusterRow * clusterCols + clusterCol;
+		dirtyCluster[cluster] = true;
+		if (col % clusterSize == clusterSize - 1 && clusterCol + 1 < clusterCols) {
+			dirtyEast[cluster] = true;
+			dirtyCluster[cluster + 1] = true;
+		}
+		if (col % clusterSize == 0 && clusterCol > 0) {
+			dirtyEast[cluster - 1] = true;
+			dirtyCluster[cluster - 1] = true;
+		}
+		if (row % clusterSize == clusterSize - 1 && clusterRow + 1 < clusterRows) {
+			dirtySouth[cluster] = true;
+			dirtyCluster[cluster + clusterCols] = true;
+		}
+		if (row % clusterSize == 0 && clusterRow > 0) {
+			dirtySouth[cluster - clusterCols] = true;
+			dirtyCluster[cluster - clusterCols] = true;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Rebuild whatever has been marked dirty: first the entrances on the
+	 * dirty borders, then the nodes and costs of the dirty clusters.
+	 */
+	private void repair() {
+		if (knownVersion != grid.getVersion()) {
+			markAllDirty();
+			knownVersion = grid.getVersion();
+		}
+		if (!dirty) {
+			return;
+		}
+		for (int cluster = 0; cluster < dirtyCluster.length; cluster++) {
+			if (dirtyEast[cluster]) {
+				rebuildBorder(cluster, true);
+				dirtyEast[cluster] = false;
+			}
+			if (dirtySouth[cluster]) {
+				rebuildBorder(cluster, false);
+				dirtySouth[cluster] = false;
+			}
+		}
+		for (int cluster = 0; cluster < dirtyCluster.length; cluster++) {
+			if (dirtyCluster[cluster]) {
+				rebuildCluster(cluster);
+				dirtyCluster[cluster] = false;
+			}
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Rebuild the entrances on a cluster's eastern or southern border.
+	 *
+	 * @param cluster the cluster
+	 * @param east true for the eastern border, false for the southern
+	 */
+	private void rebuildBorder(final int cluster, final boolean east) {
+		final int[][] entrances = east ? eastEntrances : southEntrances;
+		final int across = east ? 1 : grid.getColumns();
+		for (final int tile : entrances[cluster]) {
+			nodeRefs[tile]--;
+			nodeRefs[tile + across]--;
+		}
+		final int clusterRow = cluster / clusterCols;
+		final int clusterCol = cluster % clusterCols;
+		if ((east && clusterCol + 1 >= clusterCols)
+				|| (!east && clusterRow + 1 >= clusterRows)) {
+			entrances[cluster] = new int[0];
+			return;
+		}
+		// The border is a line of tiles along the cluster's edge; "along" is
+		// the position on that line, "fixed" the coordinate across it.
+		final int fixed;
+		final int first;
+		final int end;
+		if (east) {
+			fixed = (clusterCol + 1) * clusterSize - 1;
+			first = clusterRow * clusterSize;
+			end = Math.min(first + clusterSize, grid.getRows());
+		} else {
+			fixed = (clusterRow + 1) * clusterSize - 1;
+			first = clusterCol * clusterSize;
+			end = Math.min(first + clusterSize, grid.getColumns());
+		}
+		final int[] found = new int[clusterSize];
+		int count = 0;
+		int runStart = -1;
+		for (int along = first; along <= end; along++) {
+			final boolean passable;
+			if (along == end) {
+				passable = false;
+			} else {
+				final int tile = east ? grid.indexOf(along, fixed) : grid
+						.indexOf(fixed, along);
+				passable = grid.cost(tile) > 0 && grid.cost(tile + across) > 0;
+			}
+			if (passable && runStart < 0) {
+				runStart = along;
+			} else if (!passable && runStart >= 0) {
+				final int runEnd = along - 1;
+				if (runEnd - runStart + 1 >= SPLIT_RUN) {
+					found[count] = runStart;
+					found[count + 1] = runEnd;
+					count += 2;
+				} else {
+					found[count] = (runStart + runEnd) / 2;
+					count++;
+				}
+				runStart = -1;
+			}
+		}
+		final int[] retval = new int[count];
+		for (int i = 0; i < count; i++) {
+			retval[i] = east ? grid.indexOf(found[i], fixed) : grid.indexOf(
+					fixed, found[i]);
+			nodeRefs[retval[i]]++;
+			nodeRefs[retval[i] + across]++;
+		}
+		entrances[cluster] = retval;
+	}
+
+	/**
+	 * Rebuild a cluster's list of nodes and the costs between them. Its
+	 * borders' entrances must already be up to date.
+	 *
+	 * @param cluster the cluster
+	 */
+	private void rebuildCluster(final int cluster) {
+		for (final int node : clusterNodes[cluster]) {
+			localIndex[node] = -1;
+		}
+		final int top = (cluster / clusterCols) * clusterSize;
+		final int left = (cluster % clusterCols) * clusterSize;
+		final int bottom = Math.min(top + clusterSize, grid.getRows());
+		final int right = Math.min(left + clusterSize, grid.getColumns());
+		int count = 0;
+		for (int row = top; row < bottom; row++) {
+			for (int col = left; col < right; col++) {
+				if (nodeRefs[grid.indexOf(row, col)] > 0) {
+					count++;
+				}
+			}
+		}
+		final int[] nodes = new int[count];
+		count = 0;
+		for (int row = top; row < bottom; row++) {
+			for (int col = left; col < right; col++) {
+				final int tile = grid.indexOf(row, col);
+				if (nodeRefs[tile] > 0) {
+					localIndex[tile] = count;
+					nodes[count] = tile;
+					count++;
+				}
+			}
+		}
+		final int[] costs = new int[count * count];
+		for (int i = 0; i < count; i++) {
+			searchCluster(cluster, nodes[i], false);
+			for (int j = 0; j < count; j++) {
+				costs[i * count + j] = (i == j) ? 0 : localDistance(cluster,
+						nodes[j]);
+			}
+		}
+		clusterNodes[cluster] = nodes;
+		clusterCosts[cluster] = costs;
+	}
+
+	/**
+	 * This doesn't care about units.
+	 *
+	 * @return -1
+	 */
+	@Override
+	public int getPlayer() {
+		return -1;
+	}
+
+	/**
+	 * Update the grid and mark the affected clusters for repair.
+	 *
+	 * @param point the location of the change
+	 * @param type the new tile type there
+	 */
+	@Override
+	public synchronized void terrainChanged(final IPoint point,
+			final TileType type) {
+		if (knownVersion != grid.getVersion()) {
+			markAllDirty();
+		}
+		grid.setTerrain(point.getRow(), point.getColumn(), type);
+		knownVersion = grid.getVersion();
+		markDirty(point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * Fixtures don't affect paths.
+	 *
+	 * @param point ignored
+	 * @param fix ignored
+	 */
+	@Override
+	public void fixtureAdded(final IPoint point, final ITileFixture fix) {
+		// Do nothing
+	}
+
+	/**
+	 * Fixtures don't affect paths.
+	 *
+	 * @param point ignored
+	 * @param fix ignored
+	 */
+	@Override
+	public void fixtureRemoved(final IPoint point, final ITileFixture fix) {
+		// Do nothing
+	}
+
+	/**
+	 * Fixtures don't affect paths.
+	 *
+	 * @param source ignored
+	 * @param dest ignored
+	 * @param fix ignored
+	 */
+	@Override
+	public void fixtureMoved(final IPoint source, final IPoint dest,
+			final ITileFixture fix) {
+		// Do nothing
+	}
+
+	/**
+	 * Turns don't affect paths.
+	 *
+	 * @param player ignored
+	 */
+	@Override
+	public void endTurn(final int player) {
+		// Do nothing
+	}
+
+	/**
+	 * Combat doesn't affect paths.
+	 *
+	 * @param report ignored
+	 */
+	@Override
+	public void combatResolved(final CombatReport report) {
+		// Do nothing
+	}
+}
@@ -1,22 +1,59 @@
 package controller;
 
-import java.util.BitSet;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jdt.annotation.Nullable;
 
 /**
- * A class to register IDs with and produce not-yet-used IDs.
+ * A class to register IDs with and produce not-yet-used IDs. Each game has
+ * its own (see TPServer), so games don't contend with each other and each
+ * game's IDs stay small; it is serializable so it can be saved with the game.
+ *
+ * Which IDs are in use is kept in a bitmap divided into segments, each an
+ * array of words changed only by compare-and-set, so marking an ID used or
+ * free never takes a lock; a lock is taken only to add a segment, once per
+ * 65536 IDs. New IDs come first from a free list of IDs that were released
+ * (as when a unit dies), so the ID space stays dense, and then from a counter
+ * of IDs never handed out. A game or thread creating many IDs at once can
+ * reserve a contiguous Block of them with one atomic step and then hand them
+ * out without touching shared state at all.
  *
  * @author Jonathan Lovelace
  *
  */
-public final class IDFactory {
+public final class IDFactory implements Serializable {
+	/**
+	 * Version UID for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The base-2 logarithm of the number of IDs in a segment of the bitmap.
+	 */
+	private static final int SEGMENT_SHIFT = 16;
+	/**
+	 * The mask to get an ID's bit within its segment.
+	 */
+	private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+	/**
+	 * The segments of the bitmap of IDs in use or reserved. Null entries are
+	 * segments no ID has been marked in yet. Entries are added, and the array
+	 * replaced, only while holding the lock on the factory.
+	 */
+	private volatile AtomicLongArray[] segments = new AtomicLongArray[1];
 	/**
-	 * An instance of this class.
+	 * The lowest ID never handed out or reserved (though it may have been
+	 * registered).
 	 */
-	public static final IDFactory FACTORY = new IDFactory();
+	private final AtomicInteger next = new AtomicInteger(0);
 	/**
-	 * The set of IDs used already.
+	 * IDs released and not yet handed out again.
 	 */
-	private final BitSet usedIDs = new BitSet();
+	private final ConcurrentLinkedDeque<Integer> free =
+			new ConcurrentLinkedDeque<>();
 
 	/**
 	 * An exception to warn about duplicate IDs.
@@ -32,10 +69,15 @@ public final class IDFactory {
 	/**
 	 * This should probably only be called from the IDFactoryFiller.
 	 * @param idNum an ID number.
-	 * @return whether it's used.
+	 * @return whether it's used, or reserved in a block.
 	 */
 	public boolean used(final int idNum) {
-		return idNum < 0 || usedIDs.get(idNum);
+		if (idNum < 0) {
+			return true;
+		}
+		final AtomicLongArray segment = segmentFor(idNum, false);
+		return segment != null && (segment.get((idNum & SEGMENT_MASK) >> 6)
+				& 1L << idNum) != 0;
 	}
 	/**
 	 * Register an ID.
@@ -44,40 +86,101 @@ public final class IDFactory {
 	 * @return the id, so this can be used functionally.
 	 * @throws DuplicateIDException if ID is already in use
 	 */
-	public synchronized int register(final int idNum) throws DuplicateIDException {
-		if (idNum >= 0) {
-			if (usedIDs.get(idNum)) {
-				throw new DuplicateIDException(idNum);
-			}
-			usedIDs.set(idNum);
+	public int register(final int idNum) throws DuplicateIDException {
+		if (idNum >= 0 && !mark(idNum)) {
+			throw new DuplicateIDException(idNum);
 		}
 		return idNum;
 	}
 
 	/**
-	 * Generate and register an id that hasn't been previously registered.
+	 * Generate and register an id that isn't in use: one released earlier, if
+	 * there is one, or else the lowest never handed out.
 	 *
 	 * @return the generated id
 	 */
-	public synchronized int createID() {
-		if (usedIDs.cardinality() < Integer.MAX_VALUE) {
-			final int idNum = usedIDs.nextClearBit(0);
-			usedIDs.set(idNum);
-			return idNum;
-		} else {
-			throw new IllegalStateException("Exhausted all ints ...");
+	public int createID() {
+		for (Integer recycled = free.pollFirst(); recycled != null;
+				recycled = free.pollFirst()) {
+			// It may have been registered since it was released.
+			if (mark(recycled.intValue())) {
+				return recycled.intValue();
+			}
+		}
+		while (true) {
+			final int idNum = advance(1);
+			if (mark(idNum)) {
+				return idNum;
+			}
+		}
+	}
+
+	/**
+	 * Mark an ID as no longer in use, so it can be handed out again. IDs not
+	 * in use are ignored.
+	 *
+	 * @param idNum the ID
+	 */
+	public void release(final int idNum) {
+		if (idNum >= 0 && unmark(idNum)) {
+			free.addFirst(Integer.valueOf(idNum));
 		}
 	}
 
+	/**
+	 * Reserve a contiguous range of IDs never handed out, for a caller to hand
+	 * out itself. IDs in the range that were registered already are skipped.
+	 *
+	 * @param count how many IDs to reserve
+	 * @return the block of reserved IDs
+	 */
+	public Block reserve(final int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Block must hold at least one ID");
+		}
+		final int start = advance(count);
+		final long[] taken = new long[((start & 63) + count + 63) >> 6];
+		int idNum = start;
+		while (idNum < start + count) {
+			// The end of this word of the range, computed so as not to overflow.
+			final int end =
+					(int) Math.min((idNum | 63) + 1L, (long) start + count);
+			final long bits;
+			if (end - idNum == 64) {
+				bits = -1L;
+			} else {
+				bits = ((1L << end - idNum) - 1) << idNum;
+			}
+			taken[(idNum - (start & ~63)) >> 6] = markWord(idNum, bits) & bits;
+			idNum = end;
+		}
+		return new Block(start, start + count, taken);
+	}
+
 	/**
 	 * Create a copy of this factory for testing purposes. (So that we don't
-	 * "register" IDs that don't end up getting used.)
+	 * "register" IDs that don't end up getting used.) If this factory is in
+	 * use by other threads, the copy may or may not reflect what they are
+	 * doing.
 	 *
 	 * @return a copy of this factory
 	 */
 	public IDFactory copy() {
 		final IDFactory retval = new IDFactory();
-		retval.usedIDs.or(usedIDs);
+		final AtomicLongArray[] local = segments;
+		retval.segments = new AtomicLongArray[local.length];
+		for (int i = 0; i < local.length; i++) {
+			final AtomicLongArray segment = local[i];
+			if (segment != null) {
+				final long[] words = new long[segment.length()];
+				for (int j = 0; j < words.length; j++) {
+					words[j] = segment.get(j);
+				}
+				retval.segments[i] = new AtomicLongArray(words);
+			}
+		}
+		retval.next.set(next.get());
+		retval.free.addAll(free);
 		return retval;
 	}
 
@@ -88,4 +191,211 @@ public final class IDFactory {
 	public String toString() {
 		return "IDFactory";
 	}
+
+	/**
+	 * Take IDs from the counter of those never handed out.
+	 *
+	 * @param count how many to take
+	 * @return the first of them
+	 */
+	private int advance(final int count) {
+		while (true) {
+			final int start = next.get();
+			if (start > Integer.MAX_VALUE - count) {
+				throw new IllegalStateException("Exhausted all ints ...");
+			} else if (next.compareAndSet(start, start + count)) {
+				return start;
+			}
+		}
+	}
+
+	/**
+	 * @param idNum an ID
+	 * @return whether it was not already marked in use, and so has now been
+	 */
+	private boolean mark(final int idNum) {
+		final long bit = 1L << idNum;
+		return (markWord(idNum, bit) & bit) == 0;
+	}
+
+	/**
+	 * Set bits in the word of the bitmap holding an ID.
+	 *
+	 * @param idNum an ID in the word
+	 * @param bits the bits to set
+	 * @return the word as it was before
+	 */
+	private long markWord(final int idNum, final long bits) {
+		final AtomicLongArray segment = segmentFor(idNum, true);
+		assert segment != null;
+		final int index = (idNum & SEGMENT_MASK) >> 6;
+		while (true) {
+			final long old = segment.get(index);
+			if ((old | bits) == old
+					|| segment.compareAndSet(index, old, old | bits)) {
+				return old;
+			}
+		}
+	}
+
+	/**
+	 * @param idNum an ID
+	 * @return whether it was marked in use, and so now isn't
+	 */
+	private boolean unmark(final int idNum) {
+		final AtomicLongArray segment = segmentFor(idNum, false);
+		if (segment == null) {
+			return false;
+		}
+		final int index = (idNum & SEGMENT_MASK) >> 6;
+		final long bit = 1L << idNum;
+		while (true) {
+			final long old = segment.get(index);
+			if ((old & bit) == 0) {
+				return false;
+			} else if (segment.compareAndSet(index, old, old & ~bit)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param idNum an ID, which must not be negative
+	 * @param create whether to add the segment if it isn't there
+	 * @return the segment of the bitmap holding it, or null if there isn't one
+	 *         and we weren't to create it
+	 */
+	@Nullable
+	private AtomicLongArray segmentFor(final int idNum, final boolean create) {
+		final int index = idNum >>> SEGMENT_SHIFT;
+		final AtomicLongArray[] local = segments;
+		if (index < local.length) {
+			final AtomicLongArray segment = local[index];
+			if (segment != null || !create) {
+				return segment;
+			}
+		} else if (!create) {
+			return null;
+		}
+		return addSegment(index);
+	}
+
+	/**
+	 * @param index the index of a segment of the bitmap
+	 * @return that segment, added if it wasn't already there
+	 */
+	private synchronized AtomicLongArray addSegment(final int index) {
+		AtomicLongArray[] local = segments;
+		if (index >= local.length) {
+			local = Arrays.copyOf(local, Math.max(index + 1, local.length * 2));
+		}
+		AtomicLongArray retval = local[index];
+		if (retval == null) {
+			retval = new AtomicLongArray(1 << (SEGMENT_SHIFT - 6));
+			local[index] = retval;
+		}
+		// Reassign even if unchanged, so the write to the array is published.
+		segments = local;
+		return retval;
+	}
+
+	/**
+	 * A contiguous range of IDs reserved from a factory, to be handed out by
+	 * whoever holds it (a game, or a thread) without touching the factory. IDs
+	 * released to the block are handed out again before any new ones. This is
+	 * not thread-safe; each thread or game should have its own.
+	 */
+	public final class Block {
+		/**
+		 * The next ID in the range not yet handed out.
+		 */
+		private int nextID;
+		/**
+		 * One past the last ID in the range.
+		 */
+		private final int end;
+		/**
+		 * The first ID covered by the first word of the taken bits.
+		 */
+		private final int base;
+		/**
+		 * Bits for the IDs in the range that were registered before it was
+		 * reserved, and so mustn't be handed out.
+		 */
+		private final long[] taken;
+		/**
+		 * IDs released to the block, to hand out again.
+		 */
+		private int[] released = new int[16];
+		/**
+		 * How many IDs have been released to the block and not handed out
+		 * again.
+		 */
+		private int releasedCount = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param first the first ID in the range
+		 * @param last one past the last ID in the range
+		 * @param takenBits bits for the IDs in the range already in use, by
+		 *            word, starting with the word holding the first ID
+		 */
+		protected Block(final int first, final int last,
+				final long[] takenBits) {
+			nextID = first;
+			end = last;
+			base = first & ~63;
+			taken = takenBits;
+		}
+
+		/**
+		 * @return an unused ID from the block, or from the factory if the
+		 *         block is used up
+		 */
+		public int createID() {
+			if (releasedCount > 0) {
+				releasedCount--;
+				return released[releasedCount];
+			}
+			while (nextID < end) {
+				final int idNum = nextID;
+				nextID++;
+				if ((taken[(idNum - base) >> 6] & 1L << idNum) == 0) {
+					return idNum;
+				}
+			}
+			return IDFactory.this.createID();
+		}
+
+		/**
+		 * Mark an ID handed out by the block as no longer in use, so the block
+		 * can hand it out again.
+		 *
+		 * @param idNum the ID
+		 */
+		public void release(final int idNum) {
+			if (releasedCount == released.length) {
+				released = Arrays.copyOf(released, releasedCount * 2);
+			}
+			released[releasedCount] = idNum;
+			releasedCount++;
+		}
+
+		/**
+		 * Give the IDs the block hasn't handed out back to the factory. The
+		 * block must not be used afterwards.
+		 */
+		public void close() {
+			for (int i = 0; i < releasedCount; i++) {
+				IDFactory.this.release(released[i]);
+			}
+			releasedCount = 0;
+			for (; nextID < end; nextID++) {
+				if ((taken[(nextID - base) >> 6] & 1L << nextID) == 0) {
+					IDFactory.this.release(nextID);
+				}
+			}
+		}
+	}
 }
@@ -1,10 +1,12 @@
 package controller;
 
 import gamenet.GamePlayer;
+import model.CombatReport;
 import model.IPoint;
 import model.ProxyUnit;
 import model.SimpleUnit;
 import model.TileType;
+import model.UnitStore;
 
 /**
  * An interface for the non-UI part of the client.
@@ -37,6 +39,11 @@ public interface ITPClient {
 	 * @param unit the unit to add
 	 */
 	void addOwnUnit(IPoint point, SimpleUnit unit);
+	/**
+	 * @return the store that our own units, as they arrive from the server,
+	 *         should be created in
+	 */
+	UnitStore getUnits();
 	/**
 	 * Move a fixture.
 	 * @param source where the unit was located
@@ -56,6 +63,30 @@ public interface ITPClient {
 	 * @param type what to change it to
 	 */
 	void changeTerrain(IPoint point, TileType type);
+	/**
+	 * Apply the outcome of a turn's combat.
+	 * @param report the HP and health tier of every unit attacked
+	 */
+	void combatResolved(CombatReport report);
+	/**
+	 * Start applying a batch of updates from the server, such as the whole
+	 * map. Until the matching endBatch(), updates that don't fit our map are
+	 * noted rather than each sending the server our map's hash.
+	 */
+	void startBatch();
+	/**
+	 * Finish applying a batch of updates, checking with the server, once, if
+	 * any of them didn't fit our map.
+	 */
+	void endBatch();
+	/**
+	 * Order one of our units to attack.
+	 * @param source where the attacker is located
+	 * @param target where the unit to attack is located
+	 * @param id the ID of the attacker
+	 * @param ranged whether this is a ranged attack rather than melee
+	 */
+	void attack(IPoint source, IPoint target, int id, boolean ranged);
 	public abstract void stopThreads();
 	public void setServerConnection(GamePlayer conn);
 }
\ No newline at end of file
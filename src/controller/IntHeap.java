@@ -0,0 +1,109 @@
+package controller;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int items keyed on int priorities, kept in two
+ * parallel primitive arrays so that searches using it as their open set don't
+ * box or allocate. There is no decrease-key operation: callers push a second
+ * entry when they improve an item's priority and skip the stale one when it is
+ * popped.
+ *
+ * @author Jonathan Lovelace
+ */
+final class IntHeap {
+	/**
+	 * The items, in heap order.
+	 */
+	private int[] items;
+	/**
+	 * The priority of each item.
+	 */
+	private int[] keys;
+	/**
+	 * How many entries are valid.
+	 */
+	private int size = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity how many entries to make room for initially
+	 */
+	IntHeap(final int capacity) {
+		items = new int[Math.max(capacity, 16)];
+		keys = new int[items.length];
+	}
+
+	/**
+	 * @return whether the heap is empty
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove every entry.
+	 */
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Add an entry.
+	 *
+	 * @param item the item
+	 * @param key its priority
+	 */
+	void push(final int item, final int key) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size * 2);
+			keys = Arrays.copyOf(keys, size * 2);
+		}
+		int index = size;
+		size++;
+		while (index > 0) {
+			final int up = (index - 1) >>> 1;
+			if (keys[up] <= key) {
+				break;
+			}
+			items[index] = items[up];
+			keys[index] = keys[up];
+			index = up;
+		}
+		items[index] = item;
+		keys[index] = key;
+	}
+
+	/**
+	 * @return the item with the lowest priority, which is removed
+	 */
+	int pop() {
+		if (size == 0) {
+			throw new IllegalStateException("Heap is empty");
+		}
+		final int retval = items[0];
+		size--;
+		final int item = items[size];
+		final int key = keys[size];
+		int index = 0;
+		while (true) {
+			int child = index * 2 + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if (keys[child] >= key) {
+				break;
+			}
+			items[index] = items[child];
+			keys[index] = keys[child];
+			index = child;
+		}
+		items[index] = item;
+		keys[index] = key;
+		return retval;
+	}
+}
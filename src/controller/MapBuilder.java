@@ -0,0 +1,143 @@
+package controller;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.IGridMap;
+
+import common.SplitRandom;
+
+/**
+ * Fills in the terrain of a new map with a MapGenerator, on a fork/join pool.
+ * The map is divided into bands of a fixed number of rows, each made into its
+ * own array and then written into the map with one call; each band's
+ * generator is seeded, in order, from the map's seed. Since neither the bands
+ * nor their seeds depend on how many threads there are, the same seed always
+ * gives the same map.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class MapBuilder {
+	/**
+	 * The number of rows in a band.
+	 */
+	public static final int BAND_ROWS = 64;
+	/**
+	 * What makes the terrain.
+	 */
+	private final MapGenerator generator;
+	/**
+	 * The threads the bands are made on.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor, using one thread per available processor.
+	 *
+	 * @param gen what makes the terrain
+	 */
+	public MapBuilder(final MapGenerator gen) {
+		this(gen, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gen what makes the terrain
+	 * @param parallelism how many bands to make at once
+	 */
+	public MapBuilder(final MapGenerator gen, final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Need at least one thread");
+		}
+		generator = gen;
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Set the terrain of every tile in a map.
+	 *
+	 * @param map the map
+	 * @param seed the seed for the terrain's randomness
+	 */
+	public void build(final IGridMap map, final long seed) {
+		final int bands = (map.getRows() + BAND_ROWS - 1) / BAND_ROWS;
+		if (bands == 0 || map.getColumns() == 0) {
+			return;
+		}
+		final SplitRandom random = new SplitRandom(seed);
+		final long[] seeds = new long[bands];
+		for (int i = 0; i < bands; i++) {
+			seeds[i] = random.nextLong();
+		}
+		pool.invoke(new BandTask(map, seeds, 0, bands));
+	}
+
+	/**
+	 * Stop the builder's threads. It must not be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Makes a range of bands, splitting it until each task makes one.
+	 */
+	private final class BandTask extends RecursiveAction {
+		/**
+		 * Version UID for serialization.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The map.
+		 */
+		private final IGridMap map;
+		/**
+		 * The seed for each band.
+		 */
+		private final long[] seeds;
+		/**
+		 * The first band to make.
+		 */
+		private final int start;
+		/**
+		 * One past the last band to make.
+		 */
+		private final int end;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param theMap the map
+		 * @param bandSeeds the seed for each band
+		 * @param first the first band to make
+		 * @param last one past the last band to make
+		 */
+		BandTask(final IGridMap theMap, final long[] bandSeeds,
+				final int first, final int last) {
+			map = theMap;
+			seeds = bandSeeds;
+			start = first;
+			end = last;
+		}
+
+		/**
+		 * Make the band, or split the work.
+		 */
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				final int firstRow = start * BAND_ROWS;
+				final int rows = Math.min(BAND_ROWS, map.getRows() - firstRow);
+				final byte[] terrain = new byte[rows * map.getColumns()];
+				generator.generate(firstRow, map.getColumns(),
+						new SplitRandom(seeds[start]), terrain);
+				map.setTerrainRows(firstRow, terrain);
+			} else {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new BandTask(map, seeds, start, middle), new BandTask(
+						map, seeds, middle, end));
+			}
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package controller;
+
+import common.SplitRandom;
+
+/**
+ * Something that makes the terrain of a new map. Terrain is made a band of
+ * whole rows at a time, so that different bands can be made on different
+ * threads at once (see MapBuilder). What an implementation puts in a band
+ * must depend only on the band's position and the generator it is given,
+ * which is seeded for that band alone, so that a map comes out the same
+ * however many threads make it.
+ *
+ * @author Jonathan Lovelace
+ */
+public interface MapGenerator {
+	/**
+	 * Make the terrain of one band of rows. This may be called for several
+	 * bands at once, from different threads.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param columns the number of columns in the map
+	 * @param random the band's own source of randomness
+	 * @param terrain where to put the terrain, as TileType ordinals, in
+	 *            row-major order; its length is a multiple of the number of
+	 *            columns
+	 */
+	void generate(int firstRow, int columns, SplitRandom random, byte[] terrain);
+}
@@ -0,0 +1,404 @@
+package controller;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import common.SplitRandom;
+
+/**
+ * Chooses orders by Monte Carlo tree search (UCT). Each search grows several
+ * trees at once on a fork/join pool, one per worker, each with its own copy of
+ * the state and its own generator (root parallelism), so the workers never
+ * contend; when the time budget runs out their visit counts for the possible
+ * orders are summed and the most-visited order wins.
+ *
+ * Each tree node stands for one order, not a state: states are recreated by
+ * replaying orders from the root on a scratch copy (see SimState.copyFrom()),
+ * so nodes are a few entries in primitive arrays. Because combat is random, the
+ * same orders can lead to different states; orders that aren't legal in the
+ * state reached are skipped.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class MonteCarloSearch {
+	/**
+	 * The default number of turns to play out from a new node.
+	 */
+	public static final int DEFAULT_PLAYOUT_TURNS = 20;
+	/**
+	 * The exploration constant in the UCT formula.
+	 */
+	private static final double EXPLORATION = Math.sqrt(2.0);
+	/**
+	 * The most nodes a tree may grow to; beyond that, search continues but the
+	 * tree stops growing.
+	 */
+	private static final int MAX_NODES = 1 << 20;
+	/**
+	 * The threads the trees are grown on.
+	 */
+	private final ForkJoinPool pool;
+	/**
+	 * How many trees to grow per search.
+	 */
+	private final int trees;
+	/**
+	 * How many turns to play out from a new node.
+	 */
+	private final int playoutTurns;
+	/**
+	 * The generator each search's generators are split from.
+	 */
+	private final SplitRandom random;
+	/**
+	 * How many playouts the last search ran, across all trees.
+	 */
+	private long playouts = 0;
+
+	/**
+	 * Constructor, growing one tree per available processor.
+	 *
+	 * @param seed the seed for the search's randomness
+	 */
+	public MonteCarloSearch(final long seed) {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_PLAYOUT_TURNS,
+				seed);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param parallelism how many trees to grow at once
+	 * @param turns how many turns to play out from a new node
+	 * @param seed the seed for the search's randomness
+	 */
+	public MonteCarloSearch(final int parallelism, final int turns,
+			final long seed) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Need at least one tree");
+		} else if (turns < 0) {
+			throw new IllegalArgumentException("Negative playout length");
+		}
+		pool = new ForkJoinPool(parallelism);
+		trees = parallelism;
+		playoutTurns = turns;
+		random = new SplitRandom(seed);
+	}
+
+	/**
+	 * Search for the best order for the player whose turn it is, returning
+	 * when the time budget runs out.
+	 *
+	 * @param root the state to search from; it is not modified
+	 * @param budget how long to search, in nanoseconds
+	 * @return the chosen order, in SimState's encoding
+	 */
+	public synchronized int search(final SimState root, final long budget) {
+		final long deadline = System.nanoTime() + budget;
+		final SimState base = root.copy();
+		final int count = base.generateActions();
+		if (count == 1 || base.isOver()) {
+			playouts = 0;
+			return SimState.END_TURN;
+		}
+		final Tree[] forest = new Tree[trees];
+		for (int i = 0; i < trees; i++) {
+			forest[i] = new Tree(base, random.split(), playoutTurns);
+		}
+		pool.invoke(new Grow(forest, 0, trees, deadline));
+		final long[] visits = new long[count];
+		playouts = 0;
+		for (final Tree tree : forest) {
+			tree.addRootVisits(visits);
+			playouts += tree.iterations;
+		}
+		int best = 0;
+		for (int i = 1; i < count; i++) {
+			if (visits[i] > visits[best]) {
+				best = i;
+			}
+		}
+		return base.getAction(best);
+	}
+
+	/**
+	 * @return how many playouts the last search ran, across all trees; the
+	 *         measure of the search's throughput
+	 */
+	public synchronized long getPlayouts() {
+		return playouts;
+	}
+
+	/**
+	 * Stop the search's threads. It must not be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Grows a range of trees, splitting it until each task grows one.
+	 */
+	private static final class Grow extends RecursiveAction {
+		/**
+		 * Version UID for serialization.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The trees.
+		 */
+		private final Tree[] forest;
+		/**
+		 * The first tree to grow.
+		 */
+		private final int start;
+		/**
+		 * One past the last tree to grow.
+		 */
+		private final int end;
+		/**
+		 * When to stop, by System.nanoTime().
+		 */
+		private final long deadline;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param theForest the trees
+		 * @param first the first tree to grow
+		 * @param last one past the last tree to grow
+		 * @param stop when to stop, by System.nanoTime()
+		 */
+		Grow(final Tree[] theForest, final int first, final int last,
+				final long stop) {
+			forest = theForest;
+			start = first;
+			end = last;
+			deadline = stop;
+		}
+
+		/**
+		 * Grow the tree, or split the work.
+		 */
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				forest[start].grow(deadline);
+			} else {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new Grow(forest, start, middle, deadline), new Grow(
+						forest, middle, end, deadline));
+			}
+		}
+	}
+
+	/**
+	 * One search tree, in parallel arrays indexed by node. Node 0 is the root;
+	 * the children of a node are contiguous.
+	 */
+	private static final class Tree {
+		/**
+		 * The state at the root.
+		 */
+		private final SimState root;
+		/**
+		 * The state being played forward in the current iteration.
+		 */
+		private final SimState scratch;
+		/**
+		 * The source of randomness.
+		 */
+		private final SplitRandom random;
+		/**
+		 * How many turns to play out from a new node.
+		 */
+		private final int playoutTurns;
+		/**
+		 * The order each node stands for.
+		 */
+		private int[] action = new int[1024];
+		/**
+		 * The index in the turn order of the player who gives each node's
+		 * order.
+		 */
+		private int[] mover = new int[1024];
+		/**
+		 * The first child of each node.
+		 */
+		private int[] firstChild = new int[1024];
+		/**
+		 * The number of children of each node, or -1 if not yet expanded.
+		 */
+		private int[] childCount = new int[1024];
+		/**
+		 * The number of times each node has been visited.
+		 */
+		private int[] visits = new int[1024];
+		/**
+		 * The total score, for its mover, of the playouts through each node.
+		 */
+		private double[] value = new double[1024];
+		/**
+		 * The number of nodes.
+		 */
+		private int size = 0;
+		/**
+		 * The nodes visited in the current iteration.
+		 */
+		private int[] path = new int[64];
+		/**
+		 * The scores of the current playout, by index in the turn order.
+		 */
+		private final double[] scores;
+		/**
+		 * The number of iterations run.
+		 */
+		protected long iterations = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param base the state to search from
+		 * @param rng the source of randomness
+		 * @param turns how many turns to play out from a new node
+		 */
+		protected Tree(final SimState base, final SplitRandom rng,
+				final int turns) {
+			root = base.copy();
+			scratch = base.copy();
+			random = rng;
+			playoutTurns = turns;
+			scores = new double[base.getPlayerCount()];
+			childCount[0] = -1;
+			size = 1;
+			expand(0, scratch);
+		}
+
+		/**
+		 * Run iterations until the deadline passes, but at least one.
+		 *
+		 * @param deadline when to stop, by System.nanoTime()
+		 */
+		protected void grow(final long deadline) {
+			do {
+				iterate();
+				iterations++;
+			} while (System.nanoTime() < deadline);
+		}
+
+		/**
+		 * Add the visit counts of the root's children to a running total.
+		 *
+		 * @param totals the totals, in the order the root's orders were
+		 *            generated
+		 */
+		protected void addRootVisits(final long[] totals) {
+			for (int i = 0; i < childCount[0]; i++) {
+				totals[i] += visits[firstChild[0] + i];
+			}
+		}
+
+		/**
+		 * One iteration: select a path down the tree, expand the node at its
+		 * end, play out from there, and record the result along the path.
+		 */
+		private void iterate() {
+			scratch.copyFrom(root);
+			int node = 0;
+			int depth = 0;
+			path[depth] = 0;
+			depth++;
+			while (!scratch.isOver()) {
+				if (childCount[node] < 0) {
+					expand(node, scratch);
+					if (childCount[node] < 0) {
+						break;
+					}
+				}
+				final int child = select(node);
+				if (child < 0) {
+					break;
+				}
+				scratch.apply(action[child], random);
+				if (depth == path.length) {
+					path = Arrays.copyOf(path, depth * 2);
+				}
+				path[depth] = child;
+				depth++;
+				node = child;
+				if (visits[child] == 0) {
+					break;
+				}
+			}
+			scratch.playout(random, playoutTurns);
+			scratch.score(scores);
+			for (int i = 0; i < depth; i++) {
+				visits[path[i]]++;
+				value[path[i]] += scores[mover[path[i]]];
+			}
+		}
+
+		/**
+		 * Choose which child of a node to visit: an unvisited one if there is
+		 * one, or else the one with the best UCT score. Children whose orders
+		 * aren't legal in the scratch state are skipped.
+		 *
+		 * @param node the node
+		 * @return the child, or -1 if none is legal
+		 */
+		private int select(final int node) {
+			final double logVisits = Math.log(visits[node] + 1);
+			int best = -1;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			final int end = firstChild[node] + childCount[node];
+			for (int child = firstChild[node]; child < end; child++) {
+				if (!scratch.isLegal(action[child])) {
+					continue;
+				} else if (visits[child] == 0) {
+					return child;
+				}
+				final double score = value[child] / visits[child] + EXPLORATION
+						* Math.sqrt(logVisits / visits[child]);
+				if (score > bestScore) {
+					bestScore = score;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Give a node a child for each order possible in a state, unless the
+		 * tree is full.
+		 *
+		 * @param node the node
+		 * @param state the state at the node
+		 */
+		private void expand(final int node, final SimState state) {
+			final int count = state.generateActions();
+			if (size + count > MAX_NODES) {
+				return;
+			}
+			if (size + count > action.length) {
+				final int capacity = Math.max(size + count, action.length * 2);
+				action = Arrays.copyOf(action, capacity);
+				mover = Arrays.copyOf(mover, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				childCount = Arrays.copyOf(childCount, capacity);
+				visits = Arrays.copyOf(visits, capacity);
+				value = Arrays.copyOf(value, capacity);
+			}
+			firstChild[node] = size;
+			childCount[node] = count;
+			for (int i = 0; i < count; i++) {
+				action[size] = state.getAction(i);
+				mover[size] = state.getCurrentIndex();
+				childCount[size] = -1;
+				visits[size] = 0;
+				value[size] = 0.0;
+				size++;
+			}
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package controller;
+
+import java.util.Arrays;
+
+import model.TileType;
+
+import common.SplitRandom;
+
+/**
+ * Makes natural-looking terrain: lawn broken by patches of brush, with
+ * impassible ridges, scattered boulders, and a network of roads joining
+ * villages laid out roughly on a grid.
+ *
+ * Brush and ridges come from value noise: pseudo-random values at the corners
+ * of a lattice, blended smoothly across each cell, at two scales. Those values,
+ * and the villages and roads, are computed from the map's seed and the
+ * coordinates alone, so they join up across the edges of bands; only the
+ * boulders, which are small and kept inside their band, are drawn from the
+ * band's generator.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class NoiseMapGenerator implements MapGenerator {
+	/**
+	 * The ordinal of lawn.
+	 */
+	private static final byte LAWN = (byte) TileType.Lawn.ordinal();
+	/**
+	 * The ordinal of brush.
+	 */
+	private static final byte BRUSH = (byte) TileType.Brush.ordinal();
+	/**
+	 * The ordinal of impassible terrain.
+	 */
+	private static final byte IMPASSIBLE = (byte) TileType.Impassible.ordinal();
+	/**
+	 * The ordinal of road.
+	 */
+	private static final byte ROAD = (byte) TileType.Road.ordinal();
+	/**
+	 * The noise level above which a tile is brush.
+	 */
+	private static final double BRUSH_LEVEL = 0.55;
+	/**
+	 * The noise level above which a tile is part of a ridge.
+	 */
+	private static final double RIDGE_LEVEL = 0.75;
+	/**
+	 * The width and height of the cell each village is placed in.
+	 */
+	private static final int VILLAGE_SPACING = 48;
+	/**
+	 * How close to the edge of its cell a village may be.
+	 */
+	private static final int VILLAGE_MARGIN = 8;
+	/**
+	 * Out of 16, the chance of a road from a village to each of its neighbors
+	 * to the east and south.
+	 */
+	private static final int ROAD_CHANCE = 13;
+	/**
+	 * The number of tiles per boulder, on average.
+	 */
+	private static final int BOULDER_RARITY = 400;
+	/**
+	 * Salt for the brush noise.
+	 */
+	private static final long BRUSH_SALT = 0x5851F42D4C957F2DL;
+	/**
+	 * Salt for the ridge noise.
+	 */
+	private static final long RIDGE_SALT = 0x14057B7EF767814FL;
+	/**
+	 * Salt for the villages.
+	 */
+	private static final long VILLAGE_SALT = 0x2545F4914F6CDD1DL;
+	/**
+	 * The seed from which the noise and villages are computed.
+	 */
+	private final long seed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mapSeed the seed from which the noise and villages are computed
+	 */
+	public NoiseMapGenerator(final long mapSeed) {
+		seed = mapSeed;
+	}
+
+	/**
+	 * Make the terrain of one band of rows.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param columns the number of columns in the map
+	 * @param random the band's own source of randomness
+	 * @param terrain where to put the terrain
+	 */
+	@Override
+	public void generate(final int firstRow, final int columns,
+			final SplitRandom random, final byte[] terrain) {
+		final int rows = terrain.length / columns;
+		final SplitRandom lattice = new SplitRandom(0L);
+		final double[] brush = new double[columns];
+		final double[] ridge = new double[columns];
+		for (int i = 0; i < rows; i++) {
+			Arrays.fill(brush, 0.0);
+			Arrays.fill(ridge, 0.0);
+			final int row = firstRow + i;
+			addOctave(brush, row, 16, seed ^ BRUSH_SALT, 0.7, lattice);
+			addOctave(brush, row, 4, seed ^ (BRUSH_SALT + 1), 0.3, lattice);
+			addOctave(ridge, row, 32, seed ^ RIDGE_SALT, 0.65, lattice);
+			addOctave(ridge, row, 8, seed ^ (RIDGE_SALT + 1), 0.35, lattice);
+			final int base = i * columns;
+			for (int j = 0; j < columns; j++) {
+				if (ridge[j] > RIDGE_LEVEL) {
+					terrain[base + j] = IMPASSIBLE;
+				} else if (brush[j] > BRUSH_LEVEL) {
+					terrain[base + j] = BRUSH;
+				} else {
+					terrain[base + j] = LAWN;
+				}
+			}
+		}
+		final int boulders = (int) ((long) rows * columns / BOULDER_RARITY);
+		for (int i = 0; i < boulders; i++) {
+			final int row = random.nextInt(rows);
+			final int col = random.nextInt(columns);
+			final int radius = random.nextInt(2);
+			for (int r = Math.max(row - radius, 0);
+					r <= Math.min(row + radius, rows - 1); r++) {
+				for (int c = Math.max(col - radius, 0);
+						c <= Math.min(col + radius, columns - 1); c++) {
+					terrain[r * columns + c] = IMPASSIBLE;
+				}
+			}
+		}
+		addRoads(firstRow, columns, terrain, lattice);
+	}
+
+	/**
+	 * Add one octave of value noise, for one row, to a running total.
+	 *
+	 * @param totals the running total for each column of the row
+	 * @param row the row
+	 * @param scale the width and height of a lattice cell
+	 * @param salt what distinguishes this octave's lattice from others
+	 * @param weight how much this octave counts for
+	 * @param lattice a scratch generator
+	 */
+	private static void addOctave(final double[] totals, final int row,
+			final int scale, final long salt, final double weight,
+			final SplitRandom lattice) {
+		final int cellRow = row / scale;
+		final double across = smooth((row % scale + 0.5) / scale);
+		int cellCol = -1;
+		double left = 0.0;
+		double right = 0.0;
+		for (int col = 0; col < totals.length; col++) {
+			if (col / scale != cellCol) {
+				cellCol = col / scale;
+				left = blend(corner(lattice, salt, cellRow, cellCol),
+						corner(lattice, salt, cellRow + 1, cellCol), across);
+				right = blend(corner(lattice, salt, cellRow, cellCol + 1),
+						corner(lattice, salt, cellRow + 1, cellCol + 1), across);
+			}
+			totals[col] += weight
+					* blend(left, right, smooth((col % scale + 0.5) / scale));
+		}
+	}
+
+	/**
+	 * @param lattice a scratch generator
+	 * @param salt what distinguishes this lattice from others
+	 * @param row the row of a lattice point
+	 * @param col its column
+	 * @return the value there, between 0 and 1
+	 */
+	private static double corner(final SplitRandom lattice, final long salt,
+			final int row, final int col) {
+		lattice.reseed(salt + row * 0x632BE59BD9B4E019L
+				+ col * 0x8CB92BA72F3D8DD7L);
+		return (lattice.nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param fraction a number between 0 and 1
+	 * @return it eased in and out, so blended cells meet without creases
+	 */
+	private static double smooth(final double fraction) {
+		return fraction * fraction * (3 - 2 * fraction);
+	}
+
+	/**
+	 * @param from one value
+	 * @param to another
+	 * @param fraction how far to go from the first toward the second
+	 * @return the blend of the two
+	 */
+	private static double blend(final double from, final double to,
+			final double fraction) {
+		return from + (to - from) * fraction;
+	}
+
+	/**
+	 * Draw the parts of the road network that cross a band. Each village has a
+	 * road east and then north or south to its neighbor to the east, and one
+	 * south and then east or west to its neighbor to the south, unless chance
+	 * says otherwise; a road's tiles are all within two cells' height of the
+	 * village it starts from, so only villages near the band need be looked
+	 * at.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param columns the number of columns in the map
+	 * @param terrain the band's terrain
+	 * @param lattice a scratch generator
+	 */
+	private void addRoads(final int firstRow, final int columns,
+			final byte[] terrain, final SplitRandom lattice) {
+		final int lastRow = firstRow + terrain.length / columns - 1;
+		final int cellCols = (columns + VILLAGE_SPACING - 1) / VILLAGE_SPACING;
+		for (int cellRow = Math.max(firstRow / VILLAGE_SPACING - 1, 0);
+				cellRow <= lastRow / VILLAGE_SPACING; cellRow++) {
+			for (int cellCol = 0; cellCol < cellCols; cellCol++) {
+				final long village = village(lattice, cellRow, cellCol);
+				final int row = villageRow(village, cellRow);
+				final int col = villageColumn(village, cellCol);
+				if ((village & 0xF) < ROAD_CHANCE && cellCol + 1 < cellCols) {
+					final long east = village(lattice, cellRow, cellCol + 1);
+					final int eastCol = villageColumn(east, cellCol + 1);
+					drawRow(firstRow, columns, terrain, row, col, eastCol);
+					drawColumn(firstRow, columns, terrain, eastCol, row,
+							villageRow(east, cellRow));
+				}
+				if ((village >>> 4 & 0xF) < ROAD_CHANCE) {
+					final long south = village(lattice, cellRow + 1, cellCol);
+					final int southRow = villageRow(south, cellRow + 1);
+					drawColumn(firstRow, columns, terrain, col, row, southRow);
+					drawRow(firstRow, columns, terrain, southRow, col,
+							villageColumn(south, cellCol));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param lattice a scratch generator
+	 * @param cellRow the row of a village's cell
+	 * @param cellCol the column of its cell
+	 * @return the pseudo-random bits that place the village and its roads
+	 */
+	private long village(final SplitRandom lattice, final int cellRow,
+			final int cellCol) {
+		lattice.reseed((seed ^ VILLAGE_SALT) + cellRow * 0x632BE59BD9B4E019L
+				+ cellCol * 0x8CB92BA72F3D8DD7L);
+		return lattice.nextLong();
+	}
+
+	/**
+	 * @param village the bits that place a village
+	 * @param cellRow the row of its cell
+	 * @return the row the village is in
+	 */
+	private static int villageRow(final long village, final int cellRow) {
+		return cellRow * VILLAGE_SPACING + VILLAGE_MARGIN
+				+ (int) ((village >>> 8 & 0xFFFFFF)
+						% (VILLAGE_SPACING - 2 * VILLAGE_MARGIN));
+	}
+
+	/**
+	 * @param village the bits that place a village
+	 * @param cellCol the column of its cell
+	 * @return the column the village is in
+	 */
+	private static int villageColumn(final long village, final int cellCol) {
+		return cellCol * VILLAGE_SPACING + VILLAGE_MARGIN
+				+ (int) ((village >>> 32 & 0xFFFFFF)
+						% (VILLAGE_SPACING - 2 * VILLAGE_MARGIN));
+	}
+
+	/**
+	 * Draw a stretch of road along a row, as far as it is in the band.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param columns the number of columns in the map
+	 * @param terrain the band's terrain
+	 * @param row the row to draw along
+	 * @param from one end
+	 * @param to the other end
+	 */
+	private static void drawRow(final int firstRow, final int columns,
+			final byte[] terrain, final int row, final int from, final int to) {
+		if (row < firstRow || row >= firstRow + terrain.length / columns) {
+			return;
+		}
+		final int base = (row - firstRow) * columns;
+		final int end = Math.min(Math.max(from, to), columns - 1);
+		for (int col = Math.min(from, to); col <= end; col++) {
+			terrain[base + col] = ROAD;
+		}
+	}
+
+	/**
+	 * Draw a stretch of road along a column, as far as it is in the band.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param columns the number of columns in the map
+	 * @param terrain the band's terrain
+	 * @param col the column to draw along
+	 * @param from one end
+	 * @param to the other end
+	 */
+	private static void drawColumn(final int firstRow, final int columns,
+			final byte[] terrain, final int col, final int from, final int to) {
+		if (col >= columns) {
+			return;
+		}
+		final int start = Math.max(Math.min(from, to), firstRow);
+		final int end = Math.min(Math.max(from, to),
+				firstRow + terrain.length / columns - 1);
+		for (int row = start; row <= end; row++) {
+			terrain[(row - firstRow) * columns + col] = ROAD;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package controller;
+
+import java.util.Arrays;
+
+import model.IPoint;
+import model.Point;
+
+/**
+ * An A* path-finder over a CostGrid, moving in the four cardinal directions.
+ * Every array a search needs (best-known costs, back-pointers, and the open
+ * set, which is a primitive heap of tile indices) is allocated once and
+ * reused, so a search allocates nothing. Rather than
+ * clearing the per-tile arrays between searches, each search bumps a
+ * generation number, and a tile whose stamp doesn't match it is treated as
+ * unvisited.
+ *
+ * This is not thread-safe; callers that share one must synchronize on it.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class PathFinder {
+	/**
+	 * The grid we search.
+	 */
+	private final CostGrid grid;
+	/**
+	 * The best known cost of reaching each tile in the current search.
+	 */
+	private final int[] gScore;
+	/**
+	 * The tile from which each tile was best reached in the current search.
+	 */
+	private final int[] parent;
+	/**
+	 * The search in which each tile's entries were last written.
+	 */
+	private final int[] stamp;
+	/**
+	 * Whether each tile has been expanded in the current search; valid only
+	 * where stamp is current.
+	 */
+	private final boolean[] closed;
+	/**
+	 * The current search's generation number.
+	 */
+	private int generation = 0;
+	/**
+	 * The open set: tile indices keyed on their estimated total cost.
+	 */
+	private final IntHeap open;
+	/**
+	 * The tiles on the last path found, from the first step to the
+	 * destination.
+	 */
+	private int[] path;
+	/**
+	 * How many entries in path are valid.
+	 */
+	private int pathLength = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param costs the grid to search
+	 */
+	public PathFinder(final CostGrid costs) {
+		grid = costs;
+		final int size = costs.size();
+		gScore = new int[size];
+		parent = new int[size];
+		stamp = new int[size];
+		closed = new boolean[size];
+		open = new IntHeap(size);
+		path = new int[16];
+	}
+
+	/**
+	 * @return the grid we search
+	 */
+	public CostGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Find the cheapest path between two tiles. On success the path can then
+	 * be read with getPathLength() and getStep().
+	 *
+	 * @param source where to start
+	 * @param dest where to go
+	 * @return the total cost of the cheapest path, or -1 if there is none
+	 */
+	public int findPath(final IPoint source, final IPoint dest) {
+		return findPath(source.getRow(), source.getColumn(), dest.getRow(),
+				dest.getColumn());
+	}
+
+	/**
+	 * Find the cheapest path between two tiles. On success the path can then
+	 * be read with getPathLength() and getStep().
+	 *
+	 * @param srcRow the row to start in
+	 * @param srcCol the column to start in
+	 * @param destRow the row to go to
+	 * @param destCol the column to go to
+	 * @return the total cost of the cheapest path, or -1 if there is none
+	 */
+	public int findPath(final int srcRow, final int srcCol, final int destRow,
+			final int destCol) {
+		pathLength = 0;
+		final int start = grid.indexOf(srcRow, srcCol);
+		final int goal = grid.indexOf(destRow, destCol);
+		if (start < 0 || goal < 0 || grid.cost(goal) == 0) {
+			return -1;
+		} else if (start == goal) {
+			return 0;
+		}
+		final int columns = grid.getColumns();
+		final int heuristicScale = grid.getMinCost();
+		nextGeneration();
+		open.clear();
+		visit(start, 0, -1);
+		open.push(start, 0);
+		while (!open.isEmpty()) {
+			final int current = open.pop();
+			if (closed[current]) {
+				// A stale entry: we found a cheaper way here after pushing it.
+				continue;
+			}
+			closed[current] = true;
+			if (current == goal) {
+				recordPath(start, goal);
+				return gScore[goal];
+			}
+			final int row = current / columns;
+			final int col = current % columns;
+			final int base = gScore[current];
+			for (int dir = 0; dir < 4; dir++) {
+				final int next = neighbor(row, col, dir);
+				if (next < 0) {
+					continue;
+				}
+				final int cost = grid.cost(next);
+				if (cost == 0) {
+					continue;
+				}
+				final int tentative = base + cost;
+				if (stamp[next] != generation) {
+					visit(next, tentative, current);
+				} else if (closed[next] || tentative >= gScore[next]) {
+					continue;
+				} else {
+					gScore[next] = tentative;
+					parent[next] = current;
+				}
+				final int nRow = next / columns;
+				final int nCol = next % columns;
+				open.push(next, tentative + heuristicScale
+						* (Math.abs(nRow - destRow) + Math.abs(nCol - destCol)));
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return how many steps (not counting the starting tile) the last path
+	 *         found has
+	 */
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	/**
+	 * @param step which step of the last path found, starting at 0 for the
+	 *            first tile moved into
+	 * @return that tile
+	 */
+	public IPoint getStep(final int step) {
+		if (step < 0 || step >= pathLength) {
+			throw new IllegalArgumentException("No such step");
+		}
+		final int columns = grid.getColumns();
+		final int index = path[step];
+		return Point.of(index / columns, index % columns);
+	}
+
+	/**
+	 * Start a new search, clearing the stamps only when the generation counter
+	 * wraps around.
+	 */
+	private void nextGeneration() {
+		generation++;
+		if (generation == 0) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * Note the first time a search reaches a tile.
+	 *
+	 * @param tile the tile
+	 * @param cost the cost of reaching it
+	 * @param from the tile it was reached from
+	 */
+	private void visit(final int tile, final int cost, final int from) {
+		stamp[tile] = generation;
+		gScore[tile] = cost;
+		parent[tile] = from;
+		closed[tile] = false;
+	}
+
+	/**
+	 * @param row the row of a tile
+	 * @param col the column of a tile
+	 * @param dir which neighbor: 0 north, 1 east, 2 south, 3 west
+	 * @return the index of that neighbor, or -1 if it's outside the grid
+	 */
+	private int neighbor(final int row, final int col, final int dir) {
+		switch (dir) {
+		case 0:
+			return grid.indexOf(row - 1, col);
+		case 1:
+			return grid.indexOf(row, col + 1);
+		case 2:
+			return grid.indexOf(row + 1, col);
+		default:
+			return grid.indexOf(row, col - 1);
+		}
+	}
+
+	/**
+	 * Copy the path ending at the goal, which the search has just reached,
+	 * into the path buffer.
+	 *
+	 * @param start the starting tile
+	 * @param goal the goal tile
+	 */
+	private void recordPath(final int start, final int goal) {
+		int length = 0;
+		for (int tile = goal; tile != start; tile = parent[tile]) {
+			length++;
+		}
+		if (length > path.length) {
+			path = new int[Math.max(length, path.length * 2)];
+		}
+		int tile = goal;
+		for (int i = length - 1; i >= 0; i--) {
+			path[i] = tile;
+			tile = parent[tile];
+		}
+		pathLength = length;
+	}
+}
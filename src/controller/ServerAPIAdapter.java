@@ -10,17 +10,22 @@ import model.IPoint;
 import model.ITileFixture;
 import model.ProxyUnit;
 import model.SimpleUnit;
+import model.UnitStore;
 
 import org.eclipse.jdt.annotation.Nullable;
 
 import protocol.AcknowledgedMessage;
+import protocol.AttackMessage;
 import protocol.ClientFixtureMessage;
 import protocol.FixtureMoveMessage;
 import protocol.FixtureRemovalMessage;
 import protocol.FullMapRequestMessage;
+import protocol.MapHashMessage;
 import protocol.MultiMessageMessage;
 import protocol.OpposingUnitMessage;
 import protocol.OwnUnitMessage;
+import protocol.PlayerPresentMessage;
+import protocol.PlayerRequestMessage;
 import protocol.ProtocolErrorMessage;
 import protocol.RPCMessage;
 import protocol.TerrainChangeMessage;
@@ -39,6 +44,10 @@ public class ServerAPIAdapter extends GameNetCoreGame {
 	 * The server we wrap.
 	 */
 	private final TPServer server;
+	/**
+	 * The computer players in the game, to stop when it ends.
+	 */
+	private final List<AIPlayer> computers = new ArrayList<>();
 
 	/**
 	 * Constructor.
@@ -51,7 +60,9 @@ public class ServerAPIAdapter extends GameNetCoreGame {
 	}
 
 	/**
-	 * Process a command string.
+	 * Process a command string. This holds the lock on the server, which a
+	 * computer player (see AIPlayer) giving its orders from a thread of its
+	 * own also holds, so no command is carried out alongside another.
 	 *
 	 * @param cmd
 	 *            the command object received from the client
@@ -60,8 +71,30 @@ public class ServerAPIAdapter extends GameNetCoreGame {
 	 * @return the result to send back to the client
 	 */
 	public RPCMessage process(final RPCMessage cmd, final int player) {
+		synchronized (server) {
+			return processCommand(cmd, player);
+		}
+	}
+
+	/**
+	 * Process a command string. The caller must hold the lock on the server.
+	 *
+	 * @param cmd
+	 *            the command object received from the client
+	 * @param player
+	 *            the player who sent the command
+	 * @return the result to send back to the client
+	 */
+	private RPCMessage processCommand(final RPCMessage cmd, final int player) {
 		try {
-			if (cmd instanceof TurnEndMessage) {
+			if (cmd instanceof PlayerRequestMessage) {
+				try {
+					server.addPlayer(player);
+				} catch (final IllegalArgumentException except) {
+					return new PlayerPresentMessage(player);
+				}
+				return new AcknowledgedMessage(player);
+			} else if (cmd instanceof TurnEndMessage) {
 				server.endTurn(player);
 				return new AcknowledgedMessage(player);
 			} else if (cmd instanceof FixtureMoveMessage) {
@@ -69,48 +102,46 @@ public class ServerAPIAdapter extends GameNetCoreGame {
 						((FixtureMoveMessage) cmd).getSource(),
 						((FixtureMoveMessage) cmd).getDest());
 				return new AcknowledgedMessage(player);
+			} else if (cmd instanceof MultiMessageMessage) {
+				return processBatch((MultiMessageMessage) cmd, player);
+			} else if (cmd instanceof AttackMessage) {
+				server.attack(player, ((AttackMessage) cmd).getAttacker(),
+						((AttackMessage) cmd).getSource(),
+						((AttackMessage) cmd).getTarget(),
+						((AttackMessage) cmd).isRanged());
+				return new AcknowledgedMessage(player);
 			} else if (cmd instanceof ClientFixtureMessage) {
-				switch (((ClientFixtureMessage) cmd).getType()) {
-				case Archer:
-					server.addFixture(player, ((ClientFixtureMessage) cmd)
-							.getPoint(),
-							new SimpleUnit(IDFactory.FACTORY.createID(),
-									player, "archer", 'a', "archer.png", 10, 3,
-									1, 6, 2));
-					return new AcknowledgedMessage(player);
-				case Swordsman:
-					server.addFixture(player, ((ClientFixtureMessage) cmd)
-							.getPoint(),
-							new SimpleUnit(IDFactory.FACTORY.createID(),
-									player, "swordsman", '/', "swordsman.png",
-									12, 8, 2, 0, 0));
-					return new AcknowledgedMessage(player);
-				default:
-					return new ProtocolErrorMessage(player, "Unknown fixture type");
+				final IDFactory ids = server.getIDFactory();
+				final UnitStore units = server.getUnits();
+				final int id = ids.createID();
+				final SimpleUnit unit = createUnit(units, id, player,
+						((ClientFixtureMessage) cmd).getType());
+				if (unit == null) {
+					ids.release(id);
+					return new ProtocolErrorMessage(player,
+							"Unknown fixture type");
+				}
+				try {
+					server.addFixture(player,
+							((ClientFixtureMessage) cmd).getPoint(), unit);
+				} catch (final IllegalArgumentException except) {
+					// The unit wasn't added, so its slot and ID can go to the
+					// next one.
+					units.release(unit.getSlot());
+					ids.release(id);
+					throw except;
 				}
+				return new AcknowledgedMessage(player);
 			} else if (cmd instanceof FullMapRequestMessage) {
-				final IMap map =
-						server.getPlayerMap(((FullMapRequestMessage) cmd)
-								.getPlayer());
-				final List<RPCMessage> messages = new ArrayList<>();
-				for (final IPoint point : map) {
-					messages.add(new TerrainChangeMessage(player, point, map
-							.getTerrain(point)));
-					ITileFixture fix = map.getContents(point);
-					if (fix == null) {
-						messages.add(new FixtureRemovalMessage(player, point, -1));
-					} else if (fix instanceof ProxyUnit) {
-						messages.add(new OpposingUnitMessage(player, point,
-								(ProxyUnit) fix));
-					} else if (fix instanceof SimpleUnit) {
-						messages.add(new OwnUnitMessage(player, point,
-								(SimpleUnit) fix));
-					} else {
-						messages.add(new ProtocolErrorMessage(player,
-								"Map contains untransmitted fixture"));
-					}
+				return fullMap(server.getPlayerMap(((FullMapRequestMessage) cmd)
+						.getPlayer()), player);
+			} else if (cmd instanceof MapHashMessage) {
+				final IMap map = server.getPlayerMap(cmd.getPlayer());
+				if (map.getHash() == ((MapHashMessage) cmd).getHash()) {
+					return new MapHashMessage(player, map.getHash());
+				} else {
+					return fullMap(map, player);
 				}
-				return new MultiMessageMessage(messages);
 			} else {
 				return new ProtocolErrorMessage(player, "Unknown command");
 			}
@@ -119,6 +150,122 @@ public class ServerAPIAdapter extends GameNetCoreGame {
 		}
 	}
 
+	/**
+	 * @param map
+	 *            a player's view of the map
+	 * @param player
+	 *            the player being communicated with
+	 * @return messages to bring a client's map in line with it
+	 */
+	private static RPCMessage fullMap(final IMap map, final int player) {
+		final List<RPCMessage> messages = new ArrayList<>();
+		for (final IPoint point : map) {
+			messages.add(new TerrainChangeMessage(player, point, map
+					.getTerrain(point)));
+			ITileFixture fix = map.getContents(point);
+			if (fix == null) {
+				messages.add(new FixtureRemovalMessage(player, point, -1));
+			} else if (fix instanceof ProxyUnit) {
+				messages.add(new OpposingUnitMessage(player, point,
+						(ProxyUnit) fix));
+			} else if (fix instanceof SimpleUnit) {
+				messages.add(new OwnUnitMessage(player, point,
+						(SimpleUnit) fix));
+			} else {
+				messages.add(new ProtocolErrorMessage(player,
+						"Map contains untransmitted fixture"));
+			}
+		}
+		return new MultiMessageMessage(messages);
+	}
+
+	/**
+	 * Process a batch of orders from a client. Only moves may be batched; they
+	 * are carried out all or none.
+	 *
+	 * @param batch
+	 *            the orders
+	 * @param player
+	 *            the player who sent them
+	 * @return the result to send back to the client
+	 */
+	private RPCMessage processBatch(final MultiMessageMessage batch,
+			final int player) {
+		final List<FixtureMoveMessage> moves = new ArrayList<>();
+		for (final RPCMessage message : batch) {
+			if (message instanceof FixtureMoveMessage) {
+				moves.add((FixtureMoveMessage) message);
+			} else {
+				return new ProtocolErrorMessage(player,
+						"Only moves may be batched");
+			}
+		}
+		final int[] ids = new int[moves.size()];
+		final IPoint[] sources = new IPoint[moves.size()];
+		final IPoint[] dests = new IPoint[moves.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = moves.get(i).getMover();
+			sources[i] = moves.get(i).getSource();
+			dests[i] = moves.get(i).getDest();
+		}
+		server.moveUnits(player, ids, sources, dests);
+		return new AcknowledgedMessage(player);
+	}
+
+	/**
+	 * Create a unit of one of the kinds players can recruit.
+	 *
+	 * @param units the store to create it in
+	 * @param id its ID #
+	 * @param player its owner
+	 * @param type what kind of unit it is
+	 * @return the unit, or null if we don't know that kind
+	 */
+	@Nullable
+	static SimpleUnit createUnit(final UnitStore units, final int id,
+			final int player, final ClientFixtureMessage.FixtureType type) {
+		switch (type) {
+		case Archer:
+			return units.create(id, player, "archer", 'a', "archer.png", 10,
+					3, 1, 6, 2);
+		case Swordsman:
+			return units.create(id, player, "swordsman", '/',
+					"swordsman.png", 12, 8, 2, 0, 0);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Add a computer player, which must already have joined the game, so that
+	 * it is stopped when the game ends.
+	 *
+	 * @param computer the computer player
+	 */
+	public void addComputerPlayer(final AIPlayer computer) {
+		synchronized (computers) {
+			computers.add(computer);
+		}
+	}
+
+	/**
+	 * End the game: stop the computer players, and release what the server
+	 * holds.
+	 */
+	@Override
+	public void endGame() {
+		synchronized (server) {
+			synchronized (computers) {
+				for (final AIPlayer computer : computers) {
+					server.removeMapUpdateListener(computer);
+					computer.shutdown();
+				}
+				computers.clear();
+			}
+			server.shutdown();
+		}
+	}
+
 	/**
 	 * Add a listener to the server.
 	 *
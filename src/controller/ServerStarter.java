@@ -2,22 +2,49 @@ package controller;
 
 import gamenet.GameCreator;
 import gamenet.GameNetCoreGame;
+import gamenet.MessageCodec;
+import gamenet.SerializationCodec;
 
 import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.List;
 
-import model.IPoint;
-import model.ITileFixture;
-import model.Point;
-import model.TileType;
+import model.VersionedMap;
+
+import protocol.BinaryCodec;
 
 public class ServerStarter extends GameCreator {
+	/**
+	 * The player the computer plays as. Human players' clients ask for
+	 * numbers starting from 1.
+	 */
+	private static final int AI_PLAYER = 0;
+	/**
+	 * How long the computer thinks about each order, in milliseconds.
+	 */
+	private static final long AI_BUDGET = 500;
+	/**
+	 * How many units the computer recruits.
+	 */
+	private static final int AI_ARMY = 4;
+	/**
+	 * Whether to add a computer player to each game.
+	 */
+	private final boolean computerPlayer;
+	/**
+	 * @param withComputer whether to add a computer player to each game
+	 */
+	public ServerStarter(final boolean withComputer) {
+		computerPlayer = withComputer;
+	}
+	/**
+	 * @param args "--ai" to add a computer player to the game
+	 */
 	public static void main(final String[] args) {
 		try {
 			// XXX: The server SHOULD NOT know about the GUI!
-			new ServerStarter().enterGame(new GUIStarter());
+			new ServerStarter(Arrays.asList(args).contains("--ai"))
+					.enterGame(new GUIStarter());
 		} catch (UnknownHostException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -25,17 +52,31 @@ public class ServerStarter extends GameCreator {
 	}
 	@Override
 	public GameNetCoreGame createGame() {
-		Map<IPoint, TileType> terrain = new HashMap<>();
-		Map<IPoint, ITileFixture> fixtures = new HashMap<>();
-		final int maxType = TileType.values().length;
-		final Random random = new Random();
-		for (int i = 0; i < 10; i++) {
-			for (int j = 0; j < 10; j++) {
-				terrain.put(Point.of(i, j),
-						TileType.values()[random.nextInt(maxType)]);
-			}
+		final VersionedMap map = new VersionedMap(10, 10);
+		final long seed = System.nanoTime();
+		final MapBuilder builder = new MapBuilder(new NoiseMapGenerator(seed));
+		try {
+			builder.build(map, seed);
+		} finally {
+			builder.shutdown();
 		}
-		return new ServerAPIAdapter(new TPServer(terrain, fixtures));
+		final TPServer server = new TPServer(map, seed);
+		final ServerAPIAdapter game = new ServerAPIAdapter(server);
+		if (computerPlayer) {
+			// The computer is the first to join, so the turn is its own, and
+			// it can recruit its army, until a human player joins.
+			final AIPlayer computer = new AIPlayer(server, AI_PLAYER,
+					AI_BUDGET, seed);
+			computer.join();
+			game.addComputerPlayer(computer);
+			computer.recruit(AI_ARMY);
+		}
+		return game;
+	}
+	@Override
+	public List<MessageCodec> getCodecs() {
+		return Arrays.<MessageCodec> asList(new BinaryCodec(),
+				new SerializationCodec());
 	}
 
 }
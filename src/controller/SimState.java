@@ -0,0 +1,935 @@
+package controller;
+
+import java.util.Arrays;
+
+import model.IMap;
+import model.IPoint;
+import model.ITileFixture;
+import model.Point;
+import model.ProxyUnit;
+import model.SimpleUnit;
+import model.TileType;
+import model.Unit;
+
+import common.SplitRandom;
+
+/**
+ * A compact copy of a game's state for AI search and simulation: terrain,
+ * units, and whose turn it is, all in primitive arrays. What can't change
+ * during a game (terrain, the units' dice and owners) is shared between
+ * copies; what can (positions, HP, who has acted, queued attacks) is copied,
+ * so copying a state is a handful of array copies, and copyFrom() reuses an
+ * existing copy's arrays so that search doesn't allocate.
+ *
+ * The rules are a simplification of the server's: each turn a unit may move
+ * one tile and make one attack, ranged attacks need a clear straight line
+ * within the sight range, and attacks are resolved together at the end of the
+ * turn as in CombatResolver.
+ *
+ * Orders are encoded as ints: see END_TURN, MOVE, MELEE, and RANGED.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class SimState {
+	/**
+	 * The order ending the current player's turn.
+	 */
+	public static final int END_TURN = 0;
+	/**
+	 * The kind of order moving a unit one tile.
+	 */
+	public static final int MOVE = 1;
+	/**
+	 * The kind of order making a melee attack.
+	 */
+	public static final int MELEE = 2;
+	/**
+	 * The kind of order making a ranged attack.
+	 */
+	public static final int RANGED = 3;
+	/**
+	 * The most units a state can hold, so that orders fit in an int.
+	 */
+	private static final int MAX_UNITS = 1 << 13;
+	/**
+	 * The most HP assumed for a unit seen only as a proxy, about that of the
+	 * units players can recruit.
+	 */
+	private static final int ASSUMED_MAX_HP = 12;
+	/**
+	 * The size of die assumed for a unit seen only as a proxy.
+	 */
+	private static final int ASSUMED_DIE = 6;
+	/**
+	 * The flag marking that a unit has moved this turn.
+	 */
+	private static final byte MOVED = 1;
+	/**
+	 * The flag marking that a unit has attacked this turn.
+	 */
+	private static final byte ATTACKED = 2;
+	/**
+	 * The row offset of each direction of movement.
+	 */
+	private static final int[] ROW_STEP = { -1, 1, 0, 0 };
+	/**
+	 * The column offset of each direction of movement.
+	 */
+	private static final int[] COL_STEP = { 0, 0, -1, 1 };
+	/**
+	 * How much less a win is worth for each turn it takes, so that search
+	 * prefers winning sooner to stalling when either would win.
+	 */
+	private static final double WIN_DECAY = 0.98;
+	/**
+	 * The number of rows in the map.
+	 */
+	private final int rows;
+	/**
+	 * The number of columns in the map.
+	 */
+	private final int columns;
+	/**
+	 * Whether each tile, indexed by row * columns + column, can't be entered.
+	 */
+	private final boolean[] blocked;
+	/**
+	 * Whether each tile blocks sight.
+	 */
+	private final boolean[] opaque;
+	/**
+	 * The range of ranged attacks.
+	 */
+	private final int range;
+	/**
+	 * The players, in turn order.
+	 */
+	private final int[] players;
+	/**
+	 * The number of units.
+	 */
+	private final int unitCount;
+	/**
+	 * The ID # of each unit.
+	 */
+	private final int[] ids;
+	/**
+	 * The owner of each unit.
+	 */
+	private final int[] owners;
+	/**
+	 * The index in the turn order of the owner of each unit, or -1 if its
+	 * owner isn't playing.
+	 */
+	private final int[] ownerIndex;
+	/**
+	 * The size of die each unit uses in melee combat.
+	 */
+	private final int[] meleeDie;
+	/**
+	 * The number of dice each unit uses in melee combat.
+	 */
+	private final int[] meleeDice;
+	/**
+	 * The size of die each unit uses in ranged combat.
+	 */
+	private final int[] rangedDie;
+	/**
+	 * The number of dice each unit uses in ranged combat.
+	 */
+	private final int[] rangedDice;
+	/**
+	 * The distribution of the damage each unit's melee attack does.
+	 */
+	private final DamageTables.Distribution[] meleeDamage;
+	/**
+	 * The distribution of the damage each unit's ranged attack does.
+	 */
+	private final DamageTables.Distribution[] rangedDamage;
+	/**
+	 * The row each unit is in.
+	 */
+	private final int[] unitRow;
+	/**
+	 * The column each unit is in.
+	 */
+	private final int[] unitCol;
+	/**
+	 * The current HP of each unit; units at zero or below are dead.
+	 */
+	private final int[] hitPoints;
+	/**
+	 * What each unit has done this turn (see MOVED and ATTACKED).
+	 */
+	private final byte[] acted;
+	/**
+	 * The unit in each tile, plus one; zero for empty tiles.
+	 */
+	private final int[] occupant;
+	/**
+	 * The number of live units each player has, by index in the turn order.
+	 */
+	private final int[] living;
+	/**
+	 * The attacker in each attack queued this turn.
+	 */
+	private final int[] attackers;
+	/**
+	 * The defender in each attack queued this turn.
+	 */
+	private final int[] defenders;
+	/**
+	 * Whether each attack queued this turn is ranged.
+	 */
+	private final boolean[] ranged;
+	/**
+	 * How many attacks are queued.
+	 */
+	private int pending = 0;
+	/**
+	 * The index in the turn order of the player whose turn it is.
+	 */
+	private int current = 0;
+	/**
+	 * How many turns have ended.
+	 */
+	private int turns = 0;
+	/**
+	 * The orders last generated; not shared between copies.
+	 */
+	private int[] actions = new int[16];
+
+	/**
+	 * Constructor for a new state with nothing in it yet.
+	 *
+	 * @param rowCount the number of rows in the map
+	 * @param colCount the number of columns in the map
+	 * @param units the number of units
+	 * @param order the players, in turn order
+	 * @param sightRange the range of ranged attacks
+	 */
+	private SimState(final int rowCount, final int colCount, final int units,
+			final int[] order, final int sightRange) {
+		if (units > MAX_UNITS) {
+			throw new IllegalArgumentException("Too many units to simulate");
+		}
+		rows = rowCount;
+		columns = colCount;
+		blocked = new boolean[rowCount * colCount];
+		opaque = new boolean[rowCount * colCount];
+		range = sightRange;
+		players = order;
+		unitCount = units;
+		ids = new int[units];
+		owners = new int[units];
+		ownerIndex = new int[units];
+		meleeDie = new int[units];
+		meleeDice = new int[units];
+		rangedDie = new int[units];
+		rangedDice = new int[units];
+		meleeDamage = new DamageTables.Distribution[units];
+		rangedDamage = new DamageTables.Distribution[units];
+		unitRow = new int[units];
+		unitCol = new int[units];
+		hitPoints = new int[units];
+		acted = new byte[units];
+		occupant = new int[rowCount * colCount];
+		living = new int[order.length];
+		attackers = new int[units];
+		defenders = new int[units];
+		ranged = new boolean[units];
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other the state to copy
+	 */
+	private SimState(final SimState other) {
+		rows = other.rows;
+		columns = other.columns;
+		blocked = other.blocked;
+		opaque = other.opaque;
+		range = other.range;
+		players = other.players;
+		unitCount = other.unitCount;
+		ids = other.ids;
+		owners = other.owners;
+		ownerIndex = other.ownerIndex;
+		meleeDie = other.meleeDie;
+		meleeDice = other.meleeDice;
+		rangedDie = other.rangedDie;
+		rangedDice = other.rangedDice;
+		meleeDamage = other.meleeDamage;
+		rangedDamage = other.rangedDamage;
+		unitRow = other.unitRow.clone();
+		unitCol = other.unitCol.clone();
+		hitPoints = other.hitPoints.clone();
+		acted = other.acted.clone();
+		occupant = other.occupant.clone();
+		living = other.living.clone();
+		attackers = other.attackers.clone();
+		defenders = other.defenders.clone();
+		ranged = other.ranged.clone();
+		pending = other.pending;
+		current = other.current;
+		turns = other.turns;
+	}
+
+	/**
+	 * Build a state from a map: the server's, whose units are all SimpleUnits,
+	 * or one player's view of it, in which other players' units are proxies.
+	 * A proxy shows how many dice its unit rolls but not their size, and its
+	 * health tier but not its HP, so the state assumes ASSUMED_DIE for the
+	 * one and, for the other, the middle of the tier's share of
+	 * ASSUMED_MAX_HP. Tiles with a negative row or column, and fixtures that
+	 * aren't units, are left out.
+	 *
+	 * @param map the map
+	 * @param order the players, in turn order, starting with the player whose
+	 *            turn it is
+	 * @return the state
+	 */
+	public static SimState of(final IMap map, final int[] order) {
+		if (order.length == 0) {
+			throw new IllegalArgumentException("No players");
+		}
+		int maxRow = -1;
+		int maxCol = -1;
+		int units = 0;
+		for (final IPoint point : map) {
+			if (point.getRow() >= 0 && point.getColumn() >= 0) {
+				maxRow = Math.max(maxRow, point.getRow());
+				maxCol = Math.max(maxCol, point.getColumn());
+				if (map.getContents(point) instanceof SimpleUnit
+						|| map.getContents(point) instanceof ProxyUnit) {
+					units++;
+				}
+			}
+		}
+		final SimState retval = new SimState(maxRow + 1, maxCol + 1, units,
+				order.clone(), VisibilityEngine.DEFAULT_RANGE);
+		int unit = 0;
+		for (final IPoint point : map) {
+			final int row = point.getRow();
+			final int col = point.getColumn();
+			if (row < 0 || col < 0) {
+				continue;
+			}
+			final int tile = row * retval.columns + col;
+			final TileType type = map.getTerrain(point);
+			retval.blocked[tile] = !type.isPassable();
+			retval.opaque[tile] = type.blocksSight();
+			final ITileFixture fix = map.getContents(point);
+			if (fix instanceof SimpleUnit || fix instanceof ProxyUnit) {
+				final Unit found = (Unit) fix;
+				retval.ids[unit] = found.getID();
+				retval.owners[unit] = found.getOwner();
+				retval.ownerIndex[unit] = -1;
+				for (int i = 0; i < order.length; i++) {
+					if (order[i] == found.getOwner()) {
+						retval.ownerIndex[unit] = i;
+						break;
+					}
+				}
+				retval.meleeDice[unit] = found.getTotalAttackDice();
+				retval.rangedDice[unit] = found.getTotalRangedAttackDice();
+				if (found instanceof SimpleUnit) {
+					final SimpleUnit simple = (SimpleUnit) found;
+					retval.meleeDie[unit] = simple.getMeleeDie();
+					retval.rangedDie[unit] = simple.getRangedDie();
+					retval.hitPoints[unit] = simple.getCurrHP();
+				} else {
+					retval.meleeDie[unit] = ASSUMED_DIE;
+					retval.rangedDie[unit] =
+							found.getTotalRangedAttackDice() > 0 ? ASSUMED_DIE
+									: 0;
+					retval.hitPoints[unit] = estimateHP(found.getHealthTier());
+				}
+				retval.meleeDamage[unit] = DamageTables.TABLES.get(
+						retval.meleeDice[unit], retval.meleeDie[unit]);
+				retval.rangedDamage[unit] = DamageTables.TABLES.get(
+						retval.rangedDice[unit], retval.rangedDie[unit]);
+				retval.unitRow[unit] = row;
+				retval.unitCol[unit] = col;
+				if (retval.hitPoints[unit] > 0) {
+					retval.occupant[tile] = unit + 1;
+					if (retval.ownerIndex[unit] >= 0) {
+						retval.living[retval.ownerIndex[unit]]++;
+					}
+				}
+				unit++;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Also used by the GUI to give the odds of killing another player's unit.
+	 *
+	 * @param tier the health tier of a unit seen only as a proxy
+	 * @return the HP to assume it has
+	 */
+	public static int estimateHP(final Unit.HealthTier tier) {
+		if (tier == Unit.HealthTier.Dead) {
+			return 0;
+		} else {
+			// The tiers split the HP into quarters, best first.
+			return Math.max(1, ASSUMED_MAX_HP * (7 - 2 * tier.ordinal()) / 8);
+		}
+	}
+
+	/**
+	 * @return a copy of this state
+	 */
+	public SimState copy() {
+		return new SimState(this);
+	}
+
+	/**
+	 * Make this state the same as another copy of the same game, without
+	 * allocating.
+	 *
+	 * @param other a state this was copied from, or that was copied from the
+	 *            same state as this
+	 */
+	public void copyFrom(final SimState other) {
+		if (other.ids != ids) {
+			throw new IllegalArgumentException("Not a copy of the same game");
+		}
+		System.arraycopy(other.unitRow, 0, unitRow, 0, unitCount);
+		System.arraycopy(other.unitCol, 0, unitCol, 0, unitCount);
+		System.arraycopy(other.hitPoints, 0, hitPoints, 0, unitCount);
+		System.arraycopy(other.acted, 0, acted, 0, unitCount);
+		System.arraycopy(other.occupant, 0, occupant, 0, occupant.length);
+		System.arraycopy(other.living, 0, living, 0, living.length);
+		System.arraycopy(other.attackers, 0, attackers, 0, other.pending);
+		System.arraycopy(other.defenders, 0, defenders, 0, other.pending);
+		System.arraycopy(other.ranged, 0, ranged, 0, other.pending);
+		pending = other.pending;
+		current = other.current;
+		turns = other.turns;
+	}
+
+	/**
+	 * @return the number of players
+	 */
+	public int getPlayerCount() {
+		return players.length;
+	}
+
+	/**
+	 * @return the index in the turn order of the player whose turn it is
+	 */
+	public int getCurrentIndex() {
+		return current;
+	}
+
+	/**
+	 * @return the player whose turn it is
+	 */
+	public int getCurrentPlayer() {
+		return players[current];
+	}
+
+	/**
+	 * @return how many turns have ended since this state was built
+	 */
+	public int getTurns() {
+		return turns;
+	}
+
+	/**
+	 * @return the number of units, living or dead
+	 */
+	public int getUnitCount() {
+		return unitCount;
+	}
+
+	/**
+	 * @param unit a unit's index
+	 * @return its ID #
+	 */
+	public int getID(final int unit) {
+		return ids[unit];
+	}
+
+	/**
+	 * @param unit a unit's index
+	 * @return where it is
+	 */
+	public IPoint getPoint(final int unit) {
+		return Point.of(unitRow[unit], unitCol[unit]);
+	}
+
+	/**
+	 * @param unit a unit's index
+	 * @return its current HP
+	 */
+	public int getHP(final int unit) {
+		return hitPoints[unit];
+	}
+
+	/**
+	 * @return whether the game is over: no more than one player has units left
+	 */
+	public boolean isOver() {
+		int remaining = 0;
+		for (final int count : living) {
+			if (count > 0) {
+				remaining++;
+			}
+		}
+		return remaining <= 1;
+	}
+
+	/**
+	 * Score the state for every player: for the winner, if the game is over,
+	 * a value that starts at 1 and shrinks with every turn taken to win, and
+	 * 0 for the others; and otherwise each player's share of the HP left.
+	 *
+	 * @param out where to put the scores, by index in the turn order
+	 */
+	public void score(final double[] out) {
+		Arrays.fill(out, 0.0);
+		if (isOver()) {
+			final double win = Math.pow(WIN_DECAY, turns);
+			for (int i = 0; i < living.length; i++) {
+				if (living[i] > 0) {
+					out[i] = win;
+				}
+			}
+			return;
+		}
+		double total = 0.0;
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (hitPoints[unit] > 0 && ownerIndex[unit] >= 0) {
+				out[ownerIndex[unit]] += hitPoints[unit];
+				total += hitPoints[unit];
+			}
+		}
+		for (int i = 0; i < out.length; i++) {
+			out[i] /= total;
+		}
+	}
+
+	/**
+	 * @param kind the kind of order
+	 * @param unit the unit ordered
+	 * @param arg the direction, for a move, or the unit attacked
+	 * @return the encoded order
+	 */
+	private static int encode(final int kind, final int unit, final int arg) {
+		return unit << 18 | arg << 2 | kind;
+	}
+
+	/**
+	 * @param action an order
+	 * @return its kind: END_TURN, MOVE, MELEE, or RANGED
+	 */
+	public static int kindOf(final int action) {
+		return action & 3;
+	}
+
+	/**
+	 * @param action an order other than END_TURN
+	 * @return the index of the unit ordered
+	 */
+	public static int actorOf(final int action) {
+		return action >>> 18;
+	}
+
+	/**
+	 * @param action an order
+	 * @return the direction, for a move, or the unit attacked
+	 */
+	private static int argOf(final int action) {
+		return (action >>> 2) & 0xFFFF;
+	}
+
+	/**
+	 * @param action an order other than END_TURN
+	 * @return the tile the unit is to move to, or the location of the unit it
+	 *         is to attack
+	 */
+	public IPoint getTarget(final int action) {
+		final int unit = actorOf(action);
+		final int arg = argOf(action);
+		if (kindOf(action) == MOVE) {
+			return Point.of(unitRow[unit] + ROW_STEP[arg], unitCol[unit]
+					+ COL_STEP[arg]);
+		} else {
+			return getPoint(arg);
+		}
+	}
+
+	/**
+	 * Generate every order the player whose turn it is could give now.
+	 * Ending the turn is always the first.
+	 *
+	 * @return how many there are; see getAction()
+	 */
+	public int generateActions() {
+		int count = 0;
+		count = addAction(count, END_TURN);
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (hitPoints[unit] <= 0 || ownerIndex[unit] != current) {
+				continue;
+			}
+			if ((acted[unit] & MOVED) == 0) {
+				for (int dir = 0; dir < 4; dir++) {
+					if (canEnter(unitRow[unit] + ROW_STEP[dir], unitCol[unit]
+							+ COL_STEP[dir])) {
+						count = addAction(count, encode(MOVE, unit, dir));
+					}
+				}
+			}
+			if ((acted[unit] & ATTACKED) == 0) {
+				for (int other = 0; other < unitCount; other++) {
+					if (canMelee(unit, other)) {
+						count = addAction(count, encode(MELEE, unit, other));
+					}
+					if (canShoot(unit, other)) {
+						count = addAction(count, encode(RANGED, unit, other));
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param count the number of orders generated so far
+	 * @param action another order
+	 * @return the new number of orders generated
+	 */
+	private int addAction(final int count, final int action) {
+		if (count == actions.length) {
+			actions = Arrays.copyOf(actions, count * 2);
+		}
+		actions[count] = action;
+		return count + 1;
+	}
+
+	/**
+	 * @param index an index
+	 * @return the order at that index among those last generated
+	 */
+	public int getAction(final int index) {
+		return actions[index];
+	}
+
+	/**
+	 * @param action an order
+	 * @return whether the player whose turn it is could give it now
+	 */
+	public boolean isLegal(final int action) {
+		if (action == END_TURN) {
+			return true;
+		}
+		final int unit = actorOf(action);
+		if (unit >= unitCount || hitPoints[unit] <= 0
+				|| ownerIndex[unit] != current) {
+			return false;
+		}
+		final int arg = argOf(action);
+		switch (kindOf(action)) {
+		case MOVE:
+			return (acted[unit] & MOVED) == 0
+					&& canEnter(unitRow[unit] + ROW_STEP[arg], unitCol[unit]
+							+ COL_STEP[arg]);
+		case MELEE:
+			return (acted[unit] & ATTACKED) == 0 && arg < unitCount
+					&& canMelee(unit, arg);
+		case RANGED:
+			return (acted[unit] & ATTACKED) == 0 && arg < unitCount
+					&& canShoot(unit, arg);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Carry out an order, which must be legal.
+	 *
+	 * @param action the order
+	 * @param random the source of the dice for any combat at the end of the
+	 *            turn
+	 */
+	public void apply(final int action, final SplitRandom random) {
+		final int unit = actorOf(action);
+		final int arg = argOf(action);
+		switch (kindOf(action)) {
+		case MOVE:
+			occupant[unitRow[unit] * columns + unitCol[unit]] = 0;
+			unitRow[unit] += ROW_STEP[arg];
+			unitCol[unit] += COL_STEP[arg];
+			occupant[unitRow[unit] * columns + unitCol[unit]] = unit + 1;
+			acted[unit] |= MOVED;
+			break;
+		case MELEE:
+			queueAttack(unit, arg, false);
+			break;
+		case RANGED:
+			queueAttack(unit, arg, true);
+			break;
+		default:
+			endTurn(random);
+			break;
+		}
+	}
+
+	/**
+	 * Give up on an order: the unit won't do that kind of thing again this
+	 * turn. For when the real game refuses an order the simulation allowed.
+	 *
+	 * @param action the order
+	 */
+	public void forfeit(final int action) {
+		if (kindOf(action) == MOVE) {
+			acted[actorOf(action)] |= MOVED;
+		} else if (action != END_TURN) {
+			acted[actorOf(action)] |= ATTACKED;
+		}
+	}
+
+	/**
+	 * Play the game on from here with a simple, fast policy: each unit attacks
+	 * if it can, and otherwise steps toward the nearest enemy and then attacks
+	 * if it can.
+	 *
+	 * @param random the source of randomness
+	 * @param maxTurns how many turns to play at most
+	 */
+	public void playout(final SplitRandom random, final int maxTurns) {
+		final int limit = turns + maxTurns;
+		while (turns < limit && !isOver()) {
+			for (int unit = 0; unit < unitCount; unit++) {
+				if (hitPoints[unit] > 0 && ownerIndex[unit] == current) {
+					playUnit(unit, random);
+				}
+			}
+			endTurn(random);
+		}
+	}
+
+	/**
+	 * Give one unit its orders for the turn under the playout policy.
+	 *
+	 * @param unit the unit
+	 * @param random the source of randomness
+	 */
+	private void playUnit(final int unit, final SplitRandom random) {
+		if ((acted[unit] & ATTACKED) == 0 && tryAttack(unit, random)) {
+			return;
+		}
+		if ((acted[unit] & MOVED) == 0) {
+			step(unit, random);
+			if ((acted[unit] & ATTACKED) == 0) {
+				tryAttack(unit, random);
+			}
+		}
+	}
+
+	/**
+	 * Queue an attack by a unit on an adjacent enemy, or failing that on one
+	 * in sight, if there is one.
+	 *
+	 * @param unit the unit
+	 * @param random the source of randomness
+	 * @return whether an attack was queued
+	 */
+	private boolean tryAttack(final int unit, final SplitRandom random) {
+		if (meleeDice[unit] > 0) {
+			for (int dir = 0; dir < 4; dir++) {
+				final int row = unitRow[unit] + ROW_STEP[dir];
+				final int col = unitCol[unit] + COL_STEP[dir];
+				if (inside(row, col)) {
+					final int other = occupant[row * columns + col] - 1;
+					if (other >= 0 && owners[other] != owners[unit]) {
+						queueAttack(unit, other, false);
+						return true;
+					}
+				}
+			}
+		}
+		if (rangedDice[unit] > 0 && rangedDie[unit] > 0) {
+			final int start = random.nextInt(unitCount);
+			for (int i = 0; i < unitCount; i++) {
+				final int other = (start + i) % unitCount;
+				if (canShoot(unit, other)) {
+					queueAttack(unit, other, true);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move a unit one tile, usually toward the nearest enemy.
+	 *
+	 * @param unit the unit
+	 * @param random the source of randomness
+	 */
+	private void step(final int unit, final SplitRandom random) {
+		int nearest = -1;
+		int best = Integer.MAX_VALUE;
+		for (int other = 0; other < unitCount; other++) {
+			if (hitPoints[other] > 0 && owners[other] != owners[unit]) {
+				final int dist = Math.abs(unitRow[other] - unitRow[unit])
+						+ Math.abs(unitCol[other] - unitCol[unit]);
+				if (dist < best) {
+					best = dist;
+					nearest = other;
+				}
+			}
+		}
+		final int first = random.nextInt(4);
+		int chosen = -1;
+		for (int i = 0; i < 4; i++) {
+			final int dir = (first + i) & 3;
+			final int row = unitRow[unit] + ROW_STEP[dir];
+			final int col = unitCol[unit] + COL_STEP[dir];
+			if (!canEnter(row, col)) {
+				continue;
+			} else if (nearest < 0 || random.nextInt(5) == 0
+					|| Math.abs(unitRow[nearest] - row)
+							+ Math.abs(unitCol[nearest] - col) < best) {
+				chosen = dir;
+				break;
+			}
+		}
+		if (chosen >= 0) {
+			apply(encode(MOVE, unit, chosen), random);
+		} else {
+			acted[unit] |= MOVED;
+		}
+	}
+
+	/**
+	 * Queue an attack.
+	 *
+	 * @param unit the attacker
+	 * @param target the defender
+	 * @param isRanged whether it is a ranged attack
+	 */
+	private void queueAttack(final int unit, final int target,
+			final boolean isRanged) {
+		attackers[pending] = unit;
+		defenders[pending] = target;
+		ranged[pending] = isRanged;
+		pending++;
+		acted[unit] |= ATTACKED;
+	}
+
+	/**
+	 * End the current turn: resolve the queued attacks, all at once, each
+	 * one's damage drawn from its attacker's distribution in DamageTables
+	 * rather than rolled die by die; remove the units killed; and pass the
+	 * turn to the next player with units left.
+	 *
+	 * @param random the source of the dice
+	 */
+	private void endTurn(final SplitRandom random) {
+		for (int i = 0; i < pending; i++) {
+			final int attacker = attackers[i];
+			final DamageTables.Distribution damage = ranged[i]
+					? rangedDamage[attacker] : meleeDamage[attacker];
+			hitPoints[defenders[i]] -= damage.sample(random.nextDouble());
+		}
+		for (int i = 0; i < pending; i++) {
+			final int unit = defenders[i];
+			final int tile = unitRow[unit] * columns + unitCol[unit];
+			if (hitPoints[unit] <= 0 && occupant[tile] == unit + 1) {
+				occupant[tile] = 0;
+				if (ownerIndex[unit] >= 0) {
+					living[ownerIndex[unit]]--;
+				}
+			}
+		}
+		pending = 0;
+		Arrays.fill(acted, (byte) 0);
+		for (int i = 0; i < players.length; i++) {
+			current = (current + 1) % players.length;
+			if (living[current] > 0) {
+				break;
+			}
+		}
+		turns++;
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return whether that tile is in the map
+	 */
+	private boolean inside(final int row, final int col) {
+		return row >= 0 && row < rows && col >= 0 && col < columns;
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return whether a unit could move into that tile
+	 */
+	private boolean canEnter(final int row, final int col) {
+		return inside(row, col) && !blocked[row * columns + col]
+				&& occupant[row * columns + col] == 0;
+	}
+
+	/**
+	 * @param unit a unit
+	 * @param other another unit
+	 * @return whether the first could make a melee attack on the second
+	 */
+	private boolean canMelee(final int unit, final int other) {
+		return meleeDice[unit] > 0 && hitPoints[other] > 0
+				&& owners[other] != owners[unit]
+				&& Math.abs(unitRow[other] - unitRow[unit])
+						+ Math.abs(unitCol[other] - unitCol[unit]) == 1;
+	}
+
+	/**
+	 * @param unit a unit
+	 * @param other another unit
+	 * @return whether the first could make a ranged attack on the second:
+	 *         it's in range, and nothing between them blocks sight
+	 */
+	private boolean canShoot(final int unit, final int other) {
+		if (rangedDice[unit] == 0 || rangedDie[unit] == 0
+				|| hitPoints[other] <= 0 || owners[other] == owners[unit]) {
+			return false;
+		}
+		final int dRow = unitRow[other] - unitRow[unit];
+		final int dCol = unitCol[other] - unitCol[unit];
+		if (dRow * dRow + dCol * dCol > range * range) {
+			return false;
+		}
+		// Walk the line between them (Bresenham's), checking the tiles
+		// strictly between.
+		final int stepRow = Integer.signum(dRow);
+		final int stepCol = Integer.signum(dCol);
+		final int absRow = Math.abs(dRow);
+		final int absCol = Math.abs(dCol);
+		int row = unitRow[unit];
+		int col = unitCol[unit];
+		int error = absCol - absRow;
+		while (true) {
+			final int twice = error * 2;
+			if (twice > -absRow) {
+				error -= absRow;
+				col += stepCol;
+			}
+			if (twice < absCol) {
+				error += absCol;
+				row += stepRow;
+			}
+			if (row == unitRow[other] && col == unitCol[other]) {
+				return true;
+			} else if (opaque[row * columns + col]) {
+				return false;
+			}
+		}
+	}
+}
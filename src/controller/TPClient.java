@@ -8,23 +8,34 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
+import model.CombatReport;
+import model.IMutableMap;
 import model.IPoint;
 import model.ITileFixture;
 import model.ProxyUnit;
 import model.SimpleUnit;
 import model.TPMap;
 import model.TileType;
+import model.Unit.HealthTier;
+import model.UnitStore;
 
 import org.eclipse.jdt.annotation.Nullable;
 
+import protocol.AttackMessage;
 import protocol.FixtureMoveMessage;
 import protocol.FullMapRequestMessage;
+import protocol.MapHashMessage;
 import protocol.PlayerRequestMessage;
 
 import common.MapUpdateListener;
 
 /**
  * A client for the game, sans UI.
+ *
+ * The reader thread applies the server's updates while the UI reads the map
+ * and sends orders, so everything that touches the map, or the flow fields and
+ * batch state that follow it, synchronizes on the map.
+ *
  * @author Jonathan Lovelace
  *
  */
@@ -44,7 +55,11 @@ public class TPClient implements ITPClient {
 	/**
 	 * The map.
 	 */
-	private final TPMap map = new TPMap();
+	private final IMutableMap map;
+	/**
+	 * The statistics of our own units.
+	 */
+	private final UnitStore units = new UnitStore(16);
 	/**
 	 * The set of orders. A map from unit IDs to the location of their target or
 	 * destination.
@@ -54,6 +69,52 @@ public class TPClient implements ITPClient {
 	 * Map change listeners.
 	 */
 	private final List<MapUpdateListener> listeners = new ArrayList<>();
+	/**
+	 * Flow fields toward the targets of orders, shared by every unit ordered to
+	 * the same place. Built when first needed, and discarded when the map grows
+	 * beyond the grid it covers. Guarded by synchronizing on the map.
+	 */
+	@Nullable private FlowFieldCache flowFields = null;
+	/**
+	 * How many batches of updates we are in the middle of applying. Guarded by
+	 * synchronizing on the map.
+	 */
+	private int batchDepth = 0;
+	/**
+	 * Whether an update in the current batch didn't fit our map, so we should
+	 * check with the server once the batch is done.
+	 */
+	private boolean syncWanted = false;
+	/**
+	 * No-arg constructor. Starts with an empty map.
+	 */
+	public TPClient() {
+		this(new TPMap());
+	}
+	/**
+	 * Constructor taking the (presumably empty) map to fill in from what the
+	 * server sends us.
+	 * @param theMap the map
+	 */
+	public TPClient(final IMutableMap theMap) {
+		map = theMap;
+	}
+	/**
+	 * @return the store that our own units should be created in
+	 */
+	@Override
+	public UnitStore getUnits() {
+		return units;
+	}
+	/**
+	 * Release the slot of one of our units that has left the map.
+	 * @param fix what was removed from the map or replaced, if anything
+	 */
+	private void released(@Nullable final ITileFixture fix) {
+		if (fix instanceof SimpleUnit && ((SimpleUnit) fix).getStore() == units) {
+			units.release(((SimpleUnit) fix).getSlot());
+		}
+	}
 	@Override
 	public void setServerConnection(final GamePlayer conn) {
 		serverConnection = conn;
@@ -102,7 +163,10 @@ public class TPClient implements ITPClient {
 	 */
 	@Override
 	public void addOpposingUnit(final IPoint point, final ProxyUnit unit) {
-		map.setTileContents(point, unit);
+		synchronized (map) {
+			released(map.getContents(point));
+			map.setTileContents(point, unit);
+		}
 		for (final MapUpdateListener listener : listeners) {
 			listener.fixtureAdded(point, unit);
 		}
@@ -114,7 +178,13 @@ public class TPClient implements ITPClient {
 	 */
 	@Override
 	public void addOwnUnit(final IPoint point, final SimpleUnit unit) {
-		map.setTileContents(point, unit);
+		synchronized (map) {
+			final ITileFixture old = map.getContents(point);
+			if (old != unit) {
+				released(old);
+			}
+			map.setTileContents(point, unit);
+		}
 		for (final MapUpdateListener listener : listeners) {
 			listener.fixtureAdded(point, unit);
 		}
@@ -129,16 +199,12 @@ public class TPClient implements ITPClient {
 		synchronized (map) {
 			ITileFixture mover = map.getContents(source);
 			if (mover != null && mover.getID() == id) {
-				map.removeFixture(source);
-				map.setTileContents(dest, mover);
+				map.moveFixture(source, dest);
 				for (final MapUpdateListener listener : listeners) {
 					listener.fixtureMoved(source, dest, mover);
 				}
 			} else {
-				final GamePlayer server = serverConnection;
-				if (server != null) {
-					server.sendMessage(new FullMapRequestMessage(player));
-				}
+				checkSync();
 			}
 		}
 	}
@@ -151,30 +217,133 @@ public class TPClient implements ITPClient {
 	public void removeFixture(final IPoint point, final int id) {
 		synchronized (map) {
 			ITileFixture contents = map.getContents(point);
-			if (contents != null && (contents.getID() == id || id == -1)) {
+			if (contents == null && id == -1) {
+				// The server is clearing a tile that is already clear.
+				return;
+			} else if (contents != null
+					&& (contents.getID() == id || id == -1)) {
 				map.removeFixture(point);
+				released(contents);
 				for (final MapUpdateListener listener : listeners) {
 					listener.fixtureRemoved(point, contents);
 				}
 			} else {
-				final GamePlayer server = serverConnection;
-				if (server != null) {
-					server.sendMessage(new FullMapRequestMessage(player));
-				}
+				checkSync();
 			}
 		}
 	}
+	/**
+	 * When an update from the server doesn't fit our map, send the server our
+	 * map's hash; it will send the whole map only if its own doesn't match.
+	 * In a batch, this waits for the end of the batch, so a batch sends at
+	 * most one hash.
+	 */
+	private void checkSync() {
+		synchronized (map) {
+			if (batchDepth > 0) {
+				syncWanted = true;
+				return;
+			}
+		}
+		final GamePlayer server = serverConnection;
+		if (server != null) {
+			server.sendMessage(new MapHashMessage(player, map.getHash()));
+		}
+	}
+	/**
+	 * Start applying a batch of updates from the server.
+	 */
+	@Override
+	public void startBatch() {
+		synchronized (map) {
+			batchDepth++;
+		}
+	}
+	/**
+	 * Finish applying a batch of updates. If any didn't fit our map, check
+	 * with the server now.
+	 */
+	@Override
+	public void endBatch() {
+		final boolean check;
+		synchronized (map) {
+			batchDepth--;
+			check = batchDepth == 0 && syncWanted;
+			if (check) {
+				syncWanted = false;
+			}
+		}
+		if (check) {
+			checkSync();
+		}
+	}
 	/**
 	 * @param point a location
 	 * @param type the new tile-type there
 	 */
 	@Override
 	public void changeTerrain(final IPoint point, final TileType type) {
-		map.setTerrain(point, type);
+		synchronized (map) {
+			map.setTerrain(point, type);
+			final FlowFieldCache cache = flowFields;
+			if (cache != null) {
+				final CostGrid grid = cache.getGrid();
+				if (grid.indexOf(point.getRow(), point.getColumn()) < 0) {
+					flowFields = null;
+				} else {
+					grid.setTerrain(point.getRow(), point.getColumn(), type);
+				}
+			}
+		}
 		for (final MapUpdateListener listener : listeners) {
 			listener.terrainChanged(point, type);
 		}
 	}
+	/**
+	 * Apply the outcome of a turn's combat: update the HP of our units and the
+	 * health tiers of others', and remove those killed.
+	 * @param report the outcome
+	 */
+	@Override
+	public void combatResolved(final CombatReport report) {
+		synchronized (map) {
+			for (int i = 0; i < report.size(); i++) {
+				final IPoint point = report.getPoint(i);
+				final ITileFixture fix = map.getContents(point);
+				if (fix == null || fix.getID() != report.getID(i)) {
+					continue;
+				} else if (report.getHealthTier(i) == HealthTier.Dead) {
+					map.removeFixture(point);
+					released(fix);
+					orders.remove(Integer.valueOf(fix.getID()));
+				} else if (fix instanceof SimpleUnit && report.getHP(i) >= 0) {
+					((SimpleUnit) fix).setCurrHP(report.getHP(i));
+					map.healthChanged(point);
+				} else if (fix instanceof ProxyUnit) {
+					((ProxyUnit) fix).setHealthTier(report.getHealthTier(i));
+					map.healthChanged(point);
+				}
+			}
+		}
+		for (final MapUpdateListener listener : listeners) {
+			listener.combatResolved(report);
+		}
+	}
+	/**
+	 * @param source where the attacker is
+	 * @param target where the unit to attack is
+	 * @param id the attacker's ID
+	 * @param ranged whether this is a ranged attack rather than melee
+	 */
+	@Override
+	public void attack(final IPoint source, final IPoint target, final int id,
+			final boolean ranged) {
+		final GamePlayer server = serverConnection;
+		if (server != null) {
+			server.sendMessage(new AttackMessage(player, source, target, id,
+					ranged));
+		}
+	}
 	/**
 	 * @param listener a listener to add
 	 */
@@ -197,24 +366,56 @@ public class TPClient implements ITPClient {
 		orders.put(Integer.valueOf(id), target);
 	}
 	/**
-	 * Transmit the orders to the server.
+	 * @param target a tile
+	 * @return a flow field toward it, shared with any other caller asking for
+	 *         the same target until the terrain changes, or null if it isn't in
+	 *         the map
 	 */
-	public synchronized void transmitOrders() {
-		for (final Entry<Integer, IPoint> entry : orders.entrySet()) {
-			final IPoint source = map.findFixture(entry.getKey().intValue());
-			final ITileFixture actor = map.getFixture(entry.getKey().intValue());
-			if (source == null || actor == null) {
-				continue;
+	@Nullable
+	public FlowField getFlowField(final IPoint target) {
+		synchronized (map) {
+			FlowFieldCache cache = flowFields;
+			if (cache == null) {
+				cache = new FlowFieldCache(CostGrid.of(map));
+				flowFields = cache;
 			}
-			final ITileFixture target = map.getContents(entry.getValue());
-			if (target == null) {
-				final GamePlayer server = serverConnection;
-				if (server != null) {
-					server.sendMessage(new FixtureMoveMessage(player, source, entry.getValue(),
-							entry.getKey().intValue()));
-				}
+			if (cache.getGrid().indexOf(target.getRow(), target.getColumn()) < 0) {
+				return null;
 			} else {
-				// Attack.
+				return cache.get(target);
+			}
+		}
+	}
+	/**
+	 * Transmit the orders to the server. Moves to unreachable destinations are
+	 * dropped rather than sent. Orders targeting an enemy unit are attacks:
+	 * melee if it is adjacent, ranged otherwise.
+	 */
+	public void transmitOrders() {
+		synchronized (map) {
+			for (final Entry<Integer, IPoint> entry : orders.entrySet()) {
+				final IPoint source = map.findFixture(entry.getKey().intValue());
+				final ITileFixture actor = map.getFixture(entry.getKey().intValue());
+				if (source == null || actor == null) {
+					continue;
+				}
+				final ITileFixture target = map.getContents(entry.getValue());
+				if (target == null) {
+					final FlowField field = getFlowField(entry.getValue());
+					if (field == null || field.getCost(source) < 0) {
+						continue;
+					}
+					final GamePlayer server = serverConnection;
+					if (server != null) {
+						server.sendMessage(new FixtureMoveMessage(player, source, entry.getValue(),
+								entry.getKey().intValue()));
+					}
+				} else if (target.getOwner() != player) {
+					final IPoint dest = entry.getValue();
+					attack(source, dest, entry.getKey().intValue(),
+							Math.abs(source.getRow() - dest.getRow())
+									+ Math.abs(source.getColumn() - dest.getColumn()) > 1);
+				}
 			}
 		}
 	}
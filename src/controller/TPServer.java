@@ -1,19 +1,26 @@
 package controller;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 
+import model.CombatReport;
 import model.IMap;
+import model.IMutableMap;
 import model.IPoint;
 import model.ITileFixture;
+import model.PlayerMapView;
+import model.ProxyCache;
 import model.ProxyUnit;
+import model.SimpleUnit;
 import model.TPMap;
 import model.TileType;
 import model.Unit;
+import model.Unit.HealthTier;
+import model.UndoLog;
+import model.UnitStore;
 
 import common.MapUpdateListener;
 
@@ -28,7 +35,7 @@ public class TPServer {
 	/**
 	 * The map.
 	 */
-	private final TPMap map;
+	private final IMutableMap map;
 	/**
 	 * Listeners to notify when we change the map.
 	 */
@@ -39,18 +46,77 @@ public class TPServer {
 	 * immediately adding it at the tail.
 	 */
 	private final Queue<Integer> players = new LinkedList<>();
+	/**
+	 * The proxies we hand out for units to players other than their owners.
+	 */
+	private final ProxyCache proxies = new ProxyCache();
+	/**
+	 * The statistics of the units in the game.
+	 */
+	private final UnitStore units = new UnitStore(64);
+	/**
+	 * The path-finder used to check that moves are possible. It listens for
+	 * terrain changes to keep itself up to date.
+	 */
+	private final HierarchicalPathFinder paths;
+	/**
+	 * What each unit can see, for range and line-of-sight checks. It listens
+	 * for map changes to keep itself up to date.
+	 */
+	private final VisibilityEngine visibility;
+	/**
+	 * The attacks ordered this turn, resolved together when it ends.
+	 */
+	private final CombatResolver combat;
+	/**
+	 * The journal through which batches of orders are applied, so that a batch
+	 * can be undone if any order in it is refused.
+	 */
+	private final UndoLog journal;
+	/**
+	 * Where the IDs of new fixtures in this game come from.
+	 */
+	private final IDFactory ids = new IDFactory();
 	/**
 	 * No-arg constructor. Sets up an empty map.
 	 */
 	public TPServer() {
-		map = new TPMap();
+		this(new TPMap());
 	}
 	/**
 	 * Constructor taking an already-initialized map.
 	 * @param theMap the map
 	 */
-	public TPServer(final TPMap theMap) {
+	public TPServer(final IMutableMap theMap) {
+		this(theMap, System.nanoTime());
+	}
+	/**
+	 * Constructor taking an already-initialized map and the seed for the
+	 * game's dice, so that a game (or simulation) can be replayed exactly. The
+	 * IDs of fixtures already in the map are registered with the game's
+	 * IDFactory; throws IllegalArgumentException if two have the same ID.
+	 * @param theMap the map
+	 * @param seed the seed for the dice
+	 */
+	public TPServer(final IMutableMap theMap, final long seed) {
 		map = theMap;
+		for (final IPoint point : map) {
+			final ITileFixture fix = map.getContents(point);
+			if (fix != null) {
+				try {
+					ids.register(fix.getID());
+				} catch (final IDFactory.DuplicateIDException except) {
+					throw new IllegalArgumentException(except.getMessage(),
+							except);
+				}
+			}
+		}
+		combat = new CombatResolver(units, seed);
+		journal = new UndoLog(map, units);
+		paths = new HierarchicalPathFinder(CostGrid.of(map));
+		listeners.add(paths);
+		visibility = VisibilityEngine.of(map, VisibilityEngine.DEFAULT_RANGE);
+		listeners.add(visibility);
 	}
 	/**
 	 * Constructor taking parameters to build a map.
@@ -59,7 +125,19 @@ public class TPServer {
 	 */
 	public TPServer(final Map<IPoint, TileType> terrain,
 			final Map<IPoint, ITileFixture> fixtures) {
-		map = new TPMap(terrain, fixtures);
+		this(new TPMap(terrain, fixtures));
+	}
+	/**
+	 * @return where the IDs of new fixtures in this game should come from
+	 */
+	public IDFactory getIDFactory() {
+		return ids;
+	}
+	/**
+	 * @return the store in which units in this game should be created
+	 */
+	public UnitStore getUnits() {
+		return units;
 	}
 	/**
 	 * Add an update listener.
@@ -78,18 +156,28 @@ public class TPServer {
 
 	/**
 	 * Add a player. Throws IllegalArgumentException if the player is already in
-	 * the game.
+	 * the game. When the game gets its second player, it can begin, so the
+	 * listeners are told whose turn it is, as if a turn had just ended; a
+	 * computer player that joined first starts playing then.
 	 *
 	 * @param player
 	 *            the player to add
 	 */
 	public void addPlayer(final int player) {
 		Integer val = Integer.valueOf(player);
+		final int first;
 		synchronized (players) {
 			if (players.contains(val)) {
 				throw new IllegalArgumentException("Player already joined");
 			}
 			players.add(val);
+			if (players.size() != 2) {
+				return;
+			}
+			first = players.peek().intValue();
+		}
+		for (final MapUpdateListener listener : listeners) {
+			listener.endTurn(first);
 		}
 	}
 	/**
@@ -101,7 +189,12 @@ public class TPServer {
 	}
 
 	/**
-	 * End the turn, advancing to the next player.
+	 * End the turn, advancing to the next player. The attacks ordered during
+	 * the turn are resolved first, and units killed removed from the game. Each
+	 * attack is checked again as it is resolved, against where its units are
+	 * now and what the attacker can now see, since the attacker may have moved
+	 * or the terrain changed since it was ordered; one no longer in reach is
+	 * dropped.
 	 *
 	 * @param requester
 	 *            the player requesting the end of the turn. Only the current
@@ -111,6 +204,38 @@ public class TPServer {
 		if (requester != players.peek().intValue()) {
 			throw new IllegalArgumentException("Not your turn");
 		}
+		if (combat.getQueued() > 0) {
+			final CombatReport report = combat.resolve(map,
+					new CombatResolver.AttackCheck() {
+						@Override
+						public boolean allows(final int attacker,
+								final IPoint source, final IPoint target,
+								final boolean ranged) {
+							final ITileFixture defender =
+									map.getContents(target);
+							return defender != null
+									&& inReach(source, defender, ranged)
+									&& (!ranged || visibility.canSee(attacker,
+											target));
+						}
+					});
+			for (int i = 0; i < report.size(); i++) {
+				if (report.getHealthTier(i) == HealthTier.Dead) {
+					final ITileFixture dead = map.getFixture(report.getID(i));
+					map.removeFixture(report.getPoint(i));
+					proxies.remove(report.getID(i));
+					if (dead instanceof SimpleUnit) {
+						units.release(((SimpleUnit) dead).getSlot());
+					}
+					ids.release(report.getID(i));
+				} else {
+					map.healthChanged(report.getPoint(i));
+				}
+			}
+			for (final MapUpdateListener listener : listeners) {
+				listener.combatResolved(report.redactFor(listener.getPlayer()));
+			}
+		}
 		final Integer old = players.poll();
 		players.add(old);
 		final int curr = players.peek().intValue();
@@ -118,9 +243,26 @@ public class TPServer {
 			listener.endTurn(curr);
 		}
 	}
+	/**
+	 * Change the terrain of a tile, and tell the listeners, among them the
+	 * path-finder and the visibility engine, so they can update what they
+	 * derived from it.
+	 *
+	 * @param point
+	 *            the tile to change
+	 * @param type
+	 *            its new terrain
+	 */
+	public void changeTerrain(final IPoint point, final TileType type) {
+		map.setTerrain(point, type);
+		for (final MapUpdateListener listener : listeners) {
+			listener.terrainChanged(point, type);
+		}
+	}
 	/**
 	 * Move a unit. If the destination is occupied, the caller should use some
-	 * other method to clear it first.
+	 * other method to clear it first. The destination must be reachable from
+	 * the source over passable terrain.
 	 *
 	 * @param requester
 	 *            the player giving the order. Only the current player may make
@@ -134,6 +276,60 @@ public class TPServer {
 	 */
 	public void moveUnit(final int requester, final int id,
 			final IPoint source, final IPoint dest) {
+		final ITileFixture mover = checkMove(requester, id, source, dest);
+		map.moveFixture(source, dest);
+		announceMove(requester, source, dest, mover);
+	}
+	/**
+	 * Move several units, all or none: if any move is refused, those before it
+	 * in the batch are undone, and listeners hear of none of them. Moves are
+	 * checked in order, against the map as the earlier moves leave it, so one
+	 * unit may move into a tile another leaves earlier in the batch.
+	 *
+	 * @param requester
+	 *            the player giving the orders. Only the current player may
+	 *            make orders.
+	 * @param ids
+	 *            the ID # of each unit moving
+	 * @param sources
+	 *            each unit's current location
+	 * @param dests
+	 *            each unit's destination
+	 */
+	public void moveUnits(final int requester, final int[] ids,
+			final IPoint[] sources, final IPoint[] dests) {
+		if (ids.length != sources.length || ids.length != dests.length) {
+			throw new IllegalArgumentException("Mismatched batch of moves");
+		}
+		final ITileFixture[] movers = new ITileFixture[ids.length];
+		final int mark = journal.mark();
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				movers[i] = checkMove(requester, ids[i], sources[i], dests[i]);
+				journal.moveFixture(sources[i], dests[i]);
+			}
+		} catch (final IllegalArgumentException except) {
+			journal.rollback(mark);
+			throw except;
+		}
+		journal.commit(mark);
+		for (int i = 0; i < ids.length; i++) {
+			final ITileFixture mover = movers[i];
+			assert mover != null;
+			announceMove(requester, sources[i], dests[i], mover);
+		}
+	}
+	/**
+	 * Check that a move is allowed, throwing IllegalArgumentException if not.
+	 *
+	 * @param requester the player giving the order
+	 * @param id the ID # of the unit moving
+	 * @param source the unit's current location
+	 * @param dest the unit's destination
+	 * @return the unit
+	 */
+	private ITileFixture checkMove(final int requester, final int id,
+			final IPoint source, final IPoint dest) {
 		final ITileFixture mover = map.getFixture(id);
 		final IPoint actualSource = map.findFixture(id);
 		if (requester != players.peek().intValue()) {
@@ -153,10 +349,23 @@ public class TPServer {
 		} else if (mover instanceof ProxyUnit) {
 			throw new IllegalArgumentException("Can't move a proxy unit");
 		}
-		// Check that the fixture is actually a unit.
-		map.removeFixture(source);
-		map.setTileContents(dest, mover);
-		final ITileFixture proxyMover = new ProxyUnit((Unit) mover);
+		if (paths.findPath(source, dest) < 0) {
+			throw new IllegalArgumentException("No path to destination");
+		}
+		return mover;
+	}
+	/**
+	 * Tell listeners that a unit has moved, sending its proxy to those not
+	 * listening for its owner.
+	 *
+	 * @param requester the player who moved it
+	 * @param source where it was
+	 * @param dest where it is now
+	 * @param mover the unit
+	 */
+	private void announceMove(final int requester, final IPoint source,
+			final IPoint dest, final ITileFixture mover) {
+		final ITileFixture proxyMover = proxies.get((Unit) mover);
 		for (final MapUpdateListener listener : listeners) {
 			if (listener.getPlayer() == requester) {
 				listener.fixtureMoved(source, dest, mover);
@@ -165,6 +374,90 @@ public class TPServer {
 			}
 		}
 	}
+	/**
+	 * Order an attack, to be resolved with the rest of the turn's attacks when
+	 * the turn ends. Each unit may attack once per turn. A melee attack must be
+	 * against an adjacent unit; a ranged attack against one the attacker can
+	 * see.
+	 *
+	 * @param requester
+	 *            the player giving the order. Only the current player may make
+	 *            orders.
+	 * @param id
+	 *            the ID # of the attacking unit
+	 * @param source
+	 *            the attacker's current location
+	 * @param target
+	 *            the location of the unit to attack
+	 * @param ranged
+	 *            whether this is a ranged attack rather than melee
+	 */
+	public void attack(final int requester, final int id, final IPoint source,
+			final IPoint target, final boolean ranged) {
+		final ITileFixture attacker = map.getFixture(id);
+		final ITileFixture defender = map.getContents(target);
+		if (requester != players.peek().intValue()) {
+			throw new IllegalArgumentException("Not your turn");
+		} else if (attacker == null) {
+			throw new IllegalArgumentException("No such unit");
+		} else if (!(attacker instanceof SimpleUnit)
+				|| ((SimpleUnit) attacker).getStore() != units) {
+			throw new IllegalArgumentException("Only units can attack");
+		} else if (attacker.getOwner() != requester) {
+			throw new IllegalArgumentException("You don't own that unit");
+		} else if (!source.equals(map.findFixture(id))) {
+			throw new IllegalArgumentException(
+					"Starting point doesn't match unit's location");
+		} else if (!(defender instanceof SimpleUnit)
+				|| ((SimpleUnit) defender).getStore() != units) {
+			throw new IllegalArgumentException("No unit there to attack");
+		} else if (defender.getOwner() == requester) {
+			throw new IllegalArgumentException("Can't attack your own unit");
+		}
+		final SimpleUnit unit = (SimpleUnit) attacker;
+		if (ranged) {
+			if (unit.getTotalRangedAttackDice() == 0) {
+				throw new IllegalArgumentException("Unit has no ranged attack");
+			} else if (!inReach(source, defender, true)
+					|| !visibility.canSee(id, target)) {
+				throw new IllegalArgumentException("Target not in sight");
+			}
+		} else if (unit.getTotalAttackDice() == 0) {
+			throw new IllegalArgumentException("Unit has no melee attack");
+		} else if (!inReach(source, defender, false)) {
+			throw new IllegalArgumentException("Target not adjacent");
+		}
+		if (combat.hasQueued(unit.getSlot())) {
+			throw new IllegalArgumentException(
+					"Unit has already attacked this turn");
+		}
+		combat.queue(unit.getSlot(), ((SimpleUnit) defender).getSlot(), ranged);
+	}
+	/**
+	 * Asks the map's spatial index, rather than scanning tiles, whether a unit
+	 * is within reach of an attack from a point: for melee, on a tile sharing
+	 * an edge with it (the only tiles within a distance of one); for ranged
+	 * attacks, within sight range. Whether it can actually be seen is for the
+	 * visibility engine.
+	 *
+	 * @param source where the attack comes from
+	 * @param defender the unit to attack
+	 * @param ranged whether this is a ranged attack rather than melee
+	 * @return whether the unit is within the attack's reach
+	 */
+	private boolean inReach(final IPoint source, final ITileFixture defender,
+			final boolean ranged) {
+		return map.getFixturesWithin(source,
+				ranged ? visibility.getRange() : 1).contains(defender);
+	}
+	/**
+	 * Release the resources the game holds beyond its own memory, such as the
+	 * threads used to resolve large batches of attacks. Call when the game is
+	 * over.
+	 */
+	public void shutdown() {
+		combat.shutdown();
+	}
 	/**
 	 * @return whose turn it is
 	 */
@@ -172,29 +465,60 @@ public class TPServer {
 		return players.peek().intValue();
 	}
 	/**
-	 * Note that this is a fairly expensive operation, so we expect it to
-	 * usually be called once per client.
+	 * @return the players in turn order, starting with the player whose turn
+	 *         it is
+	 */
+	public int[] getPlayerOrder() {
+		synchronized (players) {
+			final int[] retval = new int[players.size()];
+			int i = 0;
+			for (final Integer player : players) {
+				retval[i] = player.intValue();
+				i++;
+			}
+			return retval;
+		}
+	}
+	/**
+	 * @return a consistent, read-only view of the map as it is now, for
+	 *         readers (AI, saving) that shouldn't hold up or be confused by
+	 *         orders being carried out meanwhile
+	 */
+	public IMap getSnapshot() {
+		return map.snapshot();
+	}
+	/**
+	 * @return the version of the map, which increases every time it changes
+	 */
+	public long getMapVersion() {
+		return map.getVersion();
+	}
+	/**
+	 * @return the hash of the map's contents, which a client's copy should
+	 *         match if it is in sync
+	 */
+	public long getMapHash() {
+		return map.getHash();
+	}
+	/**
+	 * @param id the ID # of a unit
+	 * @param target a tile
+	 * @return whether that unit can see that tile, for range and line-of-sight
+	 *         checks
+	 */
+	public boolean canSee(final int id, final IPoint target) {
+		return visibility.canSee(id, target);
+	}
+	/**
+	 * This is cheap: the view reads through to a snapshot of the map, and
+	 * creates proxies for other players' units only as they are asked for.
 	 *
 	 * @param player
 	 *            a player number
 	 * @return a view of the map for that player.
 	 */
 	public IMap getPlayerMap(final int player) {
-		final Map<IPoint, TileType> terrain = new HashMap<>();
-		final Map<IPoint, ITileFixture> fixtures = new HashMap<>();
-		for (final IPoint point : map) {
-			if (point == null) {
-				continue;
-			}
-			terrain.put(point, map.getTerrain(point));
-			final ITileFixture fix = map.getContents(point);
-			if (fix instanceof Unit && player != fix.getOwner()) {
-				fixtures.put(point, new ProxyUnit((Unit) fix));
-			} else if (fix != null) {
-				fixtures.put(point, fix);
-			}
-		}
-		return new TPMap(terrain, fixtures);
+		return new PlayerMapView(map.snapshot(), player, proxies);
 	}
 	/**
 	 * Add a fixture. Only the current player may do so.
@@ -215,7 +539,7 @@ public class TPServer {
 			map.setTileContents(point, fix);
 			final ITileFixture proxy;
 			if (fix instanceof Unit) {
-				proxy = new ProxyUnit((Unit) fix);
+				proxy = proxies.get((Unit) fix);
 			} else {
 				proxy = fix;
 			}
@@ -0,0 +1,441 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.CombatReport;
+import model.IMap;
+import model.IPoint;
+import model.ITileFixture;
+import model.IntMap;
+import model.TileType;
+import model.Unit;
+import model.Unit.HealthTier;
+
+import common.MapUpdateListener;
+
+/**
+ * Keeps track of what each unit can see. Each observer's field of view is
+ * computed by recursive shadowcasting, with terrain that blocks sight (see
+ * TileType.blocksSight()) casting shadows, and stored as a bitset over the
+ * square of tiles within its sight range; a range or line-of-sight check is
+ * then a single bit probe. A field of view is recomputed only when it is next
+ * asked for after the observer has moved or the terrain within its range has
+ * changed whether it blocks sight. Units do not block sight.
+ *
+ * As a MapUpdateListener this keeps itself up to date: units added to the map
+ * become observers, and those removed stop being observers.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class VisibilityEngine implements MapUpdateListener {
+	/**
+	 * The default sight range.
+	 */
+	public static final int DEFAULT_RANGE = 8;
+	/**
+	 * Octant transforms for shadowcasting: for each octant, the multipliers
+	 * mapping (column offset, row offset) in the canonical octant to column
+	 * and row offsets in the map.
+	 */
+	private static final int[][] OCTANTS = { { 1, 0, 0, 1 }, { 0, 1, 1, 0 },
+			{ 0, -1, 1, 0 }, { -1, 0, 0, 1 }, { -1, 0, 0, -1 },
+			{ 0, -1, -1, 0 }, { 0, 1, -1, 0 }, { 1, 0, 0, -1 } };
+	/**
+	 * The number of rows covered.
+	 */
+	private final int rows;
+	/**
+	 * The number of columns covered.
+	 */
+	private final int columns;
+	/**
+	 * Whether each tile (indexed by row * columns + column) blocks sight.
+	 */
+	private final boolean[] opaque;
+	/**
+	 * How far observers can see.
+	 */
+	private final int range;
+	/**
+	 * The width and height of each observer's window of tiles.
+	 */
+	private final int side;
+	/**
+	 * The observers, by the ID # of the unit.
+	 */
+	private final IntMap<Observer> observers = new IntMap<>();
+	/**
+	 * The observers, for scanning.
+	 */
+	private final List<Observer> observerList = new ArrayList<>();
+
+	/**
+	 * The field of view of one unit.
+	 */
+	private final class Observer {
+		/**
+		 * The unit's row.
+		 */
+		private int row;
+		/**
+		 * The unit's column.
+		 */
+		private int col;
+		/**
+		 * Whether each tile in the window centered on the unit can be seen,
+		 * indexed by (row offset + range) * side + (column offset + range).
+		 */
+		private final long[] bits;
+		/**
+		 * Whether the bits need to be recomputed.
+		 */
+		private boolean stale = true;
+		/**
+		 * The observer's position in observerList.
+		 */
+		private int position;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param where where the unit is
+		 */
+		Observer(final IPoint where) {
+			row = where.getRow();
+			col = where.getColumn();
+			bits = new long[(side * side + 63) / 64];
+		}
+
+		/**
+		 * @param dRow a row offset from the unit, within range
+		 * @param dCol a column offset from the unit, within range
+		 * @return the index of that tile's bit
+		 */
+		private int bit(final int dRow, final int dCol) {
+			return (dRow + range) * side + dCol + range;
+		}
+
+		/**
+		 * Mark a tile visible.
+		 *
+		 * @param dRow its row offset from the unit
+		 * @param dCol its column offset from the unit
+		 */
+		void light(final int dRow, final int dCol) {
+			final int bit = bit(dRow, dCol);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+
+		/**
+		 * @param targetRow a row
+		 * @param targetCol a column
+		 * @return whether the unit can see that tile
+		 */
+		boolean sees(final int targetRow, final int targetCol) {
+			if (stale) {
+				recompute(this);
+			}
+			final int dRow = targetRow - row;
+			final int dCol = targetCol - col;
+			if (Math.abs(dRow) > range || Math.abs(dCol) > range) {
+				return false;
+			}
+			final int bit = bit(dRow, dCol);
+			return (bits[bit >>> 6] & (1L << bit)) != 0;
+		}
+	}
+
+	/**
+	 * Constructor. Nothing blocks sight until terrain is set.
+	 *
+	 * @param rowCount the number of rows to cover
+	 * @param colCount the number of columns to cover
+	 * @param sightRange how far observers can see
+	 */
+	public VisibilityEngine(final int rowCount, final int colCount,
+			final int sightRange) {
+		if (rowCount < 0 || colCount < 0) {
+			throw new IllegalArgumentException("Negative dimensions");
+		} else if (sightRange < 0 || sightRange > 1000) {
+			throw new IllegalArgumentException("Unreasonable sight range");
+		}
+		rows = rowCount;
+		columns = colCount;
+		opaque = new boolean[rowCount * colCount];
+		range = sightRange;
+		side = sightRange * 2 + 1;
+	}
+
+	/**
+	 * Build an engine covering every tile in a map with a nonnegative row and
+	 * column, with every unit in it as an observer.
+	 *
+	 * @param map the map
+	 * @param sightRange how far observers can see
+	 * @return the engine
+	 */
+	public static VisibilityEngine of(final IMap map, final int sightRange) {
+		int maxRow = -1;
+		int maxCol = -1;
+		for (final IPoint point : map) {
+			maxRow = Math.max(maxRow, point.getRow());
+			maxCol = Math.max(maxCol, point.getColumn());
+		}
+		final VisibilityEngine retval = new VisibilityEngine(maxRow + 1,
+				maxCol + 1, sightRange);
+		for (final IPoint point : map) {
+			retval.terrainChanged(point, map.getTerrain(point));
+			final ITileFixture fix = map.getContents(point);
+			if (fix instanceof Unit) {
+				retval.fixtureAdded(point, fix);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * @return how far observers can see
+	 */
+	public int getRange() {
+		return range;
+	}
+
+	/**
+	 * Add an observer, or move one already present.
+	 *
+	 * @param id the ID # of the unit
+	 * @param where where it is
+	 */
+	public synchronized void setObserver(final int id, final IPoint where) {
+		final Observer existing = observers.get(id);
+		if (existing == null) {
+			final Observer observer = new Observer(where);
+			observer.position = observerList.size();
+			observerList.add(observer);
+			observers.put(id, observer);
+		} else if (existing.row != where.getRow()
+				|| existing.col != where.getColumn()) {
+			existing.row = where.getRow();
+			existing.col = where.getColumn();
+			existing.stale = true;
+		}
+	}
+
+	/**
+	 * Remove an observer. Does nothing if it isn't one.
+	 *
+	 * @param id the ID # of the unit
+	 */
+	public synchronized void removeObserver(final int id) {
+		final Observer observer = observers.remove(id);
+		if (observer != null) {
+			final Observer last = observerList.remove(observerList.size() - 1);
+			if (last != observer) {
+				last.position = observer.position;
+				observerList.set(observer.position, last);
+			}
+		}
+	}
+
+	/**
+	 * @param id the ID # of an observer
+	 * @param target a tile
+	 * @return whether that unit can see that tile; false if it isn't an
+	 *         observer
+	 */
+	public synchronized boolean canSee(final int id, final IPoint target) {
+		final Observer observer = observers.get(id);
+		return observer != null
+				&& observer.sees(target.getRow(), target.getColumn());
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return whether that tile blocks sight; tiles outside the map do
+	 */
+	private boolean blocks(final int row, final int col) {
+		return outside(row, col) || opaque[row * columns + col];
+	}
+
+	/**
+	 * Recompute an observer's field of view.
+	 *
+	 * @param observer the observer
+	 */
+	void recompute(final Observer observer) {
+		Arrays.fill(observer.bits, 0L);
+		observer.light(0, 0);
+		for (final int[] octant : OCTANTS) {
+			castLight(observer, 1, 1.0, 0.0, octant);
+		}
+		observer.stale = false;
+	}
+
+	/**
+	 * Recursive shadowcasting over one octant: scan the rows of the octant
+	 * outward from the observer, lighting tiles between the start and end
+	 * slopes, and recursing beyond each run of sight-blocking tiles with the
+	 * slopes narrowed to the gap above it.
+	 *
+	 * @param observer the observer
+	 * @param firstRow the distance of the first row to scan
+	 * @param startSlope the slope at which to start scanning
+	 * @param endSlope the slope at which to stop scanning
+	 * @param octant the octant transform
+	 */
+	private void castLight(final Observer observer, final int firstRow,
+			final double startSlope, final double endSlope, final int[] octant) {
+		if (startSlope < endSlope) {
+			return;
+		}
+		final int radiusSquared = range * range;
+		double start = startSlope;
+		double newStart = 0.0;
+		for (int dist = firstRow; dist <= range; dist++) {
+			boolean blocked = false;
+			for (int dx = -dist; dx <= 0; dx++) {
+				final int dy = -dist;
+				final double leftSlope = (dx - 0.5) / (dy + 0.5);
+				final double rightSlope = (dx + 0.5) / (dy - 0.5);
+				if (start < rightSlope) {
+					continue;
+				} else if (endSlope > leftSlope) {
+					break;
+				}
+				final int dCol = dx * octant[0] + dy * octant[1];
+				final int dRow = dx * octant[2] + dy * octant[3];
+				final int row = observer.row + dRow;
+				final int col = observer.col + dCol;
+				if (dx * dx + dy * dy <= radiusSquared && !outside(row, col)) {
+					observer.light(dRow, dCol);
+				}
+				if (blocked) {
+					if (blocks(row, col)) {
+						newStart = rightSlope;
+					} else {
+						blocked = false;
+						start = newStart;
+					}
+				} else if (blocks(row, col) && dist < range) {
+					blocked = true;
+					castLight(observer, dist + 1, start, leftSlope, octant);
+					newStart = rightSlope;
+				}
+			}
+			if (blocked) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return whether that tile is outside the map
+	 */
+	private boolean outside(final int row, final int col) {
+		return row < 0 || row >= rows || col < 0 || col >= columns;
+	}
+
+	/**
+	 * This doesn't care about unit details.
+	 *
+	 * @return -1
+	 */
+	@Override
+	public int getPlayer() {
+		return -1;
+	}
+
+	/**
+	 * If whether the tile blocks sight changed, mark every observer within
+	 * range of it for recomputation.
+	 *
+	 * @param point the location of the change
+	 * @param type the new tile type there
+	 */
+	@Override
+	public synchronized void terrainChanged(final IPoint point,
+			final TileType type) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		if (outside(row, col) || opaque[row * columns + col] == type.blocksSight()) {
+			return;
+		}
+		opaque[row * columns + col] = type.blocksSight();
+		for (final Observer observer : observerList) {
+			if (Math.abs(observer.row - row) <= range
+					&& Math.abs(observer.col - col) <= range) {
+				observer.stale = true;
+			}
+		}
+	}
+
+	/**
+	 * Units added to the map become observers.
+	 *
+	 * @param point the location of the new fixture
+	 * @param fix the fixture
+	 */
+	@Override
+	public void fixtureAdded(final IPoint point, final ITileFixture fix) {
+		if (fix instanceof Unit) {
+			setObserver(fix.getID(), point);
+		}
+	}
+
+	/**
+	 * Units removed from the map stop being observers.
+	 *
+	 * @param point the location of the fixture
+	 * @param fix the fixture
+	 */
+	@Override
+	public void fixtureRemoved(final IPoint point, final ITileFixture fix) {
+		if (fix instanceof Unit) {
+			removeObserver(fix.getID());
+		}
+	}
+
+	/**
+	 * Units that move need their fields of view recomputed.
+	 *
+	 * @param source the starting point
+	 * @param dest the destination
+	 * @param fix the fixture that is moving
+	 */
+	@Override
+	public void fixtureMoved(final IPoint source, final IPoint dest,
+			final ITileFixture fix) {
+		if (fix instanceof Unit) {
+			setObserver(fix.getID(), dest);
+		}
+	}
+
+	/**
+	 * Turns don't affect visibility.
+	 *
+	 * @param player ignored
+	 */
+	@Override
+	public void endTurn(final int player) {
+		// Do nothing
+	}
+
+	/**
+	 * Units killed stop being observers.
+	 *
+	 * @param report the outcome of the turn's combat
+	 */
+	@Override
+	public void combatResolved(final CombatReport report) {
+		for (int i = 0; i < report.size(); i++) {
+			if (report.getHealthTier(i) == HealthTier.Dead) {
+				removeObserver(report.getID(i));
+			}
+		}
+	}
+}
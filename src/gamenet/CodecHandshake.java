@@ -0,0 +1,185 @@
+package gamenet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The exchange at the start of a connection that settles which codec it uses.
+ * The client sends a magic number, the count of codecs it offers, and their
+ * IDs in its order of preference; the server answers with the ID of the first
+ * of its own codecs that the client offered, or of Java serialization, which
+ * both sides always have, if none was. A client from before there was a
+ * choice starts straight in with a serialization stream header, which can't
+ * be mistaken for the magic number, so the server falls back to serialization
+ * for it without an answer. (A new client can't talk to a server from before
+ * then, which will take the magic number for a corrupt stream.) Either side's
+ * serialization codec is the one in its list, if there is one, or else a
+ * default one.
+ *
+ * @author Jonathan Lovelace
+ */
+@NonNullByDefault
+final class CodecHandshake {
+	/**
+	 * The magic number that starts a client's offer: "TPC" and a version.
+	 */
+	private static final int MAGIC = 0x54504301;
+	/**
+	 * The first two bytes of a Java serialization stream.
+	 */
+	private static final int SERIAL_HEADER = 0xACED;
+	/**
+	 * The serialization codec used if a list doesn't have one.
+	 */
+	private static final MessageCodec FALLBACK = new SerializationCodec();
+
+	/**
+	 * Do not instantiate.
+	 */
+	private CodecHandshake() {
+		// Static methods only.
+	}
+
+	/**
+	 * The client's side of the handshake.
+	 *
+	 * @param codecs the codecs the client has, in its order of preference
+	 * @param in the stream from the server
+	 * @param out the stream to the server
+	 * @return the codec the server chose
+	 * @throws IOException on I/O error, or if the server chose a codec we
+	 *             didn't offer
+	 */
+	static MessageCodec offer(final List<MessageCodec> codecs,
+			final InputStream in, final OutputStream out) throws IOException {
+		final List<MessageCodec> all = withFallback(codecs);
+		writeInt(out, MAGIC);
+		out.write(all.size());
+		for (final MessageCodec codec : all) {
+			out.write(codec.getID());
+		}
+		out.flush();
+		final int chosen = in.read();
+		if (chosen < 0) {
+			throw new EOFException("Server closed connection in handshake");
+		}
+		for (final MessageCodec codec : all) {
+			if (codec.getID() == (byte) chosen) {
+				return codec;
+			}
+		}
+		throw new IOException("Server chose unknown codec " + chosen);
+	}
+
+	/**
+	 * The server's side of the handshake.
+	 *
+	 * @param codecs the codecs the server has, in its order of preference
+	 * @param in the stream from the client; if the client is one that doesn't
+	 *            shake hands, what was read of it is pushed back
+	 * @param out the stream to the client
+	 * @return the codec to use
+	 * @throws IOException on I/O error, or if the client sent neither an offer
+	 *             nor a serialization stream
+	 */
+	static MessageCodec accept(final List<MessageCodec> codecs,
+			final PushbackInputStream in, final OutputStream out)
+			throws IOException {
+		final List<MessageCodec> all = withFallback(codecs);
+		MessageCodec retval = FALLBACK;
+		for (final MessageCodec codec : all) {
+			if (codec.getID() == SerializationCodec.ID) {
+				retval = codec;
+				break;
+			}
+		}
+		final int first = readByte(in);
+		final int second = readByte(in);
+		if ((first << 8 | second) == SERIAL_HEADER) {
+			in.unread(new byte[] { (byte) first, (byte) second });
+			return retval;
+		} else if ((first << 24 | second << 16 | readByte(in) << 8
+				| readByte(in)) != MAGIC) {
+			throw new IOException("Client did not start with a handshake");
+		}
+		final byte[] offered = new byte[readByte(in)];
+		for (int i = 0; i < offered.length; i++) {
+			offered[i] = (byte) readByte(in);
+		}
+		for (final MessageCodec codec : all) {
+			if (contains(offered, codec.getID())) {
+				retval = codec;
+				break;
+			}
+		}
+		out.write(retval.getID());
+		out.flush();
+		return retval;
+	}
+
+	/**
+	 * @param codecs a list of codecs
+	 * @return it, if it has a serialization codec, or else a copy with the
+	 *         default one added at the end
+	 */
+	private static List<MessageCodec> withFallback(
+			final List<MessageCodec> codecs) {
+		for (final MessageCodec codec : codecs) {
+			if (codec.getID() == SerializationCodec.ID) {
+				return codecs;
+			}
+		}
+		final List<MessageCodec> retval = new ArrayList<>(codecs);
+		retval.add(FALLBACK);
+		return retval;
+	}
+
+	/**
+	 * @param ids some codec IDs
+	 * @param id a codec ID
+	 * @return whether it is among them
+	 */
+	private static boolean contains(final byte[] ids, final byte id) {
+		for (final byte each : ids) {
+			if (each == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param in a stream
+	 * @return the next byte from it
+	 * @throws IOException on I/O error, or if it has ended
+	 */
+	private static int readByte(final InputStream in) throws IOException {
+		final int retval = in.read();
+		if (retval < 0) {
+			throw new EOFException("Client closed connection in handshake");
+		}
+		return retval;
+	}
+
+	/**
+	 * Write an int, most significant byte first.
+	 *
+	 * @param out a stream
+	 * @param value the int
+	 * @throws IOException on I/O error
+	 */
+	private static void writeInt(final OutputStream out, final int value)
+			throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+}
@@ -1,6 +1,7 @@
 package gamenet;
 
 import java.net.UnknownHostException;
+import java.util.List;
 
 /**
  * The <b>GameControl</b> class provides the overall framework for gameNet. This
@@ -47,6 +48,14 @@ public class GameControl {
 		return serverPortNum;
 	}
 
+	/**
+	 * @return the codecs this game can use on its connections, in order of
+	 *         preference
+	 */
+	List<MessageCodec> getCodecs() {
+		return gameCreator.getCodecs();
+	}
+
 	/**
 	 * This constructor is used when everything is on the same computer and you
 	 * aren't needing to network.
@@ -60,7 +69,8 @@ public class GameControl {
 		gameCreator = gc;
 		try {
 			coreGame = gameCreator.createGame();
-			gameServer = new GameServer(serverPortNum, coreGame);
+			gameServer = new GameServer(serverPortNum, coreGame,
+					gameCreator.getCodecs());
 			gameServer.start();
 
 			coreGame.startGame(this);
@@ -120,5 +130,8 @@ public class GameControl {
 			System.out.println("endGame ");
 			gameServer.stopServer();
 		}
+		if (coreGame != null) {
+			coreGame.endGame();
+		}
 	}
 }
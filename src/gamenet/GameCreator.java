@@ -1,6 +1,8 @@
 package gamenet;
 
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -19,6 +21,21 @@ public abstract class GameCreator {
 	 */
 	public abstract GameNetCoreGame createGame();
 
+	/**
+	 * The codecs this game can use on its connections, for the server to pick
+	 * from or the client to offer. Java serialization is always available as
+	 * well, and is all there is unless a subclass supplies better; if the list
+	 * has no SerializationCodec, one that resets its stream after every
+	 * message is used.
+	 *
+	 * @return the codecs in order of preference
+	 */
+	public List<MessageCodec> getCodecs() {
+		final List<MessageCodec> retval = Collections.emptyList();
+		assert retval != null;
+		return retval;
+	}
+
 	/**
 	 * Set up a game, using the logic from the subclass.
 	 *
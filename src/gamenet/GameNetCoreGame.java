@@ -16,6 +16,12 @@ public abstract class GameNetCoreGame {
 	public void startGame(@SuppressWarnings("unused") final GameControl control) {
 		// Empty default implementation.
 	}
+	/**
+	 * End the game, releasing whatever it holds beyond its own memory.
+	 */
+	public void endGame() {
+		// Empty default implementation.
+	}
 	/**
 	 * Handle input from a client.
 	 * @param request An object encapsulating the client request
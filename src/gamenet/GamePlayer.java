@@ -1,8 +1,10 @@
 package gamenet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -15,12 +17,12 @@ import org.eclipse.jdt.annotation.NonNullByDefault;
  * GameControl.
  * 
  * When the GUI wants to send a message to the GameControl, the
- * <b>sendMessage</b> routine is called to write the message object to an
- * ObjectOutputStream.
+ * <b>sendMessage</b> routine is called to write the message object to the
+ * connection, encoded by whichever codec was agreed on when it was opened.
  * 
  * When the GameControl wants to send a message to the GUI, the GamePlayer
- * Thread will read the object from the ObjectInputStream. The GamePlayer class
- * passes it along to the GUI by calling the <b>receivedMessage</b> method.
+ * Thread will read and decode the object from the connection. The GamePlayer
+ * class passes it along to the GUI by calling the <b>receivedMessage</b> method.
  * 
  * Other key methods in GamePlayer are <b>joinGame</b> for creating the
  * connection to the GameControl, and <b>exitGame</b> to terminate the
@@ -49,13 +51,13 @@ public class GamePlayer extends Thread {
 	 */
 	private final Socket gameSocket;
 	/**
-	 * A stream for reading objects from the socket.
+	 * For reading objects from the socket.
 	 */
-	private final ObjectInputStream socketInput;
+	private final MessageCodec.Reader socketInput;
 	/**
-	 * A stream for writing objects to the socket.
+	 * For writing objects to the socket.
 	 */
-	private final ObjectOutputStream socketOutput;
+	private final MessageCodec.Writer socketOutput;
 	/**
 	 * The game's UI.
 	 */
@@ -88,11 +90,17 @@ public class GamePlayer extends Thread {
 			gameSocket =
 					new Socket(gameControl.getIpAddress(),
 							gameControl.getPortNum());
-			// Create in/out classes associated with the Open Socket
-			ObjectOutputStream tempSocketOutput =
-					new ObjectOutputStream(gameSocket.getOutputStream());
+			// Settle with the server on how to encode messages, then create
+			// in/out classes associated with the Open Socket
+			final InputStream in =
+					new BufferedInputStream(gameSocket.getInputStream());
+			final OutputStream out =
+					new BufferedOutputStream(gameSocket.getOutputStream());
+			final MessageCodec codec =
+					CodecHandshake.offer(gameControl.getCodecs(), in, out);
+			MessageCodec.Writer tempSocketOutput = codec.openWriter(out);
 
-			socketInput = new ObjectInputStream(gameSocket.getInputStream());
+			socketInput = codec.openReader(in);
 			// Put in a pause to allow some time to get the server
 			// side thread up.
 			// It turns out that a sendMessage is likely to be sent
@@ -142,8 +150,8 @@ public class GamePlayer extends Thread {
 
 	/**
 	 * The Thread that is underneath the GamePlayer class is responsible for
-	 * reading the ObjectOutputStream from the GameControl. Every GameOutputObj
-	 * read from the ObjectOutputStream is passed on by calling the
+	 * reading the messages from the GameControl. Every GameOutputObj
+	 * read from the connection is passed on by calling the
 	 * receivedMessage routine. This routine shouldn't be accessed directly from
 	 * gameControl code. It has to be public to properly run as a thread.
 	 */
@@ -152,12 +160,9 @@ public class GamePlayer extends Thread {
 		try {
 			Object outputFromSocket;
 			// Read from Socket and write to Screen
-			while ((outputFromSocket = socketInput.readObject()) != null) {
+			while ((outputFromSocket = socketInput.read()) != null) {
 				receivedMessage(outputFromSocket);
 			}
-		} catch (ClassNotFoundException e) {
-			System.out
-					.println("GamePlayer.run Class Not Found Exception: " + e);
 		} catch (IOException e) {
 			System.out.println("GamePlayer.run Exception: " + e);
 		}
@@ -233,8 +238,7 @@ public class GamePlayer extends Thread {
 	 */
 	public void sendMessage(final Object obj) {
 		try {
-			socketOutput.writeObject(obj);
-			socketOutput.reset();
+			socketOutput.write(obj);
 		} catch (IOException e) {
 			System.out.println("GamePlayer.sendMessage Exception: " + e);
 		}
@@ -6,6 +6,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * A thread for the server.
@@ -53,6 +54,10 @@ class GameServer extends Thread {
 	 * The "core Game" (?).
 	 */
 	private GameNetCoreGame coreGame;
+	/**
+	 * The codecs to pick from for each connection, in order of preference.
+	 */
+	private final List<MessageCodec> codecs;
 	/**
 	 * @return the port number, but only after the server has started
 	 */
@@ -86,12 +91,15 @@ class GameServer extends Thread {
 	 *             if the local host can't be resolved to an address
 	 * @param port the port to listen on
 	 * @param gi the game-logic part of the server
+	 * @param codecList the codecs to pick from for each connection, in order
+	 *            of preference
 	 */
-	public GameServer(final int port, final GameNetCoreGame gi)
-			throws UnknownHostException {
+	public GameServer(final int port, final GameNetCoreGame gi,
+			final List<MessageCodec> codecList) throws UnknownHostException {
 		inetAddress = InetAddress.getLocalHost().getHostAddress();
 		portNum = port;
 		coreGame = gi;
+		codecs = codecList;
 	}
 
 	/**
@@ -162,7 +170,8 @@ class GameServer extends Thread {
 
 				// Create a thread to process incoming connection
 				ServerClientHandler gamePlayerChild =
-						new ServerClientHandler(nextSock, this, nThreadCount++);
+						new ServerClientHandler(nextSock, this, nThreadCount++,
+								codecs);
 				gamePlayers.add(gamePlayerChild);
 				gamePlayerChild.start();
 			}
@@ -0,0 +1,14 @@
+package gamenet;
+
+/**
+ * A marker for messages that, and everything reachable from which, never
+ * change once made. The serialization codec need not reset its stream after
+ * such a message, so what it refers to may later be sent as a reference to
+ * the copy already sent. A class that implements this promises it for its
+ * subclasses too, so one that may be extended with mutable state must not.
+ *
+ * @author Jonathan Lovelace
+ */
+public interface ImmutableMessage {
+	// Marker only.
+}
@@ -0,0 +1,80 @@
+package gamenet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A way of turning messages into bytes on a connection and back again. Which
+ * one a connection uses is agreed on when it is opened (see CodecHandshake):
+ * the client offers the codecs it knows, and the server picks the first of
+ * its own that the client offered. Java serialization (SerializationCodec)
+ * is always available as the fallback, so a game need supply only the codecs
+ * it has that are better.
+ *
+ * @author Jonathan Lovelace
+ */
+@NonNullByDefault
+public interface MessageCodec {
+	/**
+	 * @return the number identifying this codec in the handshake; each codec
+	 *         must have its own
+	 */
+	byte getID();
+
+	/**
+	 * Start writing messages to a connection. Anything the codec needs to
+	 * write before the first message must be written and flushed here, since
+	 * the other side may be waiting for it.
+	 *
+	 * @param out the stream to write to
+	 * @return a writer for the connection
+	 * @throws IOException on I/O error
+	 */
+	Writer openWriter(OutputStream out) throws IOException;
+
+	/**
+	 * Start reading messages from a connection. This may block until the
+	 * other side has opened its writer.
+	 *
+	 * @param in the stream to read from
+	 * @return a reader for the connection
+	 * @throws IOException on I/O error
+	 */
+	Reader openReader(InputStream in) throws IOException;
+
+	/**
+	 * The sending half of a connection. Writes may come from more than one
+	 * thread, so implementations must make each write atomic.
+	 */
+	interface Writer extends Closeable {
+		/**
+		 * Write a message and flush it to the connection.
+		 *
+		 * @param message the message
+		 * @throws IOException on I/O error, or if the codec can't encode the
+		 *             message
+		 */
+		void write(Object message) throws IOException;
+	}
+
+	/**
+	 * The receiving half of a connection. This is used from only one thread.
+	 */
+	interface Reader extends Closeable {
+		/**
+		 * Read the next message, blocking until one arrives.
+		 *
+		 * @return the message, or null if the other side has closed the
+		 *         connection cleanly
+		 * @throws IOException on I/O error, or if what was read isn't a
+		 *             message the codec understands
+		 */
+		@Nullable
+		Object read() throws IOException;
+	}
+}
@@ -0,0 +1,169 @@
+package gamenet;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The codec every connection can fall back on: Java serialization of the
+ * message objects, as the game has always used. It handles any serializable
+ * message, but each one carries class descriptions and field names.
+ *
+ * An object stream remembers every object it has written, and writes a short
+ * reference instead of any object it meets again, class descriptions
+ * included. That saves a great deal on a stream of small messages that share
+ * classes and (interned) field values, but it means an object changed since
+ * it was sent is not sent again, and both ends hold on to everything sent
+ * until the stream is reset. So the stream is reset after any message that
+ * isn't an ImmutableMessage, so that nothing mutable stays remembered, and
+ * otherwise only every so many messages or bytes, to bound what both ends
+ * hold.
+ *
+ * @author Jonathan Lovelace
+ */
+@NonNullByDefault
+public final class SerializationCodec implements MessageCodec {
+	/**
+	 * The number identifying this codec in the handshake.
+	 */
+	public static final byte ID = 0;
+	/**
+	 * How many messages may be written between resets.
+	 */
+	private static final int RESET_MESSAGES = 512;
+	/**
+	 * How many bytes may be written between resets (checked after each
+	 * message, so the limit may be overshot by one message).
+	 */
+	private static final long RESET_BYTES = 1 << 20;
+
+	/**
+	 * @return the number identifying this codec in the handshake
+	 */
+	@Override
+	public byte getID() {
+		return ID;
+	}
+
+	/**
+	 * @param out the stream to write to
+	 * @return a writer for the connection
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public Writer openWriter(final OutputStream out) throws IOException {
+		final CountingStream counter = new CountingStream(out);
+		final ObjectOutputStream stream = new ObjectOutputStream(counter);
+		// Flush the stream header, which the other side's reader waits for.
+		stream.flush();
+		return new Writer() {
+			/**
+			 * How many messages have been written since the last reset.
+			 */
+			private int sinceReset = 0;
+
+			@Override
+			public synchronized void write(final Object message)
+					throws IOException {
+				stream.writeObject(message);
+				sinceReset++;
+				if (!(message instanceof ImmutableMessage)
+						|| sinceReset >= RESET_MESSAGES
+						|| counter.count >= RESET_BYTES) {
+					stream.reset();
+					sinceReset = 0;
+					counter.count = 0;
+				}
+				stream.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				stream.close();
+			}
+		};
+	}
+
+	/**
+	 * @param in the stream to read from
+	 * @return a reader for the connection
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public Reader openReader(final InputStream in) throws IOException {
+		final ObjectInputStream stream = new ObjectInputStream(in);
+		return new Reader() {
+			@Override
+			@Nullable
+			public Object read() throws IOException {
+				try {
+					return stream.readObject();
+				} catch (EOFException e) {
+					return null;
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Received an unknown class", e);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				stream.close();
+			}
+		};
+	}
+
+	/**
+	 * @return a String representation of the object
+	 */
+	@Override
+	public String toString() {
+		return "SerializationCodec";
+	}
+
+	/**
+	 * A stream that counts the bytes written through it.
+	 */
+	private static final class CountingStream extends FilterOutputStream {
+		/**
+		 * How many bytes have been written since this was last cleared.
+		 */
+		protected long count = 0;
+
+		/**
+		 * @param out the stream to write to
+		 */
+		protected CountingStream(final OutputStream out) {
+			super(out);
+		}
+
+		/**
+		 * @param value a byte to write
+		 * @throws IOException on I/O error
+		 */
+		@Override
+		public void write(final int value) throws IOException {
+			out.write(value);
+			count++;
+		}
+
+		/**
+		 * @param bytes bytes to write
+		 * @param off where in the array they start
+		 * @param len how many there are
+		 * @throws IOException on I/O error
+		 */
+		@Override
+		public void write(final byte[] bytes, final int off, final int len)
+				throws IOException {
+			out.write(bytes, off, len);
+			count += len;
+		}
+	}
+}
@@ -1,9 +1,13 @@
 package gamenet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * A sample (?) "player" process.
@@ -32,6 +36,10 @@ public class ServerClientHandler extends Thread {
 	 * Messages (to send? that we received?).
 	 */
 	private final LinkedList<Object> msgObjects = new LinkedList<>();
+	/**
+	 * The codecs the client may pick from, in order of preference.
+	 */
+	private final List<MessageCodec> codecs;
 	/**
 	 * @return the current index (into what?)
 	 */
@@ -88,27 +96,43 @@ public class ServerClientHandler extends Thread {
 	 * @param s the socket connecting us to the server
 	 * @param m the server that owns us
 	 * @param me our index (into what?)
+	 * @param codecList the codecs the client may pick from, in order of
+	 *            preference
 	 */
-	public ServerClientHandler(final Socket s, final GameServer m, final int me) {
+	public ServerClientHandler(final Socket s, final GameServer m, final int me,
+			final List<MessageCodec> codecList) {
 		socket = s;
 		myIndex = me;
 		mom = m; // Mother GameServer Task
+		codecs = codecList;
 	}
 
 	/**
-	 * The main loop of the thread. Starts up a subthread to read from the
-	 * socket, then read messages from the queue (blocking if empty) and write
-	 * them to the socket.
+	 * The main loop of the thread. Settles with the client which codec to use,
+	 * starts up a subthread to read from the socket, then read messages from
+	 * the queue (blocking if empty) and write them to the socket.
 	 */
 	@Override
 	public void run() {
-		new ServerFromPlayerReaderThread(socket, mom, myIndex).start();
-		try (ObjectOutputStream out =
-				new ObjectOutputStream(socket.getOutputStream())) {
+		final PushbackInputStream in;
+		final OutputStream out;
+		final MessageCodec codec;
+		try {
+			in = new PushbackInputStream(
+					new BufferedInputStream(socket.getInputStream()), 2);
+			out = new BufferedOutputStream(socket.getOutputStream());
+			codec = CodecHandshake.accept(codecs, in, out);
+		} catch (IOException e) {
+			System.out.println("GamePlayerProcess1 handshake Err: " + e);
+			mom.removeMe(myIndex);
+			return;
+		}
+		new ServerFromPlayerReaderThread(socket, in, codec, mom, myIndex)
+				.start();
+		try (MessageCodec.Writer writer = codec.openWriter(out)) {
 			Object outputOb;
 			while ((outputOb = get()) != null) {
-				out.writeObject(outputOb);
-				out.reset();
+				writer.write(outputOb);
 			}
 			socket.close();
 		} catch (IOException e) {
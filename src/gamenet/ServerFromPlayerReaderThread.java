@@ -1,7 +1,7 @@
 package gamenet;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.io.InputStream;
 import java.net.Socket;
 
 /**
@@ -19,6 +19,14 @@ class ServerFromPlayerReaderThread extends Thread {
 	 * The socket connecting to the client.
 	 */
 	private final Socket sock;
+	/**
+	 * The stream from the client, past the handshake.
+	 */
+	private final InputStream stream;
+	/**
+	 * The codec the client and we agreed on.
+	 */
+	private final MessageCodec codec;
 	/**
 	 * Our index in the table of threads.
 	 */
@@ -27,14 +35,20 @@ class ServerFromPlayerReaderThread extends Thread {
 	/**
 	 * @param s
 	 *            the socket we are handling
+	 * @param in
+	 *            the stream from the client, past the handshake
+	 * @param agreed
+	 *            the codec the client and we agreed on
 	 * @param m
 	 *            the server that owns this
 	 * @param index
 	 *            our index in the table of threads
 	 */
-	public ServerFromPlayerReaderThread(final Socket s, final GameServer m,
-			final int index) {
+	public ServerFromPlayerReaderThread(final Socket s, final InputStream in,
+			final MessageCodec agreed, final GameServer m, final int index) {
 		sock = s;
+		stream = in;
+		codec = agreed;
 		mom = m;
 		myIndex = index;
 	}
@@ -46,15 +60,11 @@ class ServerFromPlayerReaderThread extends Thread {
 	public void run() {
 		// Read from socket and put the string read into all message queues for
 		// all conversations.
-		try (final ObjectInputStream in =
-				new ObjectInputStream(sock.getInputStream())) {
+		try (final MessageCodec.Reader in = codec.openReader(stream)) {
 			Object inputObj;
-			while ((inputObj = in.readObject()) != null) {
+			while ((inputObj = in.read()) != null) {
 				mom.putInputMsgs(inputObj);
 			}
-		} catch (ClassNotFoundException e) {
-			System.out.println("GamePlayerProcess2.run Class Not Found Err: "
-					+ e);
 		} catch (IOException e) {
 			System.out.println("GamePlayerProcess2.run Err: " + e);
 		}
@@ -0,0 +1,654 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A map for very large or unbounded battlefields. The world is split into
+ * square chunks, which are only allocated when something in them is set, so
+ * empty regions cost nothing; a chunk whose terrain is all the same (see
+ * fill()) doesn't even keep a terrain array. Iteration walks the map a chunk
+ * at a time.
+ *
+ * @author Jonathan Lovelace
+ */
+public class ChunkedMap implements IMutableMap {
+	/**
+	 * The base-2 logarithm of the width and height of a chunk.
+	 */
+	private static final int CHUNK_SHIFT = 5;
+	/**
+	 * The width and height of a chunk.
+	 */
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	/**
+	 * The mask to get a tile's row or column within its chunk.
+	 */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	/**
+	 * The number of tiles in a chunk.
+	 */
+	private static final int CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE;
+	/**
+	 * The value representing a tile with no terrain.
+	 */
+	private static final byte NO_TERRAIN = -1;
+	/**
+	 * The tile types, indexed by ordinal.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+	/**
+	 * The chunks that have been allocated, keyed by the PackedPoint encoding
+	 * of their chunk coordinates. Guarded by synchronizing on the map.
+	 */
+	private final LongMap<Chunk> chunks = new LongMap<>();
+	/**
+	 * The chunks that have been allocated, in the order they were, for
+	 * iteration. Guarded by synchronizing on the map.
+	 */
+	private final List<Chunk> chunkList = new ArrayList<>();
+	/**
+	 * The location of each fixture, by ID. Guarded by synchronizing on the
+	 * map.
+	 */
+	private final IntMap<IPoint> locations = new IntMap<>();
+	/**
+	 * The fixtures on the map, by location, for range queries. Guarded by
+	 * synchronizing on the map.
+	 */
+	private final SpatialIndex nearby = new SpatialIndex();
+	/**
+	 * The hash of the map's contents. Guarded by synchronizing on the map.
+	 */
+	private final ZobristHash hash = new ZobristHash();
+	/**
+	 * The version of the map, incremented (while holding the lock on the map)
+	 * on every change.
+	 */
+	private volatile long version = 0;
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the chunk containing that tile, or null if it hasn't been
+	 *         allocated
+	 */
+	@Nullable
+	private synchronized Chunk chunkAt(final int row, final int col) {
+		return chunks.get(PackedPoint.pack(row >> CHUNK_SHIFT,
+				col >> CHUNK_SHIFT));
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the chunk containing that tile, allocating it if necessary.
+	 *         Callers must hold the lock on the map.
+	 */
+	private Chunk allocatedChunkAt(final int row, final int col) {
+		final long key = PackedPoint.pack(row >> CHUNK_SHIFT, col >> CHUNK_SHIFT);
+		final Chunk existing = chunks.get(key);
+		if (existing == null) {
+			final Chunk retval = new Chunk(row & ~CHUNK_MASK, col & ~CHUNK_MASK);
+			chunks.put(key, retval);
+			chunkList.add(retval);
+			return retval;
+		} else {
+			return existing;
+		}
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the index of that tile within its chunk
+	 */
+	private static int indexInChunk(final int row, final int col) {
+		return ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK);
+	}
+
+	/**
+	 * @return an iteration over the points in the map that have terrain, a
+	 *         chunk at a time
+	 */
+	@Override
+	public Iterator<IPoint> iterator() {
+		final Chunk[] snapshot;
+		synchronized (this) {
+			snapshot = chunkList.toArray(new Chunk[chunkList.size()]);
+		}
+		return new ChunkIterator(snapshot);
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final IPoint point) {
+		return terrainAt(point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final long point) {
+		return terrainAt(PackedPoint.row(point), PackedPoint.column(point));
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the terrain there. Throws IllegalArgumentException if none.
+	 */
+	private TileType terrainAt(final int row, final int col) {
+		final Chunk chunk = chunkAt(row, col);
+		final byte ordinal;
+		if (chunk == null) {
+			ordinal = NO_TERRAIN;
+		} else {
+			ordinal = chunk.getTerrain(indexInChunk(row, col));
+		}
+		if (ordinal == NO_TERRAIN) {
+			throw new IllegalArgumentException("Asked for terrain not in the map");
+		}
+		final TileType retval = TYPES[ordinal];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final IPoint point) {
+		return contentsAt(point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final long point) {
+		return contentsAt(PackedPoint.row(point), PackedPoint.column(point));
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	private ITileFixture contentsAt(final int row, final int col) {
+		final Chunk chunk = chunkAt(row, col);
+		if (chunk == null) {
+			return null;
+		} else {
+			return chunk.getContents(indexInChunk(row, col));
+		}
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @param type the new terrain there
+	 */
+	@Override
+	public synchronized void setTerrain(final IPoint point, final TileType type) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		final Chunk chunk = allocatedChunkAt(row, col);
+		final int index = indexInChunk(row, col);
+		hashTerrain(PackedPoint.pack(row, col), chunk.getTerrain(index), type);
+		chunk.setTerrain(index, (byte) type.ordinal());
+		version++;
+	}
+
+	/**
+	 * Fold a change of terrain into the hash.
+	 *
+	 * @param point the tile, as encoded by PackedPoint
+	 * @param old the ordinal of its old terrain, or NO_TERRAIN
+	 * @param type its new terrain
+	 */
+	private void hashTerrain(final long point, final byte old,
+			final TileType type) {
+		if (old == NO_TERRAIN) {
+			hash.setTerrain(point, null, type);
+		} else {
+			hash.setTerrain(point, TYPES[old], type);
+		}
+	}
+
+	/**
+	 * Set the terrain of every tile in a rectangle. Chunks the rectangle
+	 * covers completely are stored as a single value rather than an array,
+	 * though each tile's terrain must still be folded into the hash.
+	 *
+	 * @param row the top row of the rectangle
+	 * @param col the leftmost column of the rectangle
+	 * @param rowCount the number of rows in the rectangle
+	 * @param colCount the number of columns in the rectangle
+	 * @param type the new terrain there
+	 */
+	public synchronized void fill(final int row, final int col,
+			final int rowCount, final int colCount, final TileType type) {
+		final byte ordinal = (byte) type.ordinal();
+		final long endRow = (long) row + rowCount;
+		final long endCol = (long) col + colCount;
+		for (long chunkRow = row & ~CHUNK_MASK; chunkRow < endRow;
+				chunkRow += CHUNK_SIZE) {
+			for (long chunkCol = col & ~CHUNK_MASK; chunkCol < endCol;
+					chunkCol += CHUNK_SIZE) {
+				final Chunk chunk = allocatedChunkAt((int) chunkRow, (int) chunkCol);
+				final boolean whole = chunkRow >= row
+						&& chunkRow + CHUNK_SIZE <= endRow && chunkCol >= col
+						&& chunkCol + CHUNK_SIZE <= endCol;
+				final int firstRow = (int) Math.max(chunkRow, row);
+				final int lastRow = (int) Math.min(chunkRow + CHUNK_SIZE, endRow);
+				final int firstCol = (int) Math.max(chunkCol, col);
+				final int lastCol = (int) Math.min(chunkCol + CHUNK_SIZE, endCol);
+				for (int i = firstRow; i < lastRow; i++) {
+					for (int j = firstCol; j < lastCol; j++) {
+						final int index = indexInChunk(i, j);
+						hashTerrain(PackedPoint.pack(i, j), chunk.getTerrain(index),
+								type);
+						if (!whole) {
+							chunk.setTerrain(index, ordinal);
+						}
+					}
+				}
+				if (whole) {
+					chunk.setUniformTerrain(ordinal);
+				}
+			}
+		}
+		version++;
+	}
+
+	/**
+	 * @param point
+	 *            a location in the map
+	 * @param fix
+	 *            a new fixture to put there
+	 */
+	@Override
+	public synchronized void setTileContents(final IPoint point,
+			final ITileFixture fix) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		final ITileFixture old =
+				allocatedChunkAt(row, col).setContents(indexInChunk(row, col), fix);
+		if (old != null) {
+			unindex(old, point);
+		}
+		locations.put(fix.getID(), point);
+		nearby.add(point, fix);
+		hash.add(point, fix);
+		version++;
+	}
+
+	/**
+	 * Remove the fixture at the specified point.
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void removeFixture(final IPoint point) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		final Chunk chunk = chunkAt(row, col);
+		if (chunk != null) {
+			final ITileFixture old =
+					chunk.setContents(indexInChunk(row, col), null);
+			if (old != null) {
+				unindex(old, point);
+				version++;
+			}
+		}
+	}
+
+	/**
+	 * Move the fixture on one tile to another, replacing anything there, as a
+	 * single change: nothing holding the lock on the map, snapshots included,
+	 * sees it on neither tile. Throws IllegalArgumentException if there is
+	 * nothing at the source.
+	 *
+	 * @param source where the fixture is
+	 * @param dest where it should be
+	 */
+	@Override
+	public synchronized void moveFixture(final IPoint source,
+			final IPoint dest) {
+		final ITileFixture fix = getContents(source);
+		if (fix == null) {
+			throw new IllegalArgumentException("Nothing to move");
+		} else if (!source.equals(dest)) {
+			final long before = version;
+			setTileContents(dest, fix);
+			removeFixture(source);
+			version = before + 1;
+		}
+	}
+
+	/**
+	 * Note that the health of the unit at a point may have changed, so that
+	 * the map's hash follows its health tier. Does nothing if there is no
+	 * unit there.
+	 *
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void healthChanged(final IPoint point) {
+		final ITileFixture fix = getContents(point);
+		if (fix instanceof Unit) {
+			hash.setTier(point, fix.getID(), ((Unit) fix).getHealthTier());
+			version++;
+		}
+	}
+
+	/**
+	 * Remove a fixture from the ID index, unless the index has it somewhere
+	 * else already (as when a fixture is added at its destination before being
+	 * removed from its source).
+	 *
+	 * @param fix a fixture that is no longer at a location
+	 * @param point that location
+	 */
+	private void unindex(final ITileFixture fix, final IPoint point) {
+		if (point.equals(locations.get(fix.getID()))) {
+			locations.remove(fix.getID());
+		}
+		nearby.remove(point, fix.getID());
+		hash.remove(point, fix.getID());
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return that fixture
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getFixture(final int id) {
+		final IPoint point = findFixture(id);
+		if (point == null) {
+			return null;
+		} else {
+			return getContents(point);
+		}
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return its location
+	 */
+	@Nullable
+	@Override
+	public synchronized IPoint findFixture(final int id) {
+		return locations.get(id);
+	}
+
+	/**
+	 * @param center a location in the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return the fixtures within that distance of that location
+	 */
+	@Override
+	public synchronized List<ITileFixture> getFixturesWithin(
+			final IPoint center, final int radius) {
+		final List<ITileFixture> retval = new ArrayList<>();
+		nearby.collect(center, radius, retval);
+		return retval;
+	}
+
+	/**
+	 * @return the version of the map
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the hash of the map's contents
+	 */
+	@Override
+	public synchronized long getHash() {
+		return hash.get();
+	}
+
+	/**
+	 * This copies every allocated chunk, but not the fixtures.
+	 * @return a copy of the map as it is now
+	 */
+	@Override
+	public synchronized IMap snapshot() {
+		final ChunkedMap retval = new ChunkedMap();
+		for (final Chunk chunk : chunkList) {
+			final Chunk copy = chunk.copy();
+			retval.chunks.put(PackedPoint.pack(chunk.baseRow >> CHUNK_SHIFT,
+					chunk.baseCol >> CHUNK_SHIFT), copy);
+			retval.chunkList.add(copy);
+		}
+		retval.nearby.addAll(nearby);
+		retval.hash.copyValue(hash);
+		retval.version = version;
+		return retval;
+	}
+
+	/**
+	 * A square section of the map.
+	 */
+	private static final class Chunk {
+		/**
+		 * The row of the chunk's top left tile.
+		 */
+		protected final int baseRow;
+		/**
+		 * The column of the chunk's top left tile.
+		 */
+		protected final int baseCol;
+		/**
+		 * The terrain of every tile in the chunk, as TileType ordinals, or null
+		 * if every tile has the same terrain.
+		 */
+		@Nullable
+		private byte[] terrain = null;
+		/**
+		 * The terrain of every tile in the chunk, if they're all the same.
+		 */
+		private byte uniform = NO_TERRAIN;
+		/**
+		 * The fixtures in the chunk, or null if there have never been any.
+		 */
+		@Nullable
+		private ITileFixture[] contents = null;
+
+		/**
+		 * @param row the row of the chunk's top left tile
+		 * @param col the column of the chunk's top left tile
+		 */
+		protected Chunk(final int row, final int col) {
+			baseRow = row;
+			baseCol = col;
+		}
+
+		/**
+		 * @return a copy of this chunk, sharing only the fixtures themselves
+		 */
+		protected Chunk copy() {
+			final Chunk retval = new Chunk(baseRow, baseCol);
+			retval.uniform = uniform;
+			final byte[] localTerrain = terrain;
+			if (localTerrain != null) {
+				retval.terrain = localTerrain.clone();
+			}
+			final ITileFixture[] localContents = contents;
+			if (localContents != null) {
+				retval.contents = localContents.clone();
+			}
+			return retval;
+		}
+
+		/**
+		 * @param index a tile's index in the chunk
+		 * @return the ordinal of its terrain, or NO_TERRAIN
+		 */
+		protected byte getTerrain(final int index) {
+			final byte[] local = terrain;
+			if (local == null) {
+				return uniform;
+			} else {
+				return local[index];
+			}
+		}
+
+		/**
+		 * @param index a tile's index in the chunk
+		 * @param ordinal the ordinal of its new terrain
+		 */
+		protected void setTerrain(final int index, final byte ordinal) {
+			byte[] local = terrain;
+			if (local == null) {
+				if (ordinal == uniform) {
+					return;
+				}
+				local = new byte[CHUNK_AREA];
+				Arrays.fill(local, uniform);
+				terrain = local;
+			}
+			local[index] = ordinal;
+		}
+
+		/**
+		 * @param ordinal the ordinal of the new terrain for every tile
+		 */
+		protected void setUniformTerrain(final byte ordinal) {
+			terrain = null;
+			uniform = ordinal;
+		}
+
+		/**
+		 * @param index a tile's index in the chunk
+		 * @return the fixture there, if any
+		 */
+		@Nullable
+		protected ITileFixture getContents(final int index) {
+			final ITileFixture[] local = contents;
+			if (local == null) {
+				return null;
+			} else {
+				return local[index];
+			}
+		}
+
+		/**
+		 * @param index a tile's index in the chunk
+		 * @param fix the new fixture there, or null to remove it
+		 * @return the fixture that was there, if any
+		 */
+		@Nullable
+		protected ITileFixture setContents(final int index,
+				@Nullable final ITileFixture fix) {
+			ITileFixture[] local = contents;
+			if (local == null) {
+				if (fix == null) {
+					return null;
+				}
+				local = new ITileFixture[CHUNK_AREA];
+				contents = local;
+			}
+			final ITileFixture retval = local[index];
+			local[index] = fix;
+			return retval;
+		}
+	}
+
+	/**
+	 * An iterator over the tiles that have terrain, a chunk at a time.
+	 */
+	private static final class ChunkIterator implements Iterator<IPoint> {
+		/**
+		 * The chunks to iterate over.
+		 */
+		private final Chunk[] chunkArray;
+		/**
+		 * The index of the current chunk.
+		 */
+		private int chunk = 0;
+		/**
+		 * The index within the current chunk of the next tile with terrain, or
+		 * CHUNK_AREA if there is none.
+		 */
+		private int tile = -1;
+
+		/**
+		 * @param array the chunks to iterate over
+		 */
+		protected ChunkIterator(final Chunk[] array) {
+			chunkArray = array;
+			advance();
+		}
+
+		/**
+		 * Move to the next tile with terrain.
+		 */
+		private void advance() {
+			tile++;
+			while (chunk < chunkArray.length) {
+				while (tile < CHUNK_AREA
+						&& chunkArray[chunk].getTerrain(tile) == NO_TERRAIN) {
+					tile++;
+				}
+				if (tile < CHUNK_AREA) {
+					return;
+				}
+				chunk++;
+				tile = 0;
+			}
+		}
+
+		/**
+		 * @return whether there are any more tiles with terrain
+		 */
+		@Override
+		public boolean hasNext() {
+			return chunk < chunkArray.length;
+		}
+
+		/**
+		 * @return the next tile with terrain
+		 */
+		@Override
+		public IPoint next() {
+			if (chunk >= chunkArray.length) {
+				throw new NoSuchElementException("No more tiles");
+			}
+			final Chunk current = chunkArray[chunk];
+			final IPoint retval = Point.of(current.baseRow + (tile >> CHUNK_SHIFT),
+					current.baseCol + (tile & CHUNK_MASK));
+			advance();
+			return retval;
+		}
+
+		/**
+		 * Tiles can't be removed from the map.
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException(
+					"Can't remove tiles from the map");
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import model.Unit.HealthTier;
+
+/**
+ * The outcome of a turn's combat: for every unit that was attacked, where it
+ * is, its HP, and the health tier that puts it in. Units whose tier is Dead
+ * have left the game, and listeners should remove them from the map. It is
+ * sent to each listener as a single update rather than as one event per
+ * attack, with the HP of units not belonging to that listener's player
+ * withheld (see redactFor()).
+ *
+ * Entries are added as the report is built, after which it should be treated
+ * as read-only.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CombatReport implements Serializable {
+	/**
+	 * Version UID for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The health tiers, by ordinal.
+	 */
+	private static final HealthTier[] TIERS = HealthTier.values();
+	/**
+	 * The ID # of each unit.
+	 */
+	private int[] ids;
+	/**
+	 * The owner of each unit.
+	 */
+	private int[] owners;
+	/**
+	 * The row each unit is in.
+	 */
+	private int[] rows;
+	/**
+	 * The column each unit is in.
+	 */
+	private int[] cols;
+	/**
+	 * The HP of each unit, or -1 if withheld.
+	 */
+	private int[] hitPoints;
+	/**
+	 * The health tier of each unit, by ordinal.
+	 */
+	private byte[] tiers;
+	/**
+	 * How many entries are valid.
+	 */
+	private int count = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity how many entries to make room for initially
+	 */
+	public CombatReport(final int capacity) {
+		final int size = Math.max(capacity, 1);
+		ids = new int[size];
+		owners = new int[size];
+		rows = new int[size];
+		cols = new int[size];
+		hitPoints = new int[size];
+		tiers = new byte[size];
+	}
+
+	/**
+	 * Add an entry.
+	 *
+	 * @param id the ID # of the unit
+	 * @param owner its owner
+	 * @param point where it is
+	 * @param hp its HP, or -1 if it is to be withheld
+	 * @param tier the health tier it is in
+	 */
+	public void add(final int id, final int owner, final IPoint point,
+			final int hp, final HealthTier tier) {
+		if (count == ids.length) {
+			ids = Arrays.copyOf(ids, count * 2);
+			owners = Arrays.copyOf(owners, count * 2);
+			rows = Arrays.copyOf(rows, count * 2);
+			cols = Arrays.copyOf(cols, count * 2);
+			hitPoints = Arrays.copyOf(hitPoints, count * 2);
+			tiers = Arrays.copyOf(tiers, count * 2);
+		}
+		ids[count] = id;
+		owners[count] = owner;
+		rows[count] = point.getRow();
+		cols[count] = point.getColumn();
+		hitPoints[count] = hp;
+		tiers[count] = (byte) tier.ordinal();
+		count++;
+	}
+
+	/**
+	 * @return how many units are reported on
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @param index an entry
+	 * @return the ID # of the unit
+	 */
+	public int getID(final int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @param index an entry
+	 * @return the unit's owner
+	 */
+	public int getOwner(final int index) {
+		return owners[index];
+	}
+
+	/**
+	 * @param index an entry
+	 * @return where the unit is
+	 */
+	public IPoint getPoint(final int index) {
+		return Point.of(rows[index], cols[index]);
+	}
+
+	/**
+	 * @param index an entry
+	 * @return the unit's HP, or -1 if it has been withheld
+	 */
+	public int getHP(final int index) {
+		return hitPoints[index];
+	}
+
+	/**
+	 * @param index an entry
+	 * @return the health tier the unit is in
+	 */
+	public HealthTier getHealthTier(final int index) {
+		final HealthTier retval = TIERS[tiers[index]];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param player a player
+	 * @return a copy of this report with the HP of units belonging to other
+	 *         players withheld, for sending to that player
+	 */
+	public CombatReport redactFor(final int player) {
+		final CombatReport retval = new CombatReport(count);
+		for (int i = 0; i < count; i++) {
+			retval.ids[i] = ids[i];
+			retval.owners[i] = owners[i];
+			retval.rows[i] = rows[i];
+			retval.cols[i] = cols[i];
+			retval.hitPoints[i] = owners[i] == player ? hitPoints[i] : -1;
+			retval.tiers[i] = tiers[i];
+		}
+		retval.count = count;
+		return retval;
+	}
+}
@@ -0,0 +1,580 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A map of fixed size backed by flat arrays rather than hash maps. Terrain is
+ * stored as one byte per tile, and each tile holds an int "slot" into a table
+ * of fixtures, both indexed by row * width + column. This costs a few bytes
+ * per tile, where TPMap pays for a map entry, a node, and a key for each.
+ *
+ * Changes synchronize on the map, but reading a tile's terrain or contents
+ * takes no lock: the slot grid is read and written as volatile ints, and a
+ * fixture is stored in the table before its slot is published in the grid.
+ *
+ * @author Jonathan Lovelace
+ */
+public class GridMap implements IGridMap {
+	/**
+	 * The value in the terrain grid representing a tile with no terrain.
+	 */
+	private static final byte NO_TERRAIN = -1;
+	/**
+	 * The value in the slot grid representing a tile with no fixture.
+	 */
+	private static final int EMPTY = 0;
+	/**
+	 * The tile types, indexed by ordinal, so we don't copy the array on every
+	 * lookup.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+	/**
+	 * The number of rows in the map.
+	 */
+	private final int rows;
+	/**
+	 * The number of columns in the map.
+	 */
+	private final int columns;
+	/**
+	 * The terrain, as TileType ordinals, or NO_TERRAIN.
+	 */
+	private final byte[] terrain;
+	/**
+	 * For each tile, one more than the index of its fixture in the fixture
+	 * table, or EMPTY. Written only while synchronized on the map.
+	 */
+	private final AtomicIntegerArray slots;
+	/**
+	 * The fixture table. When it grows it is copied, and the copy replaces it
+	 * before any slot in the new part is published, so a reader that has seen
+	 * a slot in the grid always finds it in the table.
+	 */
+	private volatile ITileFixture[] fixtures = new ITileFixture[16];
+	/**
+	 * Indexes in the fixture table that have been freed and can be reused.
+	 */
+	private int[] freeSlots = new int[16];
+	/**
+	 * How many entries in freeSlots are valid.
+	 */
+	private int freeCount = 0;
+	/**
+	 * The lowest index in the fixture table that has never been used.
+	 */
+	private int nextSlot = 0;
+	/**
+	 * The location of each fixture, by ID, so finding a fixture doesn't mean
+	 * searching the whole grid. Guarded by synchronizing on the map.
+	 */
+	private final IntMap<IPoint> locations = new IntMap<>();
+	/**
+	 * The fixtures on the map, by location, for range queries. Guarded by
+	 * synchronizing on the map.
+	 */
+	private final SpatialIndex nearby = new SpatialIndex();
+	/**
+	 * The hash of the map's contents. Guarded by synchronizing on the map.
+	 */
+	private final ZobristHash hash = new ZobristHash();
+	/**
+	 * The version of the map, incremented (while holding the lock on the map)
+	 * on every change.
+	 */
+	private volatile long version = 0;
+
+	/**
+	 * Constructor. Every tile starts with no terrain.
+	 *
+	 * @param rowCount the number of rows in the map
+	 * @param colCount the number of columns in the map
+	 */
+	public GridMap(final int rowCount, final int colCount) {
+		if (rowCount < 0 || colCount < 0) {
+			throw new IllegalArgumentException("Negative map dimensions");
+		} else if ((long) rowCount * colCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Map too large for a grid");
+		}
+		rows = rowCount;
+		columns = colCount;
+		terrain = new byte[rowCount * colCount];
+		slots = new AtomicIntegerArray(rowCount * colCount);
+		Arrays.fill(terrain, NO_TERRAIN);
+	}
+
+	/**
+	 * @param rowCount the number of rows in the map
+	 * @param colCount the number of columns in the map
+	 * @param terr the terrain
+	 * @param fixes the fixtures on the map
+	 */
+	public GridMap(final int rowCount, final int colCount,
+			final Map<IPoint, TileType> terr,
+			final Map<IPoint, ITileFixture> fixes) {
+		this(rowCount, colCount);
+		if (!terr.keySet().containsAll(fixes.keySet())) {
+			throw new IllegalArgumentException("Can't have fixtures on no terrain");
+		}
+		for (final Entry<IPoint, TileType> entry : terr.entrySet()) {
+			setTerrain(entry.getKey(), entry.getValue());
+		}
+		for (final Entry<IPoint, ITileFixture> entry : fixes.entrySet()) {
+			setTileContents(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return the number of rows in the map
+	 */
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns in the map
+	 */
+	@Override
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the index of that tile in the grids, or -1 if it is outside the
+	 *         map
+	 */
+	private int indexOf(final int row, final int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= columns) {
+			return -1;
+		} else {
+			return row * columns + col;
+		}
+	}
+
+	/**
+	 * @param point a point
+	 * @return the index of that tile in the grids. Throws
+	 *         IllegalArgumentException if it is outside the map.
+	 */
+	private int checkedIndex(final IPoint point) {
+		final int index = indexOf(point.getRow(), point.getColumn());
+		if (index < 0) {
+			throw new IllegalArgumentException("Point outside the map");
+		}
+		return index;
+	}
+
+	/**
+	 * @return an iteration over the points in the map that have terrain
+	 */
+	@Override
+	public Iterator<IPoint> iterator() {
+		return new GridIterator();
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final IPoint point) {
+		return terrainAt(indexOf(point.getRow(), point.getColumn()));
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final long point) {
+		return terrainAt(indexOf(PackedPoint.row(point),
+				PackedPoint.column(point)));
+	}
+
+	/**
+	 * @param index the index of a tile in the grids, or -1
+	 * @return the terrain there. Throws IllegalArgumentException if none.
+	 */
+	private TileType terrainAt(final int index) {
+		if (index < 0 || terrain[index] == NO_TERRAIN) {
+			throw new IllegalArgumentException("Asked for terrain not in the map");
+		}
+		final TileType retval = TYPES[terrain[index]];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final IPoint point) {
+		return contentsAt(indexOf(point.getRow(), point.getColumn()));
+	}
+
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final long point) {
+		return contentsAt(indexOf(PackedPoint.row(point),
+				PackedPoint.column(point)));
+	}
+
+	/**
+	 * This takes no lock. If the tile's slot changes while we read the table
+	 * (the fixture was removed and its slot perhaps given to another tile),
+	 * we read again.
+	 *
+	 * @param index the index of a tile in the grids, or -1
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	private ITileFixture contentsAt(final int index) {
+		if (index < 0) {
+			return null;
+		}
+		while (true) {
+			final int slot = slots.get(index);
+			if (slot == EMPTY) {
+				return null;
+			}
+			final ITileFixture retval = fixtures[slot - 1];
+			if (slots.get(index) == slot) {
+				return retval;
+			}
+		}
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is outside the map.
+	 * @param point a location in the map
+	 * @param type the new terrain there
+	 */
+	@Override
+	public synchronized void setTerrain(final IPoint point,
+			final TileType type) {
+		final int index = checkedIndex(point);
+		if (terrain[index] == NO_TERRAIN) {
+			hash.setTerrain(point, null, type);
+		} else {
+			hash.setTerrain(point, TYPES[terrain[index]], type);
+		}
+		terrain[index] = (byte) type.ordinal();
+		version++;
+	}
+
+	/**
+	 * Set the terrain of a band of whole rows at once.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param ordinals the new terrain, as TileType ordinals, in row-major
+	 *            order
+	 */
+	@Override
+	public synchronized void setTerrainRows(final int firstRow,
+			final byte[] ordinals) {
+		if (ordinals.length == 0) {
+			return;
+		} else if (columns == 0 || ordinals.length % columns != 0
+				|| firstRow < 0 || firstRow > rows - ordinals.length / columns) {
+			throw new IllegalArgumentException("Rows outside the map");
+		}
+		for (final byte ordinal : ordinals) {
+			if (ordinal < 0 || ordinal >= TYPES.length) {
+				throw new IllegalArgumentException("Not a tile type");
+			}
+		}
+		final int start = firstRow * columns;
+		for (int i = 0; i < ordinals.length; i++) {
+			final byte old = terrain[start + i];
+			final long point =
+					PackedPoint.pack(firstRow + i / columns, i % columns);
+			if (old == NO_TERRAIN) {
+				hash.setTerrain(point, null, TYPES[ordinals[i]]);
+			} else {
+				hash.setTerrain(point, TYPES[old], TYPES[ordinals[i]]);
+			}
+		}
+		System.arraycopy(ordinals, 0, terrain, start, ordinals.length);
+		version++;
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is outside the map.
+	 *
+	 * @param point
+	 *            a location in the map
+	 * @param fix
+	 *            a new fixture to put there
+	 */
+	@Override
+	public synchronized void setTileContents(final IPoint point,
+			final ITileFixture fix) {
+		final int index = checkedIndex(point);
+		final int slot = slots.get(index);
+		if (slot == EMPTY) {
+			final int fresh = allocateSlot();
+			fixtures[fresh] = fix;
+			slots.set(index, fresh + 1);
+		} else {
+			unindex(fixtures[slot - 1], point);
+			fixtures[slot - 1] = fix;
+		}
+		locations.put(fix.getID(), point);
+		nearby.add(point, fix);
+		hash.add(point, fix);
+		version++;
+	}
+
+	/**
+	 * Remove the fixture at the specified point.
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void removeFixture(final IPoint point) {
+		final int index = indexOf(point.getRow(), point.getColumn());
+		if (index >= 0 && slots.get(index) != EMPTY) {
+			final int slot = slots.get(index) - 1;
+			unindex(fixtures[slot], point);
+			slots.set(index, EMPTY);
+			freeSlot(slot);
+			version++;
+		}
+	}
+
+	/**
+	 * Move the fixture on one tile to another, replacing anything there, as a
+	 * single change: nothing holding the lock on the map, snapshots included,
+	 * sees it on neither tile. Throws IllegalArgumentException if there is
+	 * nothing at the source.
+	 *
+	 * @param source where the fixture is
+	 * @param dest where it should be
+	 */
+	@Override
+	public synchronized void moveFixture(final IPoint source,
+			final IPoint dest) {
+		final ITileFixture fix = getContents(source);
+		if (fix == null) {
+			throw new IllegalArgumentException("Nothing to move");
+		} else if (!source.equals(dest)) {
+			final long before = version;
+			setTileContents(dest, fix);
+			removeFixture(source);
+			version = before + 1;
+		}
+	}
+
+	/**
+	 * Note that the health of the unit at a point may have changed, so that
+	 * the map's hash follows its health tier. Does nothing if there is no
+	 * unit there.
+	 *
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void healthChanged(final IPoint point) {
+		final ITileFixture fix = getContents(point);
+		if (fix instanceof Unit) {
+			hash.setTier(point, fix.getID(), ((Unit) fix).getHealthTier());
+			version++;
+		}
+	}
+
+	/**
+	 * Remove a fixture from the ID index, unless the index has it somewhere
+	 * else already (as when a fixture is added at its destination before being
+	 * removed from its source).
+	 *
+	 * @param fix a fixture that is no longer at a location
+	 * @param point that location
+	 */
+	private void unindex(final ITileFixture fix, final IPoint point) {
+		if (point.equals(locations.get(fix.getID()))) {
+			locations.remove(fix.getID());
+		}
+		nearby.remove(point, fix.getID());
+		hash.remove(point, fix.getID());
+	}
+
+	/**
+	 * @return an unused index in the fixture table, growing it if necessary
+	 */
+	private int allocateSlot() {
+		if (freeCount > 0) {
+			freeCount--;
+			return freeSlots[freeCount];
+		} else {
+			if (nextSlot == fixtures.length) {
+				fixtures = Arrays.copyOf(fixtures, nextSlot * 2);
+			}
+			final int retval = nextSlot;
+			nextSlot++;
+			return retval;
+		}
+	}
+
+	/**
+	 * @param slot an index in the fixture table that is no longer used, and
+	 *            that no tile's slot refers to any more
+	 */
+	private void freeSlot(final int slot) {
+		fixtures[slot] = null;
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		}
+		freeSlots[freeCount] = slot;
+		freeCount++;
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return that fixture
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getFixture(final int id) {
+		final IPoint point = findFixture(id);
+		if (point == null) {
+			return null;
+		} else {
+			return getContents(point);
+		}
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return its location
+	 */
+	@Nullable
+	@Override
+	public synchronized IPoint findFixture(final int id) {
+		return locations.get(id);
+	}
+
+	/**
+	 * @param center a location in the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return the fixtures within that distance of that location
+	 */
+	@Override
+	public synchronized List<ITileFixture> getFixturesWithin(
+			final IPoint center, final int radius) {
+		final List<ITileFixture> retval = new ArrayList<>();
+		nearby.collect(center, radius, retval);
+		return retval;
+	}
+
+	/**
+	 * @return the version of the map
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the hash of the map's contents
+	 */
+	@Override
+	public synchronized long getHash() {
+		return hash.get();
+	}
+
+	/**
+	 * This copies the grids, but not the fixtures.
+	 * @return a copy of the map as it is now
+	 */
+	@Override
+	public synchronized IMap snapshot() {
+		final GridMap retval = new GridMap(rows, columns);
+		System.arraycopy(terrain, 0, retval.terrain, 0, terrain.length);
+		for (int index = 0; index < slots.length(); index++) {
+			final int slot = slots.get(index);
+			if (slot != EMPTY) {
+				retval.setTileContents(Point.of(index / columns, index % columns),
+						fixtures[slot - 1]);
+			}
+		}
+		retval.hash.copyValue(hash);
+		retval.version = version;
+		return retval;
+	}
+
+	/**
+	 * An iterator over the tiles in the map that have terrain, in row-major
+	 * order.
+	 */
+	private class GridIterator implements Iterator<IPoint> {
+		/**
+		 * The index of the next tile with terrain, or the size of the grid if
+		 * there is none.
+		 */
+		private int next = -1;
+
+		/**
+		 * Constructor.
+		 */
+		protected GridIterator() {
+			advance();
+		}
+
+		/**
+		 * Move to the next tile that has terrain.
+		 */
+		private void advance() {
+			next++;
+			while (next < terrain.length && terrain[next] == NO_TERRAIN) {
+				next++;
+			}
+		}
+
+		/**
+		 * @return whether there are any more tiles with terrain
+		 */
+		@Override
+		public boolean hasNext() {
+			return next < terrain.length;
+		}
+
+		/**
+		 * @return the next tile with terrain
+		 */
+		@Override
+		public IPoint next() {
+			if (next >= terrain.length) {
+				throw new NoSuchElementException("No more tiles");
+			}
+			final IPoint retval = Point.of(next / columns, next % columns);
+			advance();
+			return retval;
+		}
+
+		/**
+		 * Tiles can't be removed from the map.
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException(
+					"Can't remove tiles from the map");
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package model;
+
+/**
+ * A map of fixed size, whose tiles are the rows and columns of a rectangle
+ * starting at (0, 0), so that terrain can be written a band of whole rows at
+ * a time (as map generators do) rather than a tile at a time.
+ *
+ * @author Jonathan Lovelace
+ */
+public interface IGridMap extends IMutableMap {
+	/**
+	 * @return the number of rows in the map
+	 */
+	int getRows();
+	/**
+	 * @return the number of columns in the map
+	 */
+	int getColumns();
+	/**
+	 * Set the terrain of a band of whole rows at once. Throws
+	 * IllegalArgumentException, changing nothing, if the band isn't inside
+	 * the map or a value isn't the ordinal of a tile type.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param ordinals the new terrain, as TileType ordinals, in row-major
+	 *            order; its length must be a multiple of the number of columns
+	 */
+	void setTerrainRows(int firstRow, byte[] ordinals);
+}
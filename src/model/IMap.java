@@ -1,5 +1,7 @@
 package model;
 
+import java.util.List;
+
 import org.eclipse.jdt.annotation.Nullable;
 
 /**
@@ -19,4 +21,31 @@ public interface IMap extends Iterable<IPoint> {
 	 */
 	@Nullable
 	ITileFixture getContents(IPoint point);
+	/**
+	 * @param point a point on the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	TileType getTerrain(long point);
+	/**
+	 * @param point a point on the map, as encoded by PackedPoint
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	ITileFixture getContents(long point);
+	/**
+	 * @param center a point on the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return a new list of the fixtures within that distance of that point
+	 */
+	List<ITileFixture> getFixturesWithin(IPoint center, int radius);
+	/**
+	 * Maps with the same terrain, the same fixtures (by ID) in the same places,
+	 * and units at the same health tiers have the same hash, whatever their
+	 * implementation; see ZobristHash. Since a unit's health can change without
+	 * the map hearing of it, whoever changes it must call
+	 * IMutableMap.healthChanged() on the unit's tile for the hash to follow.
+	 *
+	 * @return a 64-bit hash of the map's contents, kept up to date as it changes
+	 */
+	long getHash();
 }
@@ -0,0 +1,77 @@
+package model;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * An interface for a game-board map that can be modified, so the server and
+ * client can choose the storage that best suits the size of the map.
+ *
+ * @author Jonathan Lovelace
+ */
+public interface IMutableMap extends IMap {
+	/**
+	 * @param point a location in the map
+	 * @param type the new terrain there
+	 */
+	void setTerrain(IPoint point, TileType type);
+	/**
+	 * Note that while getContents() returns null to represent nothing, this
+	 * does not take a null argument; use removeFixture().
+	 *
+	 * @param point
+	 *            a location in the map
+	 * @param fix
+	 *            a new fixture to put there
+	 */
+	void setTileContents(IPoint point, ITileFixture fix);
+	/**
+	 * Remove the fixture at the specified point.
+	 * @param point the location in question
+	 */
+	void removeFixture(IPoint point);
+	/**
+	 * Move the fixture at one point to another, replacing anything there, as
+	 * a single change, so no snapshot (or other reader holding the lock on
+	 * the map) sees it on neither tile. Throws IllegalArgumentException if
+	 * there is nothing at the source.
+	 *
+	 * @param source where the fixture is
+	 * @param dest where it should be
+	 */
+	void moveFixture(IPoint source, IPoint dest);
+	/**
+	 * Note that the health of the unit at a point may have changed, so that
+	 * the map's hash, which includes each unit's health tier, follows it.
+	 * Does nothing if there is no unit there.
+	 *
+	 * @param point the location in question
+	 */
+	void healthChanged(IPoint point);
+	/**
+	 * @param id the ID number of a fixture
+	 * @return that fixture
+	 */
+	@Nullable
+	ITileFixture getFixture(int id);
+	/**
+	 * @param id the ID number of a fixture
+	 * @return its location
+	 */
+	@Nullable
+	IPoint findFixture(int id);
+	/**
+	 * @return a number that increases every time the map changes, so readers
+	 *         can tell whether what they computed from it is stale
+	 */
+	long getVersion();
+	/**
+	 * Readers that need a consistent view of the map while it continues to
+	 * change (full-map sync, AI, saving) should use this. Implementations that
+	 * can't share structure with their snapshots copy the whole map, so where
+	 * this is frequent use a VersionedMap, which makes it O(1).
+	 *
+	 * @return a read-only view of the map as it is now, unaffected by later
+	 *         changes
+	 */
+	IMap snapshot();
+}
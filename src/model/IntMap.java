@@ -0,0 +1,174 @@
+package model;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A hash map from ints to objects that stores its keys unboxed, for indexes
+ * (such as by fixture ID) that are consulted on every command. It uses open
+ * addressing with linear probing; null values are not allowed.
+ *
+ * This class is not thread-safe; callers must synchronize.
+ *
+ * @param <V> the type of the values
+ * @author Jonathan Lovelace
+ */
+public final class IntMap<V> {
+	/**
+	 * The smallest capacity we use.
+	 */
+	private static final int MIN_CAPACITY = 16;
+	/**
+	 * The keys.
+	 */
+	private int[] keys;
+	/**
+	 * The values, or null for an unused slot.
+	 */
+	private Object[] values;
+	/**
+	 * The number of entries.
+	 */
+	private int size = 0;
+	/**
+	 * Constructor.
+	 */
+	public IntMap() {
+		keys = new int[MIN_CAPACITY];
+		values = new Object[MIN_CAPACITY];
+	}
+	/**
+	 * @param key a key
+	 * @param mask one less than the (power-of-two) capacity
+	 * @return the slot at which to start looking for it
+	 */
+	private static int slotFor(final int key, final int mask) {
+		final int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+	/**
+	 * @param key a key
+	 * @return the slot holding it, or -1 if it's not in the map
+	 */
+	private int find(final int key) {
+		final int mask = keys.length - 1;
+		int slot = slotFor(key, mask);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	/**
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * @param key a key
+	 * @return whether the map has a value for it
+	 */
+	public boolean containsKey(final int key) {
+		return find(key) >= 0;
+	}
+	/**
+	 * @param key a key
+	 * @return the value for it, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public V get(final int key) {
+		final int slot = find(key);
+		if (slot < 0) {
+			return null;
+		} else {
+			return (V) values[slot];
+		}
+	}
+	/**
+	 * @param key a key
+	 * @param value the value to associate with it
+	 * @return the value previously associated with it, if any
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public V put(final int key, final V value) {
+		final int mask = keys.length - 1;
+		int slot = slotFor(key, mask);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				final V retval = (V) values[slot];
+				values[slot] = value;
+				return retval;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		if (size * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		return null;
+	}
+	/**
+	 * @param key a key
+	 * @return the value that had been associated with it, if any
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public V remove(final int key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+		final V retval = (V) values[slot];
+		final int mask = keys.length - 1;
+		// Shift back any later entries in the same probe run, so lookups
+		// never stop early at the hole we leave.
+		int next = (slot + 1) & mask;
+		while (values[next] != null) {
+			final int home = slotFor(keys[next], mask);
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[slot] = null;
+		size--;
+		return retval;
+	}
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	/**
+	 * @param capacity the new capacity; must be a power of two
+	 */
+	private void resize(final int capacity) {
+		final int[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+		final int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotFor(oldKeys[i], mask);
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
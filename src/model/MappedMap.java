@@ -0,0 +1,820 @@
+package model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A map of fixed size whose terrain and fixture-slot grids live in a
+ * memory-mapped file rather than on the heap, so opening even a very large map
+ * is nearly instant (the OS pages it in as it's used) and the heap doesn't
+ * grow with the size of the map. The file doubles as an on-disk map format.
+ *
+ * The file holds a header, including the terrain's part of the map's hash
+ * (kept up to date as the terrain changes); then one byte of terrain per tile;
+ * then one int per tile, the "slot" of the fixture there, as in GridMap; then
+ * the fixture table, which records the ID and location of the fixture in each
+ * slot, and grows (with the file) as it fills. Reopening a file reads the
+ * header and the used part of the fixture table, but not the grids, so it
+ * takes time in proportion to the number of fixtures, not the area.
+ *
+ * Fixtures themselves are objects, and so stay on the heap. When a file is
+ * reopened, where each fixture is and what ID it has are known at once
+ * (findFixture() finds it, and it counts in the hash as a fixture that is not
+ * a unit), but getContents(), getFixture(), getFixturesWithin(), and
+ * moveFixture() don't see it until the object is restored with attach().
+ *
+ * The mapping is released only when the map is garbage-collected, as Java has
+ * no way to unmap a file sooner; close() writes changes through but leaves
+ * the map usable.
+ *
+ * @author Jonathan Lovelace
+ */
+public class MappedMap implements IGridMap, Closeable {
+	/**
+	 * The "magic number" at the start of every map file.
+	 */
+	private static final int MAGIC = 0x54504D50;
+	/**
+	 * The version of the file format we read and write.
+	 */
+	private static final int FORMAT_VERSION = 3;
+	/**
+	 * The offset in the file of the terrain's hash.
+	 */
+	private static final int HASH_OFFSET = 16;
+	/**
+	 * The offset in the file of the number of slots the fixture table has
+	 * room for.
+	 */
+	private static final int CAPACITY_OFFSET = 24;
+	/**
+	 * The offset in the file of the number of slots in the fixture table that
+	 * have ever been used.
+	 */
+	private static final int USED_OFFSET = 28;
+	/**
+	 * The size of the header: magic number, format version, rows, columns,
+	 * terrain hash, fixture table capacity, and slots used.
+	 */
+	private static final int HEADER_SIZE = 32;
+	/**
+	 * The size of a fixture table entry: the fixture's location, as encoded
+	 * by PackedPoint, and its ID.
+	 */
+	private static final int ENTRY_SIZE = 12;
+	/**
+	 * The fixture table's capacity in a new file.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * The location recorded for a free slot in the fixture table, which is
+	 * outside any map.
+	 */
+	private static final long FREE = PackedPoint.pack(-1, -1);
+	/**
+	 * The value in the terrain grid representing a tile with no terrain.
+	 */
+	private static final byte NO_TERRAIN = -1;
+	/**
+	 * The value in the slot grid representing a tile with no fixture. A new
+	 * file is all zeroes, so this needs no writing.
+	 */
+	private static final int EMPTY = 0;
+	/**
+	 * The tile types, indexed by ordinal.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+	/**
+	 * The number of rows in the map.
+	 */
+	private final int rows;
+	/**
+	 * The number of columns in the map.
+	 */
+	private final int columns;
+	/**
+	 * The file.
+	 */
+	private final File file;
+	/**
+	 * The header and the grids, mapped.
+	 */
+	private final MappedByteBuffer buffer;
+	/**
+	 * The offset of the slot grid in the file.
+	 */
+	private final int slotOffset;
+	/**
+	 * The fixture table, mapped. It is mapped again whenever it grows. Guarded
+	 * by synchronizing on the map.
+	 */
+	private MappedByteBuffer table;
+	/**
+	 * The fixture in each slot, or null if it hasn't been attached since the
+	 * file was reopened. Guarded by synchronizing on the map.
+	 */
+	private ITileFixture[] fixtures;
+	/**
+	 * Slots in the fixture table that have been freed and can be reused.
+	 * Guarded by synchronizing on the map.
+	 */
+	private int[] freeSlots = new int[16];
+	/**
+	 * How many entries in freeSlots are valid.
+	 */
+	private int freeCount = 0;
+	/**
+	 * The location of each fixture, attached or not, by ID. Guarded by
+	 * synchronizing on the map.
+	 */
+	private final IntMap<IPoint> locations = new IntMap<>();
+	/**
+	 * The attached fixtures on the map, by location, for range queries.
+	 * Guarded by synchronizing on the map.
+	 */
+	private final SpatialIndex nearby = new SpatialIndex();
+	/**
+	 * The hash of the map's fixtures; the terrain's is in the file. Fixtures
+	 * not yet attached are hashed as if they were not units. Guarded by
+	 * synchronizing on the map.
+	 */
+	private final ZobristHash hash = new ZobristHash();
+	/**
+	 * The version of the map, incremented (while holding the lock on the map)
+	 * on every change. It is not saved in the file.
+	 */
+	private volatile long version = 0;
+
+	/**
+	 * Create a new map file, replacing any existing file. Every tile starts
+	 * with no terrain.
+	 *
+	 * @param mapFile the file to create
+	 * @param rowCount the number of rows in the map
+	 * @param colCount the number of columns in the map
+	 * @throws IOException on I/O error creating the file
+	 */
+	public MappedMap(final File mapFile, final int rowCount,
+			final int colCount) throws IOException {
+		if (rowCount < 0 || colCount < 0) {
+			throw new IllegalArgumentException("Negative map dimensions");
+		}
+		final long tableOffset = tableOffset(rowCount, colCount);
+		if (tableOffset > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Map too large to map into memory");
+		}
+		file = mapFile;
+		rows = rowCount;
+		columns = colCount;
+		slotOffset = slotOffset(rowCount * colCount);
+		fixtures = new ITileFixture[INITIAL_CAPACITY];
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.setLength(tableOffset + INITIAL_CAPACITY * ENTRY_SIZE);
+			final FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, tableOffset);
+			table = channel.map(FileChannel.MapMode.READ_WRITE, tableOffset,
+					INITIAL_CAPACITY * ENTRY_SIZE);
+		}
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, FORMAT_VERSION);
+		buffer.putInt(8, rowCount);
+		buffer.putInt(12, colCount);
+		buffer.putLong(HASH_OFFSET, 0);
+		buffer.putInt(CAPACITY_OFFSET, INITIAL_CAPACITY);
+		buffer.putInt(USED_OFFSET, 0);
+		final byte[] chunk = new byte[Math.min(rowCount * colCount, 1 << 16)];
+		Arrays.fill(chunk, NO_TERRAIN);
+		final ByteBuffer terrain = buffer.duplicate();
+		terrain.position(HEADER_SIZE);
+		for (int left = rowCount * colCount; left > 0; left -= chunk.length) {
+			terrain.put(chunk, 0, Math.min(left, chunk.length));
+		}
+	}
+
+	/**
+	 * Reopen an existing map file. This reads the used part of the fixture
+	 * table, but not the grids, so it takes time in proportion to the number
+	 * of fixtures, not the area. Fixtures are known only by ID and location
+	 * until they are restored with attach().
+	 *
+	 * @param mapFile the file to open
+	 * @throws IOException on I/O error, or if the file isn't a map file
+	 */
+	public MappedMap(final File mapFile) throws IOException {
+		file = mapFile;
+		final int used;
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			final FileChannel channel = raf.getChannel();
+			final long length = raf.length();
+			if (length < HEADER_SIZE) {
+				throw new IOException("Not a map file");
+			}
+			final MappedByteBuffer header =
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("Not a map file");
+			} else if (header.getInt(4) != FORMAT_VERSION) {
+				throw new IOException("Unsupported map file version");
+			}
+			rows = header.getInt(8);
+			columns = header.getInt(12);
+			final int capacity = header.getInt(CAPACITY_OFFSET);
+			used = header.getInt(USED_OFFSET);
+			if (rows < 0 || columns < 0 || capacity < INITIAL_CAPACITY
+					|| used < 0 || used > capacity
+					|| tableOffset(rows, columns) > Integer.MAX_VALUE
+					|| length != tableOffset(rows, columns) + (long) capacity
+							* ENTRY_SIZE) {
+				throw new IOException("Map file is corrupt");
+			}
+			final int tableOffset = (int) tableOffset(rows, columns);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, tableOffset);
+			table = channel.map(FileChannel.MapMode.READ_WRITE, tableOffset,
+					(long) capacity * ENTRY_SIZE);
+			slotOffset = slotOffset(rows * columns);
+			fixtures = new ITileFixture[capacity];
+		}
+		for (int slot = 0; slot < used; slot++) {
+			final long point = table.getLong(slot * ENTRY_SIZE);
+			if (point == FREE) {
+				pushFree(slot);
+				continue;
+			}
+			final int index = indexOf(PackedPoint.row(point),
+					PackedPoint.column(point));
+			if (index < 0 || slotAt(index) != slot + 1) {
+				throw new IOException("Map file is corrupt");
+			}
+			final int id = table.getInt(slot * ENTRY_SIZE + 8);
+			final IPoint where = PackedPoint.toPoint(point);
+			locations.put(id, where);
+			hash.add(where, id, null);
+		}
+	}
+
+	/**
+	 * @param area the number of tiles in a map
+	 * @return the offset of its slot grid in its file
+	 */
+	private static int slotOffset(final int area) {
+		return (HEADER_SIZE + area + 3) & ~3;
+	}
+
+	/**
+	 * @param rowCount the number of rows in a map
+	 * @param colCount the number of columns in it
+	 * @return the offset of its fixture table in its file, which is also the
+	 *         size of the part of it mapped as the grids
+	 */
+	private static long tableOffset(final int rowCount, final int colCount) {
+		final long area = (long) rowCount * colCount;
+		return ((HEADER_SIZE + area + 3) & ~3L) + area * 4;
+	}
+
+	/**
+	 * @return the number of rows in the map
+	 */
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns in the map
+	 */
+	@Override
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Restore a fixture that was on the map when the file was last written.
+	 * Throws IllegalArgumentException if the map doesn't have a fixture with
+	 * that ID.
+	 *
+	 * @param fix the fixture
+	 */
+	public synchronized void attach(final ITileFixture fix) {
+		final IPoint point = locations.get(fix.getID());
+		if (point == null) {
+			throw new IllegalArgumentException("No such fixture in the map");
+		}
+		nearby.remove(point, fix.getID());
+		nearby.add(point, fix);
+		hash.remove(point, fix.getID());
+		hash.add(point, fix);
+		fixtures[slotAt(checkedIndex(point)) - 1] = fix;
+		version++;
+	}
+
+	/**
+	 * Write any changes to the map through to the file. The file stays
+	 * mapped, and the map usable, until the map is garbage-collected.
+	 */
+	@Override
+	public synchronized void close() {
+		buffer.force();
+		table.force();
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the index of that tile in the grids, or -1 if it is outside the
+	 *         map
+	 */
+	private int indexOf(final int row, final int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= columns) {
+			return -1;
+		} else {
+			return row * columns + col;
+		}
+	}
+
+	/**
+	 * @param point a point
+	 * @return the index of that tile in the grids. Throws
+	 *         IllegalArgumentException if it is outside the map.
+	 */
+	private int checkedIndex(final IPoint point) {
+		final int index = indexOf(point.getRow(), point.getColumn());
+		if (index < 0) {
+			throw new IllegalArgumentException("Point outside the map");
+		}
+		return index;
+	}
+
+	/**
+	 * @return an iteration over the points in the map that have terrain
+	 */
+	@Override
+	public Iterator<IPoint> iterator() {
+		return new MappedIterator();
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final IPoint point) {
+		return terrainAt(indexOf(point.getRow(), point.getColumn()));
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final long point) {
+		return terrainAt(indexOf(PackedPoint.row(point),
+				PackedPoint.column(point)));
+	}
+
+	/**
+	 * @param index the index of a tile in the grids, or -1
+	 * @return the terrain there. Throws IllegalArgumentException if none.
+	 */
+	private TileType terrainAt(final int index) {
+		final byte ordinal;
+		if (index < 0) {
+			ordinal = NO_TERRAIN;
+		} else {
+			ordinal = buffer.get(HEADER_SIZE + index);
+		}
+		if (ordinal < 0 || ordinal >= TYPES.length) {
+			throw new IllegalArgumentException("Asked for terrain not in the map");
+		}
+		final TileType retval = TYPES[ordinal];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final IPoint point) {
+		return contentsAt(indexOf(point.getRow(), point.getColumn()));
+	}
+
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final long point) {
+		return contentsAt(indexOf(PackedPoint.row(point),
+				PackedPoint.column(point)));
+	}
+
+	/**
+	 * @param index the index of a tile in the grids, or -1
+	 * @return the fixture there, if any, and if it has been attached
+	 */
+	@Nullable
+	private synchronized ITileFixture contentsAt(final int index) {
+		if (index < 0) {
+			return null;
+		}
+		final int slot = slotAt(index);
+		if (slot == EMPTY) {
+			return null;
+		} else {
+			return fixtures[slot - 1];
+		}
+	}
+
+	/**
+	 * @param index the index of a tile in the grids
+	 * @return one more than the slot of the fixture there, or EMPTY
+	 */
+	private int slotAt(final int index) {
+		return buffer.getInt(slotOffset + index * 4);
+	}
+
+	/**
+	 * @param slot a slot in the fixture table
+	 * @return the ID of the fixture recorded there
+	 */
+	private int idAt(final int slot) {
+		return table.getInt(slot * ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * Fold a change of terrain into the hash kept in the file.
+	 *
+	 * @param point the tile, as encoded by PackedPoint
+	 * @param old its terrain before, as an ordinal, or NO_TERRAIN
+	 * @param type its terrain now
+	 */
+	private void hashTerrain(final long point, final byte old,
+			final TileType type) {
+		long terrainHash = buffer.getLong(HASH_OFFSET);
+		if (old != NO_TERRAIN) {
+			terrainHash ^= ZobristHash.terrainKey(point, TYPES[old]);
+		}
+		terrainHash ^= ZobristHash.terrainKey(point, type);
+		buffer.putLong(HASH_OFFSET, terrainHash);
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is outside the map.
+	 * @param point a location in the map
+	 * @param type the new terrain there
+	 */
+	@Override
+	public synchronized void setTerrain(final IPoint point,
+			final TileType type) {
+		final int index = checkedIndex(point);
+		hashTerrain(PackedPoint.pack(point), buffer.get(HEADER_SIZE + index),
+				type);
+		buffer.put(HEADER_SIZE + index, (byte) type.ordinal());
+		version++;
+	}
+
+	/**
+	 * Set the terrain of a band of whole rows at once.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param ordinals the new terrain, as TileType ordinals, in row-major
+	 *            order
+	 */
+	@Override
+	public synchronized void setTerrainRows(final int firstRow,
+			final byte[] ordinals) {
+		if (ordinals.length == 0) {
+			return;
+		} else if (columns == 0 || ordinals.length % columns != 0
+				|| firstRow < 0 || firstRow > rows - ordinals.length / columns) {
+			throw new IllegalArgumentException("Rows outside the map");
+		}
+		for (final byte ordinal : ordinals) {
+			if (ordinal < 0 || ordinal >= TYPES.length) {
+				throw new IllegalArgumentException("Not a tile type");
+			}
+		}
+		final int start = HEADER_SIZE + firstRow * columns;
+		for (int i = 0; i < ordinals.length; i++) {
+			final TileType type = TYPES[ordinals[i]];
+			assert type != null;
+			hashTerrain(PackedPoint.pack(firstRow + i / columns, i % columns),
+					buffer.get(start + i), type);
+			buffer.put(start + i, ordinals[i]);
+		}
+		version++;
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is outside the map.
+	 *
+	 * @param point
+	 *            a location in the map
+	 * @param fix
+	 *            a new fixture to put there
+	 */
+	@Override
+	public synchronized void setTileContents(final IPoint point,
+			final ITileFixture fix) {
+		final int index = checkedIndex(point);
+		final int slot;
+		if (slotAt(index) == EMPTY) {
+			slot = allocateSlot();
+			table.putLong(slot * ENTRY_SIZE, PackedPoint.pack(point));
+			buffer.putInt(slotOffset + index * 4, slot + 1);
+		} else {
+			slot = slotAt(index) - 1;
+			unindex(idAt(slot), point);
+		}
+		table.putInt(slot * ENTRY_SIZE + 8, fix.getID());
+		fixtures[slot] = fix;
+		locations.put(fix.getID(), point);
+		nearby.add(point, fix);
+		hash.add(point, fix);
+		version++;
+	}
+
+	/**
+	 * Remove the fixture at the specified point.
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void removeFixture(final IPoint point) {
+		final int index = indexOf(point.getRow(), point.getColumn());
+		if (index >= 0 && slotAt(index) != EMPTY) {
+			final int slot = slotAt(index) - 1;
+			unindex(idAt(slot), point);
+			buffer.putInt(slotOffset + index * 4, EMPTY);
+			fixtures[slot] = null;
+			table.putLong(slot * ENTRY_SIZE, FREE);
+			pushFree(slot);
+			version++;
+		}
+	}
+
+	/**
+	 * Move the fixture on one tile to another, replacing anything there, as a
+	 * single change: nothing holding the lock on the map, snapshots included,
+	 * sees it on neither tile. Throws IllegalArgumentException if there is
+	 * nothing at the source.
+	 *
+	 * @param source where the fixture is
+	 * @param dest where it should be
+	 */
+	@Override
+	public synchronized void moveFixture(final IPoint source,
+			final IPoint dest) {
+		final ITileFixture fix = getContents(source);
+		if (fix == null) {
+			throw new IllegalArgumentException("Nothing to move");
+		} else if (!source.equals(dest)) {
+			final long before = version;
+			setTileContents(dest, fix);
+			removeFixture(source);
+			version = before + 1;
+		}
+	}
+
+	/**
+	 * Note that the health of the unit at a point may have changed, so that
+	 * the map's hash follows its health tier. Does nothing if there is no
+	 * unit there.
+	 *
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void healthChanged(final IPoint point) {
+		final ITileFixture fix = getContents(point);
+		if (fix instanceof Unit) {
+			hash.setTier(point, fix.getID(), ((Unit) fix).getHealthTier());
+			version++;
+		}
+	}
+
+	/**
+	 * Remove a fixture from the ID indexes, unless the index has it somewhere
+	 * else already (as when a fixture is added at its destination before being
+	 * removed from its source).
+	 *
+	 * @param id the ID of a fixture that is no longer at a location
+	 * @param point that location
+	 */
+	private void unindex(final int id, final IPoint point) {
+		if (point.equals(locations.get(id))) {
+			locations.remove(id);
+		}
+		nearby.remove(point, id);
+		hash.remove(point, id);
+	}
+
+	/**
+	 * @return an unused slot in the fixture table, growing it if necessary
+	 */
+	private int allocateSlot() {
+		if (freeCount > 0) {
+			freeCount--;
+			return freeSlots[freeCount];
+		}
+		final int retval = buffer.getInt(USED_OFFSET);
+		if (retval == fixtures.length) {
+			grow();
+		}
+		buffer.putInt(USED_OFFSET, retval + 1);
+		return retval;
+	}
+
+	/**
+	 * Double the size of the fixture table, lengthening the file and mapping
+	 * the table again. Throws IllegalStateException on I/O error, as callers
+	 * (setTileContents()) can't throw IOException.
+	 */
+	private void grow() {
+		final int capacity = fixtures.length * 2;
+		final long tableOffset = tableOffset(rows, columns);
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(tableOffset + (long) capacity * ENTRY_SIZE);
+			table.force();
+			table = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					tableOffset, (long) capacity * ENTRY_SIZE);
+		} catch (final IOException except) {
+			throw new IllegalStateException("Couldn't grow the fixture table",
+					except);
+		}
+		fixtures = Arrays.copyOf(fixtures, capacity);
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+	}
+
+	/**
+	 * @param slot a slot in the fixture table that is no longer used
+	 */
+	private void pushFree(final int slot) {
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		}
+		freeSlots[freeCount] = slot;
+		freeCount++;
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return that fixture, if it is on the map and has been attached
+	 */
+	@Nullable
+	@Override
+	public synchronized ITileFixture getFixture(final int id) {
+		final IPoint point = locations.get(id);
+		if (point == null) {
+			return null;
+		} else {
+			return getContents(point);
+		}
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return its location
+	 */
+	@Nullable
+	@Override
+	public synchronized IPoint findFixture(final int id) {
+		return locations.get(id);
+	}
+
+	/**
+	 * Fixtures that haven't been attached since the map was reopened aren't
+	 * included.
+	 *
+	 * @param center a location in the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return the fixtures within that distance of that location
+	 */
+	@Override
+	public synchronized List<ITileFixture> getFixturesWithin(
+			final IPoint center, final int radius) {
+		final List<ITileFixture> retval = new ArrayList<>();
+		nearby.collect(center, radius, retval);
+		return retval;
+	}
+
+	/**
+	 * @return the version of the map
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the hash of the map's contents
+	 */
+	@Override
+	public synchronized long getHash() {
+		return hash.get() ^ buffer.getLong(HASH_OFFSET);
+	}
+
+	/**
+	 * This copies the whole map onto the heap, so is best avoided for the
+	 * large maps this class is meant for. Fixtures not yet attached are left
+	 * out.
+	 * @return a copy of the map as it is now
+	 */
+	@Override
+	public synchronized IMap snapshot() {
+		final GridMap retval = new GridMap(rows, columns);
+		final int area = rows * columns;
+		for (int i = 0; i < area; i++) {
+			final byte ordinal = buffer.get(HEADER_SIZE + i);
+			if (ordinal != NO_TERRAIN) {
+				final TileType type = TYPES[ordinal];
+				assert type != null;
+				retval.setTerrain(Point.of(i / columns, i % columns), type);
+			}
+			final ITileFixture fix = contentsAt(i);
+			if (fix != null) {
+				retval.setTileContents(Point.of(i / columns, i % columns), fix);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * An iterator over the tiles in the map that have terrain, in row-major
+	 * order.
+	 */
+	private class MappedIterator implements Iterator<IPoint> {
+		/**
+		 * The index of the next tile with terrain, or the area of the map if
+		 * there is none.
+		 */
+		private int next = -1;
+		/**
+		 * The number of tiles in the map.
+		 */
+		private final int area = rows * columns;
+
+		/**
+		 * Constructor.
+		 */
+		protected MappedIterator() {
+			advance();
+		}
+
+		/**
+		 * Move to the next tile that has terrain.
+		 */
+		private void advance() {
+			next++;
+			while (next < area && buffer.get(HEADER_SIZE + next) == NO_TERRAIN) {
+				next++;
+			}
+		}
+
+		/**
+		 * @return whether there are any more tiles with terrain
+		 */
+		@Override
+		public boolean hasNext() {
+			return next < area;
+		}
+
+		/**
+		 * @return the next tile with terrain
+		 */
+		@Override
+		public IPoint next() {
+			if (next >= area) {
+				throw new NoSuchElementException("No more tiles");
+			}
+			final IPoint retval = Point.of(next / columns, next % columns);
+			advance();
+			return retval;
+		}
+
+		/**
+		 * Tiles can't be removed from the map.
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException(
+					"Can't remove tiles from the map");
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package model;
+
+/**
+ * Helpers for encoding a location as a single long, with the row in the high
+ * 32 bits and the column in the low 32 bits, so code that walks the map (path
+ * finding, visibility, AI) doesn't have to allocate or dereference a Point for
+ * every step. Every pair of ints has a distinct encoding.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class PackedPoint {
+	/**
+	 * Do not instantiate.
+	 */
+	private PackedPoint() {
+		// Static-only class.
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return that location in packed form
+	 */
+	public static long pack(final int row, final int col) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param point a location
+	 * @return it in packed form
+	 */
+	public static long pack(final IPoint point) {
+		return pack(point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * @param packed a location in packed form
+	 * @return its row
+	 */
+	public static int row(final long packed) {
+		return (int) (packed >> 32);
+	}
+
+	/**
+	 * @param packed a location in packed form
+	 * @return its column
+	 */
+	public static int column(final long packed) {
+		return (int) packed;
+	}
+
+	/**
+	 * @param packed a location in packed form
+	 * @return it as a Point, from the Point cache if possible
+	 */
+	public static Point toPoint(final long packed) {
+		return Point.of(row(packed), column(packed));
+	}
+}
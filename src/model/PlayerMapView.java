@@ -0,0 +1,147 @@
+package model;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A read-only view of a map as one player is allowed to see it: other
+ * players' units are replaced by proxies exposing only what that player may
+ * know. Nothing is copied; terrain is read straight through, and proxies are
+ * created only for the tiles a reader actually asks about.
+ *
+ * @author Jonathan Lovelace
+ */
+public class PlayerMapView implements IMap {
+	/**
+	 * The map we are a view of.
+	 */
+	private final IMap map;
+	/**
+	 * The player we are a view for.
+	 */
+	private final int player;
+	/**
+	 * Where to get proxies for other players' units.
+	 */
+	private final ProxyCache proxies;
+
+	/**
+	 * @param theMap the map to be a view of. For a view that doesn't change
+	 *            under the reader, pass a snapshot.
+	 * @param playr the player to be a view for
+	 */
+	public PlayerMapView(final IMap theMap, final int playr) {
+		this(theMap, playr, new ProxyCache());
+	}
+
+	/**
+	 * @param theMap the map to be a view of. For a view that doesn't change
+	 *            under the reader, pass a snapshot.
+	 * @param playr the player to be a view for
+	 * @param cache where to get proxies for other players' units
+	 */
+	public PlayerMapView(final IMap theMap, final int playr,
+			final ProxyCache cache) {
+		map = theMap;
+		player = playr;
+		proxies = cache;
+	}
+
+	/**
+	 * @return the player we are a view for
+	 */
+	public int getPlayer() {
+		return player;
+	}
+
+	/**
+	 * @return an iteration over the points in the map
+	 */
+	@Override
+	public Iterator<IPoint> iterator() {
+		return map.iterator();
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final IPoint point) {
+		return map.getTerrain(point);
+	}
+
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final long point) {
+		return map.getTerrain(point);
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @return the fixture there, if any, as our player may see it
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final IPoint point) {
+		return filter(map.getContents(point));
+	}
+
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the fixture there, if any, as our player may see it
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final long point) {
+		return filter(map.getContents(point));
+	}
+
+	/**
+	 * @param center a location in the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return the fixtures within that distance of that location, as our
+	 *         player may see them
+	 */
+	@Override
+	public List<ITileFixture> getFixturesWithin(final IPoint center,
+			final int radius) {
+		final List<ITileFixture> retval = map.getFixturesWithin(center, radius);
+		for (int i = 0; i < retval.size(); i++) {
+			final ITileFixture fix = filter(retval.get(i));
+			assert fix != null;
+			retval.set(i, fix);
+		}
+		return retval;
+	}
+
+	/**
+	 * Proxies have the same IDs and health tiers as the units they stand for,
+	 * so this is the same for every player.
+	 *
+	 * @return the hash of the underlying map's contents
+	 */
+	@Override
+	public long getHash() {
+		return map.getHash();
+	}
+
+	/**
+	 * @param fix a fixture in the underlying map, or null
+	 * @return it as our player may see it
+	 */
+	@Nullable
+	private ITileFixture filter(@Nullable final ITileFixture fix) {
+		if (fix instanceof Unit && !(fix instanceof ProxyUnit)
+				&& fix.getOwner() != player) {
+			return proxies.get((Unit) fix);
+		} else {
+			return fix;
+		}
+	}
+}
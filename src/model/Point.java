@@ -1,8 +1,5 @@
 package model;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 import org.eclipse.jdt.annotation.Nullable;
 
 /**
@@ -19,9 +16,15 @@ public final class Point implements IPoint {
 	 */
 	private final int column;
 	/**
-	 * The Point cache.
+	 * The number of rows and columns the Point cache covers if not configured
+	 * otherwise.
+	 */
+	private static final int DEFAULT_CACHE_SIZE = 64;
+	/**
+	 * The Point cache. It is replaced, never modified, when reconfigured.
 	 */
-	private static final Map<Integer, Point> CACHE = new ConcurrentHashMap<>(100);
+	private static volatile Flyweights cache =
+			new Flyweights(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_SIZE, null);
 	/**
 	 * @param theRow the row
 	 * @param theCol the column
@@ -45,13 +48,15 @@ public final class Point implements IPoint {
 		return column;
 	}
 	/**
-	 * Because we want to guarantee no hash collisions, we use the Cantor
-	 * pairing function, which I found on Wikipedia.
+	 * We used to use the Cantor pairing function here, but that overflows for
+	 * large coordinates and isn't defined for negative ones. Multiplying the
+	 * row by a large odd constant spreads rows apart without collisions among
+	 * nearby points, and is well-defined for every pair of ints.
 	 * @return the hash value for the point
 	 */
 	@Override
 	public int hashCode() {
-		return (row + column) * (row + column + 1) / 2 + column;
+		return row * 0x9E3779B9 + column;
 	}
 	/**
 	 * @param obj an object
@@ -66,8 +71,10 @@ public final class Point implements IPoint {
 
 	/**
 	 * Because there are going to be a <em>lot</em> of Points requested from
-	 * coordinates, we want to cache them. It doesn't matter much if race
-	 * conditons mean a few extra Points get created.
+	 * coordinates, we want to cache them. Points within the configured grid
+	 * (see configureCache()) come from a table that is filled in advance, so
+	 * this is just an array lookup; other points are created fresh every time,
+	 * so the cache can't grow without bound.
 	 *
 	 * @param row
 	 *            a row
@@ -76,17 +83,70 @@ public final class Point implements IPoint {
 	 * @return a Point containing those coordinates
 	 */
 	public static Point of(final int row, final int col) {
-		// We use the same algorithm as hashCode to store them in the cache.
-		final Integer hash =
-				Integer.valueOf((row + col) * (row + col + 1) / 2 + col);
-		if (CACHE.containsKey(hash)) {
-			final Point retval = CACHE.get(hash);
+		final Flyweights table = cache;
+		if (row >= 0 && row < table.rows && col >= 0 && col < table.columns) {
+			final Point retval = table.points[row * table.columns + col];
 			assert retval != null;
 			return retval;
 		} else {
-			final Point retval = new Point(row, col);
-			CACHE.put(hash, retval);
-			return retval;
+			return new Point(row, col);
+		}
+	}
+
+	/**
+	 * Set the size of the grid for which Points are cached. Points already
+	 * handed out in both the old and the new grid are kept, so they stay
+	 * identical to those returned afterwards.
+	 *
+	 * @param rows the number of rows to cache, starting from 0
+	 * @param columns the number of columns to cache, starting from 0
+	 */
+	public static synchronized void configureCache(final int rows,
+			final int columns) {
+		if (rows < 0 || columns < 0) {
+			throw new IllegalArgumentException("Negative cache dimensions");
+		} else if ((long) rows * columns > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Point cache too large");
+		}
+		cache = new Flyweights(rows, columns, cache);
+	}
+
+	/**
+	 * A table of the Points in a rectangle with its corner at the origin.
+	 */
+	private static final class Flyweights {
+		/**
+		 * The number of rows covered.
+		 */
+		protected final int rows;
+		/**
+		 * The number of columns covered.
+		 */
+		protected final int columns;
+		/**
+		 * The Points, in row-major order.
+		 */
+		protected final Point[] points;
+
+		/**
+		 * @param rowCount the number of rows to cover
+		 * @param colCount the number of columns to cover
+		 * @param old a previous table whose Points to reuse, if any
+		 */
+		protected Flyweights(final int rowCount, final int colCount,
+				@Nullable final Flyweights old) {
+			rows = rowCount;
+			columns = colCount;
+			points = new Point[rowCount * colCount];
+			for (int i = 0; i < rowCount; i++) {
+				for (int j = 0; j < colCount; j++) {
+					if (old != null && i < old.rows && j < old.columns) {
+						points[i * colCount + j] = old.points[i * old.columns + j];
+					} else {
+						points[i * colCount + j] = new Point(i, j);
+					}
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,111 @@
+package model;
+
+/**
+ * A cache of the proxies the server hands out for units, so that every
+ * listener, and every player's view of the map, shares one proxy per unit
+ * instead of allocating a new one per event. A unit's proxy is rebuilt only
+ * when what it exposes (health tier or dice) has changed; since the proxies
+ * it hands out can't be modified, they can safely be shared, and comparing
+ * them by identity is enough to tell whether anything visible has changed.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class ProxyCache {
+	/**
+	 * The current proxy for each unit, by ID. Guarded by synchronizing on the
+	 * cache.
+	 */
+	private final IntMap<ProxyUnit> proxies = new IntMap<>();
+
+	/**
+	 * @param unit a unit, which must not itself be a proxy
+	 * @return the shared proxy for it, rebuilt if its visible state has changed
+	 */
+	public synchronized ProxyUnit get(final Unit unit) {
+		final ProxyUnit cached = proxies.get(unit.getID());
+		if (cached != null && cached.getOwner() == unit.getOwner()
+				&& cached.getHealthTier() == unit.getHealthTier()
+				&& cached.getTotalAttackDice() == unit.getTotalAttackDice()
+				&& cached.getTotalRangedAttackDice() == unit
+						.getTotalRangedAttackDice()) {
+			return cached;
+		}
+		final ProxyUnit retval = new SharedProxyUnit(unit);
+		proxies.put(unit.getID(), retval);
+		return retval;
+	}
+
+	/**
+	 * Forget the proxy for a unit that has left the game.
+	 * @param id the unit's ID
+	 */
+	public synchronized void remove(final int id) {
+		proxies.remove(id);
+	}
+
+	/**
+	 * A proxy that may be shared, and so refuses to be modified.
+	 */
+	private static final class SharedProxyUnit extends ProxyUnit {
+		/**
+		 * @param proxied the unit being proxied
+		 */
+		protected SharedProxyUnit(final Unit proxied) {
+			super(proxied);
+		}
+
+		/**
+		 * Shared proxies can't be modified.
+		 * @param dice ignored
+		 */
+		@Override
+		public void setTotalAttackDice(final int dice) {
+			throw new UnsupportedOperationException("Shared proxy");
+		}
+
+		/**
+		 * Shared proxies can't be modified.
+		 * @param dice ignored
+		 */
+		@Override
+		public void setTotalRangedAttackDice(final int dice) {
+			throw new UnsupportedOperationException("Shared proxy");
+		}
+
+		/**
+		 * Shared proxies can't be modified.
+		 * @param tier ignored
+		 */
+		@Override
+		public void setHealthTier(final HealthTier tier) {
+			throw new UnsupportedOperationException("Shared proxy");
+		}
+
+		/**
+		 * Shared proxies can't be modified.
+		 * @param description ignored
+		 */
+		@Override
+		public void setDescription(final String description) {
+			throw new UnsupportedOperationException("Shared proxy");
+		}
+
+		/**
+		 * Shared proxies can't be modified.
+		 * @param charRepr ignored
+		 */
+		@Override
+		public void setCharacter(final char charRepr) {
+			throw new UnsupportedOperationException("Shared proxy");
+		}
+
+		/**
+		 * Shared proxies can't be modified.
+		 * @param img ignored
+		 */
+		@Override
+		public void setImage(final String img) {
+			throw new UnsupportedOperationException("Shared proxy");
+		}
+	}
+}
@@ -1,57 +1,35 @@
 package model;
 
+import org.eclipse.jdt.annotation.Nullable;
+
 /**
  * A simple, concrete Unit implementation for the server and for the client's
- * own units.
+ * own units. It is a lightweight view onto a slot in a UnitStore, where its
+ * statistics actually live. When the unit leaves the game and its slot is
+ * released, the view is detached onto a copy of its statistics, so it keeps
+ * describing the unit as it was rather than whatever next takes the slot.
  *
  * @author Jonathan Lovelace
  */
 public class SimpleUnit implements Unit {
 	/**
-	 * The ID # of the unit.
-	 */
-	private final int id;
-	/**
-	 * A description of the unit.
-	 */
-	private final String desc;
-	/**
-	 * A character to represent the unit.
-	 */
-	private final char character;
-	/**
-	 * The name of an image to represent the unit.
-	 */
-	private final String image;
-	/**
-	 * The owner of the unit.
-	 */
-	private final int owner;
-	/**
-	 * The most HP the unit can have.
-	 */
-	private final int maxHP;
-	/**
-	 * How many HP the unit currently has.
-	 */
-	private int currHP;
-	/**
-	 * What size die to use for melee combat.
-	 */
-	private final int meleeDie;
-	/**
-	 * How many dice to use in melee combat.
+	 * The store holding the unit's statistics.
 	 */
-	private final int meleeDice;
+	private final UnitStore store;
 	/**
-	 * What size die to use for ranged combat.
+	 * The unit's slot in the store.
 	 */
-	private final int rangedDie;
+	private final int slot;
 	/**
-	 * How many dice to use for ranged combat.
+	 * The store of one holding the unit's statistics once its slot has been
+	 * released, or null while it has not.
 	 */
-	private final int rangedDice;
+	@Nullable
+	private volatile UnitStore detached = null;
 	/**
+	 * Constructor for a unit not kept in any shared store; it gets a store of
+	 * its own. Where there will be many units, use UnitStore.create() instead.
+	 *
 	 * @param idNum the ID # for the unit
 	 * @param description a description of the unit
 	 * @param charRepr a character to represent the unit in a text UI
@@ -66,89 +44,145 @@ public class SimpleUnit implements Unit {
 	public SimpleUnit(final int idNum, final int player, final String description,
 			final char charRepr, final String img, final int hitPoints,
 			final int mDie, final int mDice, final int rDie, final int rDice) {
-		id = idNum;
-		owner = player;
-		desc = description;
-		character = charRepr;
-		image = img;
-		maxHP = hitPoints;
-		currHP = hitPoints;
-		meleeDice = mDice;
-		meleeDie = mDie;
-		rangedDice = rDice;
-		rangedDie = rDie;
+		store = new UnitStore(1);
+		slot = store.allocate(idNum, player, description, charRepr, img,
+				hitPoints, mDie, mDice, rDie, rDice);
 	}
+	/**
+	 * @param unitStore the store holding the unit's statistics
+	 * @param unitSlot the unit's slot in the store
+	 */
+	SimpleUnit(final UnitStore unitStore, final int unitSlot) {
+		store = unitStore;
+		slot = unitSlot;
+	}
+	/**
+	 * Called by the store, while releasing the unit's slot.
+	 *
+	 * @param copy a store holding a copy of the unit's statistics in its slot
+	 *            0, for the view to use from now on
+	 */
+	void detach(final UnitStore copy) {
+		detached = copy;
+	}
+	/**
+	 * @return the store holding the unit's statistics: the one it was created
+	 *         in, until its slot there is released
+	 */
+	public UnitStore getStore() {
+		final UnitStore copy = detached;
+		return copy == null ? store : copy;
+	}
+	/**
+	 * @return the unit's slot in its store
+	 */
+	public int getSlot() {
+		return detached == null ? slot : 0;
+	}
+	// Each getter reads the slot first and then checks whether the view was
+	// detached meanwhile, so a read that races the release (and reuse) of the
+	// slot never returns another unit's statistics.
 	@Override
 	public int getID() {
-		return id;
+		final int retval = store.getID(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getID(0);
 	}
 
 	@Override
 	public String getDescription() {
-		return desc;
+		final String retval = store.getDescription(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getDescription(0);
 	}
 
 	@Override
 	public char getCharacter() {
-		return character;
+		final char retval = store.getCharacter(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getCharacter(0);
 	}
 
 	@Override
 	public String getImage() {
-		return image;
+		final String retval = store.getImage(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getImage(0);
 	}
 
 	@Override
 	public int getOwner() {
-		return owner;
+		final int retval = store.getOwner(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getOwner(0);
 	}
 
 	@Override
 	public int getTotalAttackDice() {
-		return meleeDice;
+		final int retval = store.getMeleeDice(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getMeleeDice(0);
 	}
 
 	@Override
 	public int getTotalRangedAttackDice() {
-		return rangedDice;
+		final int retval = store.getRangedDice(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getRangedDice(0);
 	}
 
 	@Override
 	public HealthTier getHealthTier() {
-		if (currHP <= 0) {
-			return HealthTier.Dead;
-		} else if (currHP <= maxHP / 4) {
-			return HealthTier.Critical;
-		} else if (currHP <= maxHP / 2) {
-			return HealthTier.Wounded;
-		} else if (currHP <= maxHP * 3 / 4) {
-			return HealthTier.Bloodied;
-		} else {
-			return HealthTier.Hale;
-		}
+		final HealthTier retval = store.getHealthTier(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getHealthTier(0);
 	}
 	/**
 	 * @return the maximum HP of the unit
 	 */
 	public int getMaxHP() {
-		return maxHP;
+		final int retval = store.getMaxHP(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getMaxHP(0);
 	}
 	/**
 	 * @return the current HP of the unit
 	 */
 	public int getCurrHP() {
-		return currHP;
+		final int retval = store.getCurrHP(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getCurrHP(0);
+	}
+	/**
+	 * Holds the lock on the store, so the slot can't be released between
+	 * checking and writing it.
+	 *
+	 * @param hitPoints the new current HP of the unit
+	 */
+	public void setCurrHP(final int hitPoints) {
+		synchronized (store) {
+			final UnitStore copy = detached;
+			if (copy == null) {
+				store.setCurrHP(slot, hitPoints);
+			} else {
+				copy.setCurrHP(0, hitPoints);
+			}
+		}
 	}
 	/**
 	 * @return the die used for melee combat
 	 */
 	public int getMeleeDie() {
-		return meleeDie;
+		final int retval = store.getMeleeDie(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getMeleeDie(0);
 	}
 	/**
 	 * @return the die used for ranged combat
 	 */
 	public int getRangedDie() {
-		return rangedDie;
+		final int retval = store.getRangedDie(slot);
+		final UnitStore copy = detached;
+		return copy == null ? retval : copy.getRangedDie(0);
 	}
 }
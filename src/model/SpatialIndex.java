@@ -0,0 +1,280 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of fixtures by location, for range queries ("what is within R
+ * tiles of here?") that shouldn't have to look at every fixture in the map.
+ * The plane is divided into square buckets, each holding the fixtures in it
+ * in parallel arrays; a query looks only at the buckets overlapping the square
+ * around its center. Buckets, once allocated, are kept, so a fixture moving
+ * back and forth doesn't allocate.
+ *
+ * This is not thread-safe; the maps that use it guard it with their own lock.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class SpatialIndex {
+	/**
+	 * The default base-2 logarithm of the width and height of a bucket.
+	 */
+	private static final int DEFAULT_SHIFT = 3;
+	/**
+	 * The base-2 logarithm of the width and height of a bucket.
+	 */
+	private final int shift;
+	/**
+	 * The buckets, keyed by the PackedPoint encoding of their bucket
+	 * coordinates.
+	 */
+	private final LongMap<Bucket> buckets = new LongMap<>();
+	/**
+	 * The buckets, for copying.
+	 */
+	private final List<Bucket> bucketList = new ArrayList<>();
+	/**
+	 * The number of fixtures indexed.
+	 */
+	private int size = 0;
+
+	/**
+	 * The fixtures in one bucket.
+	 */
+	private static final class Bucket {
+		/**
+		 * The row of each fixture.
+		 */
+		protected int[] rows = new int[4];
+		/**
+		 * The column of each fixture.
+		 */
+		protected int[] cols = new int[4];
+		/**
+		 * The fixtures.
+		 */
+		protected ITileFixture[] fixtures = new ITileFixture[4];
+		/**
+		 * How many entries are valid.
+		 */
+		protected int count = 0;
+
+		/**
+		 * @param row the fixture's row
+		 * @param col the fixture's column
+		 * @param fix the fixture to add
+		 */
+		protected void add(final int row, final int col, final ITileFixture fix) {
+			if (count == fixtures.length) {
+				rows = Arrays.copyOf(rows, count * 2);
+				cols = Arrays.copyOf(cols, count * 2);
+				fixtures = Arrays.copyOf(fixtures, count * 2);
+			}
+			rows[count] = row;
+			cols[count] = col;
+			fixtures[count] = fix;
+			count++;
+		}
+
+		/**
+		 * @param row the fixture's row
+		 * @param col the fixture's column
+		 * @param id the fixture's ID #
+		 * @return whether it was there to remove
+		 */
+		protected boolean remove(final int row, final int col, final int id) {
+			for (int i = 0; i < count; i++) {
+				final ITileFixture fix = fixtures[i];
+				if (rows[i] == row && cols[i] == col && fix != null
+						&& fix.getID() == id) {
+					count--;
+					rows[i] = rows[count];
+					cols[i] = cols[count];
+					fixtures[i] = fixtures[count];
+					fixtures[count] = null;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Constructor, with buckets of a size suited to the usual ranges.
+	 */
+	public SpatialIndex() {
+		this(DEFAULT_SHIFT);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bucketShift the base-2 logarithm of the width and height of a
+	 *            bucket
+	 */
+	public SpatialIndex(final int bucketShift) {
+		if (bucketShift < 0 || bucketShift > 16) {
+			throw new IllegalArgumentException("Unreasonable bucket size");
+		}
+		shift = bucketShift;
+	}
+
+	/**
+	 * @return the number of fixtures indexed
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a fixture.
+	 *
+	 * @param point its location
+	 * @param fix the fixture
+	 */
+	public void add(final IPoint point, final ITileFixture fix) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		final long key = PackedPoint.pack(row >> shift, col >> shift);
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new Bucket();
+			buckets.put(key, bucket);
+			bucketList.add(bucket);
+		}
+		bucket.add(row, col, fix);
+		size++;
+	}
+
+	/**
+	 * Remove a fixture. Does nothing if it isn't indexed at that location.
+	 *
+	 * @param point its location
+	 * @param id the fixture's ID #
+	 */
+	public void remove(final IPoint point, final int id) {
+		final int row = point.getRow();
+		final int col = point.getColumn();
+		final Bucket bucket =
+				buckets.get(PackedPoint.pack(row >> shift, col >> shift));
+		if (bucket != null && bucket.remove(row, col, id)) {
+			size--;
+		}
+	}
+
+	/**
+	 * Add every fixture indexed in another index.
+	 *
+	 * @param other the other index
+	 */
+	public void addAll(final SpatialIndex other) {
+		for (final Bucket bucket : other.bucketList) {
+			for (int i = 0; i < bucket.count; i++) {
+				final ITileFixture fix = bucket.fixtures[i];
+				assert fix != null;
+				add(Point.of(bucket.rows[i], bucket.cols[i]), fix);
+			}
+		}
+	}
+
+	/**
+	 * Find the fixtures within a given distance of a tile.
+	 *
+	 * @param center the tile
+	 * @param radius the distance, measured from tile center to tile center
+	 * @param out the list to add the fixtures to
+	 */
+	public void collect(final IPoint center, final int radius,
+			final List<ITileFixture> out) {
+		if (radius < 0 || size == 0) {
+			return;
+		}
+		final int row = center.getRow();
+		final int col = center.getColumn();
+		final long radiusSquared = (long) radius * radius;
+		// Widened to long so that a huge radius can't overflow.
+		final long firstRow = ((long) row - radius) >> shift;
+		final long lastRow = ((long) row + radius) >> shift;
+		final long firstCol = ((long) col - radius) >> shift;
+		final long lastCol = ((long) col + radius) >> shift;
+		final long spanRows = lastRow - firstRow + 1;
+		final long spanCols = lastCol - firstCol + 1;
+		final int allocated = bucketList.size();
+		if (spanRows > allocated || spanCols > allocated
+				|| spanRows * spanCols > allocated) {
+			// The query covers more buckets than exist; visit those instead.
+			for (final Bucket bucket : bucketList) {
+				collect(bucket, row, col, radiusSquared, out);
+			}
+			return;
+		}
+		for (long i = firstRow; i <= lastRow; i++) {
+			for (long j = firstCol; j <= lastCol; j++) {
+				final Bucket bucket =
+						buckets.get(PackedPoint.pack((int) i, (int) j));
+				if (bucket != null) {
+					collect(bucket, row, col, radiusSquared, out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the fixtures in a bucket that are close enough to a tile.
+	 *
+	 * @param bucket the bucket
+	 * @param row the tile's row
+	 * @param col the tile's column
+	 * @param radiusSquared the square of the distance
+	 * @param out the list to add them to
+	 */
+	private static void collect(final Bucket bucket, final int row,
+			final int col, final long radiusSquared,
+			final List<ITileFixture> out) {
+		for (int i = 0; i < bucket.count; i++) {
+			final long dRow = bucket.rows[i] - (long) row;
+			final long dCol = bucket.cols[i] - (long) col;
+			if (dRow * dRow + dCol * dCol <= radiusSquared) {
+				final ITileFixture fix = bucket.fixtures[i];
+				assert fix != null;
+				out.add(fix);
+			}
+		}
+	}
+
+	/**
+	 * Find the fixtures within a given distance of a tile in a map of known
+	 * size by looking at each tile in range, for maps that don't keep an
+	 * index but can look tiles up directly.
+	 *
+	 * @param map the map
+	 * @param rows the number of rows in the map
+	 * @param columns the number of columns in the map
+	 * @param center the tile
+	 * @param radius the distance, measured from tile center to tile center
+	 * @param out the list to add the fixtures to
+	 */
+	public static void scan(final IMap map, final int rows, final int columns,
+			final IPoint center, final int radius, final List<ITileFixture> out) {
+		final int row = center.getRow();
+		final int col = center.getColumn();
+		final long radiusSquared = (long) radius * radius;
+		final int firstRow = (int) Math.max(0, (long) row - radius);
+		final int lastRow = (int) Math.min(rows - 1, (long) row + radius);
+		final int firstCol = (int) Math.max(0, (long) col - radius);
+		final int lastCol = (int) Math.min(columns - 1, (long) col + radius);
+		for (int i = firstRow; i <= lastRow; i++) {
+			for (int j = firstCol; j <= lastCol; j++) {
+				final long dRow = i - (long) row;
+				final long dCol = j - (long) col;
+				if (dRow * dRow + dCol * dCol <= radiusSquared) {
+					final ITileFixture fix = map.getContents(PackedPoint.pack(i, j));
+					if (fix != null) {
+						out.add(fix);
+					}
+				}
+			}
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package model;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -11,7 +13,7 @@ import org.eclipse.jdt.annotation.Nullable;
  * @author Jonathan Lovelace
  *
  */
-public class TPMap implements IMap {
+public class TPMap implements IMutableMap {
 	/**
 	 * The terrain.
 	 */
@@ -20,6 +22,25 @@ public class TPMap implements IMap {
 	 * The non-terrain contents.
 	 */
 	private final Map<IPoint, ITileFixture> contents;
+	/**
+	 * The location of each fixture, by ID, so finding a fixture doesn't mean
+	 * searching the whole map. Guarded by synchronizing on the map.
+	 */
+	private final IntMap<IPoint> locations = new IntMap<>();
+	/**
+	 * The fixtures on the map, by location, for range queries. Guarded by
+	 * synchronizing on the map.
+	 */
+	private final SpatialIndex nearby = new SpatialIndex();
+	/**
+	 * The hash of the map's contents. Guarded by synchronizing on the map.
+	 */
+	private final ZobristHash hash = new ZobristHash();
+	/**
+	 * The version of the map, incremented (while holding the lock on the map)
+	 * on every change.
+	 */
+	private volatile long version = 0;
 	/**
 	 * No-arg constructor.
 	 */
@@ -37,8 +58,12 @@ public class TPMap implements IMap {
 		if (!terr.keySet().containsAll(fixtures.keySet())) {
 			throw new IllegalArgumentException("Can't have fixtures on no terrain");
 		}
-		terrain.putAll(terr);
-		contents.putAll(fixtures);
+		for (final Entry<IPoint, TileType> entry : terr.entrySet()) {
+			setTerrain(entry.getKey(), entry.getValue());
+		}
+		for (final Entry<IPoint, ITileFixture> entry : fixtures.entrySet()) {
+			setTileContents(entry.getKey(), entry.getValue());
+		}
 	}
 	/**
 	 * @return an iteration over the points in the map 
@@ -73,12 +98,33 @@ public class TPMap implements IMap {
 	public ITileFixture getContents(final IPoint point) {
 		return contents.get(point);
 	}
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final long point) {
+		return getTerrain(PackedPoint.toPoint(point));
+	}
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final long point) {
+		return contents.get(PackedPoint.toPoint(point));
+	}
 	/**
 	 * @param point a location in the map
 	 * @param type the new terrain there
 	 */
-	public void setTerrain(final IPoint point, final TileType type) {
-		terrain.put(point, type);
+	@Override
+	public synchronized void setTerrain(final IPoint point,
+			final TileType type) {
+		hash.setTerrain(point, terrain.put(point, type), type);
+		version++;
 	}
 	/**
 	 * Note that while getContents() returns null to represent nothing, this
@@ -89,40 +135,144 @@ public class TPMap implements IMap {
 	 * @param fix
 	 *            a new fixture to put there
 	 */
-	public void setTileContents(final IPoint point, final ITileFixture fix) {
-		contents.put(point, fix);
+	@Override
+	public synchronized void setTileContents(final IPoint point,
+			final ITileFixture fix) {
+		final ITileFixture old = contents.put(point, fix);
+		if (old != null) {
+			unindex(old, point);
+		}
+		locations.put(fix.getID(), point);
+		nearby.add(point, fix);
+		hash.add(point, fix);
+		version++;
 	}
 	/**
 	 * Remove the fixture at the specified point.
 	 * @param point the location in question
 	 */
-	public void removeFixture(final IPoint point) {
-		contents.remove(point);
+	@Override
+	public synchronized void removeFixture(final IPoint point) {
+		final ITileFixture old = contents.remove(point);
+		if (old != null) {
+			unindex(old, point);
+			version++;
+		}
+	}
+	/**
+	 * Move the fixture on one tile to another, replacing anything there, as a
+	 * single change: nothing holding the lock on the map, snapshots included,
+	 * sees it on neither tile. Throws IllegalArgumentException if there is
+	 * nothing at the source.
+	 *
+	 * @param source where the fixture is
+	 * @param dest where it should be
+	 */
+	@Override
+	public synchronized void moveFixture(final IPoint source,
+			final IPoint dest) {
+		final ITileFixture fix = getContents(source);
+		if (fix == null) {
+			throw new IllegalArgumentException("Nothing to move");
+		} else if (!source.equals(dest)) {
+			final long before = version;
+			setTileContents(dest, fix);
+			removeFixture(source);
+			version = before + 1;
+		}
+	}
+	/**
+	 * Note that the health of the unit at a point may have changed, so that
+	 * the map's hash follows its health tier. Does nothing if there is no
+	 * unit there.
+	 *
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void healthChanged(final IPoint point) {
+		final ITileFixture fix = getContents(point);
+		if (fix instanceof Unit) {
+			hash.setTier(point, fix.getID(), ((Unit) fix).getHealthTier());
+			version++;
+		}
+	}
+	/**
+	 * Remove a fixture from the ID index, unless the index has it somewhere
+	 * else already (as when a fixture is added at its destination before being
+	 * removed from its source).
+	 *
+	 * @param fix a fixture that is no longer at a location
+	 * @param point that location
+	 */
+	private void unindex(final ITileFixture fix, final IPoint point) {
+		if (point.equals(locations.get(fix.getID()))) {
+			locations.remove(fix.getID());
+		}
+		nearby.remove(point, fix.getID());
+		hash.remove(point, fix.getID());
 	}
 	/**
 	 * @param id the ID number of a fixture
 	 * @return that fixture
 	 */
 	@Nullable
+	@Override
 	public ITileFixture getFixture(final int id) {
-		for (ITileFixture fix : contents.values()) {
-			if (fix.getID() == id) {
-				return fix;
-			}
+		final IPoint point = findFixture(id);
+		if (point == null) {
+			return null;
+		} else {
+			return contents.get(point);
 		}
-		return null;
 	}
 	/**
 	 * @param id the ID number of a fixture
 	 * @return its location
 	 */
 	@Nullable
-	public IPoint findFixture(final int id) {
+	@Override
+	public synchronized IPoint findFixture(final int id) {
+		return locations.get(id);
+	}
+	/**
+	 * @param center a location in the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return the fixtures within that distance of that location
+	 */
+	@Override
+	public synchronized List<ITileFixture> getFixturesWithin(
+			final IPoint center, final int radius) {
+		final List<ITileFixture> retval = new ArrayList<>();
+		nearby.collect(center, radius, retval);
+		return retval;
+	}
+	/**
+	 * @return the version of the map
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+	/**
+	 * @return the hash of the map's contents
+	 */
+	@Override
+	public synchronized long getHash() {
+		return hash.get();
+	}
+	/**
+	 * This copies the whole map.
+	 * @return a copy of the map as it is now
+	 */
+	@Override
+	public synchronized IMap snapshot() {
+		final TPMap retval = new TPMap();
+		retval.terrain.putAll(terrain);
 		for (final Entry<IPoint, ITileFixture> entry : contents.entrySet()) {
-			if (entry.getValue().getID() == id) {
-				return entry.getKey();
-			}
+			retval.setTileContents(entry.getKey(), entry.getValue());
 		}
-		return null;
+		retval.hash.copyValue(hash);
+		retval.version = version;
+		return retval;
 	}
 }
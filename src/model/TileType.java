@@ -7,18 +7,56 @@ public enum TileType {
 	/**
 	 * Road. Speeds movement.
 	 */
-	Road,
+	Road(1, false),
 	/**
 	 * Short grass.
 	 */
-	Lawn,
+	Lawn(2, false),
 	/**
-	 * Tall grass or small bushes that impede movement.
+	 * Tall grass or small bushes that impede movement and sight.
 	 */
-	Brush,
+	Brush(4, true),
 	/**
 	 * Any terrain that is impassible but not a barrier (that would be
 	 * represented by a fixture of some kind).
 	 */
-	Impassible;
+	Impassible(0, true);
+	/**
+	 * The cost of moving into a tile of this type, or 0 if it can't be
+	 * entered.
+	 */
+	private final int cost;
+	/**
+	 * Whether tiles of this type block line of sight.
+	 */
+	private final boolean opaque;
+	/**
+	 * @param moveCost the cost of moving into a tile of this type, or 0 if it
+	 *            can't be entered
+	 * @param blocksSight whether tiles of this type block line of sight
+	 */
+	private TileType(final int moveCost, final boolean blocksSight) {
+		cost = moveCost;
+		opaque = blocksSight;
+	}
+	/**
+	 * @return the cost of moving into a tile of this type, or 0 if it can't be
+	 *         entered
+	 */
+	public int getMovementCost() {
+		return cost;
+	}
+	/**
+	 * @return whether units can move into a tile of this type
+	 */
+	public boolean isPassable() {
+		return cost > 0;
+	}
+	/**
+	 * @return whether tiles of this type block line of sight (though they
+	 *         themselves can be seen)
+	 */
+	public boolean blocksSight() {
+		return opaque;
+	}
 }
@@ -0,0 +1,260 @@
+package model;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A journal of changes to a map and the unit statistics of its game, so they
+ * can be undone. Changes made through the log are applied at once and each
+ * recorded as a compact undo record; mark() notes the current position, and
+ * rollback() undoes every change since a mark in reverse order, in time
+ * proportional to the number of changes rather than to the size of the map.
+ * This lets a caller try out changes in place (a what-if, or a batch of
+ * orders that must succeed or fail together) instead of copying the map.
+ *
+ * Changes made through the log are not announced to anyone; the caller must
+ * notify listeners of those it keeps. Changes made to the map or store other
+ * than through the log aren't recorded, and rolling back past them may give
+ * strange results. This is not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class UndoLog {
+	/**
+	 * The kind of record for a terrain change. The value is the ordinal of the
+	 * old tile type.
+	 */
+	private static final byte TERRAIN = 0;
+	/**
+	 * The kind of record for a tile's contents being set. The fixture is what
+	 * was there before, if anything.
+	 */
+	private static final byte SET = 1;
+	/**
+	 * The kind of record for a fixture being removed. The fixture is what was
+	 * removed.
+	 */
+	private static final byte REMOVED = 2;
+	/**
+	 * The kind of record for an HP change. The point is the slot, and the value
+	 * the old HP.
+	 */
+	private static final byte HP = 3;
+	/**
+	 * The tile types, by ordinal.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+	/**
+	 * The map.
+	 */
+	private final IMutableMap map;
+	/**
+	 * The statistics of the units in the game.
+	 */
+	private final UnitStore units;
+	/**
+	 * The kind of each record.
+	 */
+	private byte[] kinds = new byte[64];
+	/**
+	 * The location, as encoded by PackedPoint, or the slot, in each record.
+	 */
+	private long[] points = new long[64];
+	/**
+	 * The old value in each record, where it is a number.
+	 */
+	private int[] values = new int[64];
+	/**
+	 * The fixture in each record, where it has one.
+	 */
+	private ITileFixture[] fixtures = new ITileFixture[64];
+	/**
+	 * How many records there are.
+	 */
+	private int count = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param theMap the map to change
+	 * @param store the statistics of the units in the game
+	 */
+	public UndoLog(final IMutableMap theMap, final UnitStore store) {
+		map = theMap;
+		units = store;
+	}
+
+	/**
+	 * @return a mark for the current position in the log, to roll back to
+	 */
+	public int mark() {
+		return count;
+	}
+
+	/**
+	 * @return how many changes are recorded
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Undo every change made since a mark, most recent first, and forget them.
+	 *
+	 * @param mark the mark
+	 */
+	public void rollback(final int mark) {
+		if (mark < 0 || mark > count) {
+			throw new IllegalArgumentException("Not a current mark");
+		}
+		while (count > mark) {
+			count--;
+			final long point = points[count];
+			final ITileFixture fix = fixtures[count];
+			fixtures[count] = null;
+			switch (kinds[count]) {
+			case TERRAIN:
+				map.setTerrain(PackedPoint.toPoint(point), TYPES[values[count]]);
+				break;
+			case SET:
+				if (fix == null) {
+					map.removeFixture(PackedPoint.toPoint(point));
+				} else {
+					map.setTileContents(PackedPoint.toPoint(point), fix);
+				}
+				break;
+			case REMOVED:
+				assert fix != null;
+				map.setTileContents(PackedPoint.toPoint(point), fix);
+				break;
+			case HP:
+				units.setCurrHP((int) point, values[count]);
+				healthChanged((int) point);
+				break;
+			default:
+				throw new IllegalStateException("Unknown undo record");
+			}
+		}
+	}
+
+	/**
+	 * Keep the changes made since a mark. If it is the outermost mark (there
+	 * are no changes from before it), the log is cleared; otherwise the
+	 * changes remain to be rolled back with the enclosing mark's.
+	 *
+	 * @param mark the mark
+	 */
+	public void commit(final int mark) {
+		if (mark < 0 || mark > count) {
+			throw new IllegalArgumentException("Not a current mark");
+		} else if (mark == 0) {
+			Arrays.fill(fixtures, 0, count, null);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Change the terrain of a tile, which must already have terrain.
+	 *
+	 * @param point the tile
+	 * @param type its new terrain
+	 */
+	public void setTerrain(final IPoint point, final TileType type) {
+		record(TERRAIN, PackedPoint.pack(point),
+				map.getTerrain(point).ordinal(), null);
+		map.setTerrain(point, type);
+	}
+
+	/**
+	 * Set the contents of a tile, replacing whatever was there.
+	 *
+	 * @param point the tile
+	 * @param fix the fixture to put there
+	 */
+	public void setTileContents(final IPoint point, final ITileFixture fix) {
+		record(SET, PackedPoint.pack(point), 0, map.getContents(point));
+		map.setTileContents(point, fix);
+	}
+
+	/**
+	 * Remove the contents of a tile. Does nothing if it is empty.
+	 *
+	 * @param point the tile
+	 */
+	public void removeFixture(final IPoint point) {
+		final ITileFixture fix = map.getContents(point);
+		if (fix != null) {
+			record(REMOVED, PackedPoint.pack(point), 0, fix);
+			map.removeFixture(point);
+		}
+	}
+
+	/**
+	 * Move the contents of one tile to another, replacing whatever was there,
+	 * as a single change to the map.
+	 *
+	 * @param source the tile to move from, which must not be empty
+	 * @param dest the tile to move to
+	 */
+	public void moveFixture(final IPoint source, final IPoint dest) {
+		final ITileFixture fix = map.getContents(source);
+		if (fix == null) {
+			throw new IllegalArgumentException("Nothing to move");
+		} else if (!source.equals(dest)) {
+			record(REMOVED, PackedPoint.pack(source), 0, fix);
+			record(SET, PackedPoint.pack(dest), 0, map.getContents(dest));
+			map.moveFixture(source, dest);
+		}
+	}
+
+	/**
+	 * Change a unit's current HP, and tell the map so its hash follows.
+	 *
+	 * @param slot the unit's slot in the store
+	 * @param hitPoints its new HP
+	 */
+	public void setCurrHP(final int slot, final int hitPoints) {
+		record(HP, slot, units.getCurrHP(slot), null);
+		units.setCurrHP(slot, hitPoints);
+		healthChanged(slot);
+	}
+
+	/**
+	 * Tell the map that a unit's health may have changed, if it is in the map.
+	 * It is looked up by ID rather than recorded, since by the time a change
+	 * is rolled back the later moves have been too, putting the unit back
+	 * where it was when its HP changed.
+	 *
+	 * @param slot the unit's slot in the store
+	 */
+	private void healthChanged(final int slot) {
+		final IPoint point = map.findFixture(units.getID(slot));
+		if (point != null) {
+			map.healthChanged(point);
+		}
+	}
+
+	/**
+	 * Add a record.
+	 *
+	 * @param kind its kind
+	 * @param point its location or slot
+	 * @param value its old value
+	 * @param fix its fixture
+	 */
+	private void record(final byte kind, final long point, final int value,
+			@Nullable final ITileFixture fix) {
+		if (count == kinds.length) {
+			kinds = Arrays.copyOf(kinds, count * 2);
+			points = Arrays.copyOf(points, count * 2);
+			values = Arrays.copyOf(values, count * 2);
+			fixtures = Arrays.copyOf(fixtures, count * 2);
+		}
+		kinds[count] = kind;
+		points[count] = point;
+		values[count] = value;
+		fixtures[count] = fix;
+		count++;
+	}
+}
@@ -0,0 +1,440 @@
+package model;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A columnar store of unit statistics: each statistic is kept in a primitive
+ * array indexed by a dense "slot" number, and each SimpleUnit created here is
+ * just a view onto its slot. Scanning every unit (for combat, turn-end
+ * processing, or AI) thus walks a few flat arrays rather than chasing a
+ * pointer per unit, and the memory each unit costs is small and predictable.
+ * The descriptions, characters, and images, shared by every unit of a kind,
+ * are stored once per kind.
+ *
+ * Slots of units that have left the game are reused. When a slot is released,
+ * its unit's view is detached onto a copy of its statistics first, so
+ * anything still holding it (a snapshot, a GUI listener, the AI) goes on
+ * seeing the unit that died, not whatever is created in its slot next.
+ *
+ * Creating and releasing units, and changing their HP, are synchronized;
+ * reads are not. All the arrays belong to one Columns object, which is
+ * replaced as a whole, through a volatile field, when they grow; each read
+ * goes through that field once, so it never mixes arrays from before and
+ * after a growth.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class UnitStore {
+	/**
+	 * The arrays, replaced (while holding the lock on the store) when any of
+	 * them grows.
+	 */
+	private volatile Columns columns;
+	/**
+	 * The lowest slot that has never been used. It is raised only after the
+	 * slot is filled in.
+	 */
+	private volatile int highWater = 0;
+	/**
+	 * Slots that have been released and can be reused.
+	 */
+	private int[] freeSlots = new int[16];
+	/**
+	 * How many entries in freeSlots are valid.
+	 */
+	private int freeCount = 0;
+	/**
+	 * How many kinds of unit we've seen.
+	 */
+	private int kindCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param capacity how many units to make room for initially
+	 */
+	public UnitStore(final int capacity) {
+		columns = new Columns(null, Math.max(capacity, 1), 4);
+	}
+
+	/**
+	 * Create a unit in this store.
+	 *
+	 * @param idNum the ID # for the unit
+	 * @param player the owner of the unit
+	 * @param description a description of the unit
+	 * @param charRepr a character to represent the unit in a text UI
+	 * @param img an image to use to represent the unit
+	 * @param hitPoints the unit's starting HP
+	 * @param mDie the die to use for melee combat
+	 * @param mDice how many dice to use in melee combat
+	 * @param rDie the die to use in ranged combat
+	 * @param rDice how many dice to use in ranged combat
+	 * @return a view of the new unit
+	 */
+	public synchronized SimpleUnit create(final int idNum, final int player,
+			final String description, final char charRepr, final String img,
+			final int hitPoints, final int mDie, final int mDice, final int rDie,
+			final int rDice) {
+		final int slot = allocate(idNum, player, description, charRepr, img,
+				hitPoints, mDie, mDice, rDie, rDice);
+		final SimpleUnit retval = new SimpleUnit(this, slot);
+		columns.views[slot] = retval;
+		return retval;
+	}
+
+	/**
+	 * Allocate and fill in a slot.
+	 *
+	 * @param idNum the ID # for the unit
+	 * @param player the owner of the unit
+	 * @param description a description of the unit
+	 * @param charRepr a character to represent the unit in a text UI
+	 * @param img an image to use to represent the unit
+	 * @param hitPoints the unit's starting HP
+	 * @param mDie the die to use for melee combat
+	 * @param mDice how many dice to use in melee combat
+	 * @param rDie the die to use in ranged combat
+	 * @param rDice how many dice to use in ranged combat
+	 * @return the slot
+	 */
+	synchronized int allocate(final int idNum, final int player,
+			final String description, final char charRepr, final String img,
+			final int hitPoints, final int mDie, final int mDice, final int rDie,
+			final int rDice) {
+		final int kind = kindOf(description, charRepr, img);
+		final int slot;
+		if (freeCount > 0) {
+			freeCount--;
+			slot = freeSlots[freeCount];
+		} else {
+			slot = highWater;
+			if (slot == columns.ids.length) {
+				columns = new Columns(columns, slot * 2, columns.kindDescs.length);
+			}
+		}
+		final Columns cols = columns;
+		cols.ids[slot] = idNum;
+		cols.owners[slot] = player;
+		cols.kinds[slot] = kind;
+		cols.currHP[slot] = hitPoints;
+		cols.maxHP[slot] = hitPoints;
+		cols.meleeDie[slot] = mDie;
+		cols.meleeDice[slot] = mDice;
+		cols.rangedDie[slot] = rDie;
+		cols.rangedDice[slot] = rDice;
+		cols.live[slot] = true;
+		if (slot == highWater) {
+			highWater = slot + 1;
+		}
+		return slot;
+	}
+
+	/**
+	 * Release the slot of a unit that has left the game, so it can be reused.
+	 * The unit's view is first detached onto a store of its own holding a
+	 * copy of its statistics, so it goes on describing the unit as it was.
+	 *
+	 * @param slot the slot to release
+	 */
+	public synchronized void release(final int slot) {
+		final Columns cols = columns;
+		if (slot < 0 || slot >= highWater || !cols.live[slot]) {
+			throw new IllegalArgumentException("Slot not in use");
+		}
+		final SimpleUnit view = cols.views[slot];
+		if (view != null) {
+			final UnitStore copy = new UnitStore(1);
+			copy.allocate(cols.ids[slot], cols.owners[slot],
+					getDescription(slot), cols.kindChars[cols.kinds[slot]],
+					getImage(slot), cols.maxHP[slot], cols.meleeDie[slot],
+					cols.meleeDice[slot], cols.rangedDie[slot],
+					cols.rangedDice[slot]);
+			copy.columns.currHP[0] = cols.currHP[slot];
+			copy.columns.views[0] = view;
+			view.detach(copy);
+			cols.views[slot] = null;
+		}
+		cols.live[slot] = false;
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		}
+		freeSlots[freeCount] = slot;
+		freeCount++;
+	}
+
+	/**
+	 * There are only a handful of kinds of unit, so a linear search is fine.
+	 *
+	 * @param description a description of a unit
+	 * @param charRepr its character
+	 * @param img its image
+	 * @return the index of its kind in the kind tables, adding it if necessary
+	 */
+	private int kindOf(final String description, final char charRepr,
+			final String img) {
+		Columns cols = columns;
+		for (int i = 0; i < kindCount; i++) {
+			if (cols.kindChars[i] == charRepr
+					&& description.equals(cols.kindDescs[i])
+					&& img.equals(cols.kindImages[i])) {
+				return i;
+			}
+		}
+		if (kindCount == cols.kindDescs.length) {
+			cols = new Columns(cols, cols.ids.length, kindCount * 2);
+			columns = cols;
+		}
+		cols.kindDescs[kindCount] = description;
+		cols.kindChars[kindCount] = charRepr;
+		cols.kindImages[kindCount] = img;
+		kindCount++;
+		return kindCount - 1;
+	}
+
+	/**
+	 * @return one more than the highest slot that has ever been used; every
+	 *         live unit's slot is below this
+	 */
+	public int getHighWater() {
+		return highWater;
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return whether it holds a unit
+	 */
+	public boolean isLive(final int slot) {
+		return slot >= 0 && slot < highWater && columns.live[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the ID # of the unit there
+	 */
+	public int getID(final int slot) {
+		return columns.ids[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the owner of the unit there
+	 */
+	public int getOwner(final int slot) {
+		return columns.owners[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the description of the unit there
+	 */
+	public String getDescription(final int slot) {
+		final Columns cols = columns;
+		final String retval = cols.kindDescs[cols.kinds[slot]];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the character representing the unit there
+	 */
+	public char getCharacter(final int slot) {
+		final Columns cols = columns;
+		return cols.kindChars[cols.kinds[slot]];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the image representing the unit there
+	 */
+	public String getImage(final int slot) {
+		final Columns cols = columns;
+		final String retval = cols.kindImages[cols.kinds[slot]];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the current HP of the unit there
+	 */
+	public int getCurrHP(final int slot) {
+		return columns.currHP[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @param hitPoints the new current HP of the unit there
+	 */
+	public synchronized void setCurrHP(final int slot, final int hitPoints) {
+		columns.currHP[slot] = hitPoints;
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return what tier the health of the unit there falls into
+	 */
+	public Unit.HealthTier getHealthTier(final int slot) {
+		final Columns cols = columns;
+		final int current = cols.currHP[slot];
+		final int max = cols.maxHP[slot];
+		if (current <= 0) {
+			return Unit.HealthTier.Dead;
+		} else if (current <= max / 4) {
+			return Unit.HealthTier.Critical;
+		} else if (current <= max / 2) {
+			return Unit.HealthTier.Wounded;
+		} else if (current <= max * 3 / 4) {
+			return Unit.HealthTier.Bloodied;
+		} else {
+			return Unit.HealthTier.Hale;
+		}
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the maximum HP of the unit there
+	 */
+	public int getMaxHP(final int slot) {
+		return columns.maxHP[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the size of die the unit there uses in melee combat
+	 */
+	public int getMeleeDie(final int slot) {
+		return columns.meleeDie[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the number of dice the unit there uses in melee combat
+	 */
+	public int getMeleeDice(final int slot) {
+		return columns.meleeDice[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the size of die the unit there uses in ranged combat
+	 */
+	public int getRangedDie(final int slot) {
+		return columns.rangedDie[slot];
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return the number of dice the unit there uses in ranged combat
+	 */
+	public int getRangedDice(final int slot) {
+		return columns.rangedDice[slot];
+	}
+
+	/**
+	 * The store's arrays. Each field is final, so replacing the whole object
+	 * is how any of them grows; the elements are written in place, only while
+	 * holding the lock on the store.
+	 */
+	private static final class Columns {
+		/**
+		 * The ID # of the unit in each slot.
+		 */
+		protected final int[] ids;
+		/**
+		 * The owner of the unit in each slot.
+		 */
+		protected final int[] owners;
+		/**
+		 * The kind (index into the kind tables) of the unit in each slot.
+		 */
+		protected final int[] kinds;
+		/**
+		 * The current HP of the unit in each slot.
+		 */
+		protected final int[] currHP;
+		/**
+		 * The maximum HP of the unit in each slot.
+		 */
+		protected final int[] maxHP;
+		/**
+		 * The size of die the unit in each slot uses in melee combat.
+		 */
+		protected final int[] meleeDie;
+		/**
+		 * The number of dice the unit in each slot uses in melee combat.
+		 */
+		protected final int[] meleeDice;
+		/**
+		 * The size of die the unit in each slot uses in ranged combat.
+		 */
+		protected final int[] rangedDie;
+		/**
+		 * The number of dice the unit in each slot uses in ranged combat.
+		 */
+		protected final int[] rangedDice;
+		/**
+		 * Whether each slot is in use.
+		 */
+		protected final boolean[] live;
+		/**
+		 * The view of the unit in each slot, to be detached when the slot is
+		 * released, or null if it was allocated without one.
+		 */
+		protected final @Nullable SimpleUnit[] views;
+		/**
+		 * The description of each kind of unit.
+		 */
+		protected final @Nullable String[] kindDescs;
+		/**
+		 * The character representing each kind of unit.
+		 */
+		protected final char[] kindChars;
+		/**
+		 * The image representing each kind of unit.
+		 */
+		protected final @Nullable String[] kindImages;
+
+		/**
+		 * @param old the arrays to copy, if any
+		 * @param capacity how many units to make room for
+		 * @param kindCapacity how many kinds of unit to make room for
+		 */
+		protected Columns(@Nullable final Columns old, final int capacity,
+				final int kindCapacity) {
+			if (old == null) {
+				ids = new int[capacity];
+				owners = new int[capacity];
+				kinds = new int[capacity];
+				currHP = new int[capacity];
+				maxHP = new int[capacity];
+				meleeDie = new int[capacity];
+				meleeDice = new int[capacity];
+				rangedDie = new int[capacity];
+				rangedDice = new int[capacity];
+				live = new boolean[capacity];
+				views = new SimpleUnit[capacity];
+				kindDescs = new String[kindCapacity];
+				kindChars = new char[kindCapacity];
+				kindImages = new String[kindCapacity];
+			} else {
+				ids = Arrays.copyOf(old.ids, capacity);
+				owners = Arrays.copyOf(old.owners, capacity);
+				kinds = Arrays.copyOf(old.kinds, capacity);
+				currHP = Arrays.copyOf(old.currHP, capacity);
+				maxHP = Arrays.copyOf(old.maxHP, capacity);
+				meleeDie = Arrays.copyOf(old.meleeDie, capacity);
+				meleeDice = Arrays.copyOf(old.meleeDice, capacity);
+				rangedDie = Arrays.copyOf(old.rangedDie, capacity);
+				rangedDice = Arrays.copyOf(old.rangedDice, capacity);
+				live = Arrays.copyOf(old.live, capacity);
+				views = Arrays.copyOf(old.views, capacity);
+				kindDescs = Arrays.copyOf(old.kindDescs, kindCapacity);
+				kindChars = Arrays.copyOf(old.kindChars, kindCapacity);
+				kindImages = Arrays.copyOf(old.kindImages, kindCapacity);
+			}
+		}
+	}
+}
@@ -0,0 +1,793 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A map of fixed size that can hand out consistent snapshots of itself in
+ * constant time, for readers (full-map sync, AI threads, saving) that must not
+ * block or be blocked by the command path.
+ *
+ * The map is divided into square chunks, reached through a table. Taking a
+ * snapshot just marks the table and every chunk as shared; the next change
+ * copies the table (one reference per chunk) and the chunk it touches, and
+ * later changes to that chunk modify the copy in place. So a snapshot costs
+ * nothing up front, and only the regions that change after it are ever
+ * copied. Chunks that have never been written aren't allocated at all.
+ *
+ * @author Jonathan Lovelace
+ */
+public class VersionedMap implements IGridMap {
+	/**
+	 * The base-2 logarithm of the width and height of a chunk.
+	 */
+	private static final int CHUNK_SHIFT = 4;
+	/**
+	 * The width and height of a chunk.
+	 */
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	/**
+	 * The mask to get a tile's row or column within its chunk.
+	 */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	/**
+	 * The value representing a tile with no terrain.
+	 */
+	private static final byte NO_TERRAIN = -1;
+	/**
+	 * The tile types, indexed by ordinal.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+	/**
+	 * The number of rows in the map.
+	 */
+	private final int rows;
+	/**
+	 * The number of columns in the map.
+	 */
+	private final int columns;
+	/**
+	 * The number of chunks in each row of the chunk table.
+	 */
+	private final int chunkColumns;
+	/**
+	 * The chunk table. Null entries are chunks that have never been written.
+	 * Guarded, for writes, by synchronizing on the map.
+	 */
+	private volatile Chunk[] table;
+	/**
+	 * Whether the chunk table is shared with a snapshot, and so must be copied
+	 * before it is changed.
+	 */
+	private boolean tableShared = false;
+	/**
+	 * The current "generation." A chunk created in an earlier generation may be
+	 * shared with a snapshot, and so must be copied before it is changed.
+	 */
+	private long generation = 0;
+	/**
+	 * The version of the map, incremented (while holding the lock on the map)
+	 * on every change.
+	 */
+	private volatile long version = 0;
+	/**
+	 * The most recent snapshot, which we can hand out again if nothing has
+	 * changed since.
+	 */
+	@Nullable
+	private Snapshot lastSnapshot = null;
+	/**
+	 * The location of each fixture, by ID. Guarded by synchronizing on the
+	 * map.
+	 */
+	private final IntMap<IPoint> locations = new IntMap<>();
+	/**
+	 * The fixtures on the map, by location, for range queries. Guarded by
+	 * synchronizing on the map.
+	 */
+	private final SpatialIndex nearby = new SpatialIndex();
+	/**
+	 * The hash of the map's contents. Guarded by synchronizing on the map.
+	 */
+	private final ZobristHash hash = new ZobristHash();
+
+	/**
+	 * Constructor. Every tile starts with no terrain.
+	 *
+	 * @param rowCount the number of rows in the map
+	 * @param colCount the number of columns in the map
+	 */
+	public VersionedMap(final int rowCount, final int colCount) {
+		if (rowCount < 0 || colCount < 0) {
+			throw new IllegalArgumentException("Negative map dimensions");
+		}
+		rows = rowCount;
+		columns = colCount;
+		final int chunkRows = (rowCount + CHUNK_MASK) >> CHUNK_SHIFT;
+		chunkColumns = (colCount + CHUNK_MASK) >> CHUNK_SHIFT;
+		if ((long) chunkRows * chunkColumns > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Map too large");
+		}
+		table = new Chunk[chunkRows * chunkColumns];
+	}
+
+	/**
+	 * @return the number of rows in the map
+	 */
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns in the map
+	 */
+	@Override
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return whether that tile is inside the map
+	 */
+	private boolean inBounds(final int row, final int col) {
+		return row >= 0 && row < rows && col >= 0 && col < columns;
+	}
+
+	/**
+	 * @param row a row inside the map
+	 * @param col a column inside the map
+	 * @return the index of the chunk containing it in the chunk table
+	 */
+	private int chunkIndex(final int row, final int col) {
+		return (row >> CHUNK_SHIFT) * chunkColumns + (col >> CHUNK_SHIFT);
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return the index of that tile within its chunk
+	 */
+	private static int indexInChunk(final int row, final int col) {
+		return ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK);
+	}
+
+	/**
+	 * Get a chunk that it is safe to modify, copying the table or the chunk if
+	 * they might be shared with a snapshot. Callers must hold the lock on the
+	 * map.
+	 *
+	 * @param point a point, which must be in the map
+	 * @return the chunk containing it
+	 */
+	private Chunk writableChunk(final IPoint point) {
+		return writableChunk(point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * Get a chunk that it is safe to modify, copying the table or the chunk if
+	 * they might be shared with a snapshot. Callers must hold the lock on the
+	 * map.
+	 *
+	 * @param row the row of a tile, which must be in the map
+	 * @param col its column
+	 * @return the chunk containing it
+	 */
+	private Chunk writableChunk(final int row, final int col) {
+		if (!inBounds(row, col)) {
+			throw new IllegalArgumentException("Point outside the map");
+		}
+		Chunk[] localTable = table;
+		if (tableShared) {
+			localTable = localTable.clone();
+			table = localTable;
+			tableShared = false;
+		}
+		final int index = chunkIndex(row, col);
+		final Chunk chunk = localTable[index];
+		if (chunk == null) {
+			final Chunk retval = new Chunk(generation);
+			localTable[index] = retval;
+			return retval;
+		} else if (chunk.generation != generation) {
+			final Chunk retval = chunk.copy(generation);
+			localTable[index] = retval;
+			return retval;
+		} else {
+			return chunk;
+		}
+	}
+
+	/**
+	 * @return an iteration over the points in the map that have terrain, in
+	 *         row-major order. Changes made during the iteration may or may
+	 *         not be seen; iterate over a snapshot for a consistent view.
+	 */
+	@Override
+	public Iterator<IPoint> iterator() {
+		return new TableIterator(table, rows, columns, chunkColumns);
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final IPoint point) {
+		return terrainAt(table, point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is not in the map.
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the terrain there
+	 */
+	@Override
+	public TileType getTerrain(final long point) {
+		return terrainAt(table, PackedPoint.row(point),
+				PackedPoint.column(point));
+	}
+
+	/**
+	 * @param chunks a chunk table
+	 * @param row a row
+	 * @param col a column
+	 * @return the terrain there. Throws IllegalArgumentException if none.
+	 */
+	private TileType terrainAt(final Chunk[] chunks, final int row,
+			final int col) {
+		byte ordinal = NO_TERRAIN;
+		if (inBounds(row, col)) {
+			final Chunk chunk = chunks[chunkIndex(row, col)];
+			if (chunk != null) {
+				ordinal = chunk.terrain[indexInChunk(row, col)];
+			}
+		}
+		if (ordinal == NO_TERRAIN) {
+			throw new IllegalArgumentException("Asked for terrain not in the map");
+		}
+		final TileType retval = TYPES[ordinal];
+		assert retval != null;
+		return retval;
+	}
+
+	/**
+	 * @param point a location in the map
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final IPoint point) {
+		return contentsAt(table, point.getRow(), point.getColumn());
+	}
+
+	/**
+	 * @param point a location in the map, as encoded by PackedPoint
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getContents(final long point) {
+		return contentsAt(table, PackedPoint.row(point),
+				PackedPoint.column(point));
+	}
+
+	/**
+	 * @param chunks a chunk table
+	 * @param row a row
+	 * @param col a column
+	 * @return the fixture there, if any
+	 */
+	@Nullable
+	private ITileFixture contentsAt(final Chunk[] chunks, final int row,
+			final int col) {
+		if (inBounds(row, col)) {
+			final Chunk chunk = chunks[chunkIndex(row, col)];
+			if (chunk != null) {
+				return chunk.contents[indexInChunk(row, col)];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is outside the map.
+	 * @param point a location in the map
+	 * @param type the new terrain there
+	 */
+	@Override
+	public synchronized void setTerrain(final IPoint point,
+			final TileType type) {
+		final byte[] terrain = writableChunk(point).terrain;
+		final int index = indexInChunk(point.getRow(), point.getColumn());
+		if (terrain[index] == NO_TERRAIN) {
+			hash.setTerrain(point, null, type);
+		} else {
+			hash.setTerrain(point, TYPES[terrain[index]], type);
+		}
+		terrain[index] = (byte) type.ordinal();
+		version++;
+	}
+
+	/**
+	 * Set the terrain of a band of whole rows at once. Each chunk touched is
+	 * copied, if need be, only once.
+	 *
+	 * @param firstRow the first row of the band
+	 * @param ordinals the new terrain, as TileType ordinals, in row-major
+	 *            order
+	 */
+	@Override
+	public synchronized void setTerrainRows(final int firstRow,
+			final byte[] ordinals) {
+		if (ordinals.length == 0) {
+			return;
+		} else if (columns == 0 || ordinals.length % columns != 0
+				|| firstRow < 0 || firstRow > rows - ordinals.length / columns) {
+			throw new IllegalArgumentException("Rows outside the map");
+		}
+		for (final byte ordinal : ordinals) {
+			if (ordinal < 0 || ordinal >= TYPES.length) {
+				throw new IllegalArgumentException("Not a tile type");
+			}
+		}
+		final int rowCount = ordinals.length / columns;
+		for (int row = firstRow; row < firstRow + rowCount; row++) {
+			final int base = (row - firstRow) * columns;
+			for (int chunkCol = 0; chunkCol < columns; chunkCol += CHUNK_SIZE) {
+				final byte[] terrain = writableChunk(row, chunkCol).terrain;
+				final int end = Math.min(chunkCol + CHUNK_SIZE, columns);
+				for (int col = chunkCol; col < end; col++) {
+					final int index = indexInChunk(row, col);
+					final byte ordinal = ordinals[base + col];
+					final long point = PackedPoint.pack(row, col);
+					if (terrain[index] == NO_TERRAIN) {
+						hash.setTerrain(point, null, TYPES[ordinal]);
+					} else {
+						hash.setTerrain(point, TYPES[terrain[index]],
+								TYPES[ordinal]);
+					}
+					terrain[index] = ordinal;
+				}
+			}
+		}
+		version++;
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the point is outside the map.
+	 *
+	 * @param point
+	 *            a location in the map
+	 * @param fix
+	 *            a new fixture to put there
+	 */
+	@Override
+	public synchronized void setTileContents(final IPoint point,
+			final ITileFixture fix) {
+		final ITileFixture[] contents = writableChunk(point).contents;
+		final int index = indexInChunk(point.getRow(), point.getColumn());
+		final ITileFixture old = contents[index];
+		if (old != null) {
+			unindex(old, point);
+		}
+		contents[index] = fix;
+		locations.put(fix.getID(), point);
+		nearby.add(point, fix);
+		hash.add(point, fix);
+		version++;
+	}
+
+	/**
+	 * Remove the fixture at the specified point.
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void removeFixture(final IPoint point) {
+		if (contentsAt(table, point.getRow(), point.getColumn()) != null) {
+			final ITileFixture[] contents = writableChunk(point).contents;
+			final int index = indexInChunk(point.getRow(), point.getColumn());
+			final ITileFixture old = contents[index];
+			assert old != null;
+			unindex(old, point);
+			contents[index] = null;
+			version++;
+		}
+	}
+
+	/**
+	 * Move the fixture on one tile to another, replacing anything there, as a
+	 * single change: nothing holding the lock on the map, snapshots included,
+	 * sees it on neither tile. Throws IllegalArgumentException if there is
+	 * nothing at the source.
+	 *
+	 * @param source where the fixture is
+	 * @param dest where it should be
+	 */
+	@Override
+	public synchronized void moveFixture(final IPoint source,
+			final IPoint dest) {
+		final ITileFixture fix = getContents(source);
+		if (fix == null) {
+			throw new IllegalArgumentException("Nothing to move");
+		} else if (!source.equals(dest)) {
+			final long before = version;
+			setTileContents(dest, fix);
+			removeFixture(source);
+			version = before + 1;
+		}
+	}
+
+	/**
+	 * Note that the health of the unit at a point may have changed, so that
+	 * the map's hash follows its health tier. Does nothing if there is no
+	 * unit there.
+	 *
+	 * @param point the location in question
+	 */
+	@Override
+	public synchronized void healthChanged(final IPoint point) {
+		final ITileFixture fix = getContents(point);
+		if (fix instanceof Unit) {
+			hash.setTier(point, fix.getID(), ((Unit) fix).getHealthTier());
+			version++;
+		}
+	}
+
+	/**
+	 * Remove a fixture from the ID index, unless the index has it somewhere
+	 * else already (as when a fixture is added at its destination before being
+	 * removed from its source).
+	 *
+	 * @param fix a fixture that is no longer at a location
+	 * @param point that location
+	 */
+	private void unindex(final ITileFixture fix, final IPoint point) {
+		if (point.equals(locations.get(fix.getID()))) {
+			locations.remove(fix.getID());
+		}
+		nearby.remove(point, fix.getID());
+		hash.remove(point, fix.getID());
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return that fixture
+	 */
+	@Nullable
+	@Override
+	public ITileFixture getFixture(final int id) {
+		final IPoint point = findFixture(id);
+		if (point == null) {
+			return null;
+		} else {
+			return getContents(point);
+		}
+	}
+
+	/**
+	 * @param id the ID number of a fixture
+	 * @return its location
+	 */
+	@Nullable
+	@Override
+	public synchronized IPoint findFixture(final int id) {
+		return locations.get(id);
+	}
+
+	/**
+	 * @param center a location in the map
+	 * @param radius a distance, measured from tile center to tile center
+	 * @return the fixtures within that distance of that location
+	 */
+	@Override
+	public synchronized List<ITileFixture> getFixturesWithin(
+			final IPoint center, final int radius) {
+		final List<ITileFixture> retval = new ArrayList<>();
+		nearby.collect(center, radius, retval);
+		return retval;
+	}
+
+	/**
+	 * @return the version of the map
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the hash of the map's contents
+	 */
+	@Override
+	public synchronized long getHash() {
+		return hash.get();
+	}
+
+	/**
+	 * This takes constant time: nothing is copied until the map next changes.
+	 * @return a read-only view of the map as it is now
+	 */
+	@Override
+	public synchronized Snapshot snapshot() {
+		final Snapshot last = lastSnapshot;
+		if (last != null && last.getVersion() == version) {
+			return last;
+		}
+		tableShared = true;
+		generation++;
+		final Snapshot retval = new Snapshot(table, version, hash.get());
+		lastSnapshot = retval;
+		return retval;
+	}
+
+	/**
+	 * A read-only view of the map as it was at a particular version.
+	 */
+	public final class Snapshot implements IMap {
+		/**
+		 * The chunk table as it was when the snapshot was taken. Neither it nor
+		 * any chunk in it will be modified again.
+		 */
+		private final Chunk[] frozen;
+		/**
+		 * The version of the map this is a snapshot of.
+		 */
+		private final long snapVersion;
+		/**
+		 * The hash of the map's contents when the snapshot was taken.
+		 */
+		private final long snapHash;
+
+		/**
+		 * @param chunks the chunk table, which the map will not modify again
+		 * @param ver the version of the map
+		 * @param hashed the hash of the map's contents
+		 */
+		protected Snapshot(final Chunk[] chunks, final long ver,
+				final long hashed) {
+			frozen = chunks;
+			snapVersion = ver;
+			snapHash = hashed;
+		}
+
+		/**
+		 * @return the version of the map this is a snapshot of
+		 */
+		public long getVersion() {
+			return snapVersion;
+		}
+
+		/**
+		 * @return the hash of the map's contents when the snapshot was taken
+		 */
+		@Override
+		public long getHash() {
+			return snapHash;
+		}
+
+		/**
+		 * @return an iteration over the points that had terrain, in row-major
+		 *         order
+		 */
+		@Override
+		public Iterator<IPoint> iterator() {
+			return new TableIterator(frozen, rows, columns, chunkColumns);
+		}
+
+		/**
+		 * Throws IllegalArgumentException if the point is not in the map.
+		 * @param point a location in the map
+		 * @return the terrain there
+		 */
+		@Override
+		public TileType getTerrain(final IPoint point) {
+			return terrainAt(frozen, point.getRow(), point.getColumn());
+		}
+
+		/**
+		 * Throws IllegalArgumentException if the point is not in the map.
+		 * @param point a location in the map, as encoded by PackedPoint
+		 * @return the terrain there
+		 */
+		@Override
+		public TileType getTerrain(final long point) {
+			return terrainAt(frozen, PackedPoint.row(point),
+					PackedPoint.column(point));
+		}
+
+		/**
+		 * @param point a location in the map
+		 * @return the fixture there, if any
+		 */
+		@Nullable
+		@Override
+		public ITileFixture getContents(final IPoint point) {
+			return contentsAt(frozen, point.getRow(), point.getColumn());
+		}
+
+		/**
+		 * @param point a location in the map, as encoded by PackedPoint
+		 * @return the fixture there, if any
+		 */
+		@Nullable
+		@Override
+		public ITileFixture getContents(final long point) {
+			return contentsAt(frozen, PackedPoint.row(point),
+					PackedPoint.column(point));
+		}
+
+		/**
+		 * Snapshots don't keep a spatial index, so this looks at each tile in
+		 * range.
+		 *
+		 * @param center a location in the map
+		 * @param radius a distance, measured from tile center to tile center
+		 * @return the fixtures within that distance of that location
+		 */
+		@Override
+		public List<ITileFixture> getFixturesWithin(final IPoint center,
+				final int radius) {
+			final List<ITileFixture> retval = new ArrayList<>();
+			SpatialIndex.scan(this, rows, columns, center, radius, retval);
+			return retval;
+		}
+	}
+
+	/**
+	 * A square section of the map.
+	 */
+	private static final class Chunk {
+		/**
+		 * The generation in which this chunk was created.
+		 */
+		protected final long generation;
+		/**
+		 * The terrain of every tile in the chunk, as TileType ordinals, or
+		 * NO_TERRAIN.
+		 */
+		protected final byte[] terrain;
+		/**
+		 * The fixtures in the chunk.
+		 */
+		protected final ITileFixture[] contents;
+
+		/**
+		 * Create an empty chunk.
+		 * @param gen the current generation
+		 */
+		protected Chunk(final long gen) {
+			generation = gen;
+			terrain = new byte[CHUNK_SIZE * CHUNK_SIZE];
+			Arrays.fill(terrain, NO_TERRAIN);
+			contents = new ITileFixture[CHUNK_SIZE * CHUNK_SIZE];
+		}
+
+		/**
+		 * @param gen the current generation
+		 * @param terr the terrain array to use
+		 * @param fixes the fixture array to use
+		 */
+		private Chunk(final long gen, final byte[] terr,
+				final ITileFixture[] fixes) {
+			generation = gen;
+			terrain = terr;
+			contents = fixes;
+		}
+
+		/**
+		 * @param gen the current generation
+		 * @return a copy of this chunk that may be modified in that generation
+		 */
+		protected Chunk copy(final long gen) {
+			return new Chunk(gen, terrain.clone(), contents.clone());
+		}
+	}
+
+	/**
+	 * An iterator over the tiles that have terrain in a chunk table, in
+	 * row-major order.
+	 */
+	private static final class TableIterator implements Iterator<IPoint> {
+		/**
+		 * The chunk table.
+		 */
+		private final Chunk[] chunks;
+		/**
+		 * The number of rows in the map.
+		 */
+		private final int rowCount;
+		/**
+		 * The number of columns in the map.
+		 */
+		private final int colCount;
+		/**
+		 * The number of chunks in each row of the table.
+		 */
+		private final int tableWidth;
+		/**
+		 * The row-major index of the next tile with terrain, or the area of the
+		 * map if there is none.
+		 */
+		private long next = -1;
+
+		/**
+		 * @param table the chunk table
+		 * @param rowTotal the number of rows in the map
+		 * @param colTotal the number of columns in the map
+		 * @param width the number of chunks in each row of the table
+		 */
+		protected TableIterator(final Chunk[] table, final int rowTotal,
+				final int colTotal, final int width) {
+			chunks = table;
+			rowCount = rowTotal;
+			colCount = colTotal;
+			tableWidth = width;
+			advance();
+		}
+
+		/**
+		 * Move to the next tile that has terrain.
+		 */
+		private void advance() {
+			final long area = (long) rowCount * colCount;
+			next++;
+			while (next < area) {
+				final int row = (int) (next / colCount);
+				final int col = (int) (next % colCount);
+				final Chunk chunk = chunks[(row >> CHUNK_SHIFT) * tableWidth
+						+ (col >> CHUNK_SHIFT)];
+				if (chunk == null) {
+					// Skip to the next chunk in this row.
+					next += CHUNK_SIZE - (col & CHUNK_MASK);
+					if (next / colCount != row) {
+						next = (row + 1L) * colCount;
+					}
+				} else if (chunk.terrain[indexInChunk(row, col)] == NO_TERRAIN) {
+					next++;
+				} else {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return whether there are any more tiles with terrain
+		 */
+		@Override
+		public boolean hasNext() {
+			return next < (long) rowCount * colCount;
+		}
+
+		/**
+		 * @return the next tile with terrain
+		 */
+		@Override
+		public IPoint next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("No more tiles");
+			}
+			final IPoint retval =
+					Point.of((int) (next / colCount), (int) (next % colCount));
+			advance();
+			return retval;
+		}
+
+		/**
+		 * Tiles can't be removed from the map.
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException(
+					"Can't remove tiles from the map");
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package model;
+
+import model.Unit.HealthTier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A Zobrist hash of a map: a 64-bit value that is the XOR of a pseudo-random
+ * key for each fact about the map (this tile has this terrain; this tile holds
+ * the fixture with this ID, at this health tier), so that any change is
+ * folded in or out in constant time by XORing the keys of the facts it
+ * removes and adds. Two maps with the same terrain, the same fixture IDs in
+ * the same places, and units at the same health tiers have the same hash, no
+ * matter what kind of map they are or in what order they got that way; two
+ * that differ almost certainly don't. That makes it a cheap test for whether
+ * a client's map has drifted from the server's, and a key for tables of
+ * positions already evaluated.
+ *
+ * Keys are computed from the fact they stand for by a fixed mixing function
+ * rather than drawn from a table, so they are the same in every process and
+ * need no storage. Health is hashed by tier, not HP, since the tier is what
+ * every player may know of every unit. Because a fixture's health can change
+ * without the map hearing of it, the tier hashed for each tile is remembered,
+ * so that what was folded in can be folded out again; a map must be told
+ * (see IMutableMap.healthChanged()) when a unit's health changes for the
+ * hash to follow.
+ *
+ * This is not thread-safe; the maps that use it guard it with their own lock.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class ZobristHash {
+	/**
+	 * The health tiers, by ordinal.
+	 */
+	private static final HealthTier[] TIERS = HealthTier.values();
+	/**
+	 * The hash of the terrain.
+	 */
+	private long terrainHash = 0;
+	/**
+	 * The hash of the fixtures.
+	 */
+	private long fixtureHash = 0;
+	/**
+	 * The ordinal plus one of the health tier hashed for the unit on each tile,
+	 * by the PackedPoint encoding of the tile; absent for tiles without a
+	 * unit.
+	 */
+	private final LongMap<Integer> tiers = new LongMap<>();
+
+	/**
+	 * @return the hash of the map
+	 */
+	public long get() {
+		return terrainHash ^ fixtureHash;
+	}
+
+	/**
+	 * Note a change of terrain.
+	 *
+	 * @param point the tile
+	 * @param old its terrain before, or null if it had none
+	 * @param type its terrain now
+	 */
+	public void setTerrain(final IPoint point, @Nullable final TileType old,
+			final TileType type) {
+		setTerrain(PackedPoint.pack(point), old, type);
+	}
+
+	/**
+	 * Note a change of terrain.
+	 *
+	 * @param point the tile, as encoded by PackedPoint
+	 * @param old its terrain before, or null if it had none
+	 * @param type its terrain now
+	 */
+	public void setTerrain(final long point, @Nullable final TileType old,
+			final TileType type) {
+		if (old != null) {
+			terrainHash ^= terrainKey(point, old);
+		}
+		terrainHash ^= terrainKey(point, type);
+	}
+
+	/**
+	 * Note a fixture being put on a tile. Any fixture that was there must have
+	 * been removed first.
+	 *
+	 * @param point the tile
+	 * @param fix the fixture
+	 */
+	public void add(final IPoint point, final ITileFixture fix) {
+		if (fix instanceof Unit) {
+			add(point, fix.getID(), ((Unit) fix).getHealthTier());
+		} else {
+			add(point, fix.getID(), null);
+		}
+	}
+
+	/**
+	 * Note a fixture being put on a tile, by ID, for maps that may know a
+	 * fixture's ID before they have the fixture itself. Any fixture that was
+	 * there must have been removed first.
+	 *
+	 * @param point the tile
+	 * @param id the fixture's ID
+	 * @param tier its health tier, if it is a unit
+	 */
+	public void add(final IPoint point, final int id,
+			@Nullable final HealthTier tier) {
+		final long packed = PackedPoint.pack(point);
+		if (tier != null) {
+			tiers.put(packed, Integer.valueOf(tier.ordinal() + 1));
+		}
+		fixtureHash ^= fixtureKey(packed, id, tier);
+	}
+
+	/**
+	 * Note a fixture being taken off a tile.
+	 *
+	 * @param point the tile
+	 * @param id the fixture's ID
+	 */
+	public void remove(final IPoint point, final int id) {
+		final long packed = PackedPoint.pack(point);
+		final Integer tier = tiers.remove(packed);
+		if (tier == null) {
+			fixtureHash ^= fixtureKey(packed, id, null);
+		} else {
+			fixtureHash ^= fixtureKey(packed, id, TIERS[tier.intValue() - 1]);
+		}
+	}
+
+	/**
+	 * Note the health tier of the unit on a tile, which may have changed since
+	 * it was put there.
+	 *
+	 * @param point the tile
+	 * @param id the ID of the unit, which must be there
+	 * @param tier its health tier now
+	 */
+	public void setTier(final IPoint point, final int id,
+			final HealthTier tier) {
+		final long packed = PackedPoint.pack(point);
+		final Integer old =
+				tiers.put(packed, Integer.valueOf(tier.ordinal() + 1));
+		if (old == null) {
+			fixtureHash ^= fixtureKey(packed, id, null);
+		} else {
+			fixtureHash ^= fixtureKey(packed, id, TIERS[old.intValue() - 1]);
+		}
+		fixtureHash ^= fixtureKey(packed, id, tier);
+	}
+
+	/**
+	 * Take on another hash's value, for a snapshot that is built from its map
+	 * at the same moment and will not change afterwards. (Rebuilding it from
+	 * the snapshot's fixtures would pick up health changes not yet noted.)
+	 *
+	 * @param other the hash of the map being copied
+	 */
+	public void copyValue(final ZobristHash other) {
+		terrainHash = other.terrainHash;
+		fixtureHash = other.fixtureHash;
+	}
+
+	/**
+	 * @param point a tile, as encoded by PackedPoint
+	 * @param type a tile type
+	 * @return the key for that tile having that terrain
+	 */
+	public static long terrainKey(final long point, final TileType type) {
+		return mix(point * 0x9E3779B97F4A7C15L + type.ordinal() + 1);
+	}
+
+	/**
+	 * @param point a tile, as encoded by PackedPoint
+	 * @param id the ID of a fixture
+	 * @param tier its health tier, if it is a unit
+	 * @return the key for that tile holding that fixture
+	 */
+	public static long fixtureKey(final long point, final int id,
+			@Nullable final HealthTier tier) {
+		final int tierCode;
+		if (tier == null) {
+			tierCode = 0;
+		} else {
+			tierCode = tier.ordinal() + 1;
+		}
+		return mix(mix(point ^ 0xD1B54A32D192ED03L)
+				+ (((long) id) << 8 | tierCode));
+	}
+
+	/**
+	 * A bijective mixing function (the finalizer of SplitMix64), so that
+	 * nearby inputs give unrelated keys.
+	 *
+	 * @param value a number
+	 * @return it, thoroughly scrambled
+	 */
+	private static long mix(final long value) {
+		long retval = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		retval = (retval ^ (retval >>> 27)) * 0x94D049BB133111EBL;
+		return retval ^ (retval >>> 31);
+	}
+}
@@ -1,10 +1,14 @@
 package protocol;
+
+import gamenet.ImmutableMessage;
+
 /**
  * A message to say "ACK".
  * @author kingjon
  *
  */
-public class AcknowledgedMessage extends RPCMessage {
+public class AcknowledgedMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * @param player the player being communicated with
 	 */
@@ -0,0 +1,72 @@
+package protocol;
+
+import model.IPoint;
+
+import gamenet.ImmutableMessage;
+
+/**
+ * A message ordering one unit to attack another.
+ * @author Jonathan Lovelace
+ *
+ */
+public class AttackMessage extends RPCMessage implements ImmutableMessage {
+	/**
+	 * Version UID for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The attacker's tile.
+	 */
+	private final IPoint source;
+	/**
+	 * The tile being attacked.
+	 */
+	private final IPoint target;
+	/**
+	 * The ID of the attacker.
+	 */
+	private final int fixID;
+	/**
+	 * Whether this is a ranged attack rather than melee.
+	 */
+	private final boolean ranged;
+	/**
+	 * @param player the player being communicated with
+	 * @param src the attacker's location
+	 * @param dst the location being attacked
+	 * @param id the attacker's ID
+	 * @param isRanged whether this is a ranged attack rather than melee
+	 */
+	public AttackMessage(final int player, final IPoint src,
+			final IPoint dst, final int id, final boolean isRanged) {
+		super(player);
+		source = src;
+		target = dst;
+		fixID = id;
+		ranged = isRanged;
+	}
+	/**
+	 * @return the attacker's location
+	 */
+	public IPoint getSource() {
+		return source;
+	}
+	/**
+	 * @return the location being attacked
+	 */
+	public IPoint getTarget() {
+		return target;
+	}
+	/**
+	 * @return the ID of the attacker
+	 */
+	public int getAttacker() {
+		return fixID;
+	}
+	/**
+	 * @return whether this is a ranged attack rather than melee
+	 */
+	public boolean isRanged() {
+		return ranged;
+	}
+}
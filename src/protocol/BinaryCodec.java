@@ -0,0 +1,756 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.CombatReport;
+import model.IPoint;
+import model.Point;
+import model.ProxyUnit;
+import model.TileType;
+import model.Unit.HealthTier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import gamenet.MessageCodec;
+
+import protocol.ClientFixtureMessage.FixtureType;
+
+/**
+ * A compact binary encoding of the game's messages, far smaller and cheaper
+ * to produce and parse than Java serialization, which sends each message's
+ * class description and field names and a header per object. Each message is
+ * a frame: its length as a varint, then a one-byte tag for its type, the
+ * player, and its fields in a fixed order. Numbers are varints (seven bits to
+ * a byte, low bits first, the high bit set on every byte but the last), with
+ * those that may be negative zigzag-encoded first, so that the small numbers
+ * that make up nearly all of the traffic take a byte or two; points are their
+ * row and column; enums are their ordinals; strings are their length plus one
+ * (zero for null) and their UTF-8 bytes. The messages in a
+ * MultiMessageMessage are encoded one after another inside its frame, without
+ * frames of their own; they may not include another MultiMessageMessage, so
+ * that a hostile frame can't make the decoder recurse without limit.
+ *
+ * Only the RPCMessage types below can be sent; anything else is an error.
+ * Changing the order of fields or enum constants, or the tags, breaks
+ * compatibility; add a new codec ID rather than do so.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BinaryCodec implements MessageCodec {
+	/**
+	 * The number identifying this codec in the handshake.
+	 */
+	public static final byte ID = 1;
+	/**
+	 * The largest frame we will accept, so a corrupt length can't make us
+	 * allocate without limit.
+	 */
+	private static final int MAX_FRAME = 1 << 24;
+	/**
+	 * The tag for an AcknowledgedMessage.
+	 */
+	private static final byte ACKNOWLEDGED = 0;
+	/**
+	 * The tag for an AttackMessage.
+	 */
+	private static final byte ATTACK = 1;
+	/**
+	 * The tag for a ClientFixtureMessage.
+	 */
+	private static final byte CLIENT_FIXTURE = 2;
+	/**
+	 * The tag for a CombatReportMessage.
+	 */
+	private static final byte COMBAT_REPORT = 3;
+	/**
+	 * The tag for a FixtureMoveMessage.
+	 */
+	private static final byte FIXTURE_MOVE = 4;
+	/**
+	 * The tag for a FixtureRemovalMessage.
+	 */
+	private static final byte FIXTURE_REMOVAL = 5;
+	/**
+	 * The tag for a FullMapRequestMessage.
+	 */
+	private static final byte FULL_MAP_REQUEST = 6;
+	/**
+	 * The tag for a MapHashMessage.
+	 */
+	private static final byte MAP_HASH = 7;
+	/**
+	 * The tag for a MultiMessageMessage.
+	 */
+	private static final byte MULTI = 8;
+	/**
+	 * The tag for an OpposingUnitMessage.
+	 */
+	private static final byte OPPOSING_UNIT = 9;
+	/**
+	 * The tag for an OwnUnitMessage.
+	 */
+	private static final byte OWN_UNIT = 10;
+	/**
+	 * The tag for a PlayerPresentMessage.
+	 */
+	private static final byte PLAYER_PRESENT = 11;
+	/**
+	 * The tag for a PlayerRequestMessage.
+	 */
+	private static final byte PLAYER_REQUEST = 12;
+	/**
+	 * The tag for a ProtocolErrorMessage.
+	 */
+	private static final byte PROTOCOL_ERROR = 13;
+	/**
+	 * The tag for a QuitMessage.
+	 */
+	private static final byte QUIT = 14;
+	/**
+	 * The tag for a TerrainChangeMessage.
+	 */
+	private static final byte TERRAIN_CHANGE = 15;
+	/**
+	 * The tag for a TurnEndMessage.
+	 */
+	private static final byte TURN_END = 16;
+	/**
+	 * The encoding of strings.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/**
+	 * The tile types, by ordinal.
+	 */
+	private static final TileType[] TILE_TYPES = TileType.values();
+	/**
+	 * The health tiers, by ordinal.
+	 */
+	private static final HealthTier[] TIERS = HealthTier.values();
+	/**
+	 * The fixture types, by ordinal.
+	 */
+	private static final FixtureType[] FIXTURE_TYPES = FixtureType.values();
+
+	/**
+	 * @return the number identifying this codec in the handshake
+	 */
+	@Override
+	public byte getID() {
+		return ID;
+	}
+
+	/**
+	 * @param out the stream to write to
+	 * @return a writer for the connection
+	 */
+	@Override
+	public Writer openWriter(final OutputStream out) {
+		return new FrameWriter(out);
+	}
+
+	/**
+	 * @param in the stream to read from
+	 * @return a reader for the connection
+	 */
+	@Override
+	public Reader openReader(final InputStream in) {
+		return new FrameReader(in);
+	}
+
+	/**
+	 * Encode a message, without a frame.
+	 *
+	 * @param message the message
+	 * @param out where to put it
+	 * @throws IOException if it is not a message we can encode
+	 */
+	private static void encode(final Object message, final Output out)
+			throws IOException {
+		if (!(message instanceof RPCMessage)) {
+			throw new IOException("Cannot encode " + message.getClass());
+		}
+		final int player = ((RPCMessage) message).getPlayer();
+		if (message instanceof TerrainChangeMessage) {
+			final TerrainChangeMessage msg = (TerrainChangeMessage) message;
+			out.header(TERRAIN_CHANGE, player);
+			out.writePoint(msg.getPoint());
+			out.writeVarint(msg.getType().ordinal());
+		} else if (message instanceof FixtureMoveMessage) {
+			final FixtureMoveMessage msg = (FixtureMoveMessage) message;
+			out.header(FIXTURE_MOVE, player);
+			out.writePoint(msg.getSource());
+			out.writePoint(msg.getDest());
+			out.writeVarint(msg.getMover());
+		} else if (message instanceof AttackMessage) {
+			final AttackMessage msg = (AttackMessage) message;
+			out.header(ATTACK, player);
+			out.writePoint(msg.getSource());
+			out.writePoint(msg.getTarget());
+			out.writeVarint(msg.getAttacker());
+			out.writeVarint(msg.isRanged() ? 1 : 0);
+		} else if (message instanceof FixtureRemovalMessage) {
+			final FixtureRemovalMessage msg = (FixtureRemovalMessage) message;
+			out.header(FIXTURE_REMOVAL, player);
+			out.writePoint(msg.getPoint());
+			// -1 means whatever is there.
+			out.writeSigned(msg.getID());
+		} else if (message instanceof CombatReportMessage) {
+			final CombatReport report =
+					((CombatReportMessage) message).getReport();
+			out.header(COMBAT_REPORT, player);
+			out.writeVarint(report.size());
+			for (int i = 0; i < report.size(); i++) {
+				out.writeVarint(report.getID(i));
+				out.writeSigned(report.getOwner(i));
+				out.writePoint(report.getPoint(i));
+				out.writeSigned(report.getHP(i));
+				out.writeVarint(report.getHealthTier(i).ordinal());
+			}
+		} else if (message instanceof OwnUnitMessage) {
+			final OwnUnitMessage msg = (OwnUnitMessage) message;
+			out.header(OWN_UNIT, player);
+			out.writePoint(msg.getPoint());
+			out.writeVarint(msg.getID());
+			out.writeSigned(msg.getOwner());
+			out.writeString(msg.getDescription());
+			out.writeVarint(msg.getCharacter());
+			out.writeString(msg.getImage());
+			out.writeVarint(msg.getMaxHP());
+			out.writeVarint(msg.getCurrHP());
+			out.writeVarint(msg.getMeleeDie());
+			out.writeVarint(msg.getMeleeDice());
+			out.writeVarint(msg.getRangedDie());
+			out.writeVarint(msg.getRangedDice());
+		} else if (message instanceof OpposingUnitMessage) {
+			final OpposingUnitMessage msg = (OpposingUnitMessage) message;
+			final ProxyUnit unit = msg.getUnit();
+			out.header(OPPOSING_UNIT, player);
+			out.writePoint(msg.getPoint());
+			out.writeVarint(unit.getID());
+			out.writeSigned(unit.getOwner());
+			out.writeString(unit.getDescription());
+			out.writeVarint(unit.getCharacter());
+			out.writeString(unit.getImage());
+			out.writeVarint(unit.getHealthTier().ordinal());
+			out.writeVarint(unit.getTotalAttackDice());
+			out.writeVarint(unit.getTotalRangedAttackDice());
+		} else if (message instanceof ClientFixtureMessage) {
+			final ClientFixtureMessage msg = (ClientFixtureMessage) message;
+			out.header(CLIENT_FIXTURE, player);
+			out.writeVarint(msg.getType().ordinal());
+			out.writePoint(msg.getPoint());
+		} else if (message instanceof MultiMessageMessage) {
+			final MultiMessageMessage multi = (MultiMessageMessage) message;
+			int count = 0;
+			for (final RPCMessage msg : multi) {
+				count++;
+			}
+			out.header(MULTI, player);
+			out.writeVarint(count);
+			for (final RPCMessage msg : multi) {
+				assert msg != null;
+				if (msg instanceof MultiMessageMessage) {
+					throw new IOException("Cannot encode nested batches");
+				}
+				encode(msg, out);
+			}
+		} else if (message instanceof TurnEndMessage) {
+			out.header(TURN_END, player);
+			out.writeSigned(((TurnEndMessage) message).getNext());
+		} else if (message instanceof MapHashMessage) {
+			out.header(MAP_HASH, player);
+			out.writeLong(((MapHashMessage) message).getHash());
+		} else if (message instanceof ProtocolErrorMessage) {
+			out.header(PROTOCOL_ERROR, player);
+			out.writeString(((ProtocolErrorMessage) message).getMessage());
+		} else if (message instanceof AcknowledgedMessage) {
+			out.header(ACKNOWLEDGED, player);
+		} else if (message instanceof FullMapRequestMessage) {
+			out.header(FULL_MAP_REQUEST, player);
+		} else if (message instanceof PlayerPresentMessage) {
+			out.header(PLAYER_PRESENT, player);
+		} else if (message instanceof PlayerRequestMessage) {
+			out.header(PLAYER_REQUEST, player);
+		} else if (message instanceof QuitMessage) {
+			out.header(QUIT, player);
+		} else {
+			throw new IOException("Cannot encode " + message.getClass());
+		}
+	}
+
+	/**
+	 * Decode a message, without a frame.
+	 *
+	 * @param in where to read it from
+	 * @param nested whether it is inside a MultiMessageMessage, and so may not
+	 *            be one itself
+	 * @return the message
+	 * @throws IOException if what is there is not a message we know
+	 */
+	private static RPCMessage decode(final Input in, final boolean nested)
+			throws IOException {
+		final int tag = in.readByte();
+		final int player = in.readSigned();
+		switch (tag) {
+		case TERRAIN_CHANGE:
+			return new TerrainChangeMessage(player, in.readPoint(),
+					in.readOrdinal(TILE_TYPES));
+		case FIXTURE_MOVE:
+			return new FixtureMoveMessage(player, in.readPoint(),
+					in.readPoint(), in.readVarint());
+		case ATTACK:
+			return new AttackMessage(player, in.readPoint(), in.readPoint(),
+					in.readVarint(), in.readVarint() != 0);
+		case FIXTURE_REMOVAL:
+			return new FixtureRemovalMessage(player, in.readPoint(),
+					in.readSigned());
+		case COMBAT_REPORT:
+			final int size = in.readLength();
+			final CombatReport report = new CombatReport(size);
+			for (int i = 0; i < size; i++) {
+				report.add(in.readVarint(), in.readSigned(), in.readPoint(),
+						in.readSigned(), in.readOrdinal(TIERS));
+			}
+			return new CombatReportMessage(player, report);
+		case OWN_UNIT:
+			final IPoint ownPoint = in.readPoint();
+			final int ownID = in.readVarint();
+			final int ownOwner = in.readSigned();
+			final String ownDesc = in.readString();
+			final char ownChar = (char) in.readVarint();
+			final String ownImage = in.readString();
+			return new OwnUnitMessage(player, ownPoint, ownID, ownOwner,
+					ownDesc, ownChar, ownImage, in.readVarint(), in.readVarint(),
+					in.readVarint(), in.readVarint(), in.readVarint(),
+					in.readVarint());
+		case OPPOSING_UNIT:
+			final IPoint point = in.readPoint();
+			final int id = in.readVarint();
+			final int owner = in.readSigned();
+			final String desc = in.readString();
+			final char character = (char) in.readVarint();
+			final String image = in.readString();
+			return new OpposingUnitMessage(player, point, new ProxyUnit(id,
+					desc, owner, character, image, in.readOrdinal(TIERS),
+					in.readVarint(), in.readVarint()));
+		case CLIENT_FIXTURE:
+			return new ClientFixtureMessage(player,
+					in.readOrdinal(FIXTURE_TYPES), in.readPoint());
+		case MULTI:
+			if (nested) {
+				throw new IOException("Nested batch");
+			}
+			final int count = in.readLength();
+			final List<RPCMessage> list = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				list.add(decode(in, true));
+			}
+			return new MultiMessageMessage(list);
+		case TURN_END:
+			return new TurnEndMessage(player, in.readSigned());
+		case MAP_HASH:
+			return new MapHashMessage(player, in.readLong());
+		case PROTOCOL_ERROR:
+			// The server passes on exceptions' messages, which may be null.
+			final String text = in.readNullableString();
+			if (text == null) {
+				return new ProtocolErrorMessage(player, "");
+			} else {
+				return new ProtocolErrorMessage(player, text);
+			}
+		case ACKNOWLEDGED:
+			return new AcknowledgedMessage(player);
+		case FULL_MAP_REQUEST:
+			return new FullMapRequestMessage(player);
+		case PLAYER_PRESENT:
+			return new PlayerPresentMessage(player);
+		case PLAYER_REQUEST:
+			return new PlayerRequestMessage(player);
+		case QUIT:
+			return new QuitMessage(player);
+		default:
+			throw new IOException("Unknown message tag " + tag);
+		}
+	}
+
+	/**
+	 * @return a String representation of the object
+	 */
+	@Override
+	public String toString() {
+		return "BinaryCodec";
+	}
+
+	/**
+	 * Writes framed messages to a stream.
+	 */
+	private static final class FrameWriter implements Writer {
+		/**
+		 * The stream.
+		 */
+		private final OutputStream stream;
+		/**
+		 * Where each message is encoded before it is framed, kept between
+		 * messages to save allocation.
+		 */
+		private final Output body = new Output();
+		/**
+		 * Where the length of each frame is encoded.
+		 */
+		private final Output prefix = new Output();
+
+		/**
+		 * @param out the stream to write to
+		 */
+		protected FrameWriter(final OutputStream out) {
+			stream = out;
+		}
+
+		/**
+		 * @param message the message to write
+		 * @throws IOException on I/O error, or if it is not a message we can
+		 *             encode
+		 */
+		@Override
+		public synchronized void write(final Object message)
+				throws IOException {
+			body.clear();
+			encode(message, body);
+			prefix.clear();
+			prefix.writeVarint(body.size);
+			stream.write(prefix.bytes, 0, prefix.size);
+			stream.write(body.bytes, 0, body.size);
+			stream.flush();
+		}
+
+		/**
+		 * @throws IOException on I/O error
+		 */
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads framed messages from a stream.
+	 */
+	private static final class FrameReader implements Reader {
+		/**
+		 * The stream.
+		 */
+		private final InputStream stream;
+		/**
+		 * Where each frame is read to, kept between messages to save
+		 * allocation.
+		 */
+		private final Input frame = new Input();
+
+		/**
+		 * @param in the stream to read from
+		 */
+		protected FrameReader(final InputStream in) {
+			stream = in;
+		}
+
+		/**
+		 * @return the next message, or null if the stream ended cleanly
+		 * @throws IOException on I/O error, or if what was read isn't a
+		 *             message we know
+		 */
+		@Override
+		@Nullable
+		public Object read() throws IOException {
+			int length = 0;
+			for (int shift = 0; ; shift += 7) {
+				final int next = stream.read();
+				if (next < 0 && shift == 0) {
+					return null;
+				} else if (next < 0) {
+					throw new EOFException("Connection closed mid-frame");
+				} else if (shift > 21) {
+					throw new IOException("Malformed frame length");
+				}
+				length |= (next & 0x7F) << shift;
+				if (next < 0x80) {
+					break;
+				}
+			}
+			if (length > MAX_FRAME) {
+				throw new IOException("Frame too long: " + length);
+			}
+			frame.fill(stream, length);
+			final RPCMessage retval = decode(frame, false);
+			if (frame.pos != frame.limit) {
+				throw new IOException("Unread bytes at end of frame");
+			}
+			return retval;
+		}
+
+		/**
+		 * @throws IOException on I/O error
+		 */
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
+
+	/**
+	 * A growable buffer to encode into.
+	 */
+	private static final class Output {
+		/**
+		 * The bytes encoded so far, and room for more.
+		 */
+		private byte[] bytes = new byte[256];
+		/**
+		 * How many bytes have been encoded.
+		 */
+		int size = 0;
+
+		/**
+		 * Forget what has been encoded.
+		 */
+		void clear() {
+			size = 0;
+		}
+
+		/**
+		 * @param value a byte to add
+		 */
+		private void writeByte(final int value) {
+			if (size == bytes.length) {
+				bytes = Arrays.copyOf(bytes, size * 2);
+			}
+			bytes[size] = (byte) value;
+			size++;
+		}
+
+		/**
+		 * @param tag the tag of a message
+		 * @param player its player
+		 */
+		void header(final byte tag, final int player) {
+			writeByte(tag);
+			writeSigned(player);
+		}
+
+		/**
+		 * @param value a number, taken as unsigned
+		 */
+		void writeVarint(final int value) {
+			int rest = value;
+			while ((rest & ~0x7F) != 0) {
+				writeByte(rest & 0x7F | 0x80);
+				rest >>>= 7;
+			}
+			writeByte(rest);
+		}
+
+		/**
+		 * @param value a number that may be negative
+		 */
+		void writeSigned(final int value) {
+			writeVarint(value << 1 ^ value >> 31);
+		}
+
+		/**
+		 * @param value a number, written whole, most significant byte first
+		 */
+		void writeLong(final long value) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				writeByte((int) (value >>> shift));
+			}
+		}
+
+		/**
+		 * @param point a point
+		 */
+		void writePoint(final IPoint point) {
+			writeSigned(point.getRow());
+			writeSigned(point.getColumn());
+		}
+
+		/**
+		 * @param string a string, or null
+		 */
+		void writeString(@Nullable final String string) {
+			if (string == null) {
+				writeVarint(0);
+			} else {
+				final byte[] encoded = string.getBytes(UTF_8);
+				writeVarint(encoded.length + 1);
+				for (final byte each : encoded) {
+					writeByte(each);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A buffer holding one frame, to decode from.
+	 */
+	private static final class Input {
+		/**
+		 * The frame, and perhaps unused room after it.
+		 */
+		private byte[] bytes = new byte[256];
+		/**
+		 * How far we have read.
+		 */
+		int pos = 0;
+		/**
+		 * The length of the frame.
+		 */
+		int limit = 0;
+
+		/**
+		 * Read a frame from a stream.
+		 *
+		 * @param stream the stream
+		 * @param length the length of the frame
+		 * @throws IOException on I/O error, or if the stream ends first
+		 */
+		void fill(final InputStream stream, final int length)
+				throws IOException {
+			if (length > bytes.length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			int read = 0;
+			while (read < length) {
+				final int count = stream.read(bytes, read, length - read);
+				if (count < 0) {
+					throw new EOFException("Connection closed mid-frame");
+				}
+				read += count;
+			}
+			pos = 0;
+			limit = length;
+		}
+
+		/**
+		 * @return the next byte, as an unsigned number
+		 * @throws IOException if the frame has ended
+		 */
+		int readByte() throws IOException {
+			if (pos >= limit) {
+				throw new EOFException("Message runs past end of frame");
+			}
+			final int retval = bytes[pos] & 0xFF;
+			pos++;
+			return retval;
+		}
+
+		/**
+		 * @return the next number
+		 * @throws IOException if the frame has ended or it is malformed
+		 */
+		int readVarint() throws IOException {
+			int retval = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				final int next = readByte();
+				retval |= (next & 0x7F) << shift;
+				if (next < 0x80) {
+					return retval;
+				}
+			}
+			throw new IOException("Malformed varint");
+		}
+
+		/**
+		 * @return the next number, which may be negative
+		 * @throws IOException if the frame has ended or it is malformed
+		 */
+		int readSigned() throws IOException {
+			final int raw = readVarint();
+			return raw >>> 1 ^ -(raw & 1);
+		}
+
+		/**
+		 * @return the next number, as a count of things that follow
+		 * @throws IOException if the frame has ended or it is malformed or too
+		 *             large to be a count of what is left
+		 */
+		int readLength() throws IOException {
+			final int retval = readVarint();
+			if (retval < 0 || retval > limit - pos) {
+				throw new IOException("Count larger than frame");
+			}
+			return retval;
+		}
+
+		/**
+		 * @return the next eight bytes, as a number
+		 * @throws IOException if the frame has ended
+		 */
+		long readLong() throws IOException {
+			long retval = 0;
+			for (int i = 0; i < 8; i++) {
+				retval = retval << 8 | readByte();
+			}
+			return retval;
+		}
+
+		/**
+		 * @return the next point
+		 * @throws IOException if the frame has ended or it is malformed
+		 */
+		IPoint readPoint() throws IOException {
+			return Point.of(readSigned(), readSigned());
+		}
+
+		/**
+		 * @param <T> the enum type
+		 * @param values its constants, by ordinal
+		 * @return the constant whose ordinal is next
+		 * @throws IOException if the frame has ended or the ordinal is out of
+		 *             range
+		 */
+		<T> T readOrdinal(final T[] values) throws IOException {
+			final int ordinal = readVarint();
+			if (ordinal < 0 || ordinal >= values.length) {
+				throw new IOException("Ordinal out of range: " + ordinal);
+			}
+			final T retval = values[ordinal];
+			assert retval != null;
+			return retval;
+		}
+
+		/**
+		 * @return the next string, or null if null was sent
+		 * @throws IOException if the frame has ended or it is malformed
+		 */
+		@Nullable
+		String readNullableString() throws IOException {
+			final int length = readVarint() - 1;
+			if (length < 0) {
+				return null;
+			} else if (length > limit - pos) {
+				throw new IOException("String runs past end of frame");
+			}
+			final String retval = new String(bytes, pos, length, UTF_8);
+			pos += length;
+			return retval;
+		}
+
+		/**
+		 * @return the next string, which must not be null
+		 * @throws IOException if the frame has ended or it is malformed or null
+		 */
+		String readString() throws IOException {
+			final String retval = readNullableString();
+			if (retval == null) {
+				throw new IOException("Missing string");
+			}
+			return retval;
+		}
+	}
+}
@@ -2,12 +2,15 @@ package protocol;
 
 import model.IPoint;
 
+import gamenet.ImmutableMessage;
+
 /**
  * A message asking the server to add a fixture.
  * @author Jonathan Lovelace
  *
  */
-public class ClientFixtureMessage extends RPCMessage {
+public class ClientFixtureMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * The kinds of fixtures we know how to add.
 	 */
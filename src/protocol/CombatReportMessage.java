@@ -0,0 +1,33 @@
+package protocol;
+
+import model.CombatReport;
+
+/**
+ * A message reporting the outcome of a turn's combat.
+ * @author Jonathan Lovelace
+ *
+ */
+public class CombatReportMessage extends RPCMessage {
+	/**
+	 * Version UID for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The report, with the HP of other players' units withheld.
+	 */
+	private final CombatReport report;
+	/**
+	 * @param player the player being communicated with
+	 * @param outcome the outcome of the combat, as that player may see it
+	 */
+	public CombatReportMessage(final int player, final CombatReport outcome) {
+		super(player);
+		report = outcome;
+	}
+	/**
+	 * @return the outcome of the combat
+	 */
+	public CombatReport getReport() {
+		return report;
+	}
+}
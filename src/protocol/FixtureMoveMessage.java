@@ -2,12 +2,14 @@ package protocol;
 
 import model.IPoint;
 
+import gamenet.ImmutableMessage;
+
 /**
  * A message indicating a fixture has moved.
  * @author Jonathan Lovelace
  *
  */
-public class FixtureMoveMessage extends RPCMessage {
+public class FixtureMoveMessage extends RPCMessage implements ImmutableMessage {
 	/**
 	 * The source tile.
 	 */
@@ -2,12 +2,15 @@ package protocol;
 
 import model.IPoint;
 
+import gamenet.ImmutableMessage;
+
 /**
  * A message indicating that a fixture needs to be removed.
  * @author Jonathan Lovelace
  *
  */
-public class FixtureRemovalMessage extends RPCMessage {
+public class FixtureRemovalMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * Where the fixture is located.
 	 */
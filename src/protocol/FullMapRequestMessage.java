@@ -1,10 +1,14 @@
 package protocol;
+
+import gamenet.ImmutableMessage;
+
 /**
  * A message to request the full map.
  * @author Jonathan Lovelace
  *
  */
-public class FullMapRequestMessage extends RPCMessage {
+public class FullMapRequestMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * @param playr the player requesting the map.
 	 */
@@ -0,0 +1,36 @@
+package protocol;
+
+import gamenet.ImmutableMessage;
+
+/**
+ * A message carrying the hash of a map's contents (see IMap.getHash()). A
+ * client that suspects its map has drifted from the server's sends its hash;
+ * the server answers with the whole map if its own hash differs, or with its
+ * hash if they match.
+ * @author Jonathan Lovelace
+ *
+ */
+public class MapHashMessage extends RPCMessage implements ImmutableMessage {
+	/**
+	 * Version UID for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The hash.
+	 */
+	private final long hash;
+	/**
+	 * @param player the player being communicated with
+	 * @param mapHash the hash of the sender's map
+	 */
+	public MapHashMessage(final int player, final long mapHash) {
+		super(player);
+		hash = mapHash;
+	}
+	/**
+	 * @return the hash of the sender's map
+	 */
+	public long getHash() {
+		return hash;
+	}
+}
@@ -4,12 +4,15 @@ import model.IPoint;
 import model.ProxyUnit;
 import model.Unit.HealthTier;
 
+import gamenet.ImmutableMessage;
+
 /**
  * A message to transmit an opponent's unit being added.
  * @author Jonathan Lovelace
  *
  */
-public class OpposingUnitMessage extends RPCMessage {
+public class OpposingUnitMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * Version UID for serialization.
 	 */
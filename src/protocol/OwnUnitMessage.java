@@ -2,13 +2,16 @@ package protocol;
 
 import model.IPoint;
 import model.SimpleUnit;
+import model.UnitStore;
+
+import gamenet.ImmutableMessage;
 
 /**
  * A message for transmitting a player's own unit.
  * @author kingjon
  *
  */
-public class OwnUnitMessage extends RPCMessage {
+public class OwnUnitMessage extends RPCMessage implements ImmutableMessage {
 	/**
 	 * Where the unit is.
 	 */
@@ -30,9 +33,13 @@ public class OwnUnitMessage extends RPCMessage {
 	 */
 	private final String unitImage;
 	/**
-	 * How many HP the unit has. (Both Max and Current.)
+	 * The most HP the unit can have.
 	 */
 	private final int unitHP;
+	/**
+	 * How many HP the unit has now.
+	 */
+	private final int unitCurrHP;
 	/**
 	 * The size of die used in melee combat.
 	 */
@@ -68,12 +75,48 @@ public class OwnUnitMessage extends RPCMessage {
 		unitChar = unit.getCharacter();
 		unitImage = unit.getImage();
 		unitHP = unit.getMaxHP();
+		unitCurrHP = unit.getCurrHP();
 		unitMDie = unit.getMeleeDie();
 		unitMDice = unit.getTotalAttackDice();
 		unitRDie = unit.getRangedDie();
 		unitRDice = unit.getTotalRangedAttackDice();
 		unitOwner = unit.getOwner();
 	}
+	/**
+	 * Constructor for a message decoded from its fields.
+	 * @param player the player being communicated with
+	 * @param loc where the unit is
+	 * @param idNum the ID # of the unit
+	 * @param owner who owns the unit
+	 * @param description a description of the unit
+	 * @param charRepr a character to represent the unit
+	 * @param img the name of an image to represent the unit
+	 * @param hitPoints the most HP the unit can have
+	 * @param currHP how many HP the unit has now
+	 * @param mDie the size of die used in melee combat
+	 * @param mDice the number of dice used in melee combat
+	 * @param rDie the size of die used in ranged combat
+	 * @param rDice the number of dice used in ranged combat
+	 */
+	public OwnUnitMessage(final int player, final IPoint loc, final int idNum,
+			final int owner, final String description, final char charRepr,
+			final String img, final int hitPoints, final int currHP,
+			final int mDie,
+			final int mDice, final int rDie, final int rDice) {
+		super(player);
+		point = loc;
+		unitID = idNum;
+		unitDesc = description;
+		unitChar = charRepr;
+		unitImage = img;
+		unitHP = hitPoints;
+		unitCurrHP = currHP;
+		unitMDie = mDie;
+		unitMDice = mDice;
+		unitRDie = rDie;
+		unitRDice = rDice;
+		unitOwner = owner;
+	}
 	/**
 	 * @return where the unit is
 	 */
@@ -81,10 +124,81 @@ public class OwnUnitMessage extends RPCMessage {
 		return point;
 	}
 	/**
+	 * @return the ID # of the unit
+	 */
+	public int getID() {
+		return unitID;
+	}
+	/**
+	 * @return who owns the unit
+	 */
+	public int getOwner() {
+		return unitOwner;
+	}
+	/**
+	 * @return a description of the unit
+	 */
+	public String getDescription() {
+		return unitDesc;
+	}
+	/**
+	 * @return a character to represent the unit
+	 */
+	public char getCharacter() {
+		return unitChar;
+	}
+	/**
+	 * @return the name of an image to represent the unit
+	 */
+	public String getImage() {
+		return unitImage;
+	}
+	/**
+	 * @return the most HP the unit can have
+	 */
+	public int getMaxHP() {
+		return unitHP;
+	}
+	/**
+	 * @return how many HP the unit has now
+	 */
+	public int getCurrHP() {
+		return unitCurrHP;
+	}
+	/**
+	 * @return the size of die used in melee combat
+	 */
+	public int getMeleeDie() {
+		return unitMDie;
+	}
+	/**
+	 * @return the number of dice used in melee combat
+	 */
+	public int getMeleeDice() {
+		return unitMDice;
+	}
+	/**
+	 * @return the size of die used in ranged combat
+	 */
+	public int getRangedDie() {
+		return unitRDie;
+	}
+	/**
+	 * @return the number of dice used in ranged combat
+	 */
+	public int getRangedDice() {
+		return unitRDice;
+	}
+	/**
+	 * @param store the store to create the unit in; the client should use one
+	 *            store for all its units, rather than a store per unit
 	 * @return the unit transmitted
 	 */
-	public SimpleUnit getUnit() {
-		return new SimpleUnit(unitID, unitOwner, unitDesc, unitChar, unitImage,
-				unitHP, unitMDie, unitMDice, unitRDie, unitRDice);
+	public SimpleUnit getUnit(final UnitStore store) {
+		final SimpleUnit retval = store.create(unitID, unitOwner, unitDesc,
+				unitChar, unitImage, unitHP, unitMDie, unitMDice, unitRDie,
+				unitRDice);
+		retval.setCurrHP(unitCurrHP);
+		return retval;
 	}
 }
@@ -1,10 +1,14 @@
 package protocol;
+
+import gamenet.ImmutableMessage;
+
 /**
  * A message indicating that the proposed player number is already in use.
  * @author Jonathan Lovelace
  *
  */
-public class PlayerPresentMessage extends RPCMessage {
+public class PlayerPresentMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * @param player the player number in question
 	 */
@@ -1,10 +1,14 @@
 package protocol;
+
+import gamenet.ImmutableMessage;
+
 /**
  * A message asking to reserve a player number.
  * @author Jonathan Lovelace
  *
  */
-public class PlayerRequestMessage extends RPCMessage {
+public class PlayerRequestMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * @param num the number being requested
 	 */
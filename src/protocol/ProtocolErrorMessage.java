@@ -1,5 +1,7 @@
 package protocol;
 
+import gamenet.ImmutableMessage;
+
 /**
  * A message indicating the client sent something in violation of our RPC
  * protocol.
@@ -7,7 +9,8 @@ package protocol;
  * @author Jonathan Lovelace
  *
  */
-public class ProtocolErrorMessage extends RPCMessage {
+public class ProtocolErrorMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * An explanation of the error.
 	 */
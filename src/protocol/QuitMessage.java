@@ -1,10 +1,13 @@
 package protocol;
+
+import gamenet.ImmutableMessage;
+
 /**
  * A message to say that we're closing the connection.
  * @author Jonathan Lovelace
  *
  */
-public class QuitMessage extends RPCMessage {
+public class QuitMessage extends RPCMessage implements ImmutableMessage {
 	/**
 	 * @param player the player being communicated with
 	 */
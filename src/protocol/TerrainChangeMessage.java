@@ -3,12 +3,15 @@ package protocol;
 import model.IPoint;
 import model.TileType;
 
+import gamenet.ImmutableMessage;
+
 /**
  * A message to change a tile's terrain.
  * @author Jonathan Lovelace
  *
  */
-public class TerrainChangeMessage extends RPCMessage {
+public class TerrainChangeMessage extends RPCMessage
+		implements ImmutableMessage {
 	/**
 	 * Where the terrain changed.
 	 */
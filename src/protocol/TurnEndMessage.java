@@ -1,10 +1,13 @@
 package protocol;
+
+import gamenet.ImmutableMessage;
+
 /**
  * A message indicating a turn has ended.
  * @author Jonathan Lovelace
  *
  */
-public class TurnEndMessage extends RPCMessage {
+public class TurnEndMessage extends RPCMessage implements ImmutableMessage {
 	/**
 	 * In server-to-client: Whose turn it is next.
 	 * In client-to-server: whose turn is ending.
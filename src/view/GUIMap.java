@@ -8,10 +8,12 @@ import java.util.Map;
 import javax.swing.JPanel;
 import javax.swing.event.MouseInputListener;
 
+import model.CombatReport;
 import model.IPoint;
 import model.ITileFixture;
 import model.Point;
 import model.TileType;
+import model.Unit.HealthTier;
 
 import common.MapUpdateListener;
 /**
@@ -89,4 +91,21 @@ public class GUIMap extends JPanel implements MapUpdateListener {
 	public void endTurn(final int playr) {
 		// Ignored.
 	}
+	/**
+	 * Clear the tiles of units killed, and redraw those of units wounded.
+	 * @param report the outcome of the turn's combat
+	 */
+	@Override
+	public void combatResolved(final CombatReport report) {
+		for (int i = 0; i < report.size(); i++) {
+			final GUITile tile = tiles.get(report.getPoint(i));
+			if (tile == null) {
+				continue;
+			} else if (report.getHealthTier(i) == HealthTier.Dead) {
+				tile.removeFixture();
+			} else {
+				tile.repaint();
+			}
+		}
+	}
 }
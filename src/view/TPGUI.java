@@ -15,15 +15,21 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.event.MouseInputListener;
 
+import model.CombatReport;
 import model.IPoint;
 import model.ITileFixture;
+import model.SimpleUnit;
 import model.TileType;
+import model.Unit;
 
 import org.eclipse.jdt.annotation.Nullable;
 
 import common.MapUpdateListener;
 
+import controller.DamageTables;
+import controller.DamageTables.Distribution;
 import controller.ITPClient;
+import controller.SimState;
 
 public class TPGUI extends JFrame implements TPUI, MapUpdateListener,
 		MouseInputListener, ActionListener {
@@ -104,6 +110,11 @@ public class TPGUI extends JFrame implements TPUI, MapUpdateListener,
 		// handled in GUIMap
 	}
 
+	@Override
+	public void combatResolved(final CombatReport report) {
+		// handled in GUIMap
+	}
+
 	@Override
 	public void endTurn(final int playr) {
 		if (player == playr) {
@@ -157,8 +168,11 @@ public class TPGUI extends JFrame implements TPUI, MapUpdateListener,
 					ITileFixture actor = localSelection.getFixture();
 					switch (currentAction) {
 					case Attack:
-						JOptionPane.showMessageDialog(this,
-								"Not yet implemented");
+						if (actor != null && localSelection != source
+								&& actor.getOwner() == player) {
+							client.attack(localSelection.getPoint(),
+									source.getPoint(), actor.getID(), false);
+						}
 						break;
 					case Move:
 						if (actor != null && localSelection != source
@@ -171,8 +185,11 @@ public class TPGUI extends JFrame implements TPUI, MapUpdateListener,
 						// Can't get here except by race condition
 						break;
 					case RangedAttack:
-						JOptionPane.showMessageDialog(this,
-								"Not yet implemented");
+						if (actor != null && localSelection != source
+								&& actor.getOwner() == player) {
+							client.attack(localSelection.getPoint(),
+									source.getPoint(), actor.getID(), true);
+						}
 						break;
 					default:
 						// Can't get here.
@@ -239,11 +256,63 @@ public class TPGUI extends JFrame implements TPUI, MapUpdateListener,
 					builder.append(fix.getOwner());
 					builder.append(')');
 				}
+				if (localSelection != null) {
+					appendOdds(builder, localSelection.getFixture(), fix);
+				}
 			}
 			selectLabel.setText(builder.toString());
 		}
 	}
 
+	/**
+	 * Describe the odds of one unit attacking another, if that is possible.
+	 * @param builder where to describe them
+	 * @param actor the attacker
+	 * @param target the unit attacked
+	 */
+	private void appendOdds(final StringBuilder builder,
+			@Nullable final ITileFixture actor, final ITileFixture target) {
+		if (!(actor instanceof SimpleUnit) || !(target instanceof Unit)
+				|| actor.getOwner() != player || target.getOwner() == player) {
+			return;
+		}
+		final SimpleUnit attacker = (SimpleUnit) actor;
+		if (attacker.getTotalAttackDice() > 0) {
+			appendOdds(builder, "melee",
+					DamageTables.TABLES.getMelee(attacker), target);
+		}
+		if (attacker.getTotalRangedAttackDice() > 0) {
+			appendOdds(builder, "ranged",
+					DamageTables.TABLES.getRanged(attacker), target);
+		}
+	}
+
+	/**
+	 * Describe the odds of one attack.
+	 * @param builder where to describe them
+	 * @param kind what kind of attack it is
+	 * @param damage the distribution of its damage
+	 * @param target the unit attacked
+	 */
+	private static void appendOdds(final StringBuilder builder,
+			final String kind, final Distribution damage,
+			final ITileFixture target) {
+		builder.append("; ");
+		builder.append(kind);
+		builder.append(String.format(" %.1f dmg (%d-%d)", damage.getExpected(),
+				damage.getMinimum(), damage.getMaximum()));
+		if (target instanceof SimpleUnit) {
+			builder.append(String.format(", %.0f%% to kill", damage
+					.getAtLeast(((SimpleUnit) target).getCurrHP()) * 100.0));
+		} else if (target instanceof Unit) {
+			// Another player's unit shows only its health tier, so the odds
+			// are estimated from the HP the AI assumes for that tier.
+			builder.append(String.format(", ~%.0f%% to kill", damage
+					.getAtLeast(SimState.estimateHP(((Unit) target)
+							.getHealthTier())) * 100.0));
+		}
+	}
+
 	@Override
 	public void mousePressed(@Nullable final MouseEvent e) {
 		// Ignored
@@ -282,7 +351,17 @@ public class TPGUI extends JFrame implements TPUI, MapUpdateListener,
 
 	@Override
 	public void actionPerformed(@Nullable final ActionEvent e) {
-		JOptionPane.showMessageDialog(this,
-				"Not yet implemented");
+		if (e == null) {
+			return;
+		} else if (e.getSource() == moveButton) {
+			currentAction = PlayerAction.Move;
+		} else if (e.getSource() == attackButton) {
+			currentAction = PlayerAction.Attack;
+		} else if (e.getSource() == rangedButton) {
+			currentAction = PlayerAction.RangedAttack;
+		} else {
+			JOptionPane.showMessageDialog(this,
+					"Not yet implemented");
+		}
 	}
 }
@@ -0,0 +1,153 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests of IDFactory and its reserved Blocks: that IDs registered, handed
+ * out, reserved, and released are tracked across the words and segments of
+ * its bitmap, and that no ID is ever handed out twice.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class IDFactoryTest {
+	/**
+	 * The number of IDs in a segment of the factory's bitmap.
+	 */
+	private static final int SEGMENT = 1 << 16;
+
+	/**
+	 * A block whose range starts and ends partway through a word and crosses
+	 * into a new segment hands out every ID in the range except those
+	 * registered before, and then falls back on the factory.
+	 *
+	 * @throws IDFactory.DuplicateIDException never
+	 */
+	@Test
+	public void testReserveAcrossBoundaries()
+			throws IDFactory.DuplicateIDException {
+		final IDFactory factory = new IDFactory();
+		// Leave the counter six short of the end of the first segment, which
+		// is partway through its last word.
+		final IDFactory.Block first = factory.reserve(SEGMENT - 6);
+		final int start = SEGMENT - 6;
+		final int count = 200;
+		// The last ID of the first segment, the first ID of each of the first
+		// two words of the second, and the last ID of the range.
+		final Set<Integer> registered = new HashSet<>(Arrays.asList(
+				Integer.valueOf(SEGMENT - 1), Integer.valueOf(SEGMENT),
+				Integer.valueOf(SEGMENT + 64),
+				Integer.valueOf(start + count - 1)));
+		for (final Integer idNum : registered) {
+			factory.register(idNum.intValue());
+		}
+		final IDFactory.Block block = factory.reserve(count);
+		for (int idNum = start; idNum < start + count; idNum++) {
+			assertTrue("reserved ID marked used", factory.used(idNum));
+		}
+		for (int idNum = start; idNum < start + count; idNum++) {
+			if (!registered.contains(Integer.valueOf(idNum))) {
+				assertEquals("block hands out untaken IDs in order", idNum,
+						block.createID());
+			}
+		}
+		assertEquals("used-up block falls back on the factory", start + count,
+				block.createID());
+		assertFalse("ID after that still free",
+				factory.used(start + count + 1));
+		try {
+			factory.register(start + 1);
+			fail("registering a reserved ID should fail");
+		} catch (final IDFactory.DuplicateIDException except) {
+			// Expected
+		}
+		assertEquals("first block unaffected", 0, first.createID());
+	}
+
+	/**
+	 * Closing a block gives back the IDs it never handed out and those
+	 * released to it, but not those it handed out or that were registered
+	 * before it was reserved.
+	 *
+	 * @throws IDFactory.DuplicateIDException never
+	 */
+	@Test
+	public void testBlockClose() throws IDFactory.DuplicateIDException {
+		final IDFactory factory = new IDFactory();
+		factory.register(5);
+		final IDFactory.Block block = factory.reserve(10);
+		assertEquals("first ID", 0, block.createID());
+		assertEquals("second ID", 1, block.createID());
+		assertEquals("third ID", 2, block.createID());
+		block.release(1);
+		assertEquals("released ID handed out again first", 1,
+				block.createID());
+		block.release(1);
+		block.close();
+		assertTrue("handed-out ID still used", factory.used(0));
+		assertTrue("handed-out ID still used", factory.used(2));
+		assertTrue("registered ID still used", factory.used(5));
+		final Set<Integer> expected = new HashSet<>(Arrays.asList(
+				Integer.valueOf(1), Integer.valueOf(3), Integer.valueOf(4),
+				Integer.valueOf(6), Integer.valueOf(7), Integer.valueOf(8),
+				Integer.valueOf(9)));
+		for (final Integer idNum : expected) {
+			assertFalse("returned ID free", factory.used(idNum.intValue()));
+		}
+		final Set<Integer> recycled = new HashSet<>();
+		for (int i = 0; i < expected.size(); i++) {
+			recycled.add(Integer.valueOf(factory.createID()));
+		}
+		assertEquals("factory hands out exactly the returned IDs", expected,
+				recycled);
+		assertEquals("then new ones", 10, factory.createID());
+	}
+
+	/**
+	 * Released IDs are handed out again before new ones, unless they were
+	 * registered again meanwhile; releasing an ID not in use does nothing.
+	 *
+	 * @throws IDFactory.DuplicateIDException never
+	 */
+	@Test
+	public void testReleaseAndRegister() throws IDFactory.DuplicateIDException {
+		final IDFactory factory = new IDFactory();
+		assertEquals("first ID", 0, factory.createID());
+		assertEquals("second ID", 1, factory.createID());
+		assertEquals("third ID", 2, factory.createID());
+		factory.release(1);
+		assertFalse("released ID free", factory.used(1));
+		assertEquals("released ID recycled", 1, factory.createID());
+		factory.release(2);
+		factory.release(0);
+		assertEquals("freed ID can be registered", 0, factory.register(0));
+		assertEquals("registered ID skipped when recycling", 2,
+				factory.createID());
+		assertEquals("then new ones", 3, factory.createID());
+		factory.release(50);
+		assertEquals("releasing an unused ID does nothing", 4,
+				factory.createID());
+		try {
+			factory.register(2);
+			fail("registering a recycled ID should fail");
+		} catch (final IDFactory.DuplicateIDException except) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Reserving no IDs is refused.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyReserve() {
+		new IDFactory().reserve(0);
+	}
+}
@@ -0,0 +1,404 @@
+package protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import model.CombatReport;
+import model.Point;
+import model.ProxyUnit;
+import model.SimpleUnit;
+import model.TileType;
+import model.Unit.HealthTier;
+
+import org.junit.Test;
+
+import gamenet.MessageCodec;
+
+import protocol.ClientFixtureMessage.FixtureType;
+
+/**
+ * Tests that every kind of message survives a trip through BinaryCodec, and
+ * that it refuses what it should.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BinaryCodecTest {
+	/**
+	 * Encode a message and decode it again.
+	 *
+	 * @param message the message
+	 * @return what was decoded, which must be the only message on the stream
+	 *         and of the same class
+	 * @throws IOException on encoding or decoding error
+	 */
+	private static RPCMessage roundTrip(final RPCMessage message)
+			throws IOException {
+		final MessageCodec codec = new BinaryCodec();
+		final MessageCodec.Reader reader =
+				codec.openReader(new ByteArrayInputStream(encode(message)));
+		final Object retval = reader.read();
+		assertNotNull("decoded a message", retval);
+		assertEquals("same class", message.getClass(), retval.getClass());
+		assertNull("nothing after it", reader.read());
+		final RPCMessage decoded = (RPCMessage) retval;
+		assertEquals("same player", message.getPlayer(), decoded.getPlayer());
+		return decoded;
+	}
+
+	/**
+	 * @param message a message
+	 * @return its encoding, frame and all
+	 * @throws IOException on encoding error
+	 */
+	private static byte[] encode(final RPCMessage message) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new BinaryCodec().openWriter(bytes).write(message);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param bytes some bytes
+	 * @return the first message decoded from them
+	 * @throws IOException on decoding error
+	 */
+	private static Object decode(final byte[] bytes) throws IOException {
+		return new BinaryCodec().openReader(new ByteArrayInputStream(bytes))
+				.read();
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testAcknowledged() throws IOException {
+		roundTrip(new AcknowledgedMessage(3));
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testAttack() throws IOException {
+		final AttackMessage decoded = (AttackMessage) roundTrip(
+				new AttackMessage(2, Point.of(3, 4), Point.of(300, 4000), 77,
+						true));
+		assertEquals("source", Point.of(3, 4), decoded.getSource());
+		assertEquals("target", Point.of(300, 4000), decoded.getTarget());
+		assertEquals("attacker", 77, decoded.getAttacker());
+		assertTrue("ranged", decoded.isRanged());
+		assertFalse("melee", ((AttackMessage) roundTrip(new AttackMessage(2,
+				Point.of(0, 0), Point.of(0, 1), 5, false))).isRanged());
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testClientFixture() throws IOException {
+		for (final FixtureType type : FixtureType.values()) {
+			final ClientFixtureMessage decoded =
+					(ClientFixtureMessage) roundTrip(new ClientFixtureMessage(
+							1, type, Point.of(5, 6)));
+			assertEquals("type", type, decoded.getType());
+			assertEquals("point", Point.of(5, 6), decoded.getPoint());
+		}
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testCombatReport() throws IOException {
+		final CombatReport report = new CombatReport(3);
+		report.add(5, 1, Point.of(1, 2), 13, HealthTier.Bloodied);
+		report.add(6, 0, Point.of(9, 9), -1, HealthTier.Hale);
+		report.add(700, 2, Point.of(0, 70), 0, HealthTier.Dead);
+		final CombatReport decoded = ((CombatReportMessage) roundTrip(
+				new CombatReportMessage(1, report))).getReport();
+		assertEquals("size", report.size(), decoded.size());
+		for (int i = 0; i < report.size(); i++) {
+			assertEquals("ID", report.getID(i), decoded.getID(i));
+			assertEquals("owner", report.getOwner(i), decoded.getOwner(i));
+			assertEquals("point", report.getPoint(i), decoded.getPoint(i));
+			assertEquals("HP", report.getHP(i), decoded.getHP(i));
+			assertEquals("tier", report.getHealthTier(i),
+					decoded.getHealthTier(i));
+		}
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testFixtureMove() throws IOException {
+		final FixtureMoveMessage decoded = (FixtureMoveMessage) roundTrip(
+				new FixtureMoveMessage(1, Point.of(1, 1), Point.of(1, 2), 9));
+		assertEquals("source", Point.of(1, 1), decoded.getSource());
+		assertEquals("dest", Point.of(1, 2), decoded.getDest());
+		assertEquals("mover", 9, decoded.getMover());
+	}
+
+	/**
+	 * A removal with ID -1 (whatever is there), which the server sends for
+	 * every empty tile in a full map, must survive and take no more room than
+	 * any other small ID.
+	 *
+	 * @throws IOException never
+	 */
+	@Test
+	public void testFixtureRemoval() throws IOException {
+		for (final int id : new int[] { 9, 0, -1, Integer.MAX_VALUE }) {
+			final FixtureRemovalMessage decoded =
+					(FixtureRemovalMessage) roundTrip(new FixtureRemovalMessage(
+							1, Point.of(4, 5), id));
+			assertEquals("point", Point.of(4, 5), decoded.getPoint());
+			assertEquals("ID", id, decoded.getID());
+		}
+		assertEquals("-1 is as small as 0",
+				encode(new FixtureRemovalMessage(1, Point.of(4, 5), 0)).length,
+				encode(new FixtureRemovalMessage(1, Point.of(4, 5), -1)).length);
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testFullMapRequest() throws IOException {
+		roundTrip(new FullMapRequestMessage(4));
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testMapHash() throws IOException {
+		for (final long hash : new long[] { 0L, 0xDEADBEEFCAFEBABEL,
+				Long.MIN_VALUE, -1L }) {
+			assertEquals("hash", hash,
+					((MapHashMessage) roundTrip(new MapHashMessage(1, hash)))
+							.getHash());
+		}
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testMulti() throws IOException {
+		final List<RPCMessage> inner = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			inner.add(new TerrainChangeMessage(0, Point.of(i / 10, i % 10),
+					TileType.values()[i % TileType.values().length]));
+		}
+		inner.add(new FixtureRemovalMessage(0, Point.of(3, 3), -1));
+		final Iterator<RPCMessage> decoded =
+				((MultiMessageMessage) roundTrip(new MultiMessageMessage(inner)))
+						.iterator();
+		for (int i = 0; i < 100; i++) {
+			final TerrainChangeMessage msg =
+					(TerrainChangeMessage) decoded.next();
+			assertEquals("point", Point.of(i / 10, i % 10), msg.getPoint());
+			assertEquals("type", TileType.values()[i % TileType.values().length],
+					msg.getType());
+		}
+		assertEquals("removal", -1,
+				((FixtureRemovalMessage) decoded.next()).getID());
+		assertFalse("no more", decoded.hasNext());
+		assertFalse("empty batch",
+				((MultiMessageMessage) roundTrip(new MultiMessageMessage(
+						new ArrayList<RPCMessage>()))).iterator().hasNext());
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testOpposingUnit() throws IOException {
+		final OpposingUnitMessage decoded = (OpposingUnitMessage) roundTrip(
+				new OpposingUnitMessage(0, Point.of(2, 3), new ProxyUnit(11,
+						"Archer é", 1, 'A', "archer.png",
+						HealthTier.Wounded, 2, 3)));
+		assertEquals("point", Point.of(2, 3), decoded.getPoint());
+		final ProxyUnit unit = decoded.getUnit();
+		assertEquals("ID", 11, unit.getID());
+		assertEquals("description", "Archer é", unit.getDescription());
+		assertEquals("owner", 1, unit.getOwner());
+		assertEquals("character", 'A', unit.getCharacter());
+		assertEquals("image", "archer.png", unit.getImage());
+		assertEquals("tier", HealthTier.Wounded, unit.getHealthTier());
+		assertEquals("melee dice", 2, unit.getTotalAttackDice());
+		assertEquals("ranged dice", 3, unit.getTotalRangedAttackDice());
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testOwnUnit() throws IOException {
+		final SimpleUnit unit =
+				new SimpleUnit(12, 0, "Swordsman", 'S', "sword.png", 20, 6, 2,
+						4, 1);
+		unit.setCurrHP(7);
+		final OwnUnitMessage decoded = (OwnUnitMessage) roundTrip(
+				new OwnUnitMessage(0, Point.of(2, 4), unit));
+		assertEquals("point", Point.of(2, 4), decoded.getPoint());
+		assertEquals("ID", 12, decoded.getID());
+		assertEquals("owner", 0, decoded.getOwner());
+		assertEquals("description", "Swordsman", decoded.getDescription());
+		assertEquals("character", 'S', decoded.getCharacter());
+		assertEquals("image", "sword.png", decoded.getImage());
+		assertEquals("max HP", 20, decoded.getMaxHP());
+		assertEquals("current HP", 7, decoded.getCurrHP());
+		assertEquals("melee die", 6, decoded.getMeleeDie());
+		assertEquals("melee dice", 2, decoded.getMeleeDice());
+		assertEquals("ranged die", 4, decoded.getRangedDie());
+		assertEquals("ranged dice", 1, decoded.getRangedDice());
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testPlayerPresent() throws IOException {
+		roundTrip(new PlayerPresentMessage(2));
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testPlayerRequest() throws IOException {
+		roundTrip(new PlayerRequestMessage(-1));
+		roundTrip(new PlayerRequestMessage(Integer.MIN_VALUE));
+	}
+
+	/**
+	 * The server passes on exceptions' messages, which may be null; those
+	 * arrive as empty.
+	 *
+	 * @throws IOException never
+	 */
+	@Test
+	public void testProtocolError() throws IOException {
+		assertEquals("text", "bad é",
+				((ProtocolErrorMessage) roundTrip(new ProtocolErrorMessage(1,
+						"bad é"))).getMessage());
+		assertEquals("null text", "",
+				((ProtocolErrorMessage) roundTrip(new ProtocolErrorMessage(1,
+						new RuntimeException().getMessage()))).getMessage());
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testQuit() throws IOException {
+		roundTrip(new QuitMessage(1));
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testTerrainChange() throws IOException {
+		for (final TileType type : TileType.values()) {
+			final TerrainChangeMessage decoded =
+					(TerrainChangeMessage) roundTrip(new TerrainChangeMessage(
+							1, Point.of(7, 8), type));
+			assertEquals("point", Point.of(7, 8), decoded.getPoint());
+			assertEquals("type", type, decoded.getType());
+		}
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void testTurnEnd() throws IOException {
+		assertEquals("next", 2,
+				((TurnEndMessage) roundTrip(new TurnEndMessage(1, 2)))
+						.getNext());
+	}
+
+	/**
+	 * Several messages on one stream come back in order, and then the end of
+	 * the stream.
+	 *
+	 * @throws IOException never
+	 */
+	@Test
+	public void testStream() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final MessageCodec.Writer writer = new BinaryCodec().openWriter(bytes);
+		writer.write(new AcknowledgedMessage(1));
+		writer.write(new MapHashMessage(2, 5L));
+		writer.write(new QuitMessage(3));
+		final MessageCodec.Reader reader = new BinaryCodec().openReader(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals("first", 1, ((RPCMessage) reader.read()).getPlayer());
+		assertEquals("second", 2, ((RPCMessage) reader.read()).getPlayer());
+		assertEquals("third", 3, ((RPCMessage) reader.read()).getPlayer());
+		assertNull("end", reader.read());
+	}
+
+	/**
+	 * A batch inside a batch can't be sent.
+	 *
+	 * @throws IOException always
+	 */
+	@Test(expected = IOException.class)
+	public void testEncodeNestedMulti() throws IOException {
+		encode(new MultiMessageMessage(Arrays.<RPCMessage> asList(
+				new MultiMessageMessage(new ArrayList<RPCMessage>()))));
+	}
+
+	/**
+	 * A frame holding a batch inside a batch is refused, rather than decoded
+	 * recursively: the frame's length, then the outer batch's tag, player,
+	 * and count, then the inner batch's.
+	 *
+	 * @throws IOException always
+	 */
+	@Test(expected = IOException.class)
+	public void testDecodeNestedMulti() throws IOException {
+		decode(new byte[] { 6, 8, 0, 1, 8, 0, 0 });
+	}
+
+	/**
+	 * @throws IOException always
+	 */
+	@Test(expected = IOException.class)
+	public void testUnknownTag() throws IOException {
+		decode(new byte[] { 2, 99, 0 });
+	}
+
+	/**
+	 * @throws IOException always
+	 */
+	@Test(expected = EOFException.class)
+	public void testTruncated() throws IOException {
+		final byte[] whole = encode(new MapHashMessage(1, -1L));
+		decode(Arrays.copyOf(whole, whole.length - 1));
+	}
+
+	/**
+	 * @throws IOException always
+	 */
+	@Test(expected = IOException.class)
+	public void testNotAMessage() throws IOException {
+		new BinaryCodec().openWriter(new ByteArrayOutputStream()).write(
+				"not a message");
+	}
+}